@@ -0,0 +1,146 @@
+package com.zabora.subscription.cliente;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Verificador local de tokens de derecho emitidos por el servicio de suscripciones.
+ *
+ * Está pensado para los servicios que consumen la suscripción (por ejemplo Recipe Service):
+ * en lugar de llamar a GET /api/suscripciones/verificar/{usuarioId} en cada petición,
+ * validan la firma del token con la clave pública y leen el plan, el estado y los límites
+ * directamente de los claims.
+ *
+ * Solo depende de jjwt (y de la JDK), por eso se publica aparte en el jar con
+ * clasificador "verificador". Es seguro usar una misma instancia desde varios hilos.
+ */
+public class VerificadorTokenDerechos {
+
+    // Emisor esperado de los tokens de derecho
+    public static final String EMISOR = "zabora-subscription";
+
+    // Audiencia esperada de los tokens de derecho
+    public static final String AUDIENCIA = "zabora-derechos";
+
+    private final JwtParser parser;
+
+    /**
+     * @param clavePublica Clave pública EC (P-256) del servicio de suscripciones
+     */
+    public VerificadorTokenDerechos(PublicKey clavePublica) {
+        this.parser = Jwts.parser()
+                .verifyWith(clavePublica)
+                .requireIssuer(EMISOR)
+                .requireAudience(AUDIENCIA)
+                .clockSkewSeconds(5)
+                .build();
+    }
+
+    /**
+     * Crea el verificador a partir de la clave pública en Base64 (formato X.509),
+     * tal como la publica GET /api/suscripciones/verificar/clave-publica.
+     */
+    public static VerificadorTokenDerechos desdeBase64(String clavePublicaBase64) {
+        try {
+            byte[] bytes = Base64.getDecoder().decode(clavePublicaBase64);
+            PublicKey clave = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(bytes));
+            return new VerificadorTokenDerechos(clave);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Clave pública de derechos inválida", e);
+        }
+    }
+
+    /**
+     * Valida la firma, el emisor, la audiencia y la vigencia del token.
+     *
+     * @param token Token de derecho (sin el prefijo "Bearer ")
+     * @return Derecho contenido en el token
+     * @throws io.jsonwebtoken.JwtException si el token no es válido o ya expiró
+     */
+    public DerechoVerificado verificar(String token) {
+        Claims claims = parser.parseSignedClaims(token).getPayload();
+        return new DerechoVerificado(claims);
+    }
+
+    /**
+     * Derecho de un usuario tal como viene firmado en el token.
+     */
+    public static final class DerechoVerificado {
+
+        private final String usuarioId;
+        private final String plan;
+        private final String estado;
+        private final boolean premium;
+        private final Instant fechaExpiracion;
+        private final Instant tokenExpiraEn;
+        private final Map<String, Object> limites;
+
+        @SuppressWarnings("unchecked")
+        private DerechoVerificado(Claims claims) {
+            this.usuarioId = claims.getSubject();
+            this.plan = claims.get("plan", String.class);
+            this.estado = claims.get("estado", String.class);
+            this.premium = Boolean.TRUE.equals(claims.get("valida", Boolean.class));
+            Number fexp = claims.get("fexp", Number.class);
+            this.fechaExpiracion = fexp != null ? Instant.ofEpochSecond(fexp.longValue()) : null;
+            Date exp = claims.getExpiration();
+            this.tokenExpiraEn = exp != null ? exp.toInstant() : null;
+            Map<String, Object> mapa = claims.get("limites", Map.class);
+            this.limites = mapa != null
+                    ? Collections.unmodifiableMap(new LinkedHashMap<>(mapa))
+                    : Collections.emptyMap();
+        }
+
+        public String getUsuarioId() {
+            return usuarioId;
+        }
+
+        public String getPlan() {
+            return plan;
+        }
+
+        public String getEstado() {
+            return estado;
+        }
+
+        /**
+         * Indica si el usuario tiene premium activo en este momento.
+         * Además de lo que dice el token, revisa que el periodo de la suscripción no haya terminado.
+         */
+        public boolean esPremiumVigente() {
+            return premium && (fechaExpiracion == null || fechaExpiracion.isAfter(Instant.now()));
+        }
+
+        public Instant getFechaExpiracion() {
+            return fechaExpiracion;
+        }
+
+        public Instant getTokenExpiraEn() {
+            return tokenExpiraEn;
+        }
+
+        /**
+         * Límite del plan por nombre (por ejemplo "recetas_favoritas").
+         * Un valor null significa ilimitado.
+         */
+        public Integer getLimite(String nombre) {
+            Object valor = limites.get(nombre);
+            return valor instanceof Number ? ((Number) valor).intValue() : null;
+        }
+
+        public Map<String, Object> getLimites() {
+            return limites;
+        }
+    }
+}
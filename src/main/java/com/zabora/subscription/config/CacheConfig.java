@@ -0,0 +1,80 @@
+package com.zabora.subscription.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.zabora.subscription.modelo.dto.RespuestaVerificacionDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Configuración de caches en memoria.
+ *
+ * El proveedor es Caffeine (spring.cache.type). La cache de verificación se arma aquí
+ * con su tamaño máximo y TTL (app.cache.verificacion.*) y con estadísticas activadas,
+ * así Spring Boot Actuator publica aciertos, fallos, expulsiones y tiempos de carga
+ * en /actuator/metrics/cache.*.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    // Cache de respuestas de verificación de suscripción, indexada por usuarioId
+    public static final String CACHE_VERIFICACION = "verificacion";
+
+    /**
+     * La cache de verificación no usa un TTL fijo: una respuesta con fecha de expiración
+     * (suscripción ACTIVA) vence en min(TTL, finPeriodoActual - ahora). Así una respuesta
+     * valida=true nunca se sirve desde la cache después de que termina el periodo,
+     * aunque ExpiracionSuscripcionesServicio todavía no haya pasado la suscripción a EXPIRADA.
+     */
+    @Bean
+    public CacheManagerCustomizer<CaffeineCacheManager> cacheVerificacion(
+            @Value("${app.cache.verificacion.ttl:60s}") Duration ttl,
+            @Value("${app.cache.verificacion.maximo:100000}") long maximo) {
+        return cacheManager -> cacheManager.registerCustomCache(CACHE_VERIFICACION,
+            Caffeine.newBuilder()
+                .maximumSize(maximo)
+                .expireAfter(new ExpiracionHastaFinDePeriodo(ttl))
+                .recordStats()
+                .build());
+    }
+
+    /**
+     * Vencimiento de cada entrada: el TTL, recortado al fin del periodo de la suscripción.
+     * Al reemplazar una entrada (put sobre una clave existente) se recalcula igual que al crearla.
+     */
+    static class ExpiracionHastaFinDePeriodo implements Expiry<Object, Object> {
+
+        private final long ttlNanos;
+
+        ExpiracionHastaFinDePeriodo(Duration ttl) {
+            this.ttlNanos = ttl.toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(Object clave, Object valor, long ahoraNanos) {
+            if (valor instanceof RespuestaVerificacionDTO respuesta && respuesta.getFechaExpiracion() != null) {
+                long hastaFin = Duration.between(LocalDateTime.now(), respuesta.getFechaExpiracion()).toNanos();
+                return Math.max(0, Math.min(ttlNanos, hastaFin));
+            }
+            return ttlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(Object clave, Object valor, long ahoraNanos, long restanteNanos) {
+            return expireAfterCreate(clave, valor, ahoraNanos);
+        }
+
+        @Override
+        public long expireAfterRead(Object clave, Object valor, long ahoraNanos, long restanteNanos) {
+            return restanteNanos;
+        }
+    }
+}
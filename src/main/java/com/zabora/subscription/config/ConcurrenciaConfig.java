@@ -0,0 +1,89 @@
+package com.zabora.subscription.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.RetryListener;
+import org.springframework.retry.annotation.EnableRetry;
+import org.springframework.retry.support.RetryTemplate;
+
+/**
+ * Reintentos de las escrituras concurrentes sobre suscripciones_usuarios.
+ *
+ * La tabla tiene una columna version (@Version): si dos peticiones leen la misma
+ * suscripción y ambas la modifican, la segunda en hacer commit falla con
+ * OptimisticLockingFailureException en lugar de pisar el cambio de la primera.
+ * Esa operación se repite desde el principio (nueva transacción, nueva lectura)
+ * unas pocas veces, con una espera exponencial aleatoria para que no choquen otra vez.
+ *
+ * Los métodos que abren su propia transacción usan @Retryable; los que se llaman dentro
+ * de una transacción más grande (ej: activarSuscripcionPremium) se reintentan desde
+ * quien abre esa transacción, con el RetryTemplate de aquí.
+ *
+ * Los conflictos se publican en /actuator/metrics/suscripciones.conflictos
+ * (por operacion y resultado: reintentado o agotado).
+ */
+@Configuration
+@EnableRetry
+public class ConcurrenciaConfig {
+
+    // Nombre del listener para @Retryable(listeners = ...)
+    public static final String ESCUCHA_CONFLICTOS = "escuchaConflictos";
+
+    @Bean(name = ESCUCHA_CONFLICTOS)
+    public RetryListener escuchaConflictos(MeterRegistry registry) {
+        return new RetryListener() {
+            @Override
+            public <T, E extends Throwable> void onError(RetryContext contexto, RetryCallback<T, E> callback,
+                                                         Throwable error) {
+                if (esConflicto(error)) {
+                    contador(registry, contexto, "reintentado").increment();
+                }
+            }
+
+            @Override
+            public <T, E extends Throwable> void close(RetryContext contexto, RetryCallback<T, E> callback,
+                                                       Throwable error) {
+                // Se agotaron los intentos y el último también fue un conflicto
+                if (error != null && esConflicto(error)) {
+                    contador(registry, contexto, "agotado").increment();
+                }
+            }
+        };
+    }
+
+    @Bean
+    public RetryTemplate reintentosConcurrencia(
+            @Value("${app.concurrencia.max-intentos:3}") int maxIntentos,
+            @Value("${app.concurrencia.espera-inicial-ms:20}") long esperaInicialMs,
+            @Value("${app.concurrencia.multiplicador:2.0}") double multiplicador,
+            @Value("${app.concurrencia.espera-maxima-ms:200}") long esperaMaximaMs,
+            RetryListener escuchaConflictos) {
+        return RetryTemplate.builder()
+                .maxAttempts(Math.max(1, maxIntentos))
+                .exponentialBackoff(esperaInicialMs, multiplicador, esperaMaximaMs, true)
+                .retryOn(OptimisticLockingFailureException.class)
+                .withListener(escuchaConflictos)
+                .build();
+    }
+
+    private static boolean esConflicto(Throwable error) {
+        return error instanceof OptimisticLockingFailureException
+                || error instanceof DataIntegrityViolationException;
+    }
+
+    private static Counter contador(MeterRegistry registry, RetryContext contexto, String resultado) {
+        Object operacion = contexto.getAttribute(RetryContext.NAME);
+        return Counter.builder("suscripciones.conflictos")
+                .description("Escrituras de suscripciones que chocaron con otra escritura concurrente")
+                .tag("operacion", operacion != null ? operacion.toString() : "desconocida")
+                .tag("resultado", resultado)
+                .register(registry);
+    }
+}
@@ -0,0 +1,53 @@
+package com.zabora.subscription.config;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Circuit breakers de las llamadas a la pasarela de pagos.
+ *
+ * Si en las últimas llamadas fallan o tardan demasiadas, el circuito se abre y los pagos
+ * se rechazan de inmediato durante un tiempo, en lugar de dejar hilos esperando a una
+ * pasarela que no responde. Después deja pasar unas pocas llamadas de prueba y, si
+ * salen bien, vuelve a cerrarse.
+ *
+ * El estado, las llamadas y los rechazos de cada circuito se publican en
+ * /actuator/metrics/resilience4j.circuitbreaker.*.
+ */
+@Configuration
+public class ResilienciaConfig {
+
+    @Bean
+    public CircuitBreakerRegistry circuitBreakerRegistry(
+            @Value("${app.pagos.circuito.porcentaje-fallos:50}") float porcentajeFallos,
+            @Value("${app.pagos.circuito.porcentaje-lentas:80}") float porcentajeLentas,
+            @Value("${app.pagos.circuito.llamada-lenta-ms:10000}") long llamadaLentaMs,
+            @Value("${app.pagos.circuito.ventana-llamadas:50}") int ventanaLlamadas,
+            @Value("${app.pagos.circuito.minimo-llamadas:20}") int minimoLlamadas,
+            @Value("${app.pagos.circuito.espera-abierto-ms:30000}") long esperaAbiertoMs,
+            @Value("${app.pagos.circuito.llamadas-semiabierto:5}") int llamadasSemiabierto,
+            MeterRegistry meterRegistry) {
+        CircuitBreakerConfig configuracion = CircuitBreakerConfig.custom()
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(ventanaLlamadas)
+                .minimumNumberOfCalls(minimoLlamadas)
+                .failureRateThreshold(porcentajeFallos)
+                .slowCallRateThreshold(porcentajeLentas)
+                .slowCallDurationThreshold(Duration.ofMillis(llamadaLentaMs))
+                .waitDurationInOpenState(Duration.ofMillis(esperaAbiertoMs))
+                .permittedNumberOfCallsInHalfOpenState(llamadasSemiabierto)
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                .build();
+
+        CircuitBreakerRegistry registro = CircuitBreakerRegistry.of(configuracion);
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registro).bindTo(meterRegistry);
+        return registro;
+    }
+}
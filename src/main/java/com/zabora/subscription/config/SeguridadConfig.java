@@ -70,6 +70,7 @@ public class SeguridadConfig {
                 .requestMatchers(new AntPathRequestMatcher("/api/suscripciones/verificar/**")).permitAll()
                 .requestMatchers(new AntPathRequestMatcher("/api/suscripciones/planes")).permitAll()
                 .requestMatchers(new AntPathRequestMatcher("/api/pagos/pago-prueba")).permitAll()
+                .requestMatchers(new AntPathRequestMatcher("/api/webhooks/**")).permitAll() // Autenticados por firma
                 .requestMatchers(new AntPathRequestMatcher("/api/auth/**")).permitAll() // Si tienes endpoints de auth
                 
                 // ===== HEALTH CHECKS =====
@@ -105,6 +106,7 @@ public class SeguridadConfig {
                 .requestMatchers(new AntPathRequestMatcher("/api/suscripciones/planes")).permitAll()
                 .requestMatchers(new AntPathRequestMatcher("/api/suscripciones/verificar/**")).permitAll()
                 .requestMatchers(new AntPathRequestMatcher("/api/health")).permitAll()
+                .requestMatchers(new AntPathRequestMatcher("/api/webhooks/**")).permitAll()
                 .anyRequest().authenticated()
             )
             .build();
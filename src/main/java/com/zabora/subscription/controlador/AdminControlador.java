@@ -1,5 +1,7 @@
 package com.zabora.subscription.controlador;
 
+import com.zabora.subscription.servicio.MotorRenovaciones;
+import com.zabora.subscription.servicio.PlanCatalog;
 import com.zabora.subscription.servicio.ReporteServicio;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
@@ -25,6 +27,12 @@ public class AdminControlador {
     // Servicio encargado de generar reportes y estadísticas
     private final ReporteServicio reporteServicio;
 
+    // Catálogo en memoria de los planes de suscripción
+    private final PlanCatalog planCatalog;
+
+    // Cobro de las renovaciones mensuales
+    private final MotorRenovaciones motorRenovaciones;
+
     /**
      * Genera un reporte mensual de ingresos.
      * 
@@ -98,4 +106,31 @@ public class AdminControlador {
         List<Map<String, Object>> top = reporteServicio.topUsuariosPorIngresos(limite);
         return ResponseEntity.ok(top);
     }
+
+    /**
+     * Recarga el catálogo de planes en memoria desde la base de datos.
+     * Útil después de modificar un plan directamente en la base de datos.
+     *
+     * @return Versión del catálogo después de recargar.
+     */
+    @PostMapping("/planes/recargar")
+    @Operation(summary = "Recargar catálogo de planes")
+    public ResponseEntity<Map<String, Object>> recargarPlanes() {
+        planCatalog.recargar();
+        return ResponseEntity.ok(Map.of(
+                "exito", true,
+                "version_catalogo", planCatalog.version()));
+    }
+
+    /**
+     * Inicia ahora el cobro de renovaciones, sin esperar a la tarea programada. El cobro
+     * corre en segundo plano; también retoma las ejecuciones interrumpidas.
+     *
+     * @return 202 con la ejecución del corte actual (ID, ventana y estado).
+     */
+    @PostMapping("/renovaciones/ejecutar")
+    @Operation(summary = "Iniciar el cobro de renovaciones")
+    public ResponseEntity<Map<String, Object>> ejecutarRenovaciones() {
+        return ResponseEntity.accepted().body(motorRenovaciones.iniciarRenovaciones());
+    }
 }
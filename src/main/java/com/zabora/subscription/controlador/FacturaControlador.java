@@ -0,0 +1,98 @@
+package com.zabora.subscription.controlador;
+
+import com.zabora.subscription.documento.AlmacenDocumentos;
+import com.zabora.subscription.documento.ServidorDocumentos;
+import com.zabora.subscription.excepcion.RecursoNoEncontradoException;
+import com.zabora.subscription.modelo.entidad.Factura;
+import com.zabora.subscription.servicio.FacturacionServicio;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+/**
+ * Controlador para descargar los documentos (PDF y XML UBL) de las facturas.
+ *
+ * El documento se envía desde el almacén sin cargarlo en memoria (ver ServidorDocumentos),
+ * con soporte de Range para reanudar descargas y ETag para que el cliente no lo vuelva a
+ * bajar si no cambió.
+ */
+@RestController
+@RequestMapping("/api/facturas")
+@RequiredArgsConstructor
+@Tag(name = "Facturas", description = "Endpoints para descargar facturas")
+public class FacturaControlador {
+
+    private final FacturacionServicio facturacionServicio;
+    private final ServidorDocumentos servidorDocumentos;
+
+    /**
+     * Descarga un documento de la factura por su número.
+     *
+     * @param usuarioId ID del usuario dueño de la factura (header X-Usuario-Id)
+     * @param numeroFactura Número de la factura (ej: FZ-1001)
+     * @param formato pdf o xml
+     */
+    @RequestMapping(value = "/{numeroFactura}/{formato}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    @Operation(summary = "Descargar el PDF o XML de una factura")
+    public void descargarPorNumero(
+            @RequestHeader("X-Usuario-Id") String usuarioId,
+            @PathVariable String numeroFactura,
+            @PathVariable String formato,
+            HttpServletRequest peticion,
+            HttpServletResponse respuesta) throws IOException {
+        Factura factura = facturacionServicio.obtenerFacturaPorNumero(numeroFactura);
+        descargar(usuarioId, factura, formato, peticion, respuesta);
+    }
+
+    /**
+     * Descarga un documento de la factura de un pago.
+     *
+     * @param usuarioId ID del usuario dueño de la factura (header X-Usuario-Id)
+     * @param pagoId ID del pago facturado
+     * @param formato pdf o xml
+     */
+    @RequestMapping(value = "/pago/{pagoId}/{formato}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    @Operation(summary = "Descargar el PDF o XML de la factura de un pago")
+    public void descargarPorPago(
+            @RequestHeader("X-Usuario-Id") String usuarioId,
+            @PathVariable String pagoId,
+            @PathVariable String formato,
+            HttpServletRequest peticion,
+            HttpServletResponse respuesta) throws IOException {
+        Factura factura = facturacionServicio.obtenerFacturaPorPago(pagoId);
+        descargar(usuarioId, factura, formato, peticion, respuesta);
+    }
+
+    private void descargar(String usuarioId, Factura factura, String formato,
+                           HttpServletRequest peticion, HttpServletResponse respuesta) throws IOException {
+        // Sin revelar a otros usuarios que la factura existe
+        if (!factura.getUsuarioId().equals(usuarioId)) {
+            throw new RecursoNoEncontradoException("Factura no encontrada");
+        }
+
+        String clave;
+        MediaType tipo;
+        switch (formato) {
+            case "pdf" -> {
+                clave = factura.getPdfUrl();
+                tipo = MediaType.APPLICATION_PDF;
+            }
+            case "xml" -> {
+                clave = factura.getXmlUrl();
+                tipo = MediaType.APPLICATION_XML;
+            }
+            default -> throw new RecursoNoEncontradoException("Formato no soportado: " + formato);
+        }
+        if (!AlmacenDocumentos.esClave(clave)) {
+            throw new RecursoNoEncontradoException("Los documentos de la factura todavía se están generando");
+        }
+
+        servidorDocumentos.enviar(clave, tipo, factura.getNumeroFactura() + "." + formato, peticion, respuesta);
+    }
+}
@@ -1,7 +1,9 @@
 package com.zabora.subscription.controlador;
 
+import com.zabora.subscription.modelo.dto.MetodoPagoDTO;
 import com.zabora.subscription.modelo.dto.RespuestaPagoDTO;
 import com.zabora.subscription.modelo.dto.SolicitudPagoDTO;
+import com.zabora.subscription.servicio.IdempotenciaServicio;
 import com.zabora.subscription.servicio.PagoServicio;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -24,11 +26,17 @@ import java.util.Map;
 public class PagoControlador {
 
     private final PagoServicio pagoServicio;
+    private final IdempotenciaServicio idempotenciaServicio;
 
     /**
      * Procesa un pago manual para una suscripción.
      *
+     * Con el header Idempotency-Key, un reintento con la misma clave devuelve la respuesta
+     * original sin volver a cobrar. Si esa respuesta era "en proceso", devuelve el estado
+     * actual del pago.
+     *
      * @param usuarioId ID del usuario que realiza el pago (header X-Usuario-Id)
+     * @param claveIdempotencia Clave única de la solicitud (header Idempotency-Key, opcional)
      * @param solicitud Datos del pago a procesar
      * @return Respuesta con el estado del pago, monto, comprobante y detalles
      */
@@ -36,8 +44,11 @@ public class PagoControlador {
     @Operation(summary = "Procesar pago manual")
     public ResponseEntity<RespuestaPagoDTO> procesarPago(
             @RequestHeader("X-Usuario-Id") String usuarioId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String claveIdempotencia,
             @Valid @RequestBody SolicitudPagoDTO solicitud) {
-        RespuestaPagoDTO resultado = pagoServicio.procesarPago(solicitud);
+        RespuestaPagoDTO resultado = idempotenciaServicio.ejecutar(
+                "pago:" + usuarioId, claveIdempotencia, solicitud, RespuestaPagoDTO.class,
+                () -> pagoServicio.procesarPago(solicitud), pagoServicio::respuestaVigente);
         return ResponseEntity.ok(resultado);
     }
 
@@ -49,9 +60,9 @@ public class PagoControlador {
      */
     @GetMapping("/metodos")
     @Operation(summary = "Obtener métodos de pago del usuario")
-    public ResponseEntity<List<Map<String, Object>>> obtenerMetodosPago(
+    public ResponseEntity<List<MetodoPagoDTO>> obtenerMetodosPago(
             @RequestHeader("X-Usuario-Id") String usuarioId) {
-        List<Map<String, Object>> metodos = pagoServicio.obtenerMetodosPago(usuarioId);
+        List<MetodoPagoDTO> metodos = pagoServicio.obtenerMetodosPago(usuarioId);
         return ResponseEntity.ok(metodos);
     }
 
@@ -91,12 +102,16 @@ public class PagoControlador {
      * Procesa un pago de prueba para simular diferentes escenarios.
      * Útil para testing con tokens de tarjeta o pagos PSE simulados.
      *
+     * @param usuarioId ID del usuario que realiza el pago (header X-Usuario-Id)
+     * @param claveIdempotencia Clave única de la solicitud (header Idempotency-Key, opcional)
      * @param solicitudPrueba Mapa con información de la prueba (id_suscripcion, monto, tipo_pago, token_prueba)
      * @return Respuesta simulada del pago
      */
     @PostMapping("/pago-prueba")
     @Operation(summary = "Procesar pago de prueba con diferentes escenarios")
     public ResponseEntity<RespuestaPagoDTO> procesarPagoPrueba(
+            @RequestHeader("X-Usuario-Id") String usuarioId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String claveIdempotencia,
             @RequestBody Map<String, Object> solicitudPrueba) {
 
         SolicitudPagoDTO solicitud = new SolicitudPagoDTO();
@@ -105,7 +120,9 @@ public class PagoControlador {
         solicitud.setTipoPago((String) solicitudPrueba.get("tipo_pago"));
         solicitud.setTokenTarjetaPrueba((String) solicitudPrueba.get("token_prueba"));
 
-        RespuestaPagoDTO resultado = pagoServicio.procesarPago(solicitud);
+        RespuestaPagoDTO resultado = idempotenciaServicio.ejecutar(
+                "pago:" + usuarioId, claveIdempotencia, solicitud, RespuestaPagoDTO.class,
+                () -> pagoServicio.procesarPago(solicitud), pagoServicio::respuestaVigente);
         return ResponseEntity.ok(resultado);
     }
 }
@@ -1,17 +1,26 @@
 package com.zabora.subscription.controlador;
 
+import com.zabora.subscription.evento.FeedCambiosDerechos;
+import com.zabora.subscription.indice.VersionesSuscripcion;
 import com.zabora.subscription.modelo.dto.RespuestaSuscripcionDTO;
 import com.zabora.subscription.modelo.dto.RespuestaVerificacionDTO;
 import com.zabora.subscription.modelo.dto.SolicitudSuscripcionDTO;
+import com.zabora.subscription.modelo.dto.SolicitudVerificacionLoteDTO;
+import com.zabora.subscription.seguridad.JwtService;
 import com.zabora.subscription.servicio.SuscripcionServicio;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controlador para la gestión de suscripciones de usuarios.
@@ -24,6 +33,9 @@ import java.util.Map;
 public class SuscripcionControlador {
 
     private final SuscripcionServicio suscripcionServicio;
+    private final JwtService jwtService;
+    private final VersionesSuscripcion versionesSuscripcion;
+    private final FeedCambiosDerechos feedCambiosDerechos;
 
     /**
      * Suscribirse a un plan determinado.
@@ -59,6 +71,8 @@ public class SuscripcionControlador {
 
     /**
      * Obtiene el estado actual de la suscripción de un usuario.
+     * Soporta If-None-Match: si la ETag (huella de la respuesta, ver VersionesSuscripcion)
+     * coincide responde 304 sin cuerpo.
      *
      * @param usuarioId ID del usuario (header X-Usuario-Id)
      * @return Estado de la suscripción, plan activo y límites del plan
@@ -66,25 +80,104 @@ public class SuscripcionControlador {
     @GetMapping("/estado")
     @Operation(summary = "Obtener estado de suscripción")
     public ResponseEntity<Map<String, Object>> obtenerEstado(
-            @RequestHeader("X-Usuario-Id") String usuarioId) {
+            @RequestHeader("X-Usuario-Id") String usuarioId,
+            WebRequest request) {
         Map<String, Object> estado = suscripcionServicio.obtenerEstadoSuscripcion(usuarioId);
+        String etag = versionesSuscripcion.etagEstado(estado);
+        if (etag != null && request.checkNotModified(etag)) {
+            return null; // 304 Not Modified
+        }
         return ResponseEntity.ok(estado);
     }
 
     /**
      * Verifica la suscripción de un usuario (uso interno).
      *
+     * Soporta If-None-Match: si la ETag (huella de la respuesta, ver VersionesSuscripcion)
+     * coincide responde 304 sin cuerpo. La verificación sale de la cache o del índice en
+     * memoria, así que la ETag no agrega consultas a la base de datos.
+     *
      * @param usuarioId ID del usuario a verificar
      * @return Resultado de la verificación indicando validez, plan, estado y fecha de expiración
      */
     @GetMapping("/verificar/{usuarioId}")
     @Operation(summary = "Verificar suscripción (uso interno)")
     public ResponseEntity<RespuestaVerificacionDTO> verificarSuscripcion(
-            @PathVariable String usuarioId) {
+            @PathVariable String usuarioId,
+            WebRequest request) {
         RespuestaVerificacionDTO verificacion = suscripcionServicio.verificarSuscripcion(usuarioId);
+        String etag = versionesSuscripcion.etagVerificacion(verificacion);
+        if (etag != null && request.checkNotModified(etag)) {
+            return null; // 304 Not Modified
+        }
         return ResponseEntity.ok(verificacion);
     }
 
+    /**
+     * Emite un token de derecho firmado para un usuario (uso interno).
+     * Los demás servicios pueden validarlo localmente con VerificadorTokenDerechos
+     * en lugar de llamar a /verificar en cada petición.
+     *
+     * @param usuarioId ID del usuario
+     * @return Token firmado con plan, estado, fecha de expiración y límites del plan
+     */
+    @GetMapping("/verificar/{usuarioId}/token")
+    @Operation(summary = "Emitir token de derecho (uso interno)")
+    public ResponseEntity<Map<String, Object>> emitirTokenDerecho(
+            @PathVariable String usuarioId) {
+        RespuestaVerificacionDTO verificacion = suscripcionServicio.verificarSuscripcion(usuarioId);
+        String token = jwtService.generarTokenDerecho(usuarioId, verificacion);
+        return ResponseEntity.ok(Map.of(
+                "token", token,
+                "expira_en_segundos", jwtService.obtenerExpiracionDerechosSegundos()));
+    }
+
+    /**
+     * Obtiene la clave pública con la que se verifican los tokens de derecho.
+     *
+     * @return Clave pública EC (P-256) en Base64, formato X.509
+     */
+    @GetMapping("/verificar/clave-publica")
+    @Operation(summary = "Clave pública de los tokens de derecho")
+    public ResponseEntity<Map<String, String>> obtenerClavePublicaDerechos() {
+        return ResponseEntity.ok(Map.of(
+                "algoritmo", "ES256",
+                "clave_publica", jwtService.obtenerClavePublicaDerechos()));
+    }
+
+    /**
+     * Verifica la suscripción de varios usuarios en una sola llamada (uso interno).
+     *
+     * @param solicitud Lista de IDs de usuario a verificar
+     * @return Mapa con el resultado de la verificación de cada usuario, indexado por su ID
+     */
+    @PostMapping("/verificar/lote")
+    @Operation(summary = "Verificar suscripciones en lote (uso interno)")
+    public ResponseEntity<Map<String, RespuestaVerificacionDTO>> verificarSuscripciones(
+            @Valid @RequestBody SolicitudVerificacionLoteDTO solicitud) {
+        Map<String, RespuestaVerificacionDTO> verificaciones =
+                suscripcionServicio.verificarSuscripciones(solicitud.getUsuarioIds());
+        return ResponseEntity.ok(verificaciones);
+    }
+
+    /**
+     * Feed de cambios de derechos por Server-Sent Events (uso interno).
+     * Cada evento "cambio" lleva como id su número de secuencia; al reconectar, el cliente
+     * envía el último id aplicado en Last-Event-ID (o en el parámetro desde) y recibe solo
+     * los cambios posteriores. Un evento "resincronizar" indica que debe descartar su réplica.
+     *
+     * @param ultimoEventoId Última secuencia aplicada (header Last-Event-ID)
+     * @param desde Última secuencia aplicada, para la primera conexión
+     * @return Flujo de eventos text/event-stream
+     */
+    @GetMapping(value = "/verificar/cambios", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Feed de cambios de derechos (uso interno)")
+    public SseEmitter feedCambios(
+            @RequestHeader(value = "Last-Event-ID", required = false) Long ultimoEventoId,
+            @RequestParam(required = false) Long desde) {
+        return feedCambiosDerechos.suscribir(ultimoEventoId != null ? ultimoEventoId : desde);
+    }
+
     /**
      * Obtiene datos mock para pruebas de suscripción.
      *
@@ -100,11 +193,18 @@ public class SuscripcionControlador {
     /**
      * Obtiene todos los planes de suscripción disponibles en el sistema.
      *
+     * La lista se sirve ya serializada desde el catálogo de planes en memoria,
+     * con ETag (304 si coincide con If-None-Match) y Cache-Control de larga duración.
+     *
      * @return Lista de planes con descripción, precio y límites
      */
     @GetMapping("/planes")
     @Operation(summary = "Obtener todos los planes disponibles")
-    public ResponseEntity<?> obtenerPlanes() {
-        return ResponseEntity.ok(suscripcionServicio.obtenerPlanes());
+    public ResponseEntity<String> obtenerPlanes() {
+        return ResponseEntity.ok()
+                .eTag(versionesSuscripcion.etagPlanes())
+                .cacheControl(CacheControl.maxAge(1, TimeUnit.HOURS).cachePublic())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(suscripcionServicio.obtenerPlanesJson());
     }
 }
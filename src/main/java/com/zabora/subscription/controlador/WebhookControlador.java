@@ -0,0 +1,42 @@
+package com.zabora.subscription.controlador;
+
+import com.zabora.subscription.servicio.WebhookStripeServicio;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Controlador para los webhooks de las pasarelas de pago.
+ * Recibe los avisos de Stripe sobre pagos y los deja en cola para procesarlos en segundo plano.
+ */
+@RestController
+@RequestMapping("/api/webhooks")
+@RequiredArgsConstructor
+@Tag(name = "Webhooks", description = "Endpoints para notificaciones de las pasarelas de pago")
+public class WebhookControlador {
+
+    private final WebhookStripeServicio webhookStripeServicio;
+
+    /**
+     * Recibe un evento de Stripe.
+     *
+     * Responde en cuanto el evento queda guardado; un evento repetido también
+     * responde 200 para que Stripe deje de reintentarlo.
+     *
+     * @param firma Header Stripe-Signature
+     * @param payload Cuerpo del evento, sin modificar (la firma se calcula sobre él)
+     * @return Confirmación de recepción
+     */
+    @PostMapping("/stripe")
+    @Operation(summary = "Recibir webhook de Stripe")
+    public ResponseEntity<Map<String, Object>> recibirStripe(
+            @RequestHeader(value = "Stripe-Signature", required = false) String firma,
+            @RequestBody String payload) {
+        boolean nuevo = webhookStripeServicio.recibir(payload, firma);
+        return ResponseEntity.ok(Map.of("recibido", true, "duplicado", !nuevo));
+    }
+}
@@ -0,0 +1,30 @@
+package com.zabora.subscription.dian;
+
+import java.util.List;
+
+/**
+ * Cliente con el que EnviadorDian envía documentos a la DIAN, por lotes.
+ *
+ * Las implementaciones se llaman desde los hilos de EnviadorDian, fuera de cualquier
+ * transacción, y pueden bloquear mientras esperan la respuesta. Un lote se puede enviar
+ * más de una vez (reintentos): la implementación debe responder lo mismo para un documento
+ * ya recibido, identificado por su CUFE y su tipo.
+ */
+public interface ClienteDian {
+
+    /**
+     * Nombre corto del cliente, para logs y métricas.
+     */
+    String nombre();
+
+    /**
+     * Envía un lote de documentos.
+     *
+     * Un rechazo de la DIAN es una respuesta con aceptado=false. Si la respuesta no trae
+     * algún documento del lote, ese documento se vuelve a enviar después.
+     *
+     * @return una respuesta por documento recibido
+     * @throws com.zabora.subscription.excepcion.DianNoDisponibleException si no se obtuvo respuesta
+     */
+    List<RespuestaDian> enviar(List<DocumentoDian> lote);
+}
@@ -0,0 +1,170 @@
+package com.zabora.subscription.dian;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.zabora.subscription.documento.AlmacenDocumentos;
+import com.zabora.subscription.excepcion.DianNoDisponibleException;
+import com.zabora.subscription.modelo.enumeracion.TipoEnvioDian;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Envía los documentos por HTTP al servicio de recepción (el proveedor tecnológico, o el
+ * ServidorDianSimulado de las herramientas de prueba).
+ *
+ * Cada lote es un POST {url}/documentos/lote con un JSON:
+ * {"nitEmisor": ..., "documentos": [{"id", "tipo", "numero", "cufe", "fechaEmision", "total",
+ * "motivo", "xml" (Base64)}]}
+ * y la respuesta trae {"respuestas": [{"id", "tipo", "aceptado", "codigo", "mensaje", "idSeguimiento"}]}.
+ *
+ * Cualquier respuesta distinta de 200 (429, 5xx...), la red o el tiempo agotado son
+ * DianNoDisponibleException: el lote completo se vuelve a enviar.
+ *
+ * Un documento cuyo XML no está o no se puede leer se deja fuera del lote, sin respuesta:
+ * EnviadorDian reintenta solo ese envío (y lo deja FALLIDO si no aparece) y el resto del
+ * lote se envía normalmente.
+ */
+@Component
+@Slf4j
+public class ClienteDianHttp implements ClienteDian {
+
+    private final HttpClient cliente;
+    private final URI urlLote;
+    private final String token;
+    private final Duration timeout;
+    private final String nitEmisor;
+    private final AlmacenDocumentos almacen;
+    private final ObjectMapper objectMapper;
+
+    public ClienteDianHttp(@Value("${app.facturacion.dian.envio.url:http://localhost:8095/dian}") String url,
+                           @Value("${app.facturacion.dian.envio.token:}") String token,
+                           @Value("${app.facturacion.dian.envio.timeout-ms:10000}") long timeoutMs,
+                           @Value("${app.facturacion.dian.nit-emisor:900000000}") String nitEmisor,
+                           AlmacenDocumentos almacen,
+                           ObjectMapper objectMapper) {
+        this.urlLote = URI.create(url.endsWith("/") ? url + "documentos/lote" : url + "/documentos/lote");
+        this.token = token;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.nitEmisor = nitEmisor;
+        this.almacen = almacen;
+        this.objectMapper = objectMapper;
+        this.cliente = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    @Override
+    public String nombre() {
+        return "http";
+    }
+
+    @Override
+    public List<RespuestaDian> enviar(List<DocumentoDian> lote) {
+        ObjectNode contenido = solicitud(lote);
+        if (contenido.path("documentos").isEmpty()) {
+            return List.of();
+        }
+        byte[] cuerpo;
+        try {
+            cuerpo = objectMapper.writeValueAsBytes(contenido);
+        } catch (IOException e) {
+            throw new DianNoDisponibleException("No se pudo preparar el lote: " + e.getMessage(), e);
+        }
+
+        HttpRequest.Builder solicitud = HttpRequest.newBuilder(urlLote)
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(cuerpo));
+        if (!token.isBlank()) {
+            solicitud.header("Authorization", "Bearer " + token);
+        }
+
+        HttpResponse<byte[]> respuesta;
+        try {
+            respuesta = cliente.send(solicitud.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            throw new DianNoDisponibleException("Error de comunicación con la DIAN: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DianNoDisponibleException("Envío a la DIAN interrumpido", e);
+        }
+        if (respuesta.statusCode() != 200) {
+            throw new DianNoDisponibleException("La DIAN respondió HTTP " + respuesta.statusCode());
+        }
+
+        try {
+            return respuestas(objectMapper.readTree(respuesta.body()));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new DianNoDisponibleException("Respuesta de la DIAN ilegible: " + e.getMessage(), e);
+        }
+    }
+
+    private ObjectNode solicitud(List<DocumentoDian> lote) {
+        ObjectNode solicitud = objectMapper.createObjectNode();
+        solicitud.put("nitEmisor", nitEmisor);
+        ArrayNode documentos = solicitud.putArray("documentos");
+        for (DocumentoDian documento : lote) {
+            String xml = null;
+            if (documento.claveXml() != null) {
+                try {
+                    xml = Base64.getEncoder().encodeToString(
+                            Files.readAllBytes(almacen.ruta(documento.claveXml())));
+                } catch (NoSuchFileException e) {
+                    log.warn("No está el XML de la factura {}; se envía sin ella el resto del lote",
+                            documento.numeroFactura());
+                    continue;
+                } catch (IOException e) {
+                    log.warn("No se pudo leer el XML de la factura {}; se envía sin ella el resto del lote: {}",
+                            documento.numeroFactura(), e.getMessage());
+                    continue;
+                }
+            }
+            ObjectNode nodo = documentos.addObject();
+            nodo.put("id", documento.facturaId());
+            nodo.put("tipo", documento.tipo().name());
+            nodo.put("numero", documento.numeroFactura());
+            nodo.put("cufe", documento.cufe());
+            nodo.put("fechaEmision", documento.emision().toString());
+            nodo.put("total", documento.total());
+            if (documento.motivo() != null) {
+                nodo.put("motivo", documento.motivo());
+            }
+            if (xml != null) {
+                nodo.put("xml", xml);
+            }
+        }
+        return solicitud;
+    }
+
+    private static List<RespuestaDian> respuestas(JsonNode cuerpo) {
+        LocalDateTime ahora = LocalDateTime.now();
+        List<RespuestaDian> respuestas = new ArrayList<>();
+        for (JsonNode nodo : cuerpo.path("respuestas")) {
+            respuestas.add(new RespuestaDian(
+                    nodo.path("id").asText(),
+                    TipoEnvioDian.valueOf(nodo.path("tipo").asText()),
+                    nodo.path("aceptado").asBoolean(),
+                    nodo.path("codigo").asText(null),
+                    nodo.path("mensaje").asText(null),
+                    nodo.path("idSeguimiento").asText(null),
+                    ahora));
+        }
+        return respuestas;
+    }
+}
@@ -0,0 +1,24 @@
+package com.zabora.subscription.dian;
+
+import com.zabora.subscription.modelo.enumeracion.TipoEnvioDian;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Documento que se envía a la DIAN: una factura emitida o su anulación.
+ *
+ * @param facturaId ID de la factura (identifica el documento en la respuesta)
+ * @param emision   fecha y hora de emisión de la factura (las del CUFE)
+ * @param claveXml  clave del XML UBL en el AlmacenDocumentos (NULL en anulaciones)
+ * @param motivo    motivo de la anulación (NULL en facturas)
+ */
+public record DocumentoDian(String facturaId,
+                            TipoEnvioDian tipo,
+                            String numeroFactura,
+                            String cufe,
+                            LocalDateTime emision,
+                            BigDecimal total,
+                            String claveXml,
+                            String motivo) {
+}
@@ -0,0 +1,21 @@
+package com.zabora.subscription.dian;
+
+import com.zabora.subscription.modelo.enumeracion.TipoEnvioDian;
+
+import java.time.LocalDateTime;
+
+/**
+ * Respuesta de la DIAN a un documento. Se guarda como JSON en facturas.respuesta_dian,
+ * una por tipo de documento.
+ *
+ * @param codigo        código de estado de la DIAN ("00" procesado correctamente)
+ * @param idSeguimiento identificador del documento en la DIAN (trackId)
+ */
+public record RespuestaDian(String facturaId,
+                            TipoEnvioDian tipo,
+                            boolean aceptado,
+                            String codigo,
+                            String mensaje,
+                            String idSeguimiento,
+                            LocalDateTime fecha) {
+}
@@ -0,0 +1,141 @@
+package com.zabora.subscription.documento;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Almacén local de documentos direccionado por contenido: la clave de cada documento es el
+ * SHA-256 de sus bytes, y el archivo queda en {directorio}/ab/cd/{sha256}.
+ *
+ * El documento se escribe directo a un archivo temporal mientras se calcula su hash, sin
+ * tenerlo completo en memoria; al terminar se mueve a su ruta definitiva. Si ya existía un
+ * documento con el mismo contenido (ej: dos nodos renderizaron la misma factura), se
+ * conserva ese y se borra el temporal. Los archivos nunca se modifican después de escritos.
+ */
+@Component
+@Slf4j
+public class AlmacenDocumentos {
+
+    private static final Pattern CLAVE = Pattern.compile("[0-9a-f]{64}");
+    private static final int TAMANO_BUFFER = 64 * 1024;
+
+    private final Path directorio;
+    private final Path temporales;
+
+    public AlmacenDocumentos(@Value("${app.facturacion.documentos.directorio:./almacen/documentos}") String directorio) {
+        this.directorio = Paths.get(directorio).toAbsolutePath().normalize();
+        // En el mismo sistema de archivos, para que el move sea atómico
+        this.temporales = this.directorio.resolve("tmp");
+    }
+
+    /**
+     * Crea los directorios y borra los temporales que dejó una ejecución interrumpida.
+     */
+    @PostConstruct
+    void iniciar() throws IOException {
+        Files.createDirectories(temporales);
+        try (Stream<Path> sobrantes = Files.list(temporales)) {
+            sobrantes.forEach(temporal -> {
+                try {
+                    Files.deleteIfExists(temporal);
+                } catch (IOException e) {
+                    log.warn("No se pudo borrar el temporal {}: {}", temporal, e.getMessage());
+                }
+            });
+        }
+        log.info("Almacén de documentos en {}", directorio);
+    }
+
+    /**
+     * Escribe un documento en el almacén.
+     *
+     * @return la clave del documento (SHA-256 en hexadecimal)
+     * @throws UncheckedIOException si no se pudo escribir
+     */
+    public String guardar(Escritura escritura) {
+        Path temporal = null;
+        try {
+            temporal = Files.createTempFile(temporales, "doc-", ".tmp");
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            // El buffer va antes del digest: el hash se actualiza por bloques y no por cada write
+            try (OutputStream salida = new BufferedOutputStream(
+                    new DigestOutputStream(Files.newOutputStream(temporal), sha256), TAMANO_BUFFER)) {
+                escritura.escribir(salida);
+            }
+
+            String clave = HexFormat.of().formatHex(sha256.digest());
+            Path destino = ruta(clave);
+            if (Files.exists(destino)) {
+                Files.delete(temporal);
+                return clave;
+            }
+            Files.createDirectories(destino.getParent());
+            try {
+                Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Otro hilo guardó el mismo contenido al mismo tiempo
+                Files.delete(temporal);
+            }
+            return clave;
+        } catch (IOException e) {
+            borrar(temporal);
+            throw new UncheckedIOException("No se pudo guardar el documento", e);
+        } catch (NoSuchAlgorithmException e) {
+            borrar(temporal);
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Ruta del documento con la clave dada (exista o no).
+     *
+     * @throws IllegalArgumentException si la clave no es un SHA-256 en hexadecimal
+     */
+    public Path ruta(String clave) {
+        if (!esClave(clave)) {
+            throw new IllegalArgumentException("Clave de documento inválida");
+        }
+        return directorio.resolve(clave.substring(0, 2)).resolve(clave.substring(2, 4)).resolve(clave);
+    }
+
+    /**
+     * Indica si el valor tiene forma de clave del almacén (las facturas anteriores al almacén
+     * guardaban URLs en pdf_url y xml_url).
+     */
+    public static boolean esClave(String valor) {
+        return valor != null && CLAVE.matcher(valor).matches();
+    }
+
+    private static void borrar(Path temporal) {
+        if (temporal == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(temporal);
+        } catch (IOException e) {
+            log.warn("No se pudo borrar el temporal {}: {}", temporal, e.getMessage());
+        }
+    }
+
+    /**
+     * Escribe el contenido de un documento en la salida del almacén.
+     */
+    @FunctionalInterface
+    public interface Escritura {
+        void escribir(OutputStream salida) throws IOException;
+    }
+}
@@ -0,0 +1,30 @@
+package com.zabora.subscription.documento;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Datos de una factura emitida que van en su XML UBL y en su PDF.
+ *
+ * @param emision fecha y hora de emisión (las mismas del CUFE)
+ * @param plan    nombre del plan facturado (la única línea de la factura)
+ */
+public record DatosFactura(String id,
+                           String prefijo,
+                           long consecutivo,
+                           LocalDateTime emision,
+                           LocalDate vencimiento,
+                           BigDecimal subtotal,
+                           BigDecimal iva,
+                           BigDecimal total,
+                           String moneda,
+                           String cufe,
+                           String usuarioId,
+                           String plan) {
+
+    // Número completo, igual que facturas.numero_factura
+    public String numeroFactura() {
+        return prefijo + "-" + consecutivo;
+    }
+}
@@ -0,0 +1,157 @@
+package com.zabora.subscription.documento;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Escribe la representación gráfica (PDF 1.4, una página A4) de una factura directo a la salida.
+ *
+ * El PDF se escribe objeto por objeto mientras se cuentan los bytes para la tabla xref;
+ * el largo del contenido de la página va en un objeto aparte escrito después del contenido,
+ * así que nada se arma completo en memoria. Usa las fuentes estándar Helvetica (sin
+ * incrustar) con WinAnsiEncoding, que cubre las tildes y la ñ.
+ *
+ * El PDF no lleva fecha de generación: la misma factura produce siempre los mismos bytes,
+ * y el almacén por contenido la guarda una sola vez.
+ */
+@Component
+public class EscritorFacturaPdf {
+
+    private static final Charset WIN_ANSI = Charset.forName("windows-1252");
+    private static final DateTimeFormatter FECHA_HORA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // Objetos: 1 catálogo, 2 páginas, 3 página, 4 y 5 fuentes, 6 contenido, 7 largo del contenido
+    private static final int OBJETOS = 7;
+
+    private final String nitEmisor;
+    private final String nombreEmisor;
+
+    public EscritorFacturaPdf(@Value("${app.facturacion.dian.nit-emisor:900000000}") String nitEmisor,
+                              @Value("${app.facturacion.emisor.nombre:Zabora S.A.S.}") String nombreEmisor) {
+        this.nitEmisor = nitEmisor;
+        this.nombreEmisor = nombreEmisor;
+    }
+
+    /**
+     * Escribe el PDF en la salida. No cierra la salida.
+     */
+    public void escribir(DatosFactura factura, OutputStream destino) throws IOException {
+        Salida pdf = new Salida(destino);
+        long[] posiciones = new long[OBJETOS + 1];
+
+        pdf.ascii("%PDF-1.4\n");
+        // Bytes > 127 en la segunda línea: el archivo es binario
+        pdf.write(new byte[]{'%', (byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3, '\n'});
+
+        posiciones[1] = objeto(pdf, 1, "<< /Type /Catalog /Pages 2 0 R >>");
+        posiciones[2] = objeto(pdf, 2, "<< /Type /Pages /Kids [3 0 R] /Count 1 >>");
+        posiciones[3] = objeto(pdf, 3, "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 595 842] "
+                + "/Resources << /Font << /F1 4 0 R /F2 5 0 R >> >> /Contents 6 0 R >>");
+        posiciones[4] = objeto(pdf, 4, "<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica /Encoding /WinAnsiEncoding >>");
+        posiciones[5] = objeto(pdf, 5, "<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica-Bold /Encoding /WinAnsiEncoding >>");
+
+        // Contenido de la página, con el largo en el objeto 7
+        posiciones[6] = pdf.posicion;
+        pdf.ascii("6 0 obj\n<< /Length 7 0 R >>\nstream\n");
+        long inicioContenido = pdf.posicion;
+        contenido(pdf, factura);
+        long largoContenido = pdf.posicion - inicioContenido;
+        pdf.ascii("\nendstream\nendobj\n");
+        posiciones[7] = objeto(pdf, 7, Long.toString(largoContenido));
+
+        // Tabla xref: cada entrada mide exactamente 20 bytes
+        long inicioXref = pdf.posicion;
+        pdf.ascii("xref\n0 " + (OBJETOS + 1) + "\n0000000000 65535 f \n");
+        for (int i = 1; i <= OBJETOS; i++) {
+            pdf.ascii(String.format("%010d 00000 n \n", posiciones[i]));
+        }
+        pdf.ascii("trailer\n<< /Size " + (OBJETOS + 1) + " /Root 1 0 R >>\nstartxref\n" + inicioXref + "\n%%EOF\n");
+        pdf.flush();
+    }
+
+    private void contenido(Salida pdf, DatosFactura factura) throws IOException {
+        String moneda = " " + factura.moneda();
+        int y = 780;
+
+        texto(pdf, "F2", 16, 50, y, nombreEmisor);
+        texto(pdf, "F1", 10, 50, y -= 16, "NIT " + nitEmisor);
+        texto(pdf, "F2", 14, 50, y -= 36, "Factura electrónica de venta " + factura.numeroFactura());
+        texto(pdf, "F1", 10, 50, y -= 24, "Fecha de emisión: " + factura.emision().format(FECHA_HORA));
+        texto(pdf, "F1", 10, 50, y -= 14, "Fecha de vencimiento: " + factura.vencimiento());
+        texto(pdf, "F1", 10, 50, y -= 24, "Adquirente: Consumidor final (usuario " + factura.usuarioId() + ")");
+
+        texto(pdf, "F2", 10, 50, y -= 36, "Descripción");
+        texto(pdf, "F2", 10, 420, y, "Valor");
+        pdf.ascii("0.5 w 50 " + (y - 6) + " m 545 " + (y - 6) + " l S\n");
+        texto(pdf, "F1", 10, 50, y -= 22, "Suscripción Zabora - plan " + factura.plan());
+        texto(pdf, "F1", 10, 420, y, valor(factura.subtotal()) + moneda);
+
+        texto(pdf, "F1", 10, 300, y -= 40, "Subtotal");
+        texto(pdf, "F1", 10, 420, y, valor(factura.subtotal()) + moneda);
+        texto(pdf, "F1", 10, 300, y -= 14, "IVA 19%");
+        texto(pdf, "F1", 10, 420, y, valor(factura.iva()) + moneda);
+        texto(pdf, "F2", 10, 300, y -= 18, "Total");
+        texto(pdf, "F2", 10, 420, y, valor(factura.total()) + moneda);
+
+        texto(pdf, "F2", 8, 50, y -= 50, "CUFE");
+        texto(pdf, "F1", 7, 50, y - 12, factura.cufe() != null ? factura.cufe() : "");
+    }
+
+    private static void texto(Salida pdf, String fuente, int tamano, int x, int y, String texto) throws IOException {
+        pdf.ascii("BT /" + fuente + " " + tamano + " Tf " + x + " " + y + " Td (");
+        for (byte b : texto.getBytes(WIN_ANSI)) {
+            if (b == '(' || b == ')' || b == '\\') {
+                pdf.write('\\');
+            }
+            pdf.write(b);
+        }
+        pdf.ascii(") Tj ET\n");
+    }
+
+    private static String valor(BigDecimal monto) {
+        return monto.setScale(2, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    private static long objeto(Salida pdf, int numero, String cuerpo) throws IOException {
+        long posicion = pdf.posicion;
+        pdf.ascii(numero + " 0 obj\n" + cuerpo + "\nendobj\n");
+        return posicion;
+    }
+
+    /**
+     * Cuenta los bytes escritos, para las posiciones de la tabla xref.
+     */
+    private static final class Salida extends FilterOutputStream {
+
+        private long posicion;
+
+        Salida(OutputStream destino) {
+            super(destino);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            posicion++;
+        }
+
+        @Override
+        public void write(byte[] b, int desde, int largo) throws IOException {
+            out.write(b, desde, largo);
+            posicion += largo;
+        }
+
+        void ascii(String texto) throws IOException {
+            write(texto.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
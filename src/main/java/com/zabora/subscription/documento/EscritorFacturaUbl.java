@@ -0,0 +1,182 @@
+package com.zabora.subscription.documento;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Escribe el XML UBL 2.1 de una factura (perfil de facturación electrónica DIAN) con StAX,
+ * elemento por elemento directo a la salida: el documento nunca está completo en memoria.
+ *
+ * Incluye lo que identifica la factura ante la DIAN (número, CUFE, fechas, emisor,
+ * adquirente, IVA y totales) y una línea con el plan facturado. La firma digital y las
+ * extensiones DIAN (UBLExtensions) las agrega el envío a la DIAN.
+ */
+@Component
+public class EscritorFacturaUbl {
+
+    private static final String UBL = "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2";
+    private static final String CAC = "urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2";
+    private static final String CBC = "urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2";
+    private static final DateTimeFormatter HORA = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    // Seguro para varios hilos una vez configurado
+    private static final XMLOutputFactory FABRICA = XMLOutputFactory.newFactory();
+
+    // Adquirente sin documento registrado: consumidor final (DIAN)
+    private static final String CONSUMIDOR_FINAL = "222222222222";
+
+    private final String nitEmisor;
+    private final String nombreEmisor;
+    private final String ambiente;
+    private final ZoneId zona;
+
+    public EscritorFacturaUbl(@Value("${app.facturacion.dian.nit-emisor:900000000}") String nitEmisor,
+                              @Value("${app.facturacion.emisor.nombre:Zabora S.A.S.}") String nombreEmisor,
+                              @Value("${app.facturacion.dian.ambiente:2}") String ambiente,
+                              @Value("${spring.jackson.time-zone:America/Bogota}") String zonaHoraria) {
+        this.nitEmisor = nitEmisor;
+        this.nombreEmisor = nombreEmisor;
+        this.ambiente = ambiente;
+        this.zona = ZoneId.of(zonaHoraria);
+    }
+
+    /**
+     * Escribe el XML en la salida (UTF-8). No cierra la salida.
+     */
+    public void escribir(DatosFactura factura, OutputStream salida) throws IOException {
+        try {
+            XMLStreamWriter xml = FABRICA.createXMLStreamWriter(salida, "UTF-8");
+            try {
+                escribir(factura, xml);
+                xml.flush();
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("No se pudo escribir el XML de la factura " + factura.numeroFactura(), e);
+        }
+    }
+
+    private void escribir(DatosFactura factura, XMLStreamWriter xml) throws XMLStreamException {
+        ZoneOffset desfase = zona.getRules().getOffset(factura.emision());
+
+        xml.writeStartDocument("UTF-8", "1.0");
+        xml.setDefaultNamespace(UBL);
+        xml.setPrefix("cac", CAC);
+        xml.setPrefix("cbc", CBC);
+        xml.writeStartElement(UBL, "Invoice");
+        xml.writeDefaultNamespace(UBL);
+        xml.writeNamespace("cac", CAC);
+        xml.writeNamespace("cbc", CBC);
+
+        // Encabezado
+        texto(xml, "UBLVersionID", "UBL 2.1");
+        texto(xml, "CustomizationID", "10");
+        texto(xml, "ProfileID", "DIAN 2.1: Factura Electrónica de Venta");
+        texto(xml, "ProfileExecutionID", ambiente);
+        texto(xml, "ID", factura.prefijo() + factura.consecutivo());
+        xml.writeStartElement(CBC, "UUID");
+        xml.writeAttribute("schemeID", ambiente);
+        xml.writeAttribute("schemeName", "CUFE-SHA384");
+        xml.writeCharacters(factura.cufe());
+        xml.writeEndElement();
+        texto(xml, "IssueDate", factura.emision().toLocalDate().toString());
+        texto(xml, "IssueTime", factura.emision().format(HORA) + (desfase.getTotalSeconds() == 0 ? "+00:00" : desfase.getId()));
+        texto(xml, "DueDate", factura.vencimiento().toString());
+        texto(xml, "InvoiceTypeCode", "01");
+        texto(xml, "DocumentCurrencyCode", factura.moneda());
+        texto(xml, "LineCountNumeric", "1");
+
+        // Emisor y adquirente
+        parte(xml, "AccountingSupplierParty", nitEmisor, "31", nombreEmisor);
+        parte(xml, "AccountingCustomerParty", CONSUMIDOR_FINAL, "13", "Consumidor final");
+
+        // IVA
+        xml.writeStartElement(CAC, "TaxTotal");
+        monto(xml, "TaxAmount", factura.iva(), factura.moneda());
+        xml.writeStartElement(CAC, "TaxSubtotal");
+        monto(xml, "TaxableAmount", factura.subtotal(), factura.moneda());
+        monto(xml, "TaxAmount", factura.iva(), factura.moneda());
+        xml.writeStartElement(CAC, "TaxCategory");
+        texto(xml, "Percent", "19.00");
+        xml.writeStartElement(CAC, "TaxScheme");
+        texto(xml, "ID", "01");
+        texto(xml, "Name", "IVA");
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndElement();
+
+        // Totales
+        xml.writeStartElement(CAC, "LegalMonetaryTotal");
+        monto(xml, "LineExtensionAmount", factura.subtotal(), factura.moneda());
+        monto(xml, "TaxExclusiveAmount", factura.subtotal(), factura.moneda());
+        monto(xml, "TaxInclusiveAmount", factura.total(), factura.moneda());
+        monto(xml, "PayableAmount", factura.total(), factura.moneda());
+        xml.writeEndElement();
+
+        // Línea: el plan del periodo
+        xml.writeStartElement(CAC, "InvoiceLine");
+        texto(xml, "ID", "1");
+        xml.writeStartElement(CBC, "InvoicedQuantity");
+        xml.writeAttribute("unitCode", "94");
+        xml.writeCharacters("1");
+        xml.writeEndElement();
+        monto(xml, "LineExtensionAmount", factura.subtotal(), factura.moneda());
+        xml.writeStartElement(CAC, "Item");
+        texto(xml, "Description", "Suscripción Zabora - plan " + factura.plan());
+        xml.writeEndElement();
+        xml.writeStartElement(CAC, "Price");
+        monto(xml, "PriceAmount", factura.subtotal(), factura.moneda());
+        xml.writeEndElement();
+        xml.writeEndElement();
+
+        xml.writeEndElement();
+        xml.writeEndDocument();
+    }
+
+    private static void parte(XMLStreamWriter xml, String elemento, String documento,
+                              String tipoDocumento, String nombre) throws XMLStreamException {
+        xml.writeStartElement(CAC, elemento);
+        xml.writeStartElement(CAC, "Party");
+        xml.writeStartElement(CAC, "PartyTaxScheme");
+        texto(xml, "RegistrationName", nombre);
+        xml.writeStartElement(CBC, "CompanyID");
+        xml.writeAttribute("schemeAgencyID", "195");
+        xml.writeAttribute("schemeName", tipoDocumento);
+        xml.writeCharacters(documento);
+        xml.writeEndElement();
+        xml.writeStartElement(CAC, "TaxScheme");
+        texto(xml, "ID", "01");
+        texto(xml, "Name", "IVA");
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    private static void texto(XMLStreamWriter xml, String elemento, String valor) throws XMLStreamException {
+        xml.writeStartElement(CBC, elemento);
+        xml.writeCharacters(valor);
+        xml.writeEndElement();
+    }
+
+    private static void monto(XMLStreamWriter xml, String elemento, BigDecimal valor, String moneda)
+            throws XMLStreamException {
+        xml.writeStartElement(CBC, elemento);
+        xml.writeAttribute("currencyID", moneda);
+        xml.writeCharacters(valor.setScale(2, RoundingMode.HALF_UP).toPlainString());
+        xml.writeEndElement();
+    }
+}
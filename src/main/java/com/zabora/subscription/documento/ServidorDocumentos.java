@@ -0,0 +1,191 @@
+package com.zabora.subscription.documento;
+
+import com.zabora.subscription.excepcion.RecursoNoEncontradoException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Envía un documento del AlmacenDocumentos en la respuesta HTTP sin pasar su contenido por el heap.
+ *
+ * Si el conector de Tomcat soporta sendfile, solo se le indica el archivo y el rango y es
+ * Tomcat quien lo envía desde el sistema de archivos al socket. Si no, se copia con
+ * FileChannel.transferTo hacia el canal de la respuesta, que usa un buffer pequeño y fijo.
+ *
+ * Como la clave del documento es el SHA-256 de su contenido, sirve directamente de ETag
+ * fuerte: If-None-Match responde 304 y If-Range reanuda la descarga solo si el documento
+ * es el mismo. Se atiende un único rango (Range: bytes=a-b, a- o -n); si piden varios, se
+ * envía el documento completo.
+ */
+@Component
+@Slf4j
+public class ServidorDocumentos {
+
+    // Atributos de la petición con los que Tomcat hace sendfile (org.apache.coyote.Constants)
+    private static final String SENDFILE_SOPORTADO = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_ARCHIVO = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_INICIO = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FIN = "org.apache.tomcat.sendfile.end";
+
+    private final AlmacenDocumentos almacen;
+    private final boolean sendfile;
+    private final String cacheControl;
+
+    public ServidorDocumentos(AlmacenDocumentos almacen,
+                              @Value("${app.facturacion.documentos.sendfile:true}") boolean sendfile,
+                              @Value("${app.facturacion.documentos.cache-control:private, max-age=3600}") String cacheControl) {
+        this.almacen = almacen;
+        this.sendfile = sendfile;
+        this.cacheControl = cacheControl;
+    }
+
+    /**
+     * Responde la petición (GET o HEAD) con el documento de la clave dada.
+     *
+     * @param nombreArchivo nombre con el que se descarga (Content-Disposition)
+     * @throws RecursoNoEncontradoException si el documento no está en el almacén
+     */
+    public void enviar(String clave, MediaType tipo, String nombreArchivo,
+                       HttpServletRequest peticion, HttpServletResponse respuesta) throws IOException {
+        Path ruta = almacen.ruta(clave);
+        String etag = "\"" + clave + "\"";
+
+        try (FileChannel archivo = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            long tamano = archivo.size();
+
+            respuesta.setHeader(HttpHeaders.ETAG, etag);
+            respuesta.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+            respuesta.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+            if (coincide(peticion.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+                respuesta.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            // Rango pedido: [inicio, fin] inclusivo; null si se envía todo
+            long[] rango = null;
+            String encabezadoRango = peticion.getHeader(HttpHeaders.RANGE);
+            String siRango = peticion.getHeader(HttpHeaders.IF_RANGE);
+            if (encabezadoRango != null && (siRango == null || siRango.trim().equals(etag))) {
+                rango = rango(encabezadoRango, tamano);
+                if (rango != null && rango.length == 0) {
+                    respuesta.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    respuesta.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + tamano);
+                    return;
+                }
+            }
+
+            long inicio = rango != null ? rango[0] : 0;
+            long largo = rango != null ? rango[1] - rango[0] + 1 : tamano;
+            if (rango != null) {
+                respuesta.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                respuesta.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + rango[0] + "-" + rango[1] + "/" + tamano);
+            } else {
+                respuesta.setStatus(HttpServletResponse.SC_OK);
+            }
+            respuesta.setContentType(tipo.toString());
+            respuesta.setContentLengthLong(largo);
+            respuesta.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                    .filename(nombreArchivo, StandardCharsets.UTF_8).build().toString());
+
+            if ("HEAD".equals(peticion.getMethod()) || largo == 0) {
+                return;
+            }
+
+            if (sendfile && Boolean.TRUE.equals(peticion.getAttribute(SENDFILE_SOPORTADO))) {
+                // Tomcat abre el archivo y lo envía después de que termina el controlador
+                peticion.setAttribute(SENDFILE_ARCHIVO, ruta.toString());
+                peticion.setAttribute(SENDFILE_INICIO, inicio);
+                peticion.setAttribute(SENDFILE_FIN, inicio + largo);
+                return;
+            }
+            transferir(archivo, inicio, largo, Channels.newChannel(respuesta.getOutputStream()));
+        } catch (NoSuchFileException e) {
+            log.error("Documento {} registrado en una factura pero ausente del almacén", clave);
+            throw new RecursoNoEncontradoException("El documento no está disponible");
+        }
+    }
+
+    private static void transferir(FileChannel archivo, long inicio, long largo,
+                                   WritableByteChannel destino) throws IOException {
+        long posicion = inicio;
+        long fin = inicio + largo;
+        while (posicion < fin) {
+            long enviados = archivo.transferTo(posicion, fin - posicion, destino);
+            if (enviados <= 0) {
+                // Los documentos no cambian después de escritos: el archivo no debería acortarse
+                throw new EOFException("El documento terminó antes de lo esperado");
+            }
+            posicion += enviados;
+        }
+    }
+
+    /**
+     * Interpreta el encabezado Range para un documento del tamaño dado.
+     *
+     * @return {inicio, fin} inclusivos; null si se ignora (varios rangos o formato desconocido);
+     *         un arreglo vacío si el rango no se puede satisfacer
+     */
+    static long[] rango(String encabezado, long tamano) {
+        String valor = encabezado.trim();
+        if (!valor.startsWith("bytes=") || valor.indexOf(',') >= 0) {
+            return null;
+        }
+        valor = valor.substring("bytes=".length()).trim();
+        int guion = valor.indexOf('-');
+        if (guion < 0) {
+            return null;
+        }
+        try {
+            String desde = valor.substring(0, guion).trim();
+            String hasta = valor.substring(guion + 1).trim();
+            if (desde.isEmpty()) {
+                // Sufijo: los últimos n bytes
+                long sufijo = Long.parseLong(hasta);
+                if (sufijo <= 0 || tamano == 0) {
+                    return new long[0];
+                }
+                return new long[]{Math.max(0, tamano - sufijo), tamano - 1};
+            }
+            long inicio = Long.parseLong(desde);
+            long fin = hasta.isEmpty() ? tamano - 1 : Math.min(Long.parseLong(hasta), tamano - 1);
+            if (inicio < 0 || inicio >= tamano || fin < inicio) {
+                return new long[0];
+            }
+            return new long[]{inicio, fin};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean coincide(String siNoCoincide, String etag) {
+        if (siNoCoincide == null) {
+            return false;
+        }
+        for (String valor : siNoCoincide.split(",")) {
+            String candidato = valor.trim();
+            if (candidato.startsWith("W/")) {
+                candidato = candidato.substring(2);
+            }
+            if (candidato.equals("*") || candidato.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,27 @@
+package com.zabora.subscription.evento;
+
+import com.zabora.subscription.modelo.enumeracion.EstadoSuscripcion;
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+/**
+ * Evento publicado cada vez que cambia el derecho (plan/estado/vigencia)
+ * de la suscripción de un usuario.
+ *
+ * Lo emite SuscripcionServicio en todas las rutas de escritura, y lo consumen
+ * los componentes que mantienen copias derivadas de esa información (caches, índices, etc.).
+ */
+@Value
+public class CambioSuscripcionEvento {
+    // ID del usuario cuyo derecho cambió
+    String usuarioId;
+    // ID de la suscripción modificada
+    String suscripcionId;
+    // Nombre del plan de la suscripción ("gratuito", "premium")
+    String plan;
+    // Nuevo estado de la suscripción
+    EstadoSuscripcion estado;
+    // Fin del periodo actual (null para planes que no expiran)
+    LocalDateTime finPeriodoActual;
+}
@@ -0,0 +1,21 @@
+package com.zabora.subscription.evento;
+
+import com.zabora.subscription.modelo.dto.CambioDerechoDTO;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Evento publicado en cada nodo cuando RegistroCambiosDerechos lee cambios nuevos
+ * del registro compartido, incluidos los que hizo el mismo nodo.
+ *
+ * Lo consumen los componentes cuyas copias derivadas deben enterarse también de los
+ * cambios hechos en otras instancias.
+ */
+@Value
+public class CambiosDerechosLeidosEvento {
+    // Secuencia hasta la que ya se había leído antes de estos cambios
+    long desde;
+    // Cambios leídos, en orden de secuencia
+    List<CambioDerechoDTO> cambios;
+}
@@ -0,0 +1,222 @@
+package com.zabora.subscription.evento;
+
+import com.zabora.subscription.modelo.dto.CambioDerechoDTO;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Feed de cambios de derechos para los servicios que mantienen una réplica local
+ * de las suscripciones, servido por Server-Sent Events.
+ *
+ * Los cambios salen del registro compartido (RegistroCambiosDerechos) y su secuencia es
+ * el ID de la tabla cambios_derechos, la misma en todos los nodos: un consumidor puede
+ * reconectarse a cualquier instancia con la última secuencia que aplicó (Last-Event-ID)
+ * y recibe solo lo que le falta. Los últimos cambios se guardan también en memoria; a un
+ * consumidor más atrasado se le envían desde la base de datos.
+ * Si su secuencia ya se eliminó del registro (o no existe) se le envía un evento
+ * "resincronizar" y debe descartar su réplica.
+ */
+@Component
+@Slf4j
+public class FeedCambiosDerechos {
+
+    public static final String EVENTO_CAMBIO = "cambio";
+    public static final String EVENTO_RESINCRONIZAR = "resincronizar";
+
+    private final RegistroCambiosDerechos registro;
+    private final int capacidad;
+    private final long timeoutMs;
+
+    // Últimos cambios leídos del registro, por secuencia; cubren (recientesDesde, último leído].
+    // Solo los usa el hilo del despachador.
+    private final NavigableMap<Long, CambioDerechoDTO> recientes = new TreeMap<>();
+    private long recientesDesde = Long.MAX_VALUE;
+
+    private final Set<Suscriptor> suscriptores = ConcurrentHashMap.newKeySet();
+
+    // Un solo hilo hace todos los envíos, para que la lectura del registro no espere la red
+    private final ExecutorService despachador = Executors.newSingleThreadExecutor(r -> {
+        Thread hilo = new Thread(r, "feed-derechos");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    public FeedCambiosDerechos(RegistroCambiosDerechos registro,
+                               @Value("${app.feed-derechos.capacidad:10000}") int capacidad,
+                               @Value("${app.feed-derechos.timeout-ms:1800000}") long timeoutMs,
+                               MeterRegistry registry) {
+        this.registro = registro;
+        this.capacidad = capacidad;
+        this.timeoutMs = timeoutMs;
+        Gauge.builder("suscripciones.feed.suscriptores", suscriptores, Set::size)
+                .description("Conexiones abiertas al feed de cambios de derechos")
+                .register(registry);
+    }
+
+    /**
+     * Guarda los cambios leídos del registro (de este nodo o de otros) y los envía a los suscriptores.
+     */
+    @EventListener
+    public void alLeerCambios(CambiosDerechosLeidosEvento evento) {
+        ejecutar(() -> {
+            if (recientes.isEmpty()) {
+                recientesDesde = evento.getDesde();
+            }
+            evento.getCambios().forEach(c -> recientes.put(c.getSecuencia(), c));
+            while (recientes.size() > capacidad) {
+                recientesDesde = recientes.pollFirstEntry().getKey();
+            }
+            suscriptores.forEach(this::enviarPendientes);
+        });
+    }
+
+    /**
+     * Abre una conexión al feed.
+     *
+     * @param desde última secuencia que el consumidor ya aplicó; null para recibir solo cambios nuevos
+     * @return Emisor SSE de la conexión
+     */
+    public SseEmitter suscribir(Long desde) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Suscriptor suscriptor = new Suscriptor(emitter, desde != null ? desde : registro.confirmadoHasta());
+        emitter.onCompletion(() -> suscriptores.remove(suscriptor));
+        emitter.onError(e -> suscriptores.remove(suscriptor));
+        suscriptores.add(suscriptor);
+        ejecutar(() -> {
+            if (desde != null && !disponible(desde)) {
+                resincronizar(suscriptor, registro.confirmadoHasta());
+            }
+            enviarPendientes(suscriptor);
+        });
+        return emitter;
+    }
+
+    /**
+     * Envía un comentario vacío a cada conexión para detectar las que se cerraron
+     * y evitar que proxies intermedios las corten por inactividad.
+     */
+    @Scheduled(fixedRateString = "${app.feed-derechos.intervalo-heartbeat-ms:15000}")
+    public void enviarHeartbeat() {
+        if (suscriptores.isEmpty()) {
+            return;
+        }
+        ejecutar(() -> suscriptores.forEach(s -> enviar(s, SseEmitter.event().comment("hb"))));
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        despachador.shutdownNow();
+        suscriptores.forEach(s -> s.emitter.complete());
+        suscriptores.clear();
+    }
+
+    /**
+     * Indica si los cambios posteriores a la secuencia todavía están en el registro.
+     */
+    private boolean disponible(long desde) {
+        long hasta = registro.confirmadoHasta();
+        if (desde == hasta) {
+            return true;
+        }
+        long[] rango = registro.rangoDisponible();
+        // Sin cambios guardados, solo está al día quien ya tenía la última secuencia;
+        // una secuencia mayor que todas las del registro no salió de aquí
+        return rango != null && desde >= rango[0] - 1 && desde <= rango[1];
+    }
+
+    /**
+     * Envía al suscriptor los cambios posteriores a su última secuencia.
+     * Solo se llama desde el hilo del despachador.
+     */
+    private void enviarPendientes(Suscriptor suscriptor) {
+        // Hasta lo que ya llegó a este hilo; lo que sigue en cola se envía al procesarlo
+        long hasta = recientes.isEmpty() ? registro.confirmadoHasta() : recientes.lastKey();
+        while (suscriptor.ultimaEnviada < hasta) {
+            List<CambioDerechoDTO> tramo = tramo(suscriptor.ultimaEnviada, hasta);
+            if (tramo.isEmpty()) {
+                // Solo quedaban huecos de transacciones deshechas
+                suscriptor.ultimaEnviada = hasta;
+                return;
+            }
+            for (CambioDerechoDTO cambio : tramo) {
+                if (!enviar(suscriptor, SseEmitter.event()
+                        .id(Long.toString(cambio.getSecuencia()))
+                        .name(EVENTO_CAMBIO)
+                        .data(cambio, MediaType.APPLICATION_JSON))) {
+                    return;
+                }
+                suscriptor.ultimaEnviada = cambio.getSecuencia();
+            }
+        }
+    }
+
+    /**
+     * Siguientes cambios después de la secuencia: de memoria si están, si no de la base de datos.
+     */
+    private List<CambioDerechoDTO> tramo(long desde, long hasta) {
+        if (desde >= recientesDesde) {
+            return new ArrayList<>(recientes.subMap(desde, false, hasta, true).values());
+        }
+        return registro.leer(desde, hasta, capacidad);
+    }
+
+    private void resincronizar(Suscriptor suscriptor, long hasta) {
+        if (enviar(suscriptor, SseEmitter.event()
+                .id(Long.toString(hasta))
+                .name(EVENTO_RESINCRONIZAR)
+                .data(Map.of("secuencia", hasta), MediaType.APPLICATION_JSON))) {
+            suscriptor.ultimaEnviada = hasta;
+        }
+    }
+
+    private boolean enviar(Suscriptor suscriptor, SseEmitter.SseEventBuilder evento) {
+        try {
+            suscriptor.emitter.send(evento);
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Conexión al feed de derechos cerrada: {}", e.getMessage());
+            suscriptores.remove(suscriptor);
+            suscriptor.emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    private void ejecutar(Runnable tarea) {
+        try {
+            despachador.execute(tarea);
+        } catch (RejectedExecutionException e) {
+            // La aplicación se está deteniendo
+        }
+    }
+
+    private static final class Suscriptor {
+        private final SseEmitter emitter;
+        // Solo la modifica el hilo del despachador
+        private long ultimaEnviada;
+
+        private Suscriptor(SseEmitter emitter, long ultimaEnviada) {
+            this.emitter = emitter;
+            this.ultimaEnviada = ultimaEnviada;
+        }
+    }
+}
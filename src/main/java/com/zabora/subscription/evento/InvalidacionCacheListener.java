@@ -0,0 +1,51 @@
+package com.zabora.subscription.evento;
+
+import com.zabora.subscription.config.CacheConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Invalida la cache de verificación cuando cambia la suscripción de un usuario.
+ *
+ * Se ejecuta después del commit para que una lectura concurrente no vuelva a
+ * cargar en la cache el estado anterior al cambio. Si el evento se publica fuera
+ * de una transacción, se ejecuta de inmediato. Va antes que los demás listeners
+ * para que ninguno exponga una versión nueva mientras la cache aún tiene datos viejos.
+ *
+ * Los cambios hechos en otras instancias llegan por el registro compartido
+ * (CambiosDerechosLeidosEvento) y se invalidan igual en cada nodo.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class InvalidacionCacheListener {
+
+    private final CacheManager cacheManager;
+
+    @Order(0)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarSuscripcion(CambioSuscripcionEvento evento) {
+        Cache cache = cacheManager.getCache(CacheConfig.CACHE_VERIFICACION);
+        if (cache != null) {
+            cache.evict(evento.getUsuarioId());
+            log.debug("Cache de verificación invalidada para usuario: {}", evento.getUsuarioId());
+        }
+    }
+
+    // Después del filtro y del índice: si se invalidara antes, una verificación concurrente
+    // podría volver a guardar en la cache la respuesta que dan sin el cambio
+    @Order(50)
+    @EventListener
+    public void alLeerCambios(CambiosDerechosLeidosEvento evento) {
+        Cache cache = cacheManager.getCache(CacheConfig.CACHE_VERIFICACION);
+        if (cache != null) {
+            evento.getCambios().forEach(c -> cache.evict(c.getUsuarioId()));
+        }
+    }
+}
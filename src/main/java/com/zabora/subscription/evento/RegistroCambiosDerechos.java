@@ -0,0 +1,237 @@
+package com.zabora.subscription.evento;
+
+import com.zabora.subscription.modelo.dto.CambioDerechoDTO;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registro compartido de cambios de derechos (tabla cambios_derechos).
+ *
+ * EXPLICACIÓN:
+ * Cada nodo mantiene copias en memoria de los derechos (filtro, índice, cache, feed SSE),
+ * pero los eventos de Spring solo llegan al nodo que hizo el cambio. Por eso cada
+ * CambioSuscripcionEvento se guarda también en esta tabla, en la misma transacción que el
+ * cambio, y cada nodo la lee en orden de ID para enterarse de lo que hicieron los demás.
+ * Lo leído se publica como CambiosDerechosLeidosEvento.
+ *
+ * El ID autoincremental es la secuencia del feed: es el mismo en todos los nodos, así que
+ * un consumidor puede reconectarse a cualquiera con su último ID.
+ *
+ * Los IDs se asignan al insertar pero se ven al confirmar, así que una transacción más
+ * lenta puede dejar un hueco momentáneo: la lectura se detiene en el primer hueco y solo
+ * lo salta si sigue ahí después de espera-huecos-ms (la transacción se deshizo).
+ * Así nadie recibe un ID mayor antes que uno menor que aún no confirmaba.
+ */
+@Component
+@Slf4j
+public class RegistroCambiosDerechos {
+
+    private static final String COLUMNAS =
+            "SELECT id, usuario_id, plan, estado, fin_periodo_actual, fecha_cambio FROM cambios_derechos ";
+
+    private static final RowMapper<CambioDerechoDTO> MAPEADOR = (rs, i) -> {
+        Timestamp fin = rs.getTimestamp("fin_periodo_actual");
+        return CambioDerechoDTO.builder()
+                .secuencia(rs.getLong("id"))
+                .usuarioId(rs.getString("usuario_id"))
+                .plan(rs.getString("plan"))
+                .estado(rs.getString("estado"))
+                .finPeriodoActual(fin != null ? fin.toLocalDateTime() : null)
+                .fechaCambio(rs.getTimestamp("fecha_cambio").toLocalDateTime())
+                .build();
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int tamanoLote;
+    private final long esperaHuecosMs;
+    private final Duration retencion;
+
+    // Último ID leído en orden (sin huecos pendientes); -1 hasta que arranca la aplicación
+    private volatile long confirmadoHasta = -1;
+
+    // Primer ID que falta en la lectura y desde cuándo falta; solo los usa el hilo que lee
+    private long hueco = -1;
+    private long huecoDesdeMs;
+
+    public RegistroCambiosDerechos(JdbcTemplate jdbcTemplate,
+                                   EntityManager entityManager,
+                                   ApplicationEventPublisher eventPublisher,
+                                   @Value("${app.cambios-derechos.tamano-lote:1000}") int tamanoLote,
+                                   @Value("${app.cambios-derechos.espera-huecos-ms:10000}") long esperaHuecosMs,
+                                   @Value("${app.cambios-derechos.retencion-horas:168}") long retencionHoras) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManager = entityManager;
+        this.eventPublisher = eventPublisher;
+        this.tamanoLote = tamanoLote;
+        this.esperaHuecosMs = esperaHuecosMs;
+        this.retencion = Duration.ofHours(retencionHoras);
+    }
+
+    /**
+     * Empieza a leer desde el último cambio ya registrado; las copias en memoria se
+     * construyen desde la base de datos al arrancar.
+     */
+    @Order(0)
+    @EventListener(ApplicationReadyEvent.class)
+    public void iniciar() {
+        Long maximo = jdbcTemplate.queryForObject("SELECT MAX(id) FROM cambios_derechos", Long.class);
+        confirmadoHasta = maximo != null ? maximo : 0;
+        log.info("Registro de cambios de derechos leído desde la secuencia {}", confirmadoHasta);
+    }
+
+    /**
+     * Guarda el cambio junto con la transacción que lo publica. Los cambios de una misma
+     * transacción se insertan en un solo lote justo antes del commit.
+     */
+    @EventListener
+    public void alCambiarSuscripcion(CambioSuscripcionEvento evento) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            insertar(List.of(evento));
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        List<CambioSuscripcionEvento> pendientes =
+                (List<CambioSuscripcionEvento>) TransactionSynchronizationManager.getResource(this);
+        if (pendientes == null) {
+            List<CambioSuscripcionEvento> nuevos = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(this, nuevos);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    // Primero las escrituras pendientes de JPA: el bloqueo de la fila de la suscripción
+                    // se toma antes del ID del cambio, y dos cambios del mismo usuario quedan en orden
+                    entityManager.flush();
+                    insertar(nuevos);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(RegistroCambiosDerechos.this);
+                }
+            });
+            pendientes = nuevos;
+        }
+        pendientes.add(evento);
+    }
+
+    /**
+     * Lee los cambios confirmados desde la última lectura y los publica en este nodo.
+     */
+    @Scheduled(fixedDelayString = "${app.cambios-derechos.intervalo-lectura-ms:1000}")
+    public void leerNuevos() {
+        if (confirmadoHasta < 0) {
+            return;
+        }
+        List<CambioDerechoDTO> leidos;
+        do {
+            leidos = leer(confirmadoHasta, Long.MAX_VALUE, tamanoLote);
+            List<CambioDerechoDTO> confirmados = confirmados(leidos);
+            if (confirmados.isEmpty()) {
+                return;
+            }
+            long desde = confirmadoHasta;
+            confirmadoHasta = confirmados.get(confirmados.size() - 1).getSecuencia();
+            eventPublisher.publishEvent(new CambiosDerechosLeidosEvento(desde, confirmados));
+            if (confirmados.size() < leidos.size()) {
+                return;
+            }
+        } while (leidos.size() == tamanoLote);
+    }
+
+    /**
+     * Elimina los cambios más antiguos que la retención; un consumidor que pida uno de ellos
+     * recibe "resincronizar".
+     */
+    @Scheduled(fixedDelayString = "${app.cambios-derechos.intervalo-limpieza-ms:3600000}",
+               initialDelayString = "${app.cambios-derechos.intervalo-limpieza-ms:3600000}")
+    public void eliminarAntiguos() {
+        int eliminados = jdbcTemplate.update("DELETE FROM cambios_derechos WHERE fecha_cambio < ?",
+                Timestamp.valueOf(LocalDateTime.now().minus(retencion)));
+        if (eliminados > 0) {
+            log.info("Cambios de derechos antiguos eliminados: {}", eliminados);
+        }
+    }
+
+    /**
+     * Secuencia hasta la que este nodo ya leyó y publicó los cambios.
+     */
+    public long confirmadoHasta() {
+        return Math.max(confirmadoHasta, 0);
+    }
+
+    /**
+     * Cambios con secuencia en (desde, hasta], en orden.
+     */
+    public List<CambioDerechoDTO> leer(long desde, long hasta, int limite) {
+        return jdbcTemplate.query(COLUMNAS + "WHERE id > ? AND id <= ? ORDER BY id LIMIT ?",
+                MAPEADOR, desde, hasta, limite);
+    }
+
+    /**
+     * Rango de secuencias que todavía están en el registro: {mínima, máxima}, o null si está vacío.
+     */
+    public long[] rangoDisponible() {
+        return jdbcTemplate.queryForObject("SELECT MIN(id), MAX(id) FROM cambios_derechos",
+                (rs, i) -> rs.getObject(1) == null ? null : new long[]{rs.getLong(1), rs.getLong(2)});
+    }
+
+    /**
+     * Toma los leídos hasta el primer hueco que aún puede llenarse.
+     */
+    private List<CambioDerechoDTO> confirmados(List<CambioDerechoDTO> leidos) {
+        List<CambioDerechoDTO> confirmados = new ArrayList<>(leidos.size());
+        long esperado = confirmadoHasta + 1;
+        long ahora = System.currentTimeMillis();
+        for (CambioDerechoDTO cambio : leidos) {
+            if (cambio.getSecuencia() != esperado) {
+                if (hueco != esperado) {
+                    hueco = esperado;
+                    huecoDesdeMs = ahora;
+                }
+                if (ahora - huecoDesdeMs < esperaHuecosMs) {
+                    break;
+                }
+                log.debug("Secuencias {} a {} del registro de cambios descartadas (transacción deshecha)",
+                        esperado, cambio.getSecuencia() - 1);
+            }
+            confirmados.add(cambio);
+            esperado = cambio.getSecuencia() + 1;
+        }
+        return confirmados;
+    }
+
+    private void insertar(List<CambioSuscripcionEvento> eventos) {
+        Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO cambios_derechos (usuario_id, suscripcion_id, plan, estado, fin_periodo_actual, " +
+                "fecha_cambio) VALUES (?, ?, ?, ?, ?, ?)",
+                eventos, eventos.size(), (ps, evento) -> {
+                    ps.setString(1, evento.getUsuarioId());
+                    ps.setString(2, evento.getSuscripcionId());
+                    ps.setString(3, evento.getPlan());
+                    ps.setString(4, evento.getEstado().name());
+                    ps.setTimestamp(5, evento.getFinPeriodoActual() != null
+                            ? Timestamp.valueOf(evento.getFinPeriodoActual()) : null);
+                    ps.setTimestamp(6, ahora);
+                });
+    }
+}
@@ -0,0 +1,11 @@
+package com.zabora.subscription.excepcion;
+
+/**
+ * La pasarela rechazó la solicitud antes de crear el cobro (método de pago no soportado,
+ * datos incompletos...): se sabe con certeza que no hubo cargo.
+ */
+public class CobroNoRealizadoException extends PagoException {
+    public CobroNoRealizadoException(String mensaje) {
+        super(mensaje);
+    }
+}
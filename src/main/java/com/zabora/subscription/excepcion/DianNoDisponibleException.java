@@ -0,0 +1,16 @@
+package com.zabora.subscription.excepcion;
+
+/**
+ * No se obtuvo respuesta de la DIAN para un lote (red, tiempo agotado, error del servicio).
+ * El lote se puede volver a enviar; un documento rechazado no es este error sino una respuesta.
+ */
+public class DianNoDisponibleException extends RuntimeException {
+
+    public DianNoDisponibleException(String mensaje) {
+        super(mensaje);
+    }
+
+    public DianNoDisponibleException(String mensaje, Throwable causa) {
+        super(mensaje, causa);
+    }
+}
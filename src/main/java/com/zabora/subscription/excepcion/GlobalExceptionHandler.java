@@ -2,6 +2,8 @@ package com.zabora.subscription.excepcion;
 
 import com.zabora.subscription.modelo.dto.ErrorDTO;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -50,6 +52,77 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.PAYMENT_REQUIRED).body(error);
     }
     
+    @ExceptionHandler(PasarelaNoDisponibleException.class)
+    public ResponseEntity<ErrorDTO> handlePasarelaNoDisponible(
+            PasarelaNoDisponibleException ex, WebRequest request) {
+        
+        log.warn("Pago rechazado sin llamar a la pasarela: {}", ex.getMessage());
+        
+        ErrorDTO error = ErrorDTO.builder()
+            .timestamp(LocalDateTime.now())
+            .mensaje(ex.getMessage())
+            .detalle("La pasarela de pagos no está disponible en este momento; no se realizó ningún cobro")
+            .ruta(request.getDescription(false).replace("uri=", ""))
+            .codigoError("PASARELA_NO_DISPONIBLE")
+            .build();
+        
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, Long.toString(ex.getSegundosReintento()))
+            .body(error);
+    }
+    
+    @ExceptionHandler(IdempotenciaException.class)
+    public ResponseEntity<ErrorDTO> handleIdempotenciaException(
+            IdempotenciaException ex, WebRequest request) {
+        
+        log.warn("Conflicto de idempotencia: {}", ex.getMessage());
+        
+        ErrorDTO error = ErrorDTO.builder()
+            .timestamp(LocalDateTime.now())
+            .mensaje(ex.getMessage())
+            .detalle("La Idempotency-Key no se puede usar con esta solicitud en este momento")
+            .ruta(request.getDescription(false).replace("uri=", ""))
+            .codigoError("IDEMPOTENCIA_CONFLICTO")
+            .build();
+        
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+    }
+    
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<ErrorDTO> handleConflictoConcurrencia(
+            OptimisticLockingFailureException ex, WebRequest request) {
+        
+        // Ya se reintentó (app.concurrencia.max-intentos) y la suscripción siguió cambiando
+        log.warn("Conflicto de concurrencia sin resolver: {}", ex.getMessage());
+        
+        ErrorDTO error = ErrorDTO.builder()
+            .timestamp(LocalDateTime.now())
+            .mensaje("La suscripción fue modificada por otra operación al mismo tiempo")
+            .detalle("Intenta de nuevo en unos segundos")
+            .ruta(request.getDescription(false).replace("uri=", ""))
+            .codigoError("CONFLICTO_CONCURRENCIA")
+            .build();
+        
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+    }
+    
+    @ExceptionHandler(WebhookException.class)
+    public ResponseEntity<ErrorDTO> handleWebhookException(
+            WebhookException ex, WebRequest request) {
+        
+        log.warn("Webhook rechazado: {}", ex.getMessage());
+        
+        ErrorDTO error = ErrorDTO.builder()
+            .timestamp(LocalDateTime.now())
+            .mensaje(ex.getMessage())
+            .detalle("El evento del webhook no es válido")
+            .ruta(request.getDescription(false).replace("uri=", ""))
+            .codigoError("WEBHOOK_INVALIDO")
+            .build();
+        
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
+    }
+    
     @ExceptionHandler(RecursoNoEncontradoException.class)
     public ResponseEntity<ErrorDTO> handleRecursoNoEncontrado(
             RecursoNoEncontradoException ex, WebRequest request) {
@@ -0,0 +1,7 @@
+package com.zabora.subscription.excepcion;
+
+public class IdempotenciaException extends RuntimeException {
+    public IdempotenciaException(String mensaje) {
+        super(mensaje);
+    }
+}
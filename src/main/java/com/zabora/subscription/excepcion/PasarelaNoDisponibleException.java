@@ -0,0 +1,16 @@
+package com.zabora.subscription.excepcion;
+
+public class PasarelaNoDisponibleException extends RuntimeException {
+
+    // Segundos sugeridos al cliente antes de reintentar (header Retry-After)
+    private final long segundosReintento;
+
+    public PasarelaNoDisponibleException(String mensaje, long segundosReintento) {
+        super(mensaje);
+        this.segundosReintento = segundosReintento;
+    }
+
+    public long getSegundosReintento() {
+        return segundosReintento;
+    }
+}
@@ -0,0 +1,7 @@
+package com.zabora.subscription.excepcion;
+
+public class WebhookException extends RuntimeException {
+    public WebhookException(String mensaje) {
+        super(mensaje);
+    }
+}
@@ -0,0 +1,112 @@
+package com.zabora.subscription.indice;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtro de Bloom para cadenas, seguro para usar desde varios hilos.
+ *
+ * Responde "definitivamente no está" o "puede que esté": nunca da falsos negativos,
+ * y la probabilidad de falsos positivos depende de cuántos elementos se agreguen
+ * respecto a la capacidad con la que se creó.
+ *
+ * Usa doble hashing sobre un hash de 64 bits, así que cada consulta no crea objetos.
+ */
+public class FiltroBloom {
+
+    private final AtomicLongArray bits;
+    private final long cantidadBits;
+    private final int cantidadHashes;
+
+    /**
+     * @param capacidadEsperada Cantidad de elementos para la que se dimensiona el filtro
+     * @param probabilidadFalsoPositivo Probabilidad de falso positivo deseada con esa capacidad (ej. 0.01)
+     */
+    public FiltroBloom(long capacidadEsperada, double probabilidadFalsoPositivo) {
+        long n = Math.max(1, capacidadEsperada);
+        long m = (long) Math.ceil(-n * Math.log(probabilidadFalsoPositivo) / (Math.log(2) * Math.log(2)));
+        int palabras = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64);
+        this.bits = new AtomicLongArray(palabras);
+        this.cantidadBits = (long) palabras * 64;
+        this.cantidadHashes = Math.max(1, (int) Math.round((double) cantidadBits / n * Math.log(2)));
+    }
+
+    /**
+     * Agrega un elemento al filtro.
+     */
+    public void agregar(String valor) {
+        long hash = hash64(valor);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= cantidadHashes; i++) {
+            long posicion = indice(h1 + (long) i * h2);
+            int palabra = (int) (posicion >>> 6);
+            long mascara = 1L << posicion;
+            long actual;
+            do {
+                actual = bits.get(palabra);
+                if ((actual & mascara) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(palabra, actual, actual | mascara));
+        }
+    }
+
+    /**
+     * @return false si el elemento definitivamente no se agregó; true si puede que sí
+     */
+    public boolean puedeContener(String valor) {
+        long hash = hash64(valor);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= cantidadHashes; i++) {
+            long posicion = indice(h1 + (long) i * h2);
+            if ((bits.get((int) (posicion >>> 6)) & (1L << posicion)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Probabilidad de falso positivo estimada a partir de la proporción de bits activos.
+     */
+    public double probabilidadFalsoPositivoEstimada() {
+        long activos = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            activos += Long.bitCount(bits.get(i));
+        }
+        return Math.pow((double) activos / cantidadBits, cantidadHashes);
+    }
+
+    /**
+     * Memoria ocupada por el arreglo de bits, en bytes.
+     */
+    public long tamanoBytes() {
+        return cantidadBits / 8;
+    }
+
+    public int getCantidadHashes() {
+        return cantidadHashes;
+    }
+
+    private long indice(long combinado) {
+        return (combinado & Long.MAX_VALUE) % cantidadBits;
+    }
+
+    /**
+     * Hash de 64 bits (FNV-1a seguido de la mezcla final de MurmurHash3).
+     */
+    static long hash64(String valor) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < valor.length(); i++) {
+            h ^= valor.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,170 @@
+package com.zabora.subscription.indice;
+
+import com.zabora.subscription.evento.CambioSuscripcionEvento;
+import com.zabora.subscription.evento.CambiosDerechosLeidosEvento;
+import com.zabora.subscription.modelo.dto.CambioDerechoDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Filtro de los usuarios que tienen (o tuvieron) alguna fila en suscripciones_usuarios.
+ *
+ * La mayoría de las verificaciones son de usuarios gratuitos que nunca se suscribieron.
+ * Si el filtro dice que el usuario definitivamente no tiene suscripciones, la verificación
+ * responde con el plan gratuito sin consultar la base de datos.
+ *
+ * El filtro se construye al iniciar, se actualiza en suscribirse y se reconstruye
+ * periódicamente. Las suscripciones creadas en otras instancias llegan por el registro
+ * compartido de cambios (RegistroCambiosDerechos), que además invalida la cache de
+ * verificación de esos usuarios en cada nodo; un "no" solo puede estar desactualizado
+ * durante el intervalo de lectura de ese registro.
+ */
+@Component
+@Slf4j
+public class FiltroUsuariosSuscritos {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Counter consultasNegativas;
+    private final Counter consultasPositivas;
+
+    // Probabilidad de falso positivo con la que se dimensiona el filtro
+    @Value("${app.filtro-usuarios.probabilidad-falso-positivo:0.01}")
+    private double probabilidadFalsoPositivo;
+
+    // Capacidad mínima del filtro, para dejar espacio a usuarios nuevos
+    @Value("${app.filtro-usuarios.capacidad-minima:100000}")
+    private long capacidadMinima;
+
+    @Value("${app.filtro-usuarios.habilitado:true}")
+    private boolean habilitado;
+
+    // Filtro en uso; null mientras no se ha construido
+    private volatile FiltroBloom filtro;
+
+    // Usuarios agregados desde que empezó la reconstrucción en curso; null si no hay ninguna.
+    // Se consultan junto al filtro hasta que el nuevo filtro los tiene a todos.
+    private volatile Set<String> agregadosDurante;
+
+    public FiltroUsuariosSuscritos(JdbcTemplate jdbcTemplate, MeterRegistry registry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.consultasNegativas = Counter.builder("suscripciones.filtro.consultas")
+                .description("Consultas al filtro de usuarios suscritos")
+                .tag("resultado", "negativo")
+                .register(registry);
+        this.consultasPositivas = Counter.builder("suscripciones.filtro.consultas")
+                .description("Consultas al filtro de usuarios suscritos")
+                .tag("resultado", "positivo")
+                .register(registry);
+        Gauge.builder("suscripciones.filtro.falsos_positivos.estimados", this,
+                        f -> f.filtro != null ? f.filtro.probabilidadFalsoPositivoEstimada() : 0)
+                .description("Probabilidad de falso positivo estimada del filtro")
+                .register(registry);
+        Gauge.builder("suscripciones.filtro.memoria", this,
+                        f -> f.filtro != null ? f.filtro.tamanoBytes() : 0)
+                .description("Memoria ocupada por el filtro de usuarios suscritos")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void construirAlIniciar() {
+        reconstruir();
+    }
+
+    /**
+     * Reconstruye el filtro desde cero. El filtro anterior sigue respondiendo
+     * hasta que el nuevo está completo.
+     */
+    @Scheduled(fixedDelayString = "${app.filtro-usuarios.intervalo-reconstruccion-ms:3600000}",
+               initialDelayString = "${app.filtro-usuarios.intervalo-reconstruccion-ms:3600000}")
+    public synchronized void reconstruir() {
+        if (!habilitado) {
+            return;
+        }
+
+        // Antes de la primera consulta: un alta que llegue desde aquí queda guardada aunque
+        // las consultas ya no la vean
+        Set<String> durante = ConcurrentHashMap.newKeySet();
+        agregadosDurante = durante;
+        FiltroBloom nuevo;
+        Long usuarios;
+        try {
+            usuarios = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(DISTINCT usuario_id) FROM suscripciones_usuarios", Long.class);
+            long capacidad = Math.max(capacidadMinima, (usuarios != null ? usuarios : 0) * 2);
+
+            nuevo = new FiltroBloom(capacidad, probabilidadFalsoPositivo);
+            // Se recorre fila por fila para no cargar todos los IDs en memoria
+            jdbcTemplate.query("SELECT DISTINCT usuario_id FROM suscripciones_usuarios",
+                    rs -> { nuevo.agregar(rs.getString(1)); });
+            // Desde aquí las altas van al nuevo filtro; las anteriores se copian de "durante",
+            // que se sigue consultando hasta terminar de copiarlas
+            filtro = nuevo;
+            durante.forEach(nuevo::agregar);
+        } finally {
+            agregadosDurante = null;
+        }
+
+        log.info("Filtro de usuarios suscritos construido: {} usuarios, {} KB, {} hashes",
+                usuarios, nuevo.tamanoBytes() / 1024, nuevo.getCantidadHashes());
+    }
+
+    /**
+     * @return false si el usuario definitivamente no tiene ninguna suscripción;
+     *         true si puede tenerla (o si el filtro aún no está listo)
+     */
+    public boolean puedeTenerSuscripcion(String usuarioId) {
+        FiltroBloom actual = filtro;
+        if (actual == null) {
+            return true;
+        }
+        Set<String> durante = agregadosDurante;
+        boolean resultado = actual.puedeContener(usuarioId) || (durante != null && durante.contains(usuarioId));
+        (resultado ? consultasPositivas : consultasNegativas).increment();
+        return resultado;
+    }
+
+    /**
+     * Agrega el usuario en cuanto se crea su suscripción (antes del commit).
+     * Agregarlo antes es seguro: en el peor caso la consulta va a la base de datos.
+     */
+    @EventListener
+    public void alCambiarSuscripcion(CambioSuscripcionEvento evento) {
+        agregar(evento.getUsuarioId());
+    }
+
+    /**
+     * Agrega los usuarios de los cambios hechos en cualquier instancia, ya confirmados.
+     */
+    @Order(0)
+    @EventListener
+    public void alLeerCambios(CambiosDerechosLeidosEvento evento) {
+        for (CambioDerechoDTO cambio : evento.getCambios()) {
+            agregar(cambio.getUsuarioId());
+        }
+    }
+
+    private void agregar(String usuarioId) {
+        // Primero en "durante": si el filtro se cambia entre las dos líneas, la copia lo incluye
+        Set<String> durante = agregadosDurante;
+        if (durante != null) {
+            durante.add(usuarioId);
+        }
+        FiltroBloom actual = filtro;
+        if (actual != null) {
+            actual.agregar(usuarioId);
+        }
+    }
+}
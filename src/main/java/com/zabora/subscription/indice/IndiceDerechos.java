@@ -0,0 +1,417 @@
+package com.zabora.subscription.indice;
+
+import com.zabora.subscription.evento.CambioSuscripcionEvento;
+import com.zabora.subscription.evento.CambiosDerechosLeidosEvento;
+import com.zabora.subscription.modelo.dto.CambioDerechoDTO;
+import com.zabora.subscription.modelo.enumeracion.EstadoSuscripcion;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Índice en memoria con el derecho vigente de todos los usuarios con suscripción ACTIVA,
+ * para responder la verificación sin consultar la base de datos.
+ *
+ * Cada usuario ocupa tres longs en una tabla de direccionamiento abierto (sondeo lineal):
+ * la clave es un hash de 64 bits del usuarioId, la verificación un segundo hash de 64 bits
+ * calculado de otra forma, y el valor empaqueta el plan, el estado y el fin del periodo
+ * (segundos). Son unos 34 bytes por usuario con el factor de carga usado, frente a los
+ * cientos de bytes de una entidad UsuarioSuscripcion con su plan.
+ *
+ * Una entrada solo corresponde al usuario si coinciden los dos hashes: dos usuarios con la
+ * misma clave ocupan posiciones distintas, así que una colisión del primer hash nunca
+ * devuelve el plan de otro usuario (haría falta que coincidan los 128 bits).
+ *
+ * Se carga al iniciar con las mismas filas que vista_suscripciones_activas (incluyendo las
+ * ACTIVA ya vencidas, que se reportan como EXPIRADA igual que en la consulta normal) y se
+ * mantiene al día con CambioSuscripcionEvento y con el registro compartido de cambios
+ * (CambiosDerechosLeidosEvento), que trae también los cambios hechos por otras instancias
+ * con el retraso de su intervalo de lectura. La reconstrucción periódica es solo un respaldo.
+ */
+@Component
+@Slf4j
+public class IndiceDerechos {
+
+    /** Resultado de buscar() cuando el usuario no tiene una suscripción ACTIVA en el índice. */
+    public static final long AUSENTE = -1L;
+
+    private static final EstadoSuscripcion[] ESTADOS = EstadoSuscripcion.values();
+    private static final double FACTOR_CARGA = 0.7;
+
+    // Distribución de bits del valor: [plan: 12][estado: 4][fin del periodo en segundos: 40]
+    private static final int BITS_FIN = 40;
+    private static final long MASCARA_FIN = (1L << BITS_FIN) - 1;
+    private static final int DESPLAZAMIENTO_ESTADO = BITS_FIN;
+    private static final int DESPLAZAMIENTO_PLAN = BITS_FIN + 4;
+    private static final int MAX_PLANES = 1 << 12;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.indice-derechos.habilitado:false}")
+    private boolean habilitado;
+
+    // Capacidad mínima del índice, para dejar espacio a usuarios nuevos sin ampliar la tabla
+    @Value("${app.indice-derechos.capacidad-minima:100000}")
+    private int capacidadMinima;
+
+    // Filas leídas por consulta durante la carga
+    @Value("${app.indice-derechos.tamano-pagina:10000}")
+    private int tamanoPagina;
+
+    // Ordinal de cada nombre de plan dentro del índice, y su inverso
+    private final Map<String, Integer> ordinalesPlan = new ConcurrentHashMap<>();
+    private volatile String[] nombresPlan = new String[0];
+
+    // Tabla en uso; null mientras no se ha construido
+    private volatile Tabla tabla;
+
+    // Cambios recibidos durante una reconstrucción, para aplicarlos al terminar (protegido por this)
+    private List<CambioSuscripcionEvento> cambiosDuranteCarga;
+
+    private final Object bloqueoReconstruccion = new Object();
+
+    public IndiceDerechos(JdbcTemplate jdbcTemplate, MeterRegistry registry) {
+        this.jdbcTemplate = jdbcTemplate;
+        Gauge.builder("suscripciones.indice.entradas", this,
+                        i -> i.tabla != null ? i.tabla.ocupadas : 0)
+                .description("Posiciones ocupadas en el índice de derechos")
+                .register(registry);
+        Gauge.builder("suscripciones.indice.memoria", this,
+                        i -> i.tabla != null ? i.tabla.tamanoBytes() : 0)
+                .description("Memoria ocupada por el índice de derechos")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void construirAlIniciar() {
+        reconstruir();
+    }
+
+    /**
+     * Reconstruye el índice desde cero. El índice anterior sigue respondiendo
+     * hasta que el nuevo está completo.
+     */
+    @Scheduled(fixedDelayString = "${app.indice-derechos.intervalo-reconstruccion-ms:3600000}",
+               initialDelayString = "${app.indice-derechos.intervalo-reconstruccion-ms:3600000}")
+    public void reconstruir() {
+        if (!habilitado) {
+            return;
+        }
+        synchronized (bloqueoReconstruccion) {
+            synchronized (this) {
+                cambiosDuranteCarga = new ArrayList<>();
+            }
+
+            Tabla nueva;
+            try {
+                nueva = cargar();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    cambiosDuranteCarga = null;
+                }
+                throw e;
+            }
+
+            int pendientes;
+            synchronized (this) {
+                pendientes = cambiosDuranteCarga.size();
+                for (CambioSuscripcionEvento evento : cambiosDuranteCarga) {
+                    nueva = aplicar(nueva, evento);
+                }
+                cambiosDuranteCarga = null;
+                tabla = nueva;
+            }
+
+            log.info("Índice de derechos construido: {} usuarios, {} MB, {} cambios reaplicados",
+                    nueva.ocupadas, nueva.tamanoBytes() / (1024 * 1024), pendientes);
+        }
+    }
+
+    /**
+     * Lee todas las suscripciones ACTIVA en una tabla nueva.
+     */
+    private Tabla cargar() {
+        Long activas = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM suscripciones_usuarios WHERE estado = 'ACTIVA'", Long.class);
+        long cantidad = activas != null ? activas : 0;
+        // Margen del 25% para las suscripciones nuevas antes de tener que ampliar
+        Tabla nueva = new Tabla(tamanoPara(Math.max(capacidadMinima, cantidad + cantidad / 4)));
+
+        // Paginación por id para no cargar todas las filas de una vez.
+        // Las páginas no son una sola foto consistente, pero todo cambio confirmado
+        // mientras tanto queda en cambiosDuranteCarga y se vuelve a aplicar al final.
+        String ultimoId = "";
+        int leidas;
+        do {
+            List<Object[]> pagina = jdbcTemplate.query(
+                    "SELECT su.id, su.usuario_id, ps.nombre, su.fin_periodo_actual " +
+                    "FROM suscripciones_usuarios su " +
+                    "JOIN planes_suscripcion ps ON su.plan_id = ps.id " +
+                    "WHERE su.estado = 'ACTIVA' AND su.id > ? " +
+                    "ORDER BY su.id LIMIT ?",
+                    (rs, n) -> new Object[] {
+                            rs.getString(1), rs.getString(2), rs.getString(3), rs.getTimestamp(4) },
+                    ultimoId, tamanoPagina);
+            for (Object[] fila : pagina) {
+                Timestamp fin = (Timestamp) fila[3];
+                String usuarioId = (String) fila[1];
+                nueva = poner(nueva, clave(usuarioId), verificacion(usuarioId), empaquetar(
+                        (String) fila[2], EstadoSuscripcion.ACTIVA, fin != null ? fin.toLocalDateTime() : null));
+            }
+            leidas = pagina.size();
+            if (leidas > 0) {
+                ultimoId = (String) pagina.get(leidas - 1)[0];
+            }
+        } while (leidas == tamanoPagina);
+        return nueva;
+    }
+
+    /**
+     * @return true si el índice está habilitado y ya se construyó
+     */
+    public boolean estaListo() {
+        return tabla != null;
+    }
+
+    /**
+     * Busca el derecho del usuario sin reservar memoria.
+     *
+     * @return Valor empaquetado (ver plan, estado y finPeriodoSegundos), o AUSENTE
+     */
+    public long buscar(String usuarioId) {
+        Tabla actual = tabla;
+        return actual != null ? actual.buscar(clave(usuarioId), verificacion(usuarioId)) : AUSENTE;
+    }
+
+    /**
+     * Nombre del plan de un valor devuelto por buscar().
+     */
+    public String plan(long entrada) {
+        return nombresPlan[(int) (entrada >>> DESPLAZAMIENTO_PLAN)];
+    }
+
+    /**
+     * Estado de la suscripción de un valor devuelto por buscar().
+     */
+    public static EstadoSuscripcion estado(long entrada) {
+        return ESTADOS[(int) ((entrada >>> DESPLAZAMIENTO_ESTADO) & 0xF)];
+    }
+
+    /**
+     * Fin del periodo, en segundos desde 1970 con la hora local tomada como UTC;
+     * 0 si el plan no expira.
+     */
+    public static long finPeriodoSegundos(long entrada) {
+        return entrada & MASCARA_FIN;
+    }
+
+    /**
+     * Aplica el cambio después del commit, antes de que se publique la nueva versión (ETag).
+     */
+    @Order(5)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarSuscripcion(CambioSuscripcionEvento evento) {
+        registrar(evento);
+    }
+
+    /**
+     * Aplica los cambios confirmados en cualquier instancia, en orden de secuencia.
+     * Los de este nodo ya estaban aplicados; volver a aplicarlos deja la misma entrada.
+     */
+    @Order(5)
+    @EventListener
+    public void alLeerCambios(CambiosDerechosLeidosEvento evento) {
+        for (CambioDerechoDTO cambio : evento.getCambios()) {
+            registrar(new CambioSuscripcionEvento(cambio.getUsuarioId(), null, cambio.getPlan(),
+                    EstadoSuscripcion.valueOf(cambio.getEstado()), cambio.getFinPeriodoActual()));
+        }
+    }
+
+    private synchronized void registrar(CambioSuscripcionEvento evento) {
+        if (cambiosDuranteCarga != null) {
+            cambiosDuranteCarga.add(evento);
+        }
+        Tabla actual = tabla;
+        if (actual != null) {
+            tabla = aplicar(actual, evento);
+        }
+    }
+
+    private Tabla aplicar(Tabla destino, CambioSuscripcionEvento evento) {
+        long clave = clave(evento.getUsuarioId());
+        long verificacion = verificacion(evento.getUsuarioId());
+        if (evento.getEstado() == EstadoSuscripcion.ACTIVA) {
+            return poner(destino, clave, verificacion,
+                    empaquetar(evento.getPlan(), evento.getEstado(), evento.getFinPeriodoActual()));
+        }
+        // Solo se quita si la entrada es de la misma suscripción (mismo plan y fin de periodo);
+        // si no, el cambio es de otra suscripción del usuario y la activa sigue vigente
+        long actual = destino.buscar(clave, verificacion);
+        if (actual != AUSENTE
+                && plan(actual).equals(evento.getPlan())
+                && finPeriodoSegundos(actual) == segundos(evento.getFinPeriodoActual())) {
+            destino.poner(clave, verificacion, AUSENTE);
+        }
+        return destino;
+    }
+
+    /**
+     * Inserta o actualiza la entrada; si la tabla supera el factor de carga, devuelve una ampliada.
+     */
+    private static Tabla poner(Tabla destino, long clave, long verificacion, long valor) {
+        Tabla resultado = destino;
+        if (resultado.ocupadas + 1 > resultado.capacidad() * FACTOR_CARGA) {
+            resultado = resultado.ampliar();
+        }
+        resultado.poner(clave, verificacion, valor);
+        return resultado;
+    }
+
+    private long empaquetar(String plan, EstadoSuscripcion estado, LocalDateTime finPeriodo) {
+        return ((long) ordinalPlan(plan) << DESPLAZAMIENTO_PLAN)
+                | ((long) estado.ordinal() << DESPLAZAMIENTO_ESTADO)
+                | segundos(finPeriodo);
+    }
+
+    private int ordinalPlan(String plan) {
+        Integer ordinal = ordinalesPlan.get(plan);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        synchronized (ordinalesPlan) {
+            return ordinalesPlan.computeIfAbsent(plan, p -> {
+                String[] nombres = Arrays.copyOf(nombresPlan, nombresPlan.length + 1);
+                if (nombres.length > MAX_PLANES) {
+                    throw new IllegalStateException("Demasiados planes para el índice de derechos");
+                }
+                nombres[nombres.length - 1] = p;
+                nombresPlan = nombres;
+                return nombres.length - 1;
+            });
+        }
+    }
+
+    private static long segundos(LocalDateTime fecha) {
+        return fecha != null ? fecha.toEpochSecond(ZoneOffset.UTC) & MASCARA_FIN : 0;
+    }
+
+    private static long clave(String usuarioId) {
+        long hash = FiltroBloom.hash64(usuarioId);
+        // 0 marca las posiciones vacías
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * Segundo hash del usuarioId, independiente de clave(): otro multiplicador y otra mezcla,
+     * para que dos IDs con la misma clave no coincidan también aquí.
+     */
+    private static long verificacion(String usuarioId) {
+        long h = 0x9e3779b97f4a7c15L ^ usuarioId.length();
+        for (int i = 0; i < usuarioId.length(); i++) {
+            h = Long.rotateLeft(h ^ usuarioId.charAt(i), 23) * 0xd6e8feb86659fd93L;
+        }
+        h ^= h >>> 32;
+        h *= 0xd6e8feb86659fd93L;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static int tamanoPara(long entradas) {
+        long minimo = (long) Math.ceil(entradas / FACTOR_CARGA);
+        return (int) Math.min(1L << 30, Long.highestOneBit(Math.max(minimo - 1, 1)) << 1);
+    }
+
+    /**
+     * Tabla de direccionamiento abierto. Las lecturas no usan bloqueos; las escrituras
+     * se hacen con el monitor del índice (o, durante la carga, desde un solo hilo).
+     * Las entradas nunca se mueven: al quitar un usuario su valor pasa a AUSENTE.
+     */
+    private static final class Tabla {
+        private final AtomicLongArray claves;
+        private final AtomicLongArray verificaciones;
+        private final AtomicLongArray valores;
+        private final int mascara;
+        private volatile int ocupadas;
+
+        private Tabla(int capacidad) {
+            this.claves = new AtomicLongArray(capacidad);
+            this.verificaciones = new AtomicLongArray(capacidad);
+            this.valores = new AtomicLongArray(capacidad);
+            this.mascara = capacidad - 1;
+        }
+
+        private long buscar(long clave, long verificacion) {
+            int i = (int) clave & mascara;
+            while (true) {
+                long k = claves.get(i);
+                if (k == clave && verificaciones.get(i) == verificacion) {
+                    return valores.get(i);
+                }
+                if (k == 0) {
+                    return AUSENTE;
+                }
+                i = (i + 1) & mascara;
+            }
+        }
+
+        private void poner(long clave, long verificacion, long valor) {
+            int i = (int) clave & mascara;
+            while (true) {
+                long k = claves.get(i);
+                if (k == clave && verificaciones.get(i) == verificacion) {
+                    valores.set(i, valor);
+                    return;
+                }
+                if (k == 0) {
+                    // Valor y verificación se escriben antes que la clave para que un lector
+                    // nunca vea la clave sin ellos
+                    valores.set(i, valor);
+                    verificaciones.set(i, verificacion);
+                    claves.set(i, clave);
+                    ocupadas++;
+                    return;
+                }
+                i = (i + 1) & mascara;
+            }
+        }
+
+        private Tabla ampliar() {
+            Tabla nueva = new Tabla(capacidad() * 2);
+            for (int i = 0; i < capacidad(); i++) {
+                long k = claves.get(i);
+                long v = valores.get(i);
+                if (k != 0 && v != AUSENTE) {
+                    nueva.poner(k, verificaciones.get(i), v);
+                }
+            }
+            return nueva;
+        }
+
+        private int capacidad() {
+            return mascara + 1;
+        }
+
+        private long tamanoBytes() {
+            return 3L * Long.BYTES * capacidad();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.zabora.subscription.indice;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zabora.subscription.modelo.dto.RespuestaVerificacionDTO;
+import com.zabora.subscription.servicio.PlanCatalog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.util.Map;
+
+/**
+ * ETags de las respuestas de suscripción.
+ *
+ * La ETag de /verificar y /estado es una huella (MD5) de la respuesta serializada, la misma
+ * que se envía. Se calcula con la respuesta ya armada (que /verificar sirve desde la cache,
+ * el filtro o el índice en memoria), así que no agrega ninguna consulta a la base de datos,
+ * y nunca puede quedar asociada a datos distintos de los que acompaña. Para los mismos
+ * datos es la misma en todas las instancias.
+ *
+ * La de /planes es la huella del contenido del catálogo, igual en todos los nodos.
+ */
+@Component
+@Slf4j
+public class VersionesSuscripcion {
+
+    private final PlanCatalog planCatalog;
+    private final ObjectMapper objectMapper;
+
+    public VersionesSuscripcion(PlanCatalog planCatalog, ObjectMapper objectMapper) {
+        this.planCatalog = planCatalog;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * ETag de GET /verificar/{usuarioId}; null si no se pudo calcular.
+     */
+    public String etagVerificacion(RespuestaVerificacionDTO verificacion) {
+        return etag("v-", verificacion);
+    }
+
+    /**
+     * ETag de GET /estado; null si no se pudo calcular.
+     */
+    public String etagEstado(Map<String, Object> estado) {
+        return etag("e-", estado);
+    }
+
+    /**
+     * ETag de GET /planes.
+     */
+    public String etagPlanes() {
+        return "\"p-" + planCatalog.huella() + "\"";
+    }
+
+    private String etag(String prefijo, Object respuesta) {
+        try {
+            return "\"" + prefijo + DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(respuesta)) + "\"";
+        } catch (JsonProcessingException e) {
+            log.warn("No se pudo calcular la ETag: {}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.zabora.subscription.modelo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * DTO que representa un cambio en el derecho de un usuario, tal como se envía
+ * en el feed de cambios (GET /api/suscripciones/verificar/cambios).
+ * Los servicios que mantienen una réplica local aplican estos cambios en orden de secuencia.
+ */
+@Data
+@Builder
+@Schema(description = "Cambio en el derecho de suscripción de un usuario")
+public class CambioDerechoDTO {
+
+    // Número de secuencia del cambio (ID en el registro compartido); crece de forma estricta,
+    // es el mismo en todas las instancias y sirve como offset para reanudar.
+    @Schema(description = "Número de secuencia del cambio", example = "184467")
+    private long secuencia;
+
+    // ID del usuario cuyo derecho cambió.
+    @Schema(description = "ID del usuario", example = "usuario123")
+    private String usuarioId;
+
+    // Nombre del plan de la suscripción.
+    @Schema(description = "Nombre del plan", example = "premium")
+    private String plan;
+
+    // Nuevo estado de la suscripción (ACTIVA, CANCELADA, EXPIRADA, etc.).
+    @Schema(description = "Estado de la suscripción", example = "ACTIVA")
+    private String estado;
+
+    // Fin del periodo actual (null para planes que no expiran).
+    @Schema(description = "Fin del periodo actual")
+    private LocalDateTime finPeriodoActual;
+
+    // Momento en que se registró el cambio.
+    @Schema(description = "Fecha del cambio")
+    private LocalDateTime fechaCambio;
+}
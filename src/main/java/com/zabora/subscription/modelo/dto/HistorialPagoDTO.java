@@ -0,0 +1,57 @@
+package com.zabora.subscription.modelo.dto;
+
+import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+import com.zabora.subscription.modelo.enumeracion.TipoMetodoPago;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * DTO con un pago del historial de un usuario.
+ * Se llena directamente desde la consulta (SELECT new ...) de PagoRepository, con el
+ * nombre del plan en el mismo JOIN, sin cargar la suscripción ni el plan como entidades.
+ */
+@Data
+@AllArgsConstructor
+@Schema(description = "Pago del historial de un usuario")
+public class HistorialPagoDTO {
+
+    // Identificador único del pago.
+    @Schema(description = "ID del pago", example = "pay_123456789")
+    private String id;
+
+    // Suscripción que se pagó.
+    @Schema(description = "ID de la suscripción", example = "sub_123456789")
+    private String suscripcionId;
+
+    // Nombre del plan de la suscripción.
+    @Schema(description = "Nombre del plan", example = "premium")
+    private String plan;
+
+    // Monto cobrado.
+    @Schema(description = "Monto del pago", example = "19900.00")
+    private BigDecimal monto;
+
+    // Moneda del pago.
+    @Schema(description = "Moneda", example = "COP")
+    private String moneda;
+
+    // Método con el que se pagó.
+    @Schema(description = "Método de pago", example = "TARJETA_CREDITO")
+    private TipoMetodoPago metodoPago;
+
+    // Estado del pago (PENDIENTE, COMPLETADO, FALLIDO, etc.).
+    @Schema(description = "Estado del pago", example = "COMPLETADO")
+    private EstadoPago estado;
+
+    // Momento en que la pasarela confirmó el pago.
+    @Schema(description = "Fecha del pago")
+    private LocalDateTime fechaPago;
+
+    // Momento en que se registró el pago.
+    @Schema(description = "Fecha de creación")
+    private LocalDateTime fechaCreacion;
+}
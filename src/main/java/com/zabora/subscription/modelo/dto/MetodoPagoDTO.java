@@ -0,0 +1,60 @@
+package com.zabora.subscription.modelo.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.zabora.subscription.modelo.enumeracion.TipoCuentaBanco;
+import com.zabora.subscription.modelo.enumeracion.TipoMetodoPago;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * DTO con los datos visibles de un método de pago (GET /api/pagos/metodos).
+ * Se llena directamente desde la consulta (SELECT new ...) de MetodoPagoRepository,
+ * así que el orden de los campos es el del constructor que usa esa consulta.
+ * Los campos de tarjeta o de cuenta que no aplican quedan null y no se serializan.
+ */
+@Data
+@AllArgsConstructor
+@Schema(description = "Método de pago de un usuario")
+public class MetodoPagoDTO {
+
+    // Identificador único del método de pago.
+    @Schema(description = "ID del método de pago", example = "mp_123456789")
+    private String id;
+
+    // Tipo del método de pago (TARJETA_CREDITO o PSE).
+    @Schema(description = "Tipo del método de pago", example = "TARJETA_CREDITO")
+    private TipoMetodoPago tipo;
+
+    // Indica si es el método con el que se cobran las renovaciones.
+    @Schema(description = "Indica si es el método predeterminado", example = "true")
+    private Boolean predeterminado;
+
+    // Últimos cuatro dígitos de la tarjeta.
+    @Schema(description = "Últimos cuatro dígitos de la tarjeta", example = "4242")
+    @JsonProperty("ultimos_cuatro")
+    private String ultimosCuatro;
+
+    // Marca de la tarjeta.
+    @Schema(description = "Marca de la tarjeta", example = "visa")
+    private String marca;
+
+    // Mes de expiración de la tarjeta.
+    @Schema(description = "Mes de expiración", example = "12")
+    @JsonProperty("expira_mes")
+    private Integer expiraMes;
+
+    // Año de expiración de la tarjeta.
+    @Schema(description = "Año de expiración", example = "2027")
+    @JsonProperty("expira_anio")
+    private Integer expiraAnio;
+
+    // Banco de la cuenta (PSE).
+    @Schema(description = "Banco de la cuenta (PSE)", example = "Bancolombia")
+    private String banco;
+
+    // Tipo de cuenta bancaria (PSE).
+    @Schema(description = "Tipo de cuenta (PSE)", example = "AHORROS")
+    @JsonProperty("tipo_cuenta")
+    private TipoCuentaBanco tipoCuenta;
+}
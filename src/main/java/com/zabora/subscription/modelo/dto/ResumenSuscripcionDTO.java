@@ -0,0 +1,53 @@
+package com.zabora.subscription.modelo.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.zabora.subscription.modelo.enumeracion.EstadoSuscripcion;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * DTO con los datos de una suscripción que necesitan las consultas de lectura
+ * (verificación, estado e historial). Se llena directamente desde la consulta
+ * (SELECT new ...) de UsuarioSuscripcionRepository; los límites y el detalle del
+ * plan salen del catálogo en memoria por su nombre.
+ */
+@Data
+@AllArgsConstructor
+@Schema(description = "Resumen de una suscripción")
+public class ResumenSuscripcionDTO {
+
+    // Identificador único de la suscripción.
+    @Schema(description = "ID de la suscripción", example = "sub_123456789")
+    private String id;
+
+    // Usuario dueño de la suscripción (ya se conoce en quien consulta).
+    @JsonIgnore
+    private String usuarioId;
+
+    // Nombre del plan.
+    @Schema(description = "Nombre del plan", example = "premium")
+    private String plan;
+
+    // Estado de la suscripción (ACTIVA, CANCELADA, EXPIRADA, PENDIENTE_PAGO).
+    @Schema(description = "Estado de la suscripción", example = "CANCELADA")
+    private EstadoSuscripcion estado;
+
+    // Inicio del periodo actual.
+    @Schema(description = "Inicio del periodo actual")
+    private LocalDateTime inicioPeriodoActual;
+
+    // Fin del periodo actual (null para planes que no expiran).
+    @Schema(description = "Fin del periodo actual")
+    private LocalDateTime finPeriodoActual;
+
+    // Momento en que se canceló, si aplica.
+    @Schema(description = "Fecha de cancelación")
+    private LocalDateTime fechaCancelacion;
+
+    // Momento en que se creó la suscripción.
+    @Schema(description = "Fecha de creación")
+    private LocalDateTime fechaCreacion;
+}
@@ -0,0 +1,23 @@
+package com.zabora.subscription.modelo.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Data;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+/**
+ * DTO (Data Transfer Object) que representa la solicitud para verificar
+ * la suscripción de varios usuarios en una sola llamada.
+ */
+@Data
+@Schema(description = "Solicitud para verificar suscripciones en lote")
+public class SolicitudVerificacionLoteDTO {
+
+    // IDs de los usuarios a verificar. Obligatorio y no vacío; ningún ID puede ser nulo o vacío.
+    @NotEmpty(message = "La lista de usuarios es obligatoria")
+    @Schema(description = "IDs de los usuarios a verificar",
+            example = "[\"user_premium_001\", \"user_free_002\"]", required = true)
+    private List<@NotBlank(message = "Los IDs de usuario no pueden estar vacíos") String> usuarioIds;
+}
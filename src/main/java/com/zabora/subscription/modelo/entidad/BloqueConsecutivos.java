@@ -0,0 +1,46 @@
+package com.zabora.subscription.modelo.entidad;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+/**
+ * Entidad que representa un bloque de consecutivos reservado por un nodo, en rangos SIN_HUECOS.
+ * 
+ * El nodo reparte el bloque mientras su reserva está vigente. Cuando vence (y pasa el margen
+ * para las transacciones en curso), los números del bloque que no terminaron en una factura
+ * se pasan a consecutivos_liberados para volver a emitirlos.
+ * Se escribe solo por JDBC (AsignadorConsecutivos).
+ */
+@Entity
+@Table(name = "bloques_consecutivos", indexes = {
+    @Index(name = "idx_bloques_consecutivos_reserva", columnList = "reserva_hasta")
+})
+@Data
+public class BloqueConsecutivos {
+    //Identificador único del bloque (UUID).
+    @Id
+    @Column(name = "id", length = 36)
+    private String id;
+    
+    
+    //Prefijo del rango al que pertenece el bloque.
+    @Column(name = "prefijo", nullable = false, length = 10)
+    private String prefijo;
+    
+    
+    //Primer y último consecutivo del bloque (incluidos).
+    @Column(name = "numero_desde", nullable = false)
+    private Long numeroDesde;
+    
+    @Column(name = "numero_hasta", nullable = false)
+    private Long numeroHasta;
+    
+    
+    //Nodo que reparte el bloque y hasta cuándo puede hacerlo.
+    @Column(name = "reserva_nodo", nullable = false, length = 36)
+    private String reservaNodo;
+    
+    @Column(name = "reserva_hasta", nullable = false)
+    private LocalDateTime reservaHasta;
+}
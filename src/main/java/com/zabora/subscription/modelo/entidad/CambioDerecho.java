@@ -0,0 +1,56 @@
+package com.zabora.subscription.modelo.entidad;
+
+import com.zabora.subscription.modelo.enumeracion.EstadoSuscripcion;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+/**
+ * Entidad que representa un cambio en el derecho (plan/estado/vigencia) de un usuario.
+ * 
+ * Es el registro compartido de cambios: cada nodo lo lee en orden de ID para mantener
+ * al día sus copias derivadas y para servir el feed de cambios de derechos.
+ * Las filas se escriben por JDBC desde RegistroCambiosDerechos; la entidad define la tabla.
+ */
+@Entity
+@Table(name = "cambios_derechos", indexes = {
+    @Index(name = "idx_cambios_derechos_fecha", columnList = "fecha_cambio")
+})
+@Data
+public class CambioDerecho {
+    // Identificador del cambio (autoincremental); es la secuencia del feed en todos los nodos.
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    
+    //ID del usuario cuyo derecho cambió.
+    @Column(name = "usuario_id", nullable = false, length = 36)
+    private String usuarioId;
+    
+    
+    //ID de la suscripción modificada.
+    @Column(name = "suscripcion_id", nullable = false, length = 36)
+    private String suscripcionId;
+    
+    
+    //Nombre del plan de la suscripción.
+    @Column(name = "plan", nullable = false, length = 50)
+    private String plan;
+    
+    
+    //Nuevo estado de la suscripción.
+    @Enumerated(EnumType.STRING)
+    @Column(name = "estado", nullable = false)
+    private EstadoSuscripcion estado;
+    
+    
+    //Fin del periodo actual (null para planes que no expiran).
+    @Column(name = "fin_periodo_actual")
+    private LocalDateTime finPeriodoActual;
+    
+    
+    //Fecha y hora en que se registró el cambio.
+    @Column(name = "fecha_cambio", nullable = false)
+    private LocalDateTime fechaCambio;
+}
@@ -0,0 +1,65 @@
+package com.zabora.subscription.modelo.entidad;
+
+import com.zabora.subscription.modelo.enumeracion.EstadoClaveIdempotencia;
+import jakarta.persistence.*;
+import lombok.Data;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+/**
+ * Entidad que representa una clave de idempotencia (header Idempotency-Key) ya utilizada.
+ * 
+ * Guarda la respuesta de la operación para devolverla sin repetir el trabajo
+ * cuando el cliente reintenta la misma solicitud.
+ */
+@Entity
+@Table(name = "claves_idempotencia")
+@Data
+public class ClaveIdempotencia implements Persistable<String> {
+    //Hash SHA-256 del ámbito (ej: "pago:usuario123") y la clave enviada por el cliente.
+    @Id
+    @Column(name = "id", length = 64)
+    private String id;
+    
+    
+    //Hash SHA-256 del cuerpo de la solicitud, para detectar una clave reutilizada con otros datos.
+    @Column(name = "huella_solicitud", nullable = false, length = 64)
+    private String huellaSolicitud;
+    
+    
+    //Estado de la operación (EN_PROCESO, COMPLETADA).
+    @Enumerated(EnumType.STRING)
+    @Column(name = "estado", nullable = false)
+    private EstadoClaveIdempotencia estado = EstadoClaveIdempotencia.EN_PROCESO;
+    
+    
+    //Respuesta de la operación en formato JSON; null mientras está en proceso.
+    @Column(name = "respuesta", columnDefinition = "TEXT")
+    private String respuesta;
+    
+    
+    //Fecha y hora en que se registró (o se retomó) la clave.
+    @Column(name = "fecha_creacion", nullable = false)
+    private LocalDateTime fechaCreacion = LocalDateTime.now();
+    
+    
+    //Fecha a partir de la cual la clave deja de tener efecto y se puede eliminar.
+    @Column(name = "fecha_expiracion", nullable = false)
+    private LocalDateTime fechaExpiracion;
+    
+    
+    //Indica si la entidad aún no se ha guardado; el ID es asignado, así que save() debe insertar siempre.
+    @Transient
+    private boolean nueva = true;
+    
+    @Override
+    public boolean isNew() {
+        return nueva;
+    }
+    
+    @PostLoad
+    @PostPersist
+    void marcarGuardada() {
+        nueva = false;
+    }
+}
@@ -0,0 +1,46 @@
+package com.zabora.subscription.modelo.entidad;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+/**
+ * Entidad que representa un consecutivo de un rango SIN_HUECOS que se reservó pero no terminó
+ * en una factura (transacción revertida o nodo caído), y que se debe volver a emitir.
+ * 
+ * Un nodo lo reserva (reserva_nodo / reserva_hasta) para repartirlo, y la fila se borra en la
+ * misma transacción que guarda la factura que lo usa.
+ * Se escribe solo por JDBC (AsignadorConsecutivos).
+ */
+@Entity
+@Table(name = "consecutivos_liberados", indexes = {
+    @Index(name = "idx_consecutivos_liberados_prefijo", columnList = "prefijo, consecutivo")
+})
+@Data
+public class ConsecutivoLiberado {
+    //Número completo (prefijo-consecutivo), igual que facturas.numero_factura.
+    @Id
+    @Column(name = "numero", length = 50)
+    private String numero;
+    
+    
+    //Prefijo del rango y consecutivo dentro de él.
+    @Column(name = "prefijo", nullable = false, length = 10)
+    private String prefijo;
+    
+    @Column(name = "consecutivo", nullable = false)
+    private Long consecutivo;
+    
+    
+    //Nodo que lo tiene reservado para emitirlo, si alguno.
+    @Column(name = "reserva_nodo", length = 36)
+    private String reservaNodo;
+    
+    @Column(name = "reserva_hasta")
+    private LocalDateTime reservaHasta;
+    
+    
+    //Fecha y hora en que se detectó que no se usó.
+    @Column(name = "fecha_liberacion", nullable = false)
+    private LocalDateTime fechaLiberacion = LocalDateTime.now();
+}
@@ -0,0 +1,72 @@
+package com.zabora.subscription.modelo.entidad;
+
+import com.zabora.subscription.modelo.enumeracion.EstadoEjecucionRenovacion;
+import jakarta.persistence.*;
+import lombok.Data;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+/**
+ * Entidad que representa una ejecución del cobro de renovaciones mensuales.
+ * 
+ * Cobra las suscripciones activas cuyo periodo termina después de la fecha desde y hasta
+ * la fecha de corte. La fecha desde es el corte de la ejecución anterior, así que las
+ * ventanas de ejecuciones consecutivas no dejan huecos.
+ * El avance de cada partición se guarda en PuntoControlRenovacion.
+ */
+@Entity
+@Table(name = "ejecuciones_renovacion")
+@Data
+public class EjecucionRenovacion implements Persistable<String> {
+    //Identificador de la ejecución: la fecha de corte truncada a la hora (ej: "2026-10-18T03:00").
+    @Id
+    @Column(name = "id", length = 36)
+    private String id;
+    
+    
+    //Se renuevan las suscripciones cuyo periodo actual termina antes de esta fecha.
+    @Column(name = "fecha_corte", nullable = false)
+    private LocalDateTime fechaCorte;
+    
+    
+    //Se renuevan las suscripciones cuyo periodo actual termina después de esta fecha (el corte de la ejecución anterior).
+    @Column(name = "fecha_desde", nullable = false)
+    private LocalDateTime fechaDesde;
+    
+    
+    //Cantidad de particiones en que se dividieron las suscripciones.
+    @Column(name = "particiones", nullable = false)
+    private Integer particiones;
+    
+    
+    //Estado de la ejecución (EN_CURSO, COMPLETADA).
+    @Enumerated(EnumType.STRING)
+    @Column(name = "estado", nullable = false)
+    private EstadoEjecucionRenovacion estado = EstadoEjecucionRenovacion.EN_CURSO;
+    
+    
+    //Fecha y hora en que empezó la ejecución.
+    @Column(name = "fecha_inicio", nullable = false)
+    private LocalDateTime fechaInicio = LocalDateTime.now();
+    
+    
+    //Fecha y hora en que terminó la última partición.
+    @Column(name = "fecha_fin")
+    private LocalDateTime fechaFin;
+    
+    
+    //Indica si la entidad aún no se ha guardado; el ID es asignado, así que save() debe insertar siempre.
+    @Transient
+    private boolean nueva = true;
+    
+    @Override
+    public boolean isNew() {
+        return nueva;
+    }
+    
+    @PostLoad
+    @PostPersist
+    void marcarGuardada() {
+        nueva = false;
+    }
+}
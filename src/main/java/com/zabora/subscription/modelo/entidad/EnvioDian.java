@@ -0,0 +1,76 @@
+package com.zabora.subscription.modelo.entidad;
+
+import com.zabora.subscription.modelo.enumeracion.EstadoEnvioDian;
+import com.zabora.subscription.modelo.enumeracion.TipoEnvioDian;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+/**
+ * Entidad que representa un documento (factura o anulación) pendiente de enviar a la DIAN.
+ * 
+ * Se inserta en la misma transacción que emite o anula la factura, así que ningún
+ * documento queda sin enviar aunque el nodo se detenga. Se borra cuando la DIAN lo acepta;
+ * la respuesta queda en facturas.respuesta_dian. Se escribe solo por JDBC (EnviadorDian).
+ */
+@Entity
+@Table(name = "envios_dian", indexes = {
+    @Index(name = "idx_envios_dian_estado", columnList = "estado, proximo_intento")
+}, uniqueConstraints = {
+    @UniqueConstraint(name = "uk_envios_dian_factura_tipo", columnNames = {"factura_id", "tipo"})
+})
+@Data
+public class EnvioDian {
+    @Id
+    @Column(name = "id", length = 36)
+    private String id;
+    
+    
+    //Factura a la que se refiere el documento (como mucho un envío de cada tipo por factura).
+    @Column(name = "factura_id", nullable = false, length = 36)
+    private String facturaId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(name = "tipo", nullable = false)
+    private TipoEnvioDian tipo;
+    
+    
+    //Motivo de la anulación (NULL para facturas).
+    @Column(name = "motivo", length = 500)
+    private String motivo;
+    
+    
+    //Estado del envío (PENDIENTE, RECHAZADO, FALLIDO, BLOQUEADO).
+    @Enumerated(EnumType.STRING)
+    @Column(name = "estado", nullable = false)
+    private EstadoEnvioDian estado = EstadoEnvioDian.PENDIENTE;
+    
+    
+    //Intentos sin respuesta de la DIAN y fecha del siguiente.
+    @Column(name = "intentos", nullable = false)
+    private Integer intentos = 0;
+    
+    @Column(name = "proximo_intento", nullable = false)
+    private LocalDateTime proximoIntento;
+    
+    
+    //Error del último intento, o mensaje del rechazo.
+    @Column(name = "ultimo_error", length = 500)
+    private String ultimoError;
+    
+    
+    //Reserva del envío por un nodo mientras espera la respuesta de la DIAN.
+    @Column(name = "reserva_nodo", length = 36)
+    private String reservaNodo;
+    
+    @Column(name = "reserva_hasta")
+    private LocalDateTime reservaHasta;
+    
+    
+    //Fecha y hora en que se encoló.
+    @Column(name = "fecha_creacion", nullable = false)
+    private LocalDateTime fechaCreacion = LocalDateTime.now();
+    
+    @Column(name = "fecha_actualizacion")
+    private LocalDateTime fechaActualizacion;
+}
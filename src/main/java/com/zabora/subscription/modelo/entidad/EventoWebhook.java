@@ -0,0 +1,96 @@
+package com.zabora.subscription.modelo.entidad;
+
+import com.zabora.subscription.modelo.enumeracion.EstadoEventoWebhook;
+import jakarta.persistence.*;
+import lombok.Data;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+/**
+ * Entidad que representa un evento recibido por el webhook de Stripe.
+ * 
+ * Se guarda tal como llegó (ya verificada la firma) y un proceso en segundo plano
+ * lo aplica sobre el pago y la suscripción. El ID del evento evita guardarlo dos veces,
+ * y la reserva (reserva_nodo / reserva_hasta) que dos instancias lo apliquen a la vez.
+ */
+@Entity
+@Table(name = "eventos_webhook", indexes = {
+    @Index(name = "idx_eventos_webhook_estado", columnList = "estado, creado_stripe")
+})
+@Data
+public class EventoWebhook implements Persistable<String> {
+    //ID del evento en Stripe (evt_...).
+    @Id
+    @Column(name = "id", length = 255)
+    private String id;
+    
+    
+    //Tipo de evento (payment_intent.succeeded, payment_intent.payment_failed, etc.).
+    @Column(name = "tipo", nullable = false, length = 100)
+    private String tipo;
+    
+    
+    //ID del intento de pago (PaymentIntent) al que se refiere el evento, si aplica.
+    @Column(name = "id_intento_pago", length = 255)
+    private String idIntentoPago;
+    
+    
+    //Momento en que Stripe creó el evento (segundos desde 1970); define el orden de aplicación.
+    @Column(name = "creado_stripe", nullable = false)
+    private Long creadoStripe;
+    
+    
+    //Cuerpo del evento tal como lo envió Stripe.
+    @Column(name = "payload", nullable = false, columnDefinition = "TEXT")
+    private String payload;
+    
+    
+    //Estado del evento (PENDIENTE, PROCESADO, IGNORADO, FALLIDO).
+    @Enumerated(EnumType.STRING)
+    @Column(name = "estado", nullable = false)
+    private EstadoEventoWebhook estado = EstadoEventoWebhook.PENDIENTE;
+    
+    
+    //Cantidad de intentos fallidos de aplicar el evento.
+    @Column(name = "intentos", nullable = false)
+    private Integer intentos = 0;
+    
+    
+    //Último error al aplicar el evento.
+    @Column(name = "error", columnDefinition = "TEXT")
+    private String error;
+    
+    
+    //Reserva del evento por un nodo mientras lo aplica, para no aplicarlo dos veces.
+    @Column(name = "reserva_nodo", length = 36)
+    private String reservaNodo;
+    
+    @Column(name = "reserva_hasta")
+    private LocalDateTime reservaHasta;
+    
+    
+    //Fecha y hora en que se recibió el evento.
+    @Column(name = "fecha_recepcion", nullable = false)
+    private LocalDateTime fechaRecepcion = LocalDateTime.now();
+    
+    
+    //Fecha y hora en que se aplicó (o descartó) el evento.
+    @Column(name = "fecha_procesado")
+    private LocalDateTime fechaProcesado;
+    
+    
+    //Indica si la entidad aún no se ha guardado; el ID viene de Stripe, así que save() debe insertar siempre.
+    @Transient
+    private boolean nueva = true;
+    
+    @Override
+    public boolean isNew() {
+        return nueva;
+    }
+    
+    @PostLoad
+    @PostPersist
+    void marcarGuardada() {
+        nueva = false;
+    }
+}
@@ -12,7 +12,12 @@ import java.time.LocalDateTime;
  * Contiene información sobre el pago asociado, montos, fechas, estado y documentos relacionados.
  */
 @Entity
-@Table(name = "facturas")
+@Table(name = "facturas", indexes = {
+    @Index(name = "idx_facturas_prefijo_consecutivo", columnList = "prefijo, consecutivo"),
+    @Index(name = "idx_facturas_fecha_creacion", columnList = "fecha_creacion")
+}, uniqueConstraints = {
+    @UniqueConstraint(name = "uk_facturas_pago", columnNames = "pago_id")
+})
 @Data
 public class Factura {
     //Identificador único de la factura (UUID).
@@ -21,7 +26,7 @@ public class Factura {
     private String id;
     /**
      * Pago asociado a esta factura.
-     * Relación Many-to-One: muchas facturas pueden estar asociadas a un pago.
+     * Relación Many-to-One, pero uk_facturas_pago deja una sola factura por pago.
      */
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "pago_id", nullable = false)
@@ -86,16 +91,16 @@ public class Factura {
     private String respuestaDian;
     
     
-    //URL del PDF de la factura.Opcional segun tiempo de desarrollo
+    //Clave del PDF en el AlmacenDocumentos (SHA-256). NULL mientras no se ha generado
     @Column(name = "pdf_url", length = 500)
     private String pdfUrl;
     
     
-    //URL del XML de la factura.Opcional segun tiempo de desarrollo
+    //Clave del XML UBL en el AlmacenDocumentos (SHA-256). NULL mientras no se ha generado
     @Column(name = "xml_url", length = 500)
     private String xmlUrl;
     
-    //Fecha y hora de creación de la factura
+    //Fecha y hora de creación de la factura (momento de emisión; entra en el CUFE)
     @Column(name = "fecha_creacion")
     private LocalDateTime fechaCreacion = LocalDateTime.now();
     
@@ -106,12 +111,15 @@ public class Factura {
     
   //Acción ejecutada antes de insertar la factura en la base de datos.
     //Se asegura de asignar un ID si no existe y actualizar las fechas.
+    //La fecha de creación se conserva si ya viene asignada: con ella se calculó el CUFE.
     @PrePersist
     public void prePersist() {
         if (id == null) {
             id = java.util.UUID.randomUUID().toString();
         }
-        fechaCreacion = LocalDateTime.now();
+        if (fechaCreacion == null) {
+            fechaCreacion = LocalDateTime.now();
+        }
         fechaActualizacion = LocalDateTime.now();
     }
     //Acción ejecutada antes de actualizar la factura en la base de datos.
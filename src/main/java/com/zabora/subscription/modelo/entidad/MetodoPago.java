@@ -12,7 +12,9 @@ import java.time.LocalDateTime;
  * Contiene información específica según el tipo de método y datos de control.
  */
 @Entity
-@Table(name = "metodos_pago")
+@Table(name = "metodos_pago", indexes = {
+    @Index(name = "idx_metodos_pago_usuario", columnList = "usuario_id, predeterminado")
+})
 @Data
 public class MetodoPago {
     //Identificador único del método de pago (UUID)
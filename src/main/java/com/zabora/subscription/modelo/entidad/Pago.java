@@ -11,7 +11,9 @@ import java.time.LocalDateTime;
  * Contiene información sobre monto, método de pago, estado, y datos de comprobación.
  */
 @Entity
-@Table(name = "pagos")
+@Table(name = "pagos", indexes = {
+    @Index(name = "idx_pagos_estado", columnList = "estado, id")
+})
 @Data
 public class Pago {
     //Identificador único del pago (UUID).
@@ -44,7 +46,7 @@ public class Pago {
     @Column(name = "metodo_pago", nullable = false)
     private TipoMetodoPago metodoPago;
     
-    //Estado del pago (PENDIENTE, COMPLETADO, FALLIDO, REEMBOLSADO, CANCELADO)
+    //Estado del pago (PENDIENTE, COMPLETADO, FALLIDO, REEMBOLSADO, CANCELADO, EN_REVISION)
     @Enumerated(EnumType.STRING)
     @Column(name = "estado", nullable = false)
     private EstadoPago estado = EstadoPago.PENDIENTE;
@@ -71,4 +73,12 @@ public class Pago {
     //Fecha y hora de creación del registro de pago
     @Column(name = "fecha_creacion")
     private LocalDateTime fechaCreacion = LocalDateTime.now();
+    
+    //Reserva del pago por un nodo que lo está consultando en la pasarela (reconciliación).
+    @Column(name = "reconciliacion_lease", length = 36)
+    private String reconciliacionLease;
+    
+    //Hasta cuándo vale la reserva; después otro nodo puede volver a tomar el pago.
+    @Column(name = "reconciliacion_hasta")
+    private LocalDateTime reconciliacionHasta;
 }
\ No newline at end of file
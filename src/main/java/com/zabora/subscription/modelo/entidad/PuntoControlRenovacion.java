@@ -0,0 +1,98 @@
+package com.zabora.subscription.modelo.entidad;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+/**
+ * Entidad que representa el avance de una partición de una ejecución de renovaciones.
+ * 
+ * Cada partición cubre un rango de IDs de suscripción. Se actualiza en la misma transacción
+ * que guarda los cobros de cada página, así que una ejecución interrumpida se retoma
+ * justo después de la última página guardada.
+ */
+@Entity
+@Table(name = "puntos_control_renovacion", indexes = {
+    @Index(name = "idx_puntos_control_ejecucion", columnList = "ejecucion_id, particion")
+})
+@Data
+public class PuntoControlRenovacion implements Persistable<String> {
+    //Identificador: ID de la ejecución y número de partición (ej: "2026-10-18T03:00#3").
+    @Id
+    @Column(name = "id", length = 48)
+    private String id;
+    
+    
+    //Ejecución a la que pertenece.
+    @Column(name = "ejecucion_id", nullable = false, length = 36)
+    private String ejecucionId;
+    
+    
+    //Número de partición (0 a particiones - 1).
+    @Column(name = "particion", nullable = false)
+    private Integer particion;
+    
+    
+    //Primer ID de suscripción de la partición (incluido).
+    @Column(name = "desde_id", nullable = false, length = 36)
+    private String desdeId;
+    
+    
+    //ID de suscripción donde termina la partición (excluido).
+    @Column(name = "hasta_id", nullable = false, length = 36)
+    private String hastaId;
+    
+    
+    //Último ID de suscripción procesado; la partición continúa después de él.
+    @Column(name = "ultimo_id", nullable = false, length = 36)
+    private String ultimoId = "";
+    
+    
+    //Suscripciones procesadas, renovadas, pendientes de confirmación y no renovadas.
+    @Column(name = "procesadas", nullable = false)
+    private Integer procesadas = 0;
+    
+    @Column(name = "renovadas", nullable = false)
+    private Integer renovadas = 0;
+    
+    @Column(name = "pendientes", nullable = false)
+    private Integer pendientes = 0;
+    
+    @Column(name = "fallidas", nullable = false)
+    private Integer fallidas = 0;
+    
+    
+    //Indica si la partición ya no tiene suscripciones por procesar.
+    @Column(name = "terminada", nullable = false)
+    private Boolean terminada = false;
+    
+    
+    //Reserva de la partición por un nodo, para que dos nodos no la procesen a la vez.
+    @Column(name = "reserva_nodo", length = 36)
+    private String reservaNodo;
+    
+    @Column(name = "reserva_hasta")
+    private LocalDateTime reservaHasta;
+    
+    
+    //Fecha y hora de la última página guardada.
+    @Column(name = "fecha_actualizacion")
+    private LocalDateTime fechaActualizacion;
+    
+    
+    //Indica si la entidad aún no se ha guardado; el ID es asignado, así que save() debe insertar siempre.
+    @Transient
+    private boolean nueva = true;
+    
+    @Override
+    public boolean isNew() {
+        return nueva;
+    }
+    
+    @PostLoad
+    @PostPersist
+    void marcarGuardada() {
+        nueva = false;
+    }
+}
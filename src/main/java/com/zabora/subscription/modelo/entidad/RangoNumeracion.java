@@ -0,0 +1,62 @@
+package com.zabora.subscription.modelo.entidad;
+
+import com.zabora.subscription.modelo.enumeracion.ModoNumeracion;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+/**
+ * Entidad que representa un rango de numeración de facturas (ej: el autorizado por una resolución DIAN).
+ * 
+ * Cada prefijo tiene su propio consecutivo. Los nodos no toman los números de a uno: reservan
+ * bloques de tamano_bloque avanzando "siguiente" en una transacción corta, y los reparten desde memoria.
+ * Se escribe solo por JDBC (AsignadorConsecutivos).
+ */
+@Entity
+@Table(name = "rangos_numeracion")
+@Data
+public class RangoNumeracion {
+    //Prefijo de las facturas del rango (ej: "FZ").
+    @Id
+    @Column(name = "prefijo", length = 10)
+    private String prefijo;
+    
+    
+    //Número de la resolución DIAN que autoriza el rango, si aplica.
+    @Column(name = "resolucion", length = 50)
+    private String resolucion;
+    
+    
+    //Primer y último consecutivo autorizados (incluidos).
+    @Column(name = "numero_desde", nullable = false)
+    private Long numeroDesde;
+    
+    @Column(name = "numero_hasta", nullable = false)
+    private Long numeroHasta;
+    
+    
+    //Primer consecutivo que todavía no se ha reservado a ningún nodo.
+    @Column(name = "siguiente", nullable = false)
+    private Long siguiente;
+    
+    
+    //RAPIDO (se permiten huecos) o SIN_HUECOS (los números no usados se vuelven a emitir).
+    @Enumerated(EnumType.STRING)
+    @Column(name = "modo", nullable = false)
+    private ModoNumeracion modo = ModoNumeracion.RAPIDO;
+    
+    
+    //Consecutivos que reserva un nodo de una vez.
+    @Column(name = "tamano_bloque", nullable = false)
+    private Integer tamanoBloque = 100;
+    
+    
+    //Solo se asignan números de rangos activos.
+    @Column(name = "activo", nullable = false)
+    private Boolean activo = true;
+    
+    
+    //Fecha y hora de la última reserva de bloque.
+    @Column(name = "fecha_actualizacion")
+    private LocalDateTime fechaActualizacion = LocalDateTime.now();
+}
@@ -0,0 +1,104 @@
+package com.zabora.subscription.modelo.entidad;
+
+import com.zabora.subscription.modelo.enumeracion.EstadoReintentoPago;
+import com.zabora.subscription.modelo.enumeracion.MotivoFalloPago;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+/**
+ * Entidad que representa la cobranza de una suscripción cuyo pago falló.
+ * 
+ * Guarda cuántas veces se ha reintentado el cobro y cuándo toca el siguiente intento.
+ * Los reintentos PROGRAMADOS se leen por fecha del próximo intento, así que la tabla
+ * funciona como una cola ordenada por tiempo que sobrevive a los reinicios.
+ */
+@Entity
+@Table(name = "reintentos_pago", indexes = {
+    @Index(name = "idx_reintentos_pago_estado", columnList = "estado, proximo_intento"),
+    @Index(name = "idx_reintentos_pago_suscripcion", columnList = "suscripcion_id, estado")
+}, uniqueConstraints = @UniqueConstraint(name = "uk_reintentos_pago_programada",
+                                         columnNames = "suscripcion_programada"))
+@Data
+public class ReintentoPago {
+    //Identificador único de la cobranza (UUID).
+    @Id
+    @Column(name = "id", length = 36)
+    private String id;
+    
+    
+    //Suscripción que se está cobrando y su usuario.
+    @Column(name = "suscripcion_id", nullable = false, length = 36)
+    private String suscripcionId;
+    
+    @Column(name = "usuario_id", nullable = false, length = 36)
+    private String usuarioId;
+    
+    
+    //Último pago fallido (null si el usuario no tenía método de pago).
+    @Column(name = "pago_id", length = 36)
+    private String pagoId;
+    
+    
+    //Monto y moneda que se intentan cobrar.
+    @Column(name = "monto", nullable = false, precision = 10, scale = 2)
+    private BigDecimal monto;
+    
+    @Column(name = "moneda", nullable = false, length = 3)
+    private String moneda = "COP";
+    
+    
+    //Motivo del último fallo; define la espera hasta el siguiente intento.
+    @Enumerated(EnumType.STRING)
+    @Column(name = "motivo", nullable = false)
+    private MotivoFalloPago motivo;
+    
+    
+    //Reintentos ya hechos (sin contar el cobro original).
+    @Column(name = "intentos", nullable = false)
+    private Integer intentos = 0;
+    
+    
+    //Fecha y hora del siguiente intento de cobro.
+    @Column(name = "proximo_intento", nullable = false)
+    private LocalDateTime proximoIntento;
+    
+    
+    //Estado de la cobranza (PROGRAMADO, EXITOSO, AGOTADO, CANCELADO).
+    @Enumerated(EnumType.STRING)
+    @Column(name = "estado", nullable = false)
+    private EstadoReintentoPago estado = EstadoReintentoPago.PROGRAMADO;
+    
+    //ID de la suscripción mientras el reintento está PROGRAMADO, null en cualquier otro estado.
+    //Es única, así que una suscripción no puede tener dos cobranzas programadas a la vez.
+    @Column(name = "suscripcion_programada", length = 36)
+    private String suscripcionProgramada;
+    
+    
+    //Mensaje de la pasarela en el último fallo.
+    @Column(name = "ultimo_error", length = 500)
+    private String ultimoError;
+    
+    
+    //Reserva del reintento por un nodo mientras lo cobra, para no cobrarlo dos veces.
+    @Column(name = "reserva_nodo", length = 36)
+    private String reservaNodo;
+    
+    @Column(name = "reserva_hasta")
+    private LocalDateTime reservaHasta;
+    
+    
+    //Fechas de creación y de la última actualización.
+    @Column(name = "fecha_creacion", nullable = false)
+    private LocalDateTime fechaCreacion = LocalDateTime.now();
+    
+    @Column(name = "fecha_actualizacion")
+    private LocalDateTime fechaActualizacion;
+    
+    @PrePersist
+    @PreUpdate
+    void actualizarCamposDerivados() {
+        suscripcionProgramada = estado == EstadoReintentoPago.PROGRAMADO ? suscripcionId : null;
+    }
+}
@@ -0,0 +1,66 @@
+package com.zabora.subscription.modelo.entidad;
+
+import com.zabora.subscription.modelo.enumeracion.EstadoTrabajoFactura;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+/**
+ * Entidad que representa un pago completado que está esperando su factura.
+ * 
+ * Se inserta en la misma transacción que completa el pago, así que ningún pago cobrado
+ * queda sin factura aunque el nodo se detenga. La tabla funciona como una cola ordenada
+ * por proximo_intento; el trabajo se borra en la transacción que guarda la factura.
+ * Se escribe solo por JDBC (ColaFacturacion).
+ */
+@Entity
+@Table(name = "cola_facturas", indexes = {
+    @Index(name = "idx_cola_facturas_estado", columnList = "estado, proximo_intento")
+})
+@Data
+public class TrabajoFactura {
+    //Pago que se va a facturar (como mucho un trabajo por pago).
+    @Id
+    @Column(name = "pago_id", length = 36)
+    private String pagoId;
+    
+    
+    //Prefijo (rango de numeración) con el que se numera la factura.
+    @Column(name = "prefijo", nullable = false, length = 10)
+    private String prefijo;
+    
+    
+    //Estado del trabajo (PENDIENTE, FALLIDO).
+    @Enumerated(EnumType.STRING)
+    @Column(name = "estado", nullable = false)
+    private EstadoTrabajoFactura estado = EstadoTrabajoFactura.PENDIENTE;
+    
+    
+    //Intentos fallidos y fecha del siguiente.
+    @Column(name = "intentos", nullable = false)
+    private Integer intentos = 0;
+    
+    @Column(name = "proximo_intento", nullable = false)
+    private LocalDateTime proximoIntento;
+    
+    
+    //Error del último intento fallido.
+    @Column(name = "ultimo_error", length = 500)
+    private String ultimoError;
+    
+    
+    //Reserva del trabajo por un nodo mientras genera la factura.
+    @Column(name = "reserva_nodo", length = 36)
+    private String reservaNodo;
+    
+    @Column(name = "reserva_hasta")
+    private LocalDateTime reservaHasta;
+    
+    
+    //Fecha y hora en que se encoló (el retraso de la cola se mide desde aquí).
+    @Column(name = "fecha_creacion", nullable = false)
+    private LocalDateTime fechaCreacion = LocalDateTime.now();
+    
+    @Column(name = "fecha_actualizacion")
+    private LocalDateTime fechaActualizacion;
+}
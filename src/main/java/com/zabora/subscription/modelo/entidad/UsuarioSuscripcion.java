@@ -9,7 +9,10 @@ import java.time.LocalDateTime;
  * Contiene información sobre el estado de la suscripción, periodos de vigencia y referencias a Stripe.
  */
 @Entity
-@Table(name = "suscripciones_usuarios")
+@Table(name = "suscripciones_usuarios",
+       uniqueConstraints = @UniqueConstraint(name = "uk_suscripciones_usuario_activo",
+                                             columnNames = "usuario_activo"),
+       indexes = @Index(name = "idx_suscripciones_usuario", columnList = "usuario_id"))
 @Data
 public class UsuarioSuscripcion {
     
@@ -60,7 +63,25 @@ public class UsuarioSuscripcion {
     @Column(name = "fecha_creacion")
     private LocalDateTime fechaCreacion = LocalDateTime.now();
     
-    //Fecha y hora de la última actualización del registro de la suscripción.
+    //Fecha y hora de la última actualización del registro de la suscripción (la ETag la usa para saber si el cambio es reciente).
     @Column(name = "fecha_actualizacion")
     private LocalDateTime fechaActualizacion = LocalDateTime.now();
+    
+    //Versión para el bloqueo optimista: cada UPDATE la incrementa y falla si otra escritura la cambió antes.
+    //Las actualizaciones por JDBC (expiración, renovaciones, cobranza) también hacen version = version + 1.
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+    
+    //ID del usuario mientras la suscripción está ACTIVA, null en cualquier otro estado.
+    //Es única, así que dos peticiones concurrentes no pueden dejar dos suscripciones activas al mismo usuario.
+    @Column(name = "usuario_activo", length = 36)
+    private String usuarioActivo;
+    
+    @PrePersist
+    @PreUpdate
+    void actualizarCamposDerivados() {
+        usuarioActivo = estado == EstadoSuscripcion.ACTIVA ? usuarioId : null;
+        fechaActualizacion = LocalDateTime.now();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package com.zabora.subscription.modelo.enumeracion;
+/**
+ * Enumeración que representa los estados de una clave de idempotencia.
+ * 
+ * Indica si la operación asociada a la clave aún se está ejecutando o ya tiene respuesta guardada.
+ */
+public enum EstadoClaveIdempotencia {
+    EN_PROCESO,//La operación se está ejecutando; otras solicitudes con la misma clave deben esperar.
+    COMPLETADA//La operación terminó y su respuesta está guardada para devolverla en los reintentos.
+}
@@ -0,0 +1,10 @@
+package com.zabora.subscription.modelo.enumeracion;
+/**
+ * Enumeración que representa los estados de una ejecución del cobro de renovaciones.
+ * 
+ * Una ejecución interrumpida sigue EN_CURSO y se retoma desde sus puntos de control.
+ */
+public enum EstadoEjecucionRenovacion {
+    EN_CURSO,//Quedan particiones por procesar (o se interrumpió y falta retomarla).
+    COMPLETADA//Todas las particiones terminaron.
+}
@@ -0,0 +1,12 @@
+package com.zabora.subscription.modelo.enumeracion;
+/**
+ * Enumeración que representa los estados de un envío pendiente a la DIAN.
+ * 
+ * Cuando la DIAN acepta el documento, el envío se borra.
+ */
+public enum EstadoEnvioDian {
+    PENDIENTE,//Esperando a que se envíe (o a su siguiente intento).
+    RECHAZADO,//La DIAN respondió con rechazo; queda para revisión con su respuesta.
+    FALLIDO,//Agotó los intentos sin obtener respuesta de la DIAN; queda para revisión.
+    BLOQUEADO//Anulación que no se puede enviar porque su factura quedó RECHAZADA o FALLIDA; vuelve a PENDIENTE si la factura se reenvía.
+}
@@ -0,0 +1,12 @@
+package com.zabora.subscription.modelo.enumeracion;
+/**
+ * Enumeración que representa los estados de un evento de webhook recibido de Stripe.
+ * 
+ * El evento se guarda apenas llega y se aplica después en segundo plano.
+ */
+public enum EstadoEventoWebhook {
+    PENDIENTE,//Evento guardado que aún no se ha aplicado.
+    PROCESADO,//Evento aplicado sobre el pago y la suscripción.
+    IGNORADO,//Evento de un tipo que no se maneja o de un pago que no existe en el sistema.
+    FALLIDO//Evento que no se pudo aplicar tras el máximo de intentos.
+}
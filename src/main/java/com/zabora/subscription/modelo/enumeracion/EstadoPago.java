@@ -9,5 +9,6 @@ public enum EstadoPago {
     COMPLETADO,//Pago realizado correctamente y confirmado.
     FALLIDO,//Pago que no se pudo procesar correctamente o fue rechazado.
     REEMBOLSADO,//pago que ha sido devuelto al usuario como reembolso.Opcional segun desarrollo
-    CANCELADO//Pago que fue cancelado antes de completarse o procesarse.
+    CANCELADO,//Pago que fue cancelado antes de completarse o procesarse.
+    EN_REVISION//Pago cobrado cuya suscripción cambió (ej. se canceló) antes de renovarse; no se factura y requiere reembolso manual.
 }
\ No newline at end of file
@@ -0,0 +1,12 @@
+package com.zabora.subscription.modelo.enumeracion;
+/**
+ * Enumeración que representa los estados de la cobranza de un pago fallido.
+ * 
+ * Cada suscripción tiene como mucho un reintento PROGRAMADO a la vez.
+ */
+public enum EstadoReintentoPago {
+    PROGRAMADO,//Hay un próximo intento de cobro programado.
+    EXITOSO,//Un reintento logró cobrar y la suscripción quedó activa.
+    AGOTADO,//Falló el último intento; la suscripción quedó EXPIRADA.
+    CANCELADO//La suscripción se pagó por otro medio, se canceló o ya expiró.
+}
@@ -0,0 +1,10 @@
+package com.zabora.subscription.modelo.enumeracion;
+/**
+ * Enumeración que representa los estados de un pago en la cola de facturación.
+ * 
+ * Cuando la factura se genera, el trabajo se borra de la cola.
+ */
+public enum EstadoTrabajoFactura {
+    PENDIENTE,//Esperando a que un trabajador genere la factura (o a su siguiente intento).
+    FALLIDO//Agotó los intentos o el pago ya no se puede facturar; queda para revisión.
+}
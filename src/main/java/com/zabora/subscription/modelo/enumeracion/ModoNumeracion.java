@@ -0,0 +1,8 @@
+package com.zabora.subscription.modelo.enumeracion;
+/**
+ * Enumeración que indica cómo se asignan los consecutivos de un rango de numeración de facturas.
+ */
+public enum ModoNumeracion {
+    RAPIDO,//Cada nodo reserva bloques y reparte desde memoria; los números no usados se pierden (puede haber huecos).
+    SIN_HUECOS//Igual que RAPIDO, pero los números no usados se registran y se vuelven a emitir.
+}
@@ -0,0 +1,14 @@
+package com.zabora.subscription.modelo.enumeracion;
+/**
+ * Enumeración que representa el motivo por el que falló un cobro.
+ * 
+ * Se deduce del mensaje de la pasarela y define cada cuánto y cuántas veces se reintenta.
+ */
+public enum MotivoFalloPago {
+    FONDOS_INSUFICIENTES,//El banco rechazó el cobro por falta de fondos.
+    TARJETA_EXPIRADA,//La tarjeta venció; solo sirve reintentar si el usuario cambia su método de pago.
+    AUTENTICACION_REQUERIDA,//El banco pidió 3D Secure y el usuario no estaba presente.
+    ERROR_PASARELA,//La pasarela no respondió o respondió con error; el cobro no se decidió.
+    SIN_METODO_PAGO,//El usuario no tiene un método de pago predeterminado activo.
+    RECHAZO_GENERICO//Cualquier otro rechazo del banco o de la pasarela.
+}
@@ -0,0 +1,8 @@
+package com.zabora.subscription.modelo.enumeracion;
+/**
+ * Enumeración que representa qué se le envía a la DIAN sobre una factura.
+ */
+public enum TipoEnvioDian {
+    FACTURA,//Factura electrónica de venta recién emitida.
+    ANULACION//Anulación de una factura ya enviada.
+}
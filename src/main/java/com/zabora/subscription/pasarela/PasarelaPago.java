@@ -0,0 +1,60 @@
+package com.zabora.subscription.pasarela;
+
+import com.zabora.subscription.modelo.dto.RespuestaPagoDTO;
+import com.zabora.subscription.modelo.dto.SolicitudPagoDTO;
+import com.zabora.subscription.modelo.entidad.Pago;
+import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+
+import java.util.Optional;
+
+/**
+ * Pasarela de pagos con la que PagoServicio cobra.
+ *
+ * Se elige con app.pagos.pasarela.proveedor: "stripe" cobra de verdad con Stripe y
+ * "simulador" (por defecto) responde localmente, sin red, con la latencia y los
+ * errores configurados.
+ *
+ * Las implementaciones se llaman desde los hilos de EjecutorPasarela, fuera de
+ * cualquier transacción, y pueden bloquear mientras esperan a la pasarela.
+ */
+public interface PasarelaPago {
+
+    /**
+     * Nombre corto de la pasarela, para logs y métricas.
+     */
+    String nombre();
+
+    /**
+     * Cobra el pago.
+     *
+     * Debe asignar en el pago el ID del intento de pago de la pasarela (idIntentoPagoStripe).
+     * Un rechazo (tarjeta declinada, fondos insuficientes...) es una respuesta con exito=false;
+     * si la respuesta tiene requiereConfirmacion=true el pago queda pendiente (3D Secure, PSE)
+     * y se confirma después con el webhook o con consultarEstado.
+     *
+     * Si la llamada falla (red, tiempo agotado, error de la pasarela) no se sabe si hubo cargo:
+     * el intento se busca después con buscarIntento.
+     *
+     * @throws com.zabora.subscription.excepcion.CobroNoRealizadoException si la solicitud se rechazó
+     *         antes de crear el cobro
+     * @throws com.zabora.subscription.excepcion.PagoException si no se pudo hablar con la pasarela
+     */
+    RespuestaPagoDTO cobrar(Pago pago, SolicitudPagoDTO solicitud);
+
+    /**
+     * Estado actual de un intento de pago en la pasarela.
+     *
+     * @return PENDIENTE mientras el usuario no confirme; COMPLETADO, FALLIDO o CANCELADO al terminar
+     * @throws com.zabora.subscription.excepcion.PagoException si no se pudo hablar con la pasarela
+     */
+    EstadoPago consultarEstado(String idIntentoPago);
+
+    /**
+     * Busca el intento de pago que la pasarela creó para un pago, cuando cobrar falló sin
+     * devolver su ID. La búsqueda puede tardar en ver los intentos recién creados.
+     *
+     * @return ID del intento; vacío si la pasarela no tiene ninguno para el pago
+     * @throws com.zabora.subscription.excepcion.PagoException si no se pudo hablar con la pasarela
+     */
+    Optional<String> buscarIntento(String pagoId);
+}
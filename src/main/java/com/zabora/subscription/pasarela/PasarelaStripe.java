@@ -0,0 +1,170 @@
+package com.zabora.subscription.pasarela;
+
+import com.stripe.exception.CardException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentIntent;
+import com.stripe.net.RequestOptions;
+import com.stripe.model.PaymentIntentSearchResult;
+import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.PaymentIntentSearchParams;
+import com.zabora.subscription.excepcion.CobroNoRealizadoException;
+import com.zabora.subscription.excepcion.PagoException;
+import com.zabora.subscription.modelo.dto.RespuestaPagoDTO;
+import com.zabora.subscription.modelo.dto.SolicitudPagoDTO;
+import com.zabora.subscription.modelo.entidad.Pago;
+import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+import com.zabora.subscription.modelo.enumeracion.TipoMetodoPago;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Cobros reales con Stripe (PaymentIntents).
+ *
+ * El ID del pago se envía como clave de idempotencia, así que si la llamada se
+ * repite por un reintento Stripe no cobra dos veces.
+ */
+@Component
+@ConditionalOnProperty(name = "app.pagos.pasarela.proveedor", havingValue = "stripe")
+@Slf4j
+public class PasarelaStripe implements PasarelaPago {
+
+    private final String claveSecreta;
+    private final RequestOptions opciones;
+    private final String moneda;
+
+    public PasarelaStripe(@Value("${stripe.secret.key}") String claveSecreta,
+                          @Value("${stripe.currency:cop}") String moneda) {
+        this.claveSecreta = claveSecreta;
+        this.opciones = RequestOptions.builder().setApiKey(claveSecreta).build();
+        this.moneda = moneda;
+    }
+
+    @Override
+    public String nombre() {
+        return "stripe";
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Le pedimos a Stripe que cobre el pago con el método de pago del usuario.
+     * - Si Stripe lo cobra de una vez: COMPLETADO
+     * - Si el banco pide 3D Secure: queda pendiente hasta que el usuario lo confirme
+     * - Si la tarjeta es rechazada: FALLIDO con el motivo que da Stripe
+     */
+    @Override
+    public RespuestaPagoDTO cobrar(Pago pago, SolicitudPagoDTO solicitud) {
+        if (TipoMetodoPago.valueOf(solicitud.getTipoPago().toUpperCase()) == TipoMetodoPago.PSE) {
+            throw new CobroNoRealizadoException("PSE no está disponible con la pasarela Stripe");
+        }
+        if (solicitud.getTokenTarjetaPrueba() == null) {
+            throw new CobroNoRealizadoException("Falta el método de pago para cobrar con Stripe");
+        }
+
+        PaymentIntentCreateParams parametros = PaymentIntentCreateParams.builder()
+                // Stripe recibe el monto en la unidad mínima de la moneda (centavos)
+                .setAmount(solicitud.getMonto().setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValueExact())
+                .setCurrency(moneda)
+                .setPaymentMethod(solicitud.getTokenTarjetaPrueba())
+                .setConfirm(true)
+                .setAutomaticPaymentMethods(PaymentIntentCreateParams.AutomaticPaymentMethods.builder()
+                        .setEnabled(true)
+                        .setAllowRedirects(PaymentIntentCreateParams.AutomaticPaymentMethods.AllowRedirects.NEVER)
+                        .build())
+                .putMetadata("pago_id", pago.getId())
+                .putMetadata("suscripcion_id", solicitud.getIdSuscripcion())
+                .build();
+        RequestOptions opcionesPago = RequestOptions.builder()
+                .setApiKey(claveSecreta)
+                .setIdempotencyKey("pago_" + pago.getId())
+                .build();
+
+        PaymentIntent intento;
+        try {
+            intento = PaymentIntent.create(parametros, opcionesPago);
+        } catch (CardException e) {
+            // Rechazo del banco: es una respuesta, no un error de la pasarela
+            return respuesta(pago, solicitud, "FALLIDO", "Pago rechazado - " + e.getUserMessage(), null);
+        } catch (StripeException e) {
+            log.error("Error de Stripe cobrando el pago {}: {}", pago.getId(), e.getMessage());
+            throw new PagoException("Error de comunicación con Stripe: " + e.getMessage());
+        }
+
+        pago.setIdIntentoPagoStripe(intento.getId());
+        return switch (intento.getStatus()) {
+            case "succeeded" -> respuesta(pago, solicitud, "COMPLETADO", "Pago procesado exitosamente", intento);
+            case "requires_action" -> respuesta(pago, solicitud, "REQUIERE_AUTENTICACION",
+                    "Requiere autenticación 3D Secure", intento);
+            case "processing" -> respuesta(pago, solicitud, "PENDIENTE",
+                    "El banco está procesando el pago", intento);
+            default -> respuesta(pago, solicitud, "FALLIDO", "Pago rechazado por Stripe", intento);
+        };
+    }
+
+    @Override
+    public EstadoPago consultarEstado(String idIntentoPago) {
+        try {
+            String estado = PaymentIntent.retrieve(idIntentoPago, opciones).getStatus();
+            return switch (estado) {
+                case "succeeded" -> EstadoPago.COMPLETADO;
+                case "canceled" -> EstadoPago.CANCELADO;
+                // El cobro se intentó y falló; el usuario tendría que usar otro método
+                case "requires_payment_method" -> EstadoPago.FALLIDO;
+                default -> EstadoPago.PENDIENTE;
+            };
+        } catch (StripeException e) {
+            throw new PagoException("Error consultando el pago en Stripe: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Busca el PaymentIntent por la metadata pago_id. La búsqueda de Stripe puede tardar
+     * hasta un minuto en ver los intentos nuevos.
+     */
+    @Override
+    public Optional<String> buscarIntento(String pagoId) {
+        PaymentIntentSearchParams parametros = PaymentIntentSearchParams.builder()
+                .setQuery("metadata['pago_id']:'" + pagoId + "'")
+                .setLimit(1L)
+                .build();
+        try {
+            PaymentIntentSearchResult resultado = PaymentIntent.search(parametros, opciones);
+            return resultado.getData().stream().findFirst().map(PaymentIntent::getId);
+        } catch (StripeException e) {
+            throw new PagoException("Error buscando el pago en Stripe: " + e.getMessage());
+        }
+    }
+
+    private RespuestaPagoDTO respuesta(Pago pago, SolicitudPagoDTO solicitud, String estado,
+                                       String mensaje, PaymentIntent intento) {
+        boolean exito = estado.equals("COMPLETADO");
+        boolean pendiente = estado.equals("PENDIENTE");
+
+        Map<String, Object> detalles = new HashMap<>();
+        detalles.put("tipo_pago", solicitud.getTipoPago());
+        if (intento != null) {
+            detalles.put("id_intent", intento.getId());
+            detalles.put("estado_stripe", intento.getStatus());
+        }
+
+        return RespuestaPagoDTO.builder()
+                .exito(exito || pendiente)
+                .mensaje(mensaje)
+                .idPago(pago.getId())
+                .estado(estado)
+                .monto(solicitud.getMonto())
+                .moneda(moneda.toUpperCase())
+                .fechaPago(exito ? LocalDateTime.now() : null)
+                .urlComprobante(exito && intento != null ? "https://dashboard.stripe.com/payments/" + intento.getId() : null)
+                .requiereConfirmacion(pendiente || estado.equals("REQUIERE_AUTENTICACION"))
+                .detalles(detalles)
+                .build();
+    }
+}
@@ -0,0 +1,269 @@
+package com.zabora.subscription.pasarela;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.zabora.subscription.excepcion.PagoException;
+import com.zabora.subscription.modelo.dto.RespuestaPagoDTO;
+import com.zabora.subscription.modelo.dto.SolicitudPagoDTO;
+import com.zabora.subscription.modelo.entidad.Pago;
+import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Pasarela local para desarrollo y pruebas de carga. No usa la red.
+ *
+ * Cada cobro tarda según la distribución configurada y puede terminar, con las
+ * probabilidades configuradas, en error de la pasarela, en tiempo de espera agotado,
+ * en rechazo o en 3D Secure. Los pagos PSE y 3D Secure quedan pendientes y se resuelven
+ * solos después de app.pagos.simulador.confirmacion-ms (consultarEstado).
+ *
+ * Los tokens de prueba (tok_..., o los que nombran un escenario) dan siempre el mismo
+ * resultado, sin importar las probabilidades ni el tipo de pago, igual que el antiguo modo
+ * prueba: "fail"/"decline", "insufficient", "expired", "3ds"/"authentication" y cualquier
+ * otro tok_... (ej: tok_visa) se completa. Las fallas de la pasarela solo se fuerzan con
+ * los tokens exactos tok_sim_timeout y tok_sim_error.
+ * Sin token, o con el de un método de pago guardado (pm_...), se siguen las probabilidades.
+ *
+ * Distribuciones de latencia (app.pagos.simulador.distribucion):
+ * - fija: siempre latencia-ms
+ * - uniforme: entre latencia-ms y latencia-p99-ms
+ * - lognormal: mediana latencia-ms y percentil 99 latencia-p99-ms, con la cola larga
+ *   típica de una pasarela real
+ */
+@Component
+@ConditionalOnProperty(name = "app.pagos.pasarela.proveedor", havingValue = "simulador", matchIfMissing = true)
+public class SimuladorPasarela implements PasarelaPago {
+
+    // Percentil 99 de la normal estándar
+    private static final double Z_P99 = 2.3263;
+
+    private static final List<String> ESCENARIOS = List.of(
+            "fail", "decline", "insufficient", "expired", "3ds", "authentication");
+
+    private static final String TOKEN_TIMEOUT = "tok_sim_timeout";
+    private static final String TOKEN_ERROR = "tok_sim_error";
+
+    private final String distribucion;
+    private final long latenciaMs;
+    private final long latenciaP99Ms;
+    private final double tasaError;
+    private final double tasaTimeout;
+    private final double tasaRechazo;
+    private final double tasa3ds;
+    private final double tasaAbandono;
+    private final long timeoutMs;
+    private final long confirmacionMs;
+
+    // Intentos de pago creados, para consultarEstado
+    private final Cache<String, Intento> intentos = Caffeine.newBuilder()
+            .maximumSize(200_000)
+            .expireAfterWrite(Duration.ofHours(24))
+            .build();
+
+    // Intento creado para cada pago, para buscarIntento
+    private final Cache<String, String> intentosPorPago = Caffeine.newBuilder()
+            .maximumSize(200_000)
+            .expireAfterWrite(Duration.ofHours(24))
+            .build();
+
+    public SimuladorPasarela(@Value("${app.pagos.simulador.distribucion:fija}") String distribucion,
+                             @Value("${app.pagos.simulador.latencia-ms:0}") long latenciaMs,
+                             @Value("${app.pagos.simulador.latencia-p99-ms:0}") long latenciaP99Ms,
+                             @Value("${app.pagos.simulador.tasa-error:0}") double tasaError,
+                             @Value("${app.pagos.simulador.tasa-timeout:0}") double tasaTimeout,
+                             @Value("${app.pagos.simulador.tasa-rechazo:0}") double tasaRechazo,
+                             @Value("${app.pagos.simulador.tasa-3ds:0}") double tasa3ds,
+                             @Value("${app.pagos.simulador.tasa-abandono:0}") double tasaAbandono,
+                             @Value("${app.pagos.simulador.timeout-ms:60000}") long timeoutMs,
+                             @Value("${app.pagos.simulador.confirmacion-ms:0}") long confirmacionMs) {
+        this.distribucion = distribucion.toLowerCase();
+        this.latenciaMs = latenciaMs;
+        this.latenciaP99Ms = Math.max(latenciaP99Ms, latenciaMs);
+        this.tasaError = tasaError;
+        this.tasaTimeout = tasaTimeout;
+        this.tasaRechazo = tasaRechazo;
+        this.tasa3ds = tasa3ds;
+        this.tasaAbandono = tasaAbandono;
+        this.timeoutMs = timeoutMs;
+        this.confirmacionMs = confirmacionMs;
+        if (!this.distribucion.equals("fija") && !this.distribucion.equals("uniforme")
+                && !this.distribucion.equals("lognormal")) {
+            throw new IllegalArgumentException("Distribución de latencia desconocida: " + distribucion);
+        }
+    }
+
+    @Override
+    public String nombre() {
+        return "simulador";
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Hace de cuenta que le cobramos al banco, sin conectarse a nada.
+     * 1. Espera un tiempo parecido al que tardaría una pasarela real
+     * 2. Decide el resultado: por el token de prueba si lo hay, o al azar según las tasas configuradas
+     * 3. Si es PSE o 3D Secure, el pago queda pendiente hasta que "el usuario confirme"
+     */
+    @Override
+    public RespuestaPagoDTO cobrar(Pago pago, SolicitudPagoDTO solicitud) {
+        String token = solicitud.getTokenTarjetaPrueba();
+        boolean forzado = token != null
+                && (token.startsWith("tok_") || ESCENARIOS.stream().anyMatch(token::contains));
+        ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+
+        // Fallas de la pasarela: el cobro no llega a decidirse
+        if (TOKEN_TIMEOUT.equals(token) || (!forzado && aleatorio.nextDouble() < tasaTimeout)) {
+            esperar(timeoutMs);
+            throw new PagoException("La pasarela no respondió a tiempo (simulado)");
+        }
+        esperar(muestrearLatencia(aleatorio));
+        if (TOKEN_ERROR.equals(token) || (!forzado && aleatorio.nextDouble() < tasaError)) {
+            throw new PagoException("Error de comunicación con la pasarela (simulado)");
+        }
+
+        String intentId = (token != null ? "pi_test_" : "pi_sim_") + UUID.randomUUID().toString().replace("-", "");
+        pago.setIdIntentoPagoStripe(intentId);
+
+        Resultado resultado = forzado
+                ? resultadoPorToken(token)
+                : resultadoAleatorio(solicitud, aleatorio);
+        registrarIntento(intentId, resultado, aleatorio);
+        intentosPorPago.put(pago.getId(), intentId);
+
+        boolean exito = resultado.estado().equals("COMPLETADO");
+        boolean requiereConfirmacion = resultado.estado().equals("PENDIENTE")
+                || resultado.estado().equals("REQUIERE_AUTENTICACION");
+
+        Map<String, Object> detalles = new HashMap<>();
+        detalles.put("id_intent", intentId);
+        detalles.put("tipo_pago", solicitud.getTipoPago());
+        detalles.put("simulado", true);
+
+        return RespuestaPagoDTO.builder()
+                // PSE pendiente cuenta como creado con éxito; 3D Secure todavía no
+                .exito(exito || resultado.estado().equals("PENDIENTE"))
+                .mensaje(resultado.mensaje())
+                .idPago(pago.getId())
+                .estado(resultado.estado())
+                .monto(solicitud.getMonto())
+                .moneda("COP")
+                .fechaPago(exito ? LocalDateTime.now() : null)
+                .urlComprobante(exito ? urlComprobante(intentId, token != null) : null)
+                .requiereConfirmacion(requiereConfirmacion)
+                .detalles(detalles)
+                .build();
+    }
+
+    @Override
+    public EstadoPago consultarEstado(String idIntentoPago) {
+        esperar(muestrearLatencia(ThreadLocalRandom.current()));
+        Intento intento = intentos.getIfPresent(idIntentoPago);
+        if (intento == null) {
+            // Desconocido o vencido: igual que un intento que Stripe canceló por inactividad
+            return EstadoPago.CANCELADO;
+        }
+        return System.currentTimeMillis() >= intento.resueltoEnMs() ? intento.estadoFinal() : EstadoPago.PENDIENTE;
+    }
+
+    @Override
+    public Optional<String> buscarIntento(String pagoId) {
+        esperar(muestrearLatencia(ThreadLocalRandom.current()));
+        return Optional.ofNullable(intentosPorPago.getIfPresent(pagoId));
+    }
+
+    /**
+     * Escenarios de los tokens de prueba (ej: tok_visa, tok_fail, tok_3ds).
+     */
+    private Resultado resultadoPorToken(String token) {
+        if (token.contains("fail") || token.contains("decline")) {
+            return new Resultado("FALLIDO", "Pago rechazado - Tarjeta declinada");
+        }
+        if (token.contains("insufficient")) {
+            return new Resultado("FALLIDO", "Pago rechazado - Fondos insuficientes");
+        }
+        if (token.contains("expired")) {
+            return new Resultado("FALLIDO", "Pago rechazado - Tarjeta expirada");
+        }
+        if (token.contains("3ds") || token.contains("authentication")) {
+            return new Resultado("REQUIERE_AUTENTICACION", "Requiere autenticación 3D Secure");
+        }
+        return new Resultado("COMPLETADO", "Pago procesado exitosamente");
+    }
+
+    private Resultado resultadoAleatorio(SolicitudPagoDTO solicitud, ThreadLocalRandom aleatorio) {
+        if ("PSE".equalsIgnoreCase(solicitud.getTipoPago())) {
+            return new Resultado("PENDIENTE", "Pago PSE creado, requiere confirmación en el banco");
+        }
+        double sorteo = aleatorio.nextDouble();
+        if (sorteo < tasaRechazo) {
+            return new Resultado("FALLIDO", "Pago rechazado - Tarjeta declinada");
+        }
+        if (sorteo < tasaRechazo + tasa3ds) {
+            return new Resultado("REQUIERE_AUTENTICACION", "Requiere autenticación 3D Secure");
+        }
+        return new Resultado("COMPLETADO", "Pago con tarjeta procesado exitosamente");
+    }
+
+    private void registrarIntento(String intentId, Resultado resultado, ThreadLocalRandom aleatorio) {
+        long ahora = System.currentTimeMillis();
+        EstadoPago estadoFinal = switch (resultado.estado()) {
+            case "COMPLETADO" -> EstadoPago.COMPLETADO;
+            case "FALLIDO" -> EstadoPago.FALLIDO;
+            // Pendiente: el usuario confirma en el banco (o en 3D Secure), o abandona
+            case "PENDIENTE" -> aleatorio.nextDouble() < tasaAbandono ? EstadoPago.CANCELADO : EstadoPago.COMPLETADO;
+            default -> aleatorio.nextDouble() < tasaAbandono ? EstadoPago.FALLIDO : EstadoPago.COMPLETADO;
+        };
+        boolean pendiente = resultado.estado().equals("PENDIENTE")
+                || resultado.estado().equals("REQUIERE_AUTENTICACION");
+        intentos.put(intentId, new Intento(estadoFinal, pendiente ? ahora + confirmacionMs : ahora));
+    }
+
+    private long muestrearLatencia(ThreadLocalRandom aleatorio) {
+        if (latenciaMs <= 0) {
+            return 0;
+        }
+        return switch (distribucion) {
+            case "uniforme" -> aleatorio.nextLong(latenciaMs, latenciaP99Ms + 1);
+            case "lognormal" -> {
+                double sigma = Math.log((double) latenciaP99Ms / latenciaMs) / Z_P99;
+                yield Math.round(latenciaMs * Math.exp(sigma * aleatorio.nextGaussian()));
+            }
+            default -> latenciaMs;
+        };
+    }
+
+    private static void esperar(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PagoException("Llamada a la pasarela interrumpida");
+        }
+    }
+
+    private static String urlComprobante(String intentId, boolean prueba) {
+        return prueba
+                ? "https://receipt.stripe.com/test/" + intentId
+                : "https://zabora.com/receipt/" + intentId;
+    }
+
+    private record Resultado(String estado, String mensaje) {
+    }
+
+    private record Intento(EstadoPago estadoFinal, long resueltoEnMs) {
+    }
+}
@@ -0,0 +1,48 @@
+package com.zabora.subscription.repositorio;
+
+import com.zabora.subscription.modelo.entidad.ClaveIdempotencia;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface ClaveIdempotenciaRepository extends JpaRepository<ClaveIdempotencia, String> {
+    
+    // Retoma una clave vencida, o una que quedó EN_PROCESO demasiado tiempo (la instancia que la tenía murió).
+    // Retorna 1 si esta solicitud pasa a ser la dueña de la clave.
+    @Modifying
+    @Transactional
+    @Query("UPDATE ClaveIdempotencia c SET " +
+           "c.huellaSolicitud = :huella, " +
+           "c.estado = com.zabora.subscription.modelo.enumeracion.EstadoClaveIdempotencia.EN_PROCESO, " +
+           "c.respuesta = NULL, c.fechaCreacion = :ahora, c.fechaExpiracion = :expiracion " +
+           "WHERE c.id = :id AND (c.fechaExpiracion < :ahora OR " +
+           "(c.estado = com.zabora.subscription.modelo.enumeracion.EstadoClaveIdempotencia.EN_PROCESO " +
+           "AND c.fechaCreacion < :limiteAbandono))")
+    int retomar(
+        @Param("id") String id,
+        @Param("huella") String huella,
+        @Param("ahora") LocalDateTime ahora,
+        @Param("expiracion") LocalDateTime expiracion,
+        @Param("limiteAbandono") LocalDateTime limiteAbandono
+    );
+    
+    // Guarda la respuesta de la operación
+    @Modifying
+    @Transactional
+    @Query("UPDATE ClaveIdempotencia c SET " +
+           "c.estado = com.zabora.subscription.modelo.enumeracion.EstadoClaveIdempotencia.COMPLETADA, " +
+           "c.respuesta = :respuesta WHERE c.id = :id")
+    int completar(@Param("id") String id, @Param("respuesta") String respuesta);
+    
+    // Elimina las claves vencidas
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ClaveIdempotencia c WHERE c.fechaExpiracion < :ahora")
+    int eliminarVencidas(@Param("ahora") LocalDateTime ahora);
+}
@@ -0,0 +1,37 @@
+package com.zabora.subscription.repositorio;
+
+import com.zabora.subscription.modelo.entidad.EjecucionRenovacion;
+import com.zabora.subscription.modelo.enumeracion.EstadoEjecucionRenovacion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface EjecucionRenovacionRepository extends JpaRepository<EjecucionRenovacion, String> {
+    
+    // Ejecuciones en un estado, la de corte más antiguo primero (las sin terminar se retoman en ese orden)
+    List<EjecucionRenovacion> findByEstadoOrderByFechaCorteAsc(EstadoEjecucionRenovacion estado);
+    
+    // Ejecución con el corte más reciente, terminada o no: la siguiente empieza en su corte
+    Optional<EjecucionRenovacion> findFirstByOrderByFechaCorteDesc();
+    
+    // Indica si hay alguna ejecución en un estado
+    boolean existsByEstado(EstadoEjecucionRenovacion estado);
+    
+    // Marca la ejecución como COMPLETADA si ya no le quedan particiones por procesar
+    @Modifying
+    @Transactional
+    @Query("UPDATE EjecucionRenovacion e SET " +
+           "e.estado = com.zabora.subscription.modelo.enumeracion.EstadoEjecucionRenovacion.COMPLETADA, " +
+           "e.fechaFin = :ahora " +
+           "WHERE e.id = :id AND e.estado = com.zabora.subscription.modelo.enumeracion.EstadoEjecucionRenovacion.EN_CURSO " +
+           "AND NOT EXISTS (SELECT p FROM PuntoControlRenovacion p WHERE p.ejecucionId = :id AND p.terminada = false)")
+    int completarSiTermino(@Param("id") String id, @Param("ahora") LocalDateTime ahora);
+}
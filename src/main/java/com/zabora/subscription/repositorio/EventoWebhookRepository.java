@@ -0,0 +1,83 @@
+package com.zabora.subscription.repositorio;
+
+import com.zabora.subscription.modelo.entidad.EventoWebhook;
+import com.zabora.subscription.modelo.enumeracion.EstadoEventoWebhook;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface EventoWebhookRepository extends JpaRepository<EventoWebhook, String> {
+    
+    // Siguiente lote de eventos por aplicar, en el orden en que Stripe los creó, sin los reservados
+    // por otro nodo ni los de un intento de pago que otro nodo está aplicando (para no adelantarlos)
+    @Query(value = "SELECT e.id FROM eventos_webhook e WHERE e.estado = 'PENDIENTE' " +
+                   "AND (e.reserva_hasta IS NULL OR e.reserva_hasta < :ahora) " +
+                   "AND NOT EXISTS (SELECT 1 FROM eventos_webhook o WHERE o.id_intento_pago = e.id_intento_pago " +
+                   "AND o.estado = 'PENDIENTE' AND o.reserva_hasta >= :ahora) " +
+                   "ORDER BY e.creado_stripe, e.fecha_recepcion LIMIT :limite",
+           nativeQuery = true)
+    List<String> buscarIdsLibres(@Param("ahora") LocalDateTime ahora, @Param("limite") int limite);
+    
+    // Reservar eventos para aplicarlos; solo toma los que nadie tiene reservados
+    @Modifying
+    @Transactional
+    @Query("UPDATE EventoWebhook e SET e.reservaNodo = :nodo, e.reservaHasta = :hasta WHERE " +
+           "e.id IN :ids AND e.estado = :pendiente AND (e.reservaHasta IS NULL OR e.reservaHasta < :ahora)")
+    int reservar(
+        @Param("ids") Collection<String> ids,
+        @Param("nodo") String nodo,
+        @Param("hasta") LocalDateTime hasta,
+        @Param("ahora") LocalDateTime ahora,
+        @Param("pendiente") EstadoEventoWebhook pendiente
+    );
+    
+    // Eventos del lote que quedaron reservados por el nodo, en orden de aplicación
+    List<EventoWebhook> findByIdInAndReservaNodoAndEstadoOrderByCreadoStripeAscFechaRecepcionAsc(
+        Collection<String> ids,
+        String nodo,
+        EstadoEventoWebhook estado
+    );
+    
+    // Resultado de aplicar el evento; 0 si el nodo ya no lo tiene reservado
+    @Modifying
+    @Query("UPDATE EventoWebhook e SET e.estado = :estado, e.fechaProcesado = :fecha, e.error = NULL, " +
+           "e.reservaNodo = NULL, e.reservaHasta = NULL WHERE e.id = :id AND e.reservaNodo = :nodo")
+    int marcarAplicado(
+        @Param("id") String id,
+        @Param("nodo") String nodo,
+        @Param("estado") EstadoEventoWebhook estado,
+        @Param("fecha") LocalDateTime fecha
+    );
+    
+    // Fallo al aplicar el evento; 0 si el nodo ya no lo tiene reservado
+    @Modifying
+    @Transactional
+    @Query("UPDATE EventoWebhook e SET e.intentos = :intentos, e.error = :error, e.estado = :estado, " +
+           "e.fechaProcesado = :fecha WHERE e.id = :id AND e.reservaNodo = :nodo")
+    int registrarFallo(
+        @Param("id") String id,
+        @Param("nodo") String nodo,
+        @Param("intentos") int intentos,
+        @Param("error") String error,
+        @Param("estado") EstadoEventoWebhook estado,
+        @Param("fecha") LocalDateTime fecha
+    );
+    
+    // Libera los eventos que el nodo reservó y no alcanzó a aplicar
+    @Modifying
+    @Transactional
+    @Query("UPDATE EventoWebhook e SET e.reservaNodo = NULL, e.reservaHasta = NULL " +
+           "WHERE e.reservaNodo = :nodo AND e.estado = :pendiente")
+    int liberar(@Param("nodo") String nodo, @Param("pendiente") EstadoEventoWebhook pendiente);
+    
+    // Eventos en un estado (para monitoreo)
+    long countByEstado(EstadoEventoWebhook estado);
+}
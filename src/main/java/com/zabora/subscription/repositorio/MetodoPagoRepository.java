@@ -1,7 +1,10 @@
 package com.zabora.subscription.repositorio;
 
+import com.zabora.subscription.modelo.dto.MetodoPagoDTO;
 import com.zabora.subscription.modelo.entidad.MetodoPago;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import java.util.List;
 import java.util.Optional;
@@ -15,6 +18,18 @@ public interface MetodoPagoRepository extends JpaRepository<MetodoPago, String>
      * @return Lista de métodos de pago activos del usuario
      */
 	List<MetodoPago> findByUsuarioIdAndActivoTrue(String usuarioId);
+	/**
+     * Obtiene los métodos de pago activos de un usuario ya proyectados en DTOs,
+     * solo con las columnas que se muestran (para GET /api/pagos/metodos).
+     * 
+     * @param usuarioId ID del usuario
+     * @return Lista de métodos de pago activos del usuario
+     */
+	@Query("SELECT new com.zabora.subscription.modelo.dto.MetodoPagoDTO(" +
+	       "m.id, m.tipo, m.predeterminado, m.ultimosCuatro, m.marca, m.expiraMes, m.expiraAnio, " +
+	       "m.banco, m.tipoCuenta) " +
+	       "FROM MetodoPago m WHERE m.usuarioId = :usuarioId AND m.activo = TRUE")
+	List<MetodoPagoDTO> buscarActivos(@Param("usuarioId") String usuarioId);
 	 /**
      * Busca un método de pago usando su ID proporcionado por Stripe.
      * 
@@ -1,22 +1,31 @@
 package com.zabora.subscription.repositorio;
 
+import com.zabora.subscription.modelo.dto.HistorialPagoDTO;
 import com.zabora.subscription.modelo.entidad.Pago;
 import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface PagoRepository extends JpaRepository<Pago, String> {
     
-    // Historial de pagos de un usuario
-    List<Pago> findByUsuarioIdOrderByFechaCreacionDesc(String usuarioId);
+    // Historial de pagos de un usuario, proyectado en una sola consulta (sin cargar suscripción ni plan)
+    @Query("SELECT new com.zabora.subscription.modelo.dto.HistorialPagoDTO(" +
+           "p.id, s.id, pl.nombre, p.monto, p.moneda, p.metodoPago, p.estado, p.fechaPago, p.fechaCreacion) " +
+           "FROM Pago p JOIN p.suscripcion s JOIN s.plan pl " +
+           "WHERE p.usuarioId = :usuarioId ORDER BY p.fechaCreacion DESC")
+    List<HistorialPagoDTO> buscarHistorial(@Param("usuarioId") String usuarioId);
     
     // Pagos de una suscripción específica
     List<Pago> findBySuscripcionId(String suscripcionId);
@@ -24,6 +33,55 @@ public interface PagoRepository extends JpaRepository<Pago, String> {
     // Buscar por ID de Stripe
     Optional<Pago> findByIdIntentoPagoStripe(String stripePaymentIntentId);
     
+    // Buscar varios pagos por ID de Stripe, con la suscripción cargada (para aplicar webhooks por lote)
+    @Query("SELECT p FROM Pago p JOIN FETCH p.suscripcion s JOIN FETCH s.plan " +
+           "WHERE p.idIntentoPagoStripe IN :ids")
+    List<Pago> findByIdIntentoPagoStripeIn(@Param("ids") Collection<String> stripePaymentIntentIds);
+    
+    // Pagos por ID, con la suscripción cargada (webhooks de pagos cuyo intento aún no se había guardado)
+    @Query("SELECT p FROM Pago p JOIN FETCH p.suscripcion s JOIN FETCH s.plan " +
+           "WHERE p.id IN :ids")
+    List<Pago> findByIdInConSuscripcion(@Param("ids") Collection<String> ids);
+    
+    // Guardar el ID del intento de pago apenas responde la pasarela, antes de cerrar el pago
+    @Modifying
+    @Transactional
+    @Query("UPDATE Pago p SET p.idIntentoPagoStripe = :idIntento WHERE " +
+           "p.id = :id AND p.idIntentoPagoStripe IS NULL")
+    int guardarIntento(@Param("id") String id, @Param("idIntento") String idIntento);
+    
+    // Pagos pendientes de confirmar en la pasarela y sin reserva vigente, paginados por ID (keyset).
+    // Incluye los que no tienen intento: el cobro falló sin saber si la pasarela lo creó
+    @Query("SELECT p.id FROM Pago p WHERE " +
+           "p.estado = 'PENDIENTE' AND " +
+           "p.id > :despuesDe AND p.fechaCreacion < :creadoAntes AND " +
+           "(p.reconciliacionHasta IS NULL OR p.reconciliacionHasta < :ahora) " +
+           "ORDER BY p.id")
+    List<String> buscarIdsParaReconciliar(
+        @Param("despuesDe") String despuesDe,
+        @Param("creadoAntes") LocalDateTime creadoAntes,
+        @Param("ahora") LocalDateTime ahora,
+        Pageable pagina
+    );
+    
+    // Reservar pagos para reconciliarlos; solo toma los que nadie tiene reservados
+    @Modifying
+    @Transactional
+    @Query("UPDATE Pago p SET p.reconciliacionLease = :lease, p.reconciliacionHasta = :hasta WHERE " +
+           "p.id IN :ids AND p.estado = 'PENDIENTE' AND " +
+           "(p.reconciliacionHasta IS NULL OR p.reconciliacionHasta < :ahora)")
+    int reservarParaReconciliar(
+        @Param("ids") Collection<String> ids,
+        @Param("lease") String lease,
+        @Param("hasta") LocalDateTime hasta,
+        @Param("ahora") LocalDateTime ahora
+    );
+    
+    // Pagos que siguen reservados con la reserva indicada, con la suscripción cargada
+    @Query("SELECT p FROM Pago p JOIN FETCH p.suscripcion WHERE " +
+           "p.id IN :ids AND p.reconciliacionLease = :lease AND p.estado = 'PENDIENTE'")
+    List<Pago> findReservados(@Param("ids") Collection<String> ids, @Param("lease") String lease);
+    
     // Calcular ingresos totales en un periodo
     @Query("SELECT SUM(p.monto) FROM Pago p WHERE " +
            "p.estado = 'COMPLETADO' AND " +
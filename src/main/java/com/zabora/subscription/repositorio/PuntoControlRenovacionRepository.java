@@ -0,0 +1,39 @@
+package com.zabora.subscription.repositorio;
+
+import com.zabora.subscription.modelo.entidad.PuntoControlRenovacion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface PuntoControlRenovacionRepository extends JpaRepository<PuntoControlRenovacion, String> {
+    
+    // Particiones de una ejecución, en orden
+    List<PuntoControlRenovacion> findByEjecucionIdOrderByParticionAsc(String ejecucionId);
+    
+    // Reserva una partición sin terminar que nadie tiene reservada. Retorna 1 si este nodo la tomó.
+    @Modifying
+    @Transactional
+    @Query("UPDATE PuntoControlRenovacion p SET p.reservaNodo = :nodo, p.reservaHasta = :hasta " +
+           "WHERE p.id = :id AND p.terminada = false AND " +
+           "(p.reservaHasta IS NULL OR p.reservaHasta < :ahora OR p.reservaNodo = :nodo)")
+    int reservar(
+        @Param("id") String id,
+        @Param("nodo") String nodo,
+        @Param("hasta") LocalDateTime hasta,
+        @Param("ahora") LocalDateTime ahora
+    );
+    
+    // Libera la reserva de una partición (al detenerse antes de terminarla)
+    @Modifying
+    @Transactional
+    @Query("UPDATE PuntoControlRenovacion p SET p.reservaNodo = NULL, p.reservaHasta = NULL " +
+           "WHERE p.id = :id AND p.reservaNodo = :nodo")
+    int liberar(@Param("id") String id, @Param("nodo") String nodo);
+}
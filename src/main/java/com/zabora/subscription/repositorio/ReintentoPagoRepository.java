@@ -0,0 +1,33 @@
+package com.zabora.subscription.repositorio;
+
+import com.zabora.subscription.modelo.entidad.ReintentoPago;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ReintentoPagoRepository extends JpaRepository<ReintentoPago, String> {
+    
+    // Suscripciones de la lista que tienen una cobranza PROGRAMADA
+    @Query("SELECT DISTINCT r.suscripcionId FROM ReintentoPago r " +
+           "WHERE r.suscripcionId IN :ids AND r.estado = com.zabora.subscription.modelo.enumeracion.EstadoReintentoPago.PROGRAMADO")
+    List<String> findSuscripcionesEnCobranza(@Param("ids") Collection<String> ids);
+    
+    // Cancela la cobranza de una suscripción que se pagó por otro medio (y libera suscripcion_programada)
+    @Modifying
+    @Transactional
+    @Query("UPDATE ReintentoPago r SET " +
+           "r.estado = com.zabora.subscription.modelo.enumeracion.EstadoReintentoPago.CANCELADO, " +
+           "r.suscripcionProgramada = NULL, " +
+           "r.fechaActualizacion = :ahora " +
+           "WHERE r.suscripcionId = :suscripcionId " +
+           "AND r.estado = com.zabora.subscription.modelo.enumeracion.EstadoReintentoPago.PROGRAMADO")
+    int cancelarProgramados(@Param("suscripcionId") String suscripcionId, @Param("ahora") LocalDateTime ahora);
+}
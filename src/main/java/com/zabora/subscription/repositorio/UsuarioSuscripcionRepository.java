@@ -1,13 +1,16 @@
 package com.zabora.subscription.repositorio;
 
+import com.zabora.subscription.modelo.dto.ResumenSuscripcionDTO;
 import com.zabora.subscription.modelo.entidad.UsuarioSuscripcion;
 import com.zabora.subscription.modelo.enumeracion.EstadoSuscripcion;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,8 +23,31 @@ public interface UsuarioSuscripcionRepository extends JpaRepository<UsuarioSuscr
         EstadoSuscripcion estado
     );
     
-    // Todas las suscripciones de un usuario
-    List<UsuarioSuscripcion> findByUsuarioId(String usuarioId);
+    // Proyecciones de solo lectura: columnas de la suscripción más el nombre del plan, en una consulta
+    String SELECT_RESUMEN = "SELECT new com.zabora.subscription.modelo.dto.ResumenSuscripcionDTO(" +
+           "s.id, s.usuarioId, p.nombre, s.estado, s.inicioPeriodoActual, s.finPeriodoActual, " +
+           "s.fechaCancelacion, s.fechaCreacion) FROM UsuarioSuscripcion s JOIN s.plan p ";
+    
+    // Suscripción en un estado de un usuario, proyectada (para verificar sin cargar la entidad).
+    // La verificación no abre transacción: solo esta consulta toma una conexión, y solo si hace falta
+    @Transactional(readOnly = true)
+    @Query(SELECT_RESUMEN + "WHERE s.usuarioId = :usuarioId AND s.estado = :estado")
+    Optional<ResumenSuscripcionDTO> buscarResumen(
+        @Param("usuarioId") String usuarioId,
+        @Param("estado") EstadoSuscripcion estado
+    );
+    
+    // Suscripciones en un estado para un lote de usuarios, proyectadas en una sola consulta
+    @Transactional(readOnly = true)
+    @Query(SELECT_RESUMEN + "WHERE s.usuarioId IN :usuarioIds AND s.estado = :estado")
+    List<ResumenSuscripcionDTO> buscarResumenes(
+        @Param("usuarioIds") Collection<String> usuarioIds,
+        @Param("estado") EstadoSuscripcion estado
+    );
+    
+    // Todas las suscripciones de un usuario, proyectadas y de la más reciente a la más antigua
+    @Query(SELECT_RESUMEN + "WHERE s.usuarioId = :usuarioId ORDER BY s.fechaCreacion DESC")
+    List<ResumenSuscripcionDTO> buscarHistorial(@Param("usuarioId") String usuarioId);
     
     // Suscripciones que expiran pronto (para notificaciones)
     @Query("SELECT s FROM UsuarioSuscripcion s WHERE " +
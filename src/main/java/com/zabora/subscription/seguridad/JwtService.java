@@ -1,19 +1,32 @@
 package com.zabora.subscription.seguridad;
 
+import com.zabora.subscription.cliente.VerificadorTokenDerechos;
+import com.zabora.subscription.modelo.dto.RespuestaVerificacionDTO;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.ZoneId;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
 
 @Service
+@Slf4j
 public class JwtService {
 	 /**
      * Clave secreta usada para firmar los tokens.
@@ -28,6 +41,55 @@ public class JwtService {
      */
     @Value("${jwt.expiration:86400000}")
     private Long expiration;
+    /**
+     * Tiempo de vida de los tokens de derecho en milisegundos.
+     * Son cortos para que un cambio de suscripción se refleje pronto.
+     */
+    @Value("${jwt.derechos.expiration:300000}")
+    private Long expiracionDerechos;
+    /**
+     * Claves EC (P-256) en Base64 para firmar los tokens de derecho.
+     * La privada en formato PKCS#8 y la pública en formato X.509.
+     * Si no se configuran, se genera un par temporal al iniciar (solo para desarrollo).
+     */
+    @Value("${jwt.derechos.clave-privada:}")
+    private String clavePrivadaDerechos;
+    @Value("${jwt.derechos.clave-publica:}")
+    private String clavePublicaDerechos;
+    /**
+     * Zona horaria en la que se guardan las fechas de la suscripción.
+     */
+    @Value("${spring.jackson.time-zone:America/Bogota}")
+    private String zonaHoraria;
+
+    private PrivateKey llaveFirmaDerechos;
+    private PublicKey llaveVerificacionDerechos;
+
+    /**
+     * Carga (o genera) el par de claves de los tokens de derecho.
+     * Se usa firma asimétrica para que los servicios que verifican el token
+     * solo necesiten la clave pública y no puedan emitir tokens.
+     */
+    @PostConstruct
+    public void inicializarClavesDerechos() {
+        try {
+            if (clavePrivadaDerechos.isBlank() || clavePublicaDerechos.isBlank()) {
+                log.warn("jwt.derechos.clave-privada/clave-publica no configuradas: " +
+                        "se genera un par de claves temporal (no usar en producción con varias instancias)");
+                KeyPair par = Jwts.SIG.ES256.keyPair().build();
+                llaveFirmaDerechos = par.getPrivate();
+                llaveVerificacionDerechos = par.getPublic();
+                return;
+            }
+            KeyFactory fabrica = KeyFactory.getInstance("EC");
+            llaveFirmaDerechos = fabrica.generatePrivate(
+                    new PKCS8EncodedKeySpec(Base64.getDecoder().decode(clavePrivadaDerechos)));
+            llaveVerificacionDerechos = fabrica.generatePublic(
+                    new X509EncodedKeySpec(Base64.getDecoder().decode(clavePublicaDerechos)));
+        } catch (Exception e) {
+            throw new IllegalStateException("No se pudieron cargar las claves de tokens de derecho", e);
+        }
+    }
     /**
      * Genera la llave criptográfica usada para firmar y validar los tokens.
      * Convierte el valor secreto en un SecretKey válido para HMAC-SHA.
@@ -100,6 +162,58 @@ public class JwtService {
                 .signWith(getSigningKey())
                 .compact();
     }
+    /**
+     * Genera un token de derecho de corta duración para el usuario.
+     * Los claims llevan lo mismo que responde GET /verificar/{usuarioId}:
+     * - plan, estado y valida (premium activo)
+     * - fexp: fin del periodo de la suscripción (segundos epoch), si aplica
+     * - limites: límites del plan
+     *
+     * El token nunca dura más que la suscripción misma.
+     * Los demás servicios lo validan localmente con VerificadorTokenDerechos.
+     */
+    public String generarTokenDerecho(String usuarioId, RespuestaVerificacionDTO verificacion) {
+        long ahora = System.currentTimeMillis();
+        long expira = ahora + expiracionDerechos;
+
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("plan", verificacion.getPlan());
+        claims.put("estado", verificacion.getEstado());
+        claims.put("valida", verificacion.getValida());
+        claims.put("limites", verificacion.getLimites());
+
+        if (verificacion.getFechaExpiracion() != null) {
+            long fexp = verificacion.getFechaExpiracion()
+                    .atZone(ZoneId.of(zonaHoraria))
+                    .toInstant()
+                    .toEpochMilli();
+            claims.put("fexp", fexp / 1000);
+            expira = Math.max(ahora, Math.min(expira, fexp));
+        }
+
+        return Jwts.builder()
+                .claims(claims)
+                .subject(usuarioId)
+                .issuer(VerificadorTokenDerechos.EMISOR)
+                .audience().add(VerificadorTokenDerechos.AUDIENCIA).and()
+                .issuedAt(new Date(ahora))
+                .expiration(new Date(expira))
+                .signWith(llaveFirmaDerechos)
+                .compact();
+    }
+    /**
+     * Clave pública de los tokens de derecho en Base64 (X.509),
+     * para configurar VerificadorTokenDerechos en los demás servicios.
+     */
+    public String obtenerClavePublicaDerechos() {
+        return Base64.getEncoder().encodeToString(llaveVerificacionDerechos.getEncoded());
+    }
+    /**
+     * Tiempo de vida configurado de los tokens de derecho, en segundos.
+     */
+    public long obtenerExpiracionDerechosSegundos() {
+        return expiracionDerechos / 1000;
+    }
     /**
      * Valida que:
      * 1. El nombre dentro del token coincide con el usuario esperado
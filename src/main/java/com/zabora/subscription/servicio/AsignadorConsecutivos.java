@@ -0,0 +1,473 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.modelo.enumeracion.ModoNumeracion;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+/**
+ * Asigna los consecutivos de las facturas, cada prefijo (rango de numeración) con su propia secuencia.
+ *
+ * Antes cada factura hacía UPDATE secuencia_facturas ... WHERE id = 1 dentro de su transacción,
+ * así que todas las facturas del sistema esperaban por el bloqueo de esa fila hasta el commit
+ * de la anterior. Ahora cada nodo reserva un bloque de tamano_bloque números en una transacción
+ * corta e independiente y los reparte desde memoria: la fila del rango se bloquea una vez por
+ * bloque y solo unos milisegundos.
+ *
+ * Rangos RAPIDO: un número que no termina en factura vuelve a la memoria del nodo si su
+ * transacción se revierte; si el nodo se reinicia, los que tenía en memoria se pierden.
+ *
+ * Rangos SIN_HUECOS (numeración sin saltos, ej: resoluciones DIAN):
+ * - cada bloque queda en bloques_consecutivos con una reserva que el nodo renueva mientras lo usa
+ * - cuando la reserva de un bloque vence, los números que no terminaron en factura pasan a
+ *   consecutivos_liberados, y se vuelven a emitir antes que los números nuevos
+ * - un número liberado se borra de consecutivos_liberados en la misma transacción que guarda la factura
+ */
+@Service
+@Slf4j
+public class AsignadorConsecutivos {
+
+    private static final String SQL_RANGO =
+            "SELECT numero_hasta, siguiente, modo, tamano_bloque, activo, resolucion " +
+            "FROM rangos_numeracion WHERE prefijo = ? FOR UPDATE";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate transaccionCorta;
+    private final MeterRegistry registry;
+
+    // Números en memoria de este nodo, por prefijo
+    private final Map<String, Reserva> reservas = new ConcurrentHashMap<>();
+
+    // Identifica a esta instancia en las reservas de bloques y de números liberados
+    private final String nodo = UUID.randomUUID().toString();
+
+    // Duración de la reserva de un bloque (se renueva mientras se usa) o de un lote de liberados
+    @Value("${app.facturacion.numeracion.reserva-ms:600000}")
+    private long reservaMs;
+
+    // Margen después de vencer una reserva para que terminen las transacciones que usaron sus números
+    @Value("${app.facturacion.numeracion.gracia-ms:120000}")
+    private long graciaMs;
+
+    // Bloques vencidos que se revisan por ejecución de la recuperación
+    @Value("${app.facturacion.numeracion.bloques-por-recuperacion:100}")
+    private int bloquesPorRecuperacion;
+
+    // Rango que se crea al iniciar si no existe (prefijo por defecto de las facturas)
+    @Value("${app.facturacion.prefijo:FZ}")
+    private String prefijoPorDefecto;
+
+    @Value("${app.facturacion.numeracion.numero-desde:1001}")
+    private long numeroDesde;
+
+    @Value("${app.facturacion.numeracion.numero-hasta:999999999}")
+    private long numeroHasta;
+
+    @Value("${app.facturacion.numeracion.modo:RAPIDO}")
+    private ModoNumeracion modo;
+
+    @Value("${app.facturacion.numeracion.tamano-bloque:100}")
+    private int tamanoBloque;
+
+    public AsignadorConsecutivos(JdbcTemplate jdbcTemplate,
+                                 PlatformTransactionManager transactionManager,
+                                 MeterRegistry registry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        // Independiente de la transacción de la factura, para soltar el bloqueo del rango de inmediato
+        this.transaccionCorta = new TransactionTemplate(transactionManager);
+        this.transaccionCorta.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.registry = registry;
+    }
+
+    /**
+     * Crea el rango del prefijo por defecto si todavía no existe (ej: base de datos de desarrollo).
+     * Los demás rangos (resoluciones DIAN) se dan de alta en rangos_numeracion.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void crearRangoPorDefecto() {
+        String prefijo = prefijoPorDefecto;
+        try {
+            int creados = jdbcTemplate.update(
+                    "INSERT INTO rangos_numeracion (prefijo, numero_desde, numero_hasta, siguiente, modo, " +
+                    "tamano_bloque, activo, fecha_actualizacion) " +
+                    "SELECT ?, ?, ?, ?, ?, ?, TRUE, ? FROM DUAL " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM rangos_numeracion WHERE prefijo = ?)",
+                    prefijo, numeroDesde, numeroHasta, numeroDesde, modo.name(), Math.max(1, tamanoBloque),
+                    new Timestamp(System.currentTimeMillis()), prefijo);
+            if (creados > 0) {
+                log.info("Rango de numeración {} creado ({} a {}, {})", prefijo, numeroDesde, numeroHasta, modo);
+            }
+        } catch (DuplicateKeyException e) {
+            // Otra instancia lo creó al mismo tiempo
+        }
+    }
+
+    /**
+     * Asigna el siguiente consecutivo del prefijo. Se llama dentro de la transacción que guarda
+     * la factura: si esa transacción se revierte, el número se vuelve a asignar.
+     *
+     * @throws IllegalStateException si el prefijo no tiene un rango activo o el rango se agotó
+     */
+    public Consecutivo asignar(String prefijo) {
+        Reserva reserva = reservas.computeIfAbsent(prefijo, Reserva::new);
+        while (true) {
+            Consecutivo consecutivo;
+            synchronized (reserva) {
+                consecutivo = tomar(reserva, System.currentTimeMillis());
+                if (consecutivo == null) {
+                    // Los demás hilos del mismo prefijo esperan el bloque nuevo
+                    reserva.aplicar(recargar(prefijo));
+                    continue;
+                }
+            }
+
+            // Un número liberado se consume en la transacción de la factura; si ya no es de este
+            // nodo (su reserva venció y otro lo tomó) se pasa al siguiente
+            if (consecutivo.reutilizado() && jdbcTemplate.update(
+                    "DELETE FROM consecutivos_liberados WHERE numero = ? AND reserva_nodo = ?",
+                    consecutivo.numeroFactura(), nodo) == 0) {
+                continue;
+            }
+
+            devolverSiSeRevierte(reserva, consecutivo);
+            Counter.builder("facturacion.consecutivos.asignados")
+                    .description("Consecutivos de factura asignados, por prefijo y origen")
+                    .tag("prefijo", prefijo)
+                    .tag("origen", consecutivo.reutilizado() ? "liberado" : "bloque")
+                    .register(registry)
+                    .increment();
+            return consecutivo;
+        }
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Recupera los números de los bloques SIN_HUECOS cuya reserva venció (el nodo se detuvo,
+     * o revirtió facturas y luego cambió de bloque):
+     * 1. Toma cada bloque vencido borrándolo (si otra instancia ya lo tomó, lo salta)
+     * 2. Busca qué números del bloque no tienen factura ni están ya liberados
+     * 3. Los pasa a consecutivos_liberados, de donde se vuelven a emitir
+     */
+    @Scheduled(fixedDelayString = "${app.facturacion.numeracion.intervalo-recuperacion-ms:60000}",
+               initialDelayString = "${app.facturacion.numeracion.intervalo-recuperacion-ms:60000}")
+    public void recuperarNoUsados() {
+        long limite = System.currentTimeMillis() - graciaMs;
+        List<BloqueVencido> vencidos = jdbcTemplate.query(
+                "SELECT id, prefijo, numero_desde, numero_hasta FROM bloques_consecutivos " +
+                "WHERE reserva_hasta < ? ORDER BY reserva_hasta LIMIT ?",
+                (rs, n) -> new BloqueVencido(rs.getString("id"), rs.getString("prefijo"),
+                        rs.getLong("numero_desde"), rs.getLong("numero_hasta")),
+                new Timestamp(limite), bloquesPorRecuperacion);
+
+        int liberados = 0;
+        for (BloqueVencido bloque : vencidos) {
+            Integer cantidad = transaccionCorta.execute(estado -> liberar(bloque, limite));
+            liberados += cantidad != null ? cantidad : 0;
+        }
+        if (liberados > 0) {
+            log.info("Consecutivos sin factura liberados para volver a emitirse: {}", liberados);
+        }
+    }
+
+    // ========== MÉTODOS AUXILIARES ==========
+
+    /**
+     * Saca un número de la memoria del nodo, o null si hay que reservar más.
+     * Se llama con el monitor de la reserva tomado.
+     */
+    private Consecutivo tomar(Reserva reserva, long ahora) {
+        if (!reserva.liberados.isEmpty()) {
+            if (ahora < reserva.liberadosHasta) {
+                return new Consecutivo(reserva.prefijo, reserva.liberados.poll(), true);
+            }
+            // La reserva venció: siguen en la tabla para quien los tome
+            reserva.liberados.clear();
+        }
+        if (!reserva.tieneNumeros()) {
+            return null;
+        }
+        if (ahora >= reserva.bloqueHasta) {
+            // Lo que queda del bloque lo recupera recuperarNoUsados
+            reserva.descartarBloque();
+            return null;
+        }
+        if (reserva.bloqueId != null && ahora >= reserva.bloqueHasta - reservaMs / 2 && !renovar(reserva, ahora)) {
+            reserva.descartarBloque();
+            return null;
+        }
+        Long devuelto = reserva.devueltos.poll();
+        return new Consecutivo(reserva.prefijo, devuelto != null ? devuelto : reserva.siguiente++, false);
+    }
+
+    /**
+     * Si la transacción que pidió el número se revierte, el número vuelve a la memoria del nodo
+     * (mientras su bloque o su reserva sigan vigentes).
+     */
+    private void devolverSiSeRevierte(Reserva reserva, Consecutivo consecutivo) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int estado) {
+                if (estado == STATUS_COMMITTED) {
+                    return;
+                }
+                synchronized (reserva) {
+                    if (consecutivo.reutilizado()) {
+                        if (System.currentTimeMillis() < reserva.liberadosHasta) {
+                            reserva.liberados.addFirst(consecutivo.numero());
+                        }
+                    } else if (reserva.esDelBloque(consecutivo.numero())) {
+                        reserva.devueltos.addFirst(consecutivo.numero());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Reserva más números del prefijo en una transacción corta: primero los liberados
+     * (rangos SIN_HUECOS) y, si no hay, un bloque nuevo del rango.
+     */
+    private Recarga recargar(String prefijo) {
+        long inicio = System.nanoTime();
+        try {
+            return transaccionCorta.execute(estado -> {
+                long ahora = System.currentTimeMillis();
+                long hasta = ahora + reservaMs;
+
+                // 1. El rango queda bloqueado hasta el final de esta transacción corta
+                List<Rango> rangos = jdbcTemplate.query(SQL_RANGO, (rs, n) -> new Rango(
+                        rs.getLong("numero_hasta"),
+                        rs.getLong("siguiente"),
+                        ModoNumeracion.valueOf(rs.getString("modo")),
+                        Math.max(1, rs.getInt("tamano_bloque")),
+                        rs.getBoolean("activo"),
+                        rs.getString("resolucion")), prefijo);
+                if (rangos.isEmpty() || !rangos.get(0).activo()) {
+                    throw new IllegalStateException("No hay un rango de numeración activo para el prefijo " + prefijo);
+                }
+                Rango rango = rangos.get(0);
+                boolean sinHuecos = rango.modo() == ModoNumeracion.SIN_HUECOS;
+
+                // 2. Números liberados antes que números nuevos
+                if (sinHuecos) {
+                    List<Long> liberados = reservarLiberados(prefijo, rango.tamanoBloque(), ahora, hasta);
+                    if (!liberados.isEmpty()) {
+                        return new Recarga(liberados, hasta, null, 0, -1, 0);
+                    }
+                }
+
+                // 3. Bloque nuevo
+                if (rango.siguiente() > rango.numeroHasta()) {
+                    throw new IllegalStateException("Se agotó el rango de numeración " + prefijo
+                            + (rango.resolucion() != null ? " (resolución " + rango.resolucion() + ")" : ""));
+                }
+                long desde = rango.siguiente();
+                long fin = Math.min(rango.numeroHasta(), desde + rango.tamanoBloque() - 1);
+                jdbcTemplate.update(
+                        "UPDATE rangos_numeracion SET siguiente = ?, fecha_actualizacion = ? WHERE prefijo = ?",
+                        fin + 1, new Timestamp(ahora), prefijo);
+                if (!sinHuecos) {
+                    return new Recarga(List.of(), 0, null, desde, fin, Long.MAX_VALUE);
+                }
+
+                String bloqueId = UUID.randomUUID().toString();
+                jdbcTemplate.update(
+                        "INSERT INTO bloques_consecutivos (id, prefijo, numero_desde, numero_hasta, " +
+                        "reserva_nodo, reserva_hasta) VALUES (?, ?, ?, ?, ?, ?)",
+                        bloqueId, prefijo, desde, fin, nodo, new Timestamp(hasta));
+                return new Recarga(List.of(), 0, bloqueId, desde, fin, hasta);
+            });
+        } finally {
+            Timer.builder("facturacion.consecutivos.recarga")
+                    .description("Duración de la reserva de un bloque de consecutivos (bloqueo del rango)")
+                    .tag("prefijo", prefijo)
+                    .register(registry)
+                    .record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Reserva para este nodo hasta "limite" números liberados, los más bajos primero.
+     * Se ejecuta con el rango bloqueado, así que dos nodos no toman los mismos.
+     */
+    private List<Long> reservarLiberados(String prefijo, int limite, long ahora, long hasta) {
+        List<Map.Entry<String, Long>> disponibles = jdbcTemplate.query(
+                "SELECT numero, consecutivo FROM consecutivos_liberados " +
+                "WHERE prefijo = ? AND (reserva_hasta IS NULL OR reserva_hasta < ?) " +
+                "ORDER BY consecutivo LIMIT ?",
+                (rs, n) -> Map.entry(rs.getString("numero"), rs.getLong("consecutivo")),
+                prefijo, new Timestamp(ahora - graciaMs), limite);
+        if (disponibles.isEmpty()) {
+            return List.of();
+        }
+        namedJdbcTemplate.update(
+                "UPDATE consecutivos_liberados SET reserva_nodo = :nodo, reserva_hasta = :hasta " +
+                "WHERE numero IN (:numeros)",
+                new MapSqlParameterSource()
+                        .addValue("nodo", nodo)
+                        .addValue("hasta", new Timestamp(hasta))
+                        .addValue("numeros", disponibles.stream().map(Map.Entry::getKey).toList()));
+        return disponibles.stream().map(Map.Entry::getValue).toList();
+    }
+
+    /**
+     * Extiende la reserva del bloque que se está usando. Falla si el bloque ya no es de este nodo.
+     */
+    private boolean renovar(Reserva reserva, long ahora) {
+        Integer renovados = transaccionCorta.execute(estado -> jdbcTemplate.update(
+                "UPDATE bloques_consecutivos SET reserva_hasta = ? WHERE id = ? AND reserva_nodo = ?",
+                new Timestamp(ahora + reservaMs), reserva.bloqueId, nodo));
+        if (renovados == null || renovados == 0) {
+            log.warn("El bloque de consecutivos {} de {} ya no está reservado por este nodo", reserva.bloqueId, reserva.prefijo);
+            return false;
+        }
+        reserva.bloqueHasta = ahora + reservaMs;
+        return true;
+    }
+
+    /**
+     * Pasa a consecutivos_liberados los números de un bloque vencido que no terminaron en factura.
+     */
+    private int liberar(BloqueVencido bloque, long limite) {
+        // El DELETE toma el bloque: si otra instancia ya lo procesó no se repite
+        if (jdbcTemplate.update("DELETE FROM bloques_consecutivos WHERE id = ? AND reserva_hasta < ?",
+                bloque.id(), new Timestamp(limite)) == 0) {
+            return 0;
+        }
+
+        Set<Long> ocupados = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT consecutivo FROM facturas WHERE prefijo = ? AND consecutivo BETWEEN ? AND ?",
+                Long.class, bloque.prefijo(), bloque.desde(), bloque.hasta()));
+        ocupados.addAll(jdbcTemplate.queryForList(
+                "SELECT consecutivo FROM consecutivos_liberados WHERE prefijo = ? AND consecutivo BETWEEN ? AND ?",
+                Long.class, bloque.prefijo(), bloque.desde(), bloque.hasta()));
+        List<Long> noUsados = LongStream.rangeClosed(bloque.desde(), bloque.hasta())
+                .filter(numero -> !ocupados.contains(numero))
+                .boxed()
+                .toList();
+
+        Timestamp ahora = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO consecutivos_liberados (numero, prefijo, consecutivo, fecha_liberacion) " +
+                "VALUES (?, ?, ?, ?)",
+                noUsados, Math.max(1, noUsados.size()), (ps, numero) -> {
+                    ps.setString(1, bloque.prefijo() + "-" + numero);
+                    ps.setString(2, bloque.prefijo());
+                    ps.setLong(3, numero);
+                    ps.setTimestamp(4, ahora);
+                });
+
+        if (!noUsados.isEmpty()) {
+            Counter.builder("facturacion.consecutivos.liberados")
+                    .description("Consecutivos reservados que no terminaron en factura y se volverán a emitir")
+                    .tag("prefijo", bloque.prefijo())
+                    .register(registry)
+                    .increment(noUsados.size());
+        }
+        return noUsados.size();
+    }
+
+    /**
+     * Consecutivo asignado a una factura.
+     *
+     * @param reutilizado true si es un número liberado que se vuelve a emitir
+     */
+    public record Consecutivo(String prefijo, long numero, boolean reutilizado) {
+
+        // Número completo, igual que facturas.numero_factura
+        public String numeroFactura() {
+            return prefijo + "-" + numero;
+        }
+    }
+
+    private record Rango(long numeroHasta, long siguiente, ModoNumeracion modo, int tamanoBloque,
+                         boolean activo, String resolucion) {
+    }
+
+    private record BloqueVencido(String id, String prefijo, long desde, long hasta) {
+    }
+
+    /**
+     * Resultado de una recarga: números liberados, o un bloque nuevo [desde, hasta].
+     */
+    private record Recarga(List<Long> liberados, long liberadosHasta,
+                           String bloqueId, long desde, long hasta, long bloqueHasta) {
+    }
+
+    /**
+     * Números de un prefijo en memoria de este nodo. Se usa con su monitor tomado.
+     */
+    private static final class Reserva {
+        final String prefijo;
+        // Liberados reservados para este nodo, y hasta cuándo (epoch ms)
+        final ArrayDeque<Long> liberados = new ArrayDeque<>();
+        long liberadosHasta;
+        // Números del bloque actual cuya transacción se revirtió
+        final ArrayDeque<Long> devueltos = new ArrayDeque<>();
+        // Bloque actual: [desde, hasta], siguiente sin repartir; bloqueId solo en SIN_HUECOS
+        String bloqueId;
+        long desde;
+        long siguiente = 1;
+        long hasta = 0;
+        long bloqueHasta;
+
+        Reserva(String prefijo) {
+            this.prefijo = prefijo;
+        }
+
+        boolean tieneNumeros() {
+            return !devueltos.isEmpty() || siguiente <= hasta;
+        }
+
+        boolean esDelBloque(long numero) {
+            return numero >= desde && numero < siguiente;
+        }
+
+        void descartarBloque() {
+            devueltos.clear();
+            bloqueId = null;
+            siguiente = 1;
+            hasta = 0;
+        }
+
+        void aplicar(Recarga recarga) {
+            if (!recarga.liberados().isEmpty()) {
+                liberados.addAll(recarga.liberados());
+                liberadosHasta = recarga.liberadosHasta();
+                return;
+            }
+            descartarBloque();
+            bloqueId = recarga.bloqueId();
+            desde = recarga.desde();
+            siguiente = recarga.desde();
+            hasta = recarga.hasta();
+            bloqueHasta = recarga.bloqueHasta();
+        }
+    }
+}
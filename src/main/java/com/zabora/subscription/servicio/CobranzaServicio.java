@@ -0,0 +1,634 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.evento.CambioSuscripcionEvento;
+import com.zabora.subscription.excepcion.PasarelaNoDisponibleException;
+import com.zabora.subscription.modelo.dto.RespuestaPagoDTO;
+import com.zabora.subscription.modelo.dto.SolicitudPagoDTO;
+import com.zabora.subscription.modelo.entidad.Pago;
+import com.zabora.subscription.modelo.enumeracion.AccionLog;
+import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+import com.zabora.subscription.modelo.enumeracion.EstadoReintentoPago;
+import com.zabora.subscription.modelo.enumeracion.EstadoSuscripcion;
+import com.zabora.subscription.modelo.enumeracion.MotivoFalloPago;
+import com.zabora.subscription.modelo.enumeracion.TipoMetodoPago;
+import com.zabora.subscription.pasarela.PasarelaPago;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cobranza de los pagos fallidos: reintenta el cobro con el método de pago predeterminado
+ * del usuario según la PoliticaReintentos del motivo del fallo, y expira la suscripción
+ * cuando falla el último intento.
+ *
+ * Los reintentos se guardan en la tabla reintentos_pago (ordenada por proximo_intento).
+ * Cada app.cobranza.intervalo-carga-ms se cargan en una DelayQueue los que vencen antes
+ * de la siguiente carga; un hilo los saca de la cola a medida que vencen y los cobra
+ * por lotes. Así la base de datos se consulta una vez por intervalo y no una vez por
+ * reintento, y cada reintento se cobra a su hora aunque el intervalo sea largo.
+ *
+ * Varias instancias pueden cargar los mismos reintentos: antes de cobrarlos se reservan
+ * (reserva_nodo / reserva_hasta) con un UPDATE que solo toma los que nadie tiene reservados.
+ */
+@Service
+@Slf4j
+public class CobranzaServicio {
+
+    private static final String SQL_RESERVADOS =
+            "SELECT r.id, r.suscripcion_id, r.usuario_id, r.monto, r.moneda, r.motivo, r.intentos, " +
+            "r.proximo_intento, s.estado AS estado_suscripcion, s.fin_periodo_actual, " +
+            "s.cancelar_al_final_periodo, p.nombre AS plan, m.tipo AS tipo_metodo, m.id_metodo_pago_stripe, " +
+            "EXISTS (SELECT 1 FROM suscripciones_usuarios o WHERE o.usuario_activo = r.usuario_id " +
+            "AND o.id <> r.suscripcion_id) AS otra_activa " +
+            "FROM reintentos_pago r " +
+            "JOIN suscripciones_usuarios s ON s.id = r.suscripcion_id " +
+            "JOIN planes_suscripcion p ON p.id = s.plan_id " +
+            "LEFT JOIN metodos_pago m ON m.usuario_id = r.usuario_id " +
+            "AND m.predeterminado = TRUE AND m.activo = TRUE " +
+            "WHERE r.id IN (:ids) AND r.reserva_nodo = :nodo AND r.estado = 'PROGRAMADO'";
+
+    private static final String SQL_INSERTAR_REINTENTO =
+            "INSERT INTO reintentos_pago (id, suscripcion_id, usuario_id, pago_id, monto, moneda, motivo, " +
+            "intentos, proximo_intento, estado, suscripcion_programada, ultimo_error, fecha_creacion, fecha_actualizacion) " +
+            "SELECT ?, ?, ?, ?, ?, ?, ?, 0, ?, 'PROGRAMADO', ?, ?, ?, ? FROM DUAL WHERE NOT EXISTS " +
+            "(SELECT 1 FROM reintentos_pago WHERE suscripcion_programada = ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final PoliticaReintentos politica;
+    private final PasarelaPago pasarela;
+    private final EjecutorPasarela ejecutorPasarela;
+    private final ColaFacturacion colaFacturacion;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry registry;
+
+    // Reintentos que vencen antes de la siguiente carga, ordenados por hora de cobro
+    private final DelayQueue<ReintentoEnCola> cola = new DelayQueue<>();
+    private final Set<String> idsEnCola = ConcurrentHashMap.newKeySet();
+    private final ExecutorService ejecutorCobros;
+    private final Thread despachador;
+
+    // Identifica a esta instancia en las reservas de reintentos
+    private final String nodo = UUID.randomUUID().toString();
+
+    // Cada cuánto se cargan en memoria los reintentos próximos a vencer
+    @Value("${app.cobranza.intervalo-carga-ms:60000}")
+    private long intervaloCargaMs;
+
+    // Máximo de reintentos en la cola en memoria
+    @Value("${app.cobranza.max-en-cola:10000}")
+    private int maxEnCola;
+
+    // Reintentos que se cobran y guardan por transacción
+    @Value("${app.cobranza.tamano-lote:100}")
+    private int tamanoLote;
+
+    // Duración de la reserva; si el nodo muere, otro cobra el reintento al vencer
+    @Value("${app.cobranza.reserva-ms:300000}")
+    private long reservaMs;
+
+    public CobranzaServicio(JdbcTemplate jdbcTemplate,
+                            PoliticaReintentos politica,
+                            PasarelaPago pasarela,
+                            EjecutorPasarela ejecutorPasarela,
+                            ColaFacturacion colaFacturacion,
+                            ApplicationEventPublisher eventPublisher,
+                            PlatformTransactionManager transactionManager,
+                            MeterRegistry registry,
+                            @Value("${app.cobranza.hilos-cobro:16}") int hilosCobro) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.politica = politica;
+        this.pasarela = pasarela;
+        this.ejecutorPasarela = ejecutorPasarela;
+        this.colaFacturacion = colaFacturacion;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.registry = registry;
+
+        AtomicInteger contador = new AtomicInteger();
+        this.ejecutorCobros = Executors.newFixedThreadPool(hilosCobro, r -> {
+            Thread hilo = new Thread(r, "cobranza-cobro-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        this.despachador = new Thread(this::despachar, "cobranza-despachador");
+        this.despachador.setDaemon(true);
+
+        Gauge.builder("cobranza.cola", cola, DelayQueue::size)
+                .description("Reintentos de cobro cargados en memoria esperando su hora")
+                .register(registry);
+    }
+
+    @PostConstruct
+    void iniciar() {
+        despachador.start();
+    }
+
+    /**
+     * Programa la cobranza de pagos que acaban de fallar. Se llama dentro de la transacción
+     * que registra el fallo; si la suscripción ya tiene una cobranza PROGRAMADA, no se crea otra.
+     *
+     * El NOT EXISTS evita la mayoría de los duplicados; el que queda (dos fallos de la misma
+     * suscripción registrados a la vez) lo rechaza la columna única suscripcion_programada.
+     * En ese caso el lote se repite uno por uno y el fallo repetido se ignora: su suscripción
+     * ya tiene la cobranza que se quería programar.
+     */
+    public void programar(List<FalloPago> fallos) {
+        if (fallos.isEmpty()) {
+            return;
+        }
+        LocalDateTime ahora = LocalDateTime.now();
+        try {
+            jdbcTemplate.batchUpdate(SQL_INSERTAR_REINTENTO, fallos, fallos.size(),
+                    (ps, fallo) -> parametrosReintento(ps, fallo, ahora));
+        } catch (DuplicateKeyException e) {
+            for (FalloPago fallo : fallos) {
+                try {
+                    jdbcTemplate.update(SQL_INSERTAR_REINTENTO, ps -> parametrosReintento(ps, fallo, ahora));
+                } catch (DuplicateKeyException repetido) {
+                    log.debug("La suscripción {} ya tiene una cobranza programada", fallo.suscripcionId());
+                }
+            }
+        }
+    }
+
+    private void parametrosReintento(PreparedStatement ps, FalloPago fallo, LocalDateTime ahora) throws SQLException {
+        MotivoFalloPago motivo = fallo.motivo() != null ? fallo.motivo() : politica.clasificar(fallo.mensaje());
+        Timestamp fechaAhora = Timestamp.valueOf(ahora);
+        ps.setString(1, UUID.randomUUID().toString());
+        ps.setString(2, fallo.suscripcionId());
+        ps.setString(3, fallo.usuarioId());
+        ps.setString(4, fallo.pagoId());
+        ps.setBigDecimal(5, fallo.monto());
+        ps.setString(6, fallo.moneda());
+        ps.setString(7, motivo.name());
+        ps.setTimestamp(8, Timestamp.valueOf(politica.siguienteIntento(motivo, 0, ahora).orElse(ahora)));
+        ps.setString(9, fallo.suscripcionId());
+        ps.setString(10, recortar(fallo.mensaje()));
+        ps.setTimestamp(11, fechaAhora);
+        ps.setTimestamp(12, fechaAhora);
+        ps.setString(13, fallo.suscripcionId());
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Cada cierto tiempo buscamos en la tabla los reintentos que vencen antes de la
+     * siguiente búsqueda y los dejamos en una cola en memoria ordenada por hora.
+     * El hilo despachador los va sacando a medida que vencen.
+     */
+    @Scheduled(fixedDelayString = "${app.cobranza.intervalo-carga-ms:60000}",
+               initialDelayString = "${app.cobranza.retraso-inicial-ms:30000}")
+    public void cargarProximos() {
+        int espacio = maxEnCola - cola.size();
+        if (espacio <= 0) {
+            return;
+        }
+        LocalDateTime ahora = LocalDateTime.now();
+        List<ReintentoEnCola> proximos = jdbcTemplate.query(
+                "SELECT id, proximo_intento FROM reintentos_pago " +
+                "WHERE estado = 'PROGRAMADO' AND proximo_intento <= ? " +
+                "AND (reserva_hasta IS NULL OR reserva_hasta < ?) " +
+                "ORDER BY proximo_intento LIMIT ?",
+                (rs, n) -> new ReintentoEnCola(rs.getString("id"), rs.getTimestamp("proximo_intento").getTime()),
+                Timestamp.valueOf(ahora.plus(Duration.ofMillis(intervaloCargaMs))), Timestamp.valueOf(ahora), espacio);
+
+        int nuevos = 0;
+        for (ReintentoEnCola reintento : proximos) {
+            if (idsEnCola.add(reintento.id())) {
+                cola.put(reintento);
+                nuevos++;
+            }
+        }
+        if (nuevos > 0) {
+            log.debug("Reintentos de cobro cargados en la cola: {}", nuevos);
+        }
+    }
+
+    /**
+     * Saca de la cola los reintentos vencidos, hasta tamanoLote a la vez, y los cobra.
+     */
+    private void despachar() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<ReintentoEnCola> lote = new ArrayList<>();
+            try {
+                lote.add(cola.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // drainTo solo saca los que ya vencieron
+            cola.drainTo(lote, tamanoLote - 1);
+            List<String> ids = lote.stream().map(ReintentoEnCola::id).toList();
+            ids.forEach(idsEnCola::remove);
+
+            try {
+                cobrarLote(ids);
+            } catch (RuntimeException e) {
+                // Las reservas vencen solas y la siguiente carga los vuelve a encolar
+                log.error("Error cobrando un lote de reintentos: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Cobra un lote de reintentos vencidos:
+     * 1. Los reservamos para que otra instancia no los cobre al mismo tiempo
+     * 2. Leemos cada suscripción con su método de pago predeterminado actual
+     * 3. Cobramos en paralelo (las canceladas o ya expiradas no se cobran)
+     * 4. En una sola transacción guardamos los pagos, reprogramamos los que fallaron,
+     *    reactivamos las que se cobraron y expiramos las que agotaron sus intentos
+     */
+    void cobrarLote(List<String> ids) {
+        LocalDateTime ahora = LocalDateTime.now();
+        int reservados = namedJdbcTemplate.update(
+                "UPDATE reintentos_pago SET reserva_nodo = :nodo, reserva_hasta = :hasta " +
+                "WHERE id IN (:ids) AND estado = 'PROGRAMADO' AND proximo_intento <= :ahora " +
+                "AND (reserva_hasta IS NULL OR reserva_hasta < :ahora)",
+                new MapSqlParameterSource()
+                        .addValue("nodo", nodo)
+                        .addValue("hasta", Timestamp.valueOf(ahora.plus(Duration.ofMillis(reservaMs))))
+                        .addValue("ahora", Timestamp.valueOf(ahora))
+                        .addValue("ids", ids));
+        if (reservados == 0) {
+            return;
+        }
+
+        Map<String, Reintento> porId = new LinkedHashMap<>();
+        namedJdbcTemplate.query(SQL_RESERVADOS,
+                new MapSqlParameterSource().addValue("ids", ids).addValue("nodo", nodo),
+                (rs, n) -> new Reintento(
+                        rs.getString("id"),
+                        rs.getString("suscripcion_id"),
+                        rs.getString("usuario_id"),
+                        rs.getBigDecimal("monto"),
+                        rs.getString("moneda"),
+                        MotivoFalloPago.valueOf(rs.getString("motivo")),
+                        rs.getInt("intentos"),
+                        rs.getTimestamp("proximo_intento").toLocalDateTime(),
+                        EstadoSuscripcion.valueOf(rs.getString("estado_suscripcion")),
+                        rs.getTimestamp("fin_periodo_actual") != null
+                                ? rs.getTimestamp("fin_periodo_actual").toLocalDateTime() : null,
+                        rs.getBoolean("cancelar_al_final_periodo"),
+                        rs.getString("plan"),
+                        rs.getString("tipo_metodo"),
+                        rs.getString("id_metodo_pago_stripe"),
+                        rs.getBoolean("otra_activa")))
+                // Si el usuario tiene más de un método predeterminado, el JOIN repite el reintento
+                .forEach(reintento -> porId.putIfAbsent(reintento.id(), reintento));
+
+        AtomicBoolean pasarelaCaida = new AtomicBoolean();
+        List<CompletableFuture<Intento>> intentos = porId.values().stream()
+                .map(reintento -> CompletableFuture.supplyAsync(() -> intentar(reintento, pasarelaCaida), ejecutorCobros))
+                .toList();
+
+        List<Intento> resultados = new ArrayList<>();
+        for (CompletableFuture<Intento> intento : intentos) {
+            try {
+                resultados.add(intento.join());
+            } catch (CompletionException e) {
+                log.error("Error en un reintento de cobro: {}", e.getCause().getMessage(), e.getCause());
+            }
+        }
+        transactionTemplate.executeWithoutResult(estado -> guardar(resultados, ahora));
+    }
+
+    /**
+     * Intenta un cobro. Se ejecuta en un hilo de cobro.
+     */
+    private Intento intentar(Reintento reintento, AtomicBoolean pasarelaCaida) {
+        Intento intento = new Intento(reintento);
+        // Si el usuario ya activó otra suscripción, esta no se cobra (no podría quedar ACTIVA)
+        if (reintento.estadoSuscripcion() == EstadoSuscripcion.CANCELADA
+                || reintento.estadoSuscripcion() == EstadoSuscripcion.EXPIRADA
+                || reintento.cancelarAlFinal()
+                || reintento.otraActiva()) {
+            intento.resultado = EstadoReintentoPago.CANCELADO;
+            return intento;
+        }
+        if (reintento.tokenMetodo() == null) {
+            intento.fallar(MotivoFalloPago.SIN_METODO_PAGO, "El usuario no tiene método de pago predeterminado");
+            return intento;
+        }
+        if (pasarelaCaida.get()) {
+            intento.liberar = true;
+            return intento;
+        }
+
+        TipoMetodoPago metodo = TipoMetodoPago.valueOf(reintento.tipoMetodo());
+        Pago pago = new Pago();
+        // Mismo ID si el intento se repite tras una interrupción: la pasarela no cobra dos veces
+        pago.setId(UUID.nameUUIDFromBytes(("reintento:" + reintento.id() + ":" + (reintento.intentos() + 1))
+                .getBytes(StandardCharsets.UTF_8)).toString());
+        pago.setUsuarioId(reintento.usuarioId());
+        pago.setMonto(reintento.monto());
+        pago.setMoneda(reintento.moneda());
+        pago.setMetodoPago(metodo);
+
+        SolicitudPagoDTO solicitud = new SolicitudPagoDTO();
+        solicitud.setIdSuscripcion(reintento.suscripcionId());
+        solicitud.setMonto(reintento.monto());
+        solicitud.setTipoPago(metodo.name());
+        solicitud.setTokenTarjetaPrueba(reintento.tokenMetodo());
+
+        try {
+            RespuestaPagoDTO respuesta = ejecutorPasarela.llamar(metodo, () -> pasarela.cobrar(pago, solicitud));
+            intento.pago = pago;
+            if (Boolean.TRUE.equals(respuesta.getExito()) && "COMPLETADO".equals(respuesta.getEstado())) {
+                pago.setEstado(EstadoPago.COMPLETADO);
+                pago.setFechaPago(LocalDateTime.now());
+                pago.setUrlComprobante(respuesta.getUrlComprobante());
+                intento.resultado = EstadoReintentoPago.EXITOSO;
+            } else {
+                // Un pago que queda pendiente (3D Secure, PSE) lo cierra la reconciliación;
+                // si se confirma, la cobranza se cancela al activar la suscripción
+                pago.setEstado(Boolean.TRUE.equals(respuesta.getRequiereConfirmacion())
+                        ? EstadoPago.PENDIENTE : EstadoPago.FALLIDO);
+                intento.fallar(politica.clasificar(respuesta.getMensaje()), respuesta.getMensaje());
+            }
+        } catch (PasarelaNoDisponibleException e) {
+            // Circuito abierto: no cuenta como intento, se vuelve a cobrar cuando venza la reserva
+            pasarelaCaida.set(true);
+            intento.liberar = true;
+        } catch (RuntimeException e) {
+            intento.fallar(MotivoFalloPago.ERROR_PASARELA, e.getMessage());
+        }
+        return intento;
+    }
+
+    /**
+     * Guarda los resultados del lote dentro de la transacción actual, con JDBC batch.
+     */
+    private void guardar(List<Intento> intentos, LocalDateTime ahora) {
+        Timestamp fechaAhora = Timestamp.valueOf(ahora);
+        List<Intento> agotados = new ArrayList<>();
+        List<Intento> exitosos = new ArrayList<>();
+
+        for (Intento intento : intentos) {
+            if (intento.resultado == EstadoReintentoPago.PROGRAMADO && !intento.liberar) {
+                Optional<LocalDateTime> siguiente = politica.siguienteIntento(
+                        intento.motivo, intento.reintento.intentos() + 1, ahora);
+                if (siguiente.isPresent()) {
+                    intento.proximoIntento = siguiente.get();
+                } else {
+                    intento.resultado = EstadoReintentoPago.AGOTADO;
+                }
+            }
+            if (intento.resultado == EstadoReintentoPago.AGOTADO) {
+                agotados.add(intento);
+            } else if (intento.resultado == EstadoReintentoPago.EXITOSO) {
+                exitosos.add(intento);
+            }
+            if (!intento.liberar) {
+                contar(intento.resultado, intento.motivo);
+            }
+        }
+
+        // 1. Pagos de los intentos que llegaron a la pasarela
+        List<Intento> conPago = intentos.stream().filter(i -> i.pago != null).toList();
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO pagos (id, suscripcion_id, usuario_id, monto, moneda, metodo_pago, estado, " +
+                "id_intento_pago_stripe, fecha_pago, url_comprobante, fecha_creacion) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                conPago, Math.max(1, conPago.size()), (ps, intento) -> {
+                    Pago pago = intento.pago;
+                    ps.setString(1, pago.getId());
+                    ps.setString(2, intento.reintento.suscripcionId());
+                    ps.setString(3, pago.getUsuarioId());
+                    ps.setBigDecimal(4, pago.getMonto());
+                    ps.setString(5, pago.getMoneda());
+                    ps.setString(6, pago.getMetodoPago().name());
+                    ps.setString(7, pago.getEstado().name());
+                    ps.setString(8, pago.getIdIntentoPagoStripe());
+                    ps.setTimestamp(9, pago.getFechaPago() != null ? Timestamp.valueOf(pago.getFechaPago()) : null);
+                    ps.setString(10, pago.getUrlComprobante());
+                    ps.setTimestamp(11, fechaAhora);
+                });
+        // Los cobrados se facturan en segundo plano
+        colaFacturacion.encolar(exitosos.stream().map(intento -> intento.pago.getId()).toList());
+
+        // 2. Estado de cada reintento; si otro nodo lo tomó (reserva vencida), se deshace el lote
+        int[][] actualizados = jdbcTemplate.batchUpdate(
+                "UPDATE reintentos_pago SET estado = ?, suscripcion_programada = ?, intentos = ?, motivo = ?, proximo_intento = ?, " +
+                "ultimo_error = COALESCE(?, ultimo_error), pago_id = COALESCE(?, pago_id), reserva_nodo = NULL, reserva_hasta = NULL, " +
+                "fecha_actualizacion = ? WHERE id = ? AND reserva_nodo = ?",
+                intentos, Math.max(1, intentos.size()), (ps, intento) -> {
+                    Reintento reintento = intento.reintento;
+                    boolean cobrado = !intento.liberar && intento.resultado != EstadoReintentoPago.CANCELADO;
+                    ps.setString(1, intento.resultado.name());
+                    // Solo un reintento que sigue PROGRAMADO ocupa la columna única de su suscripción
+                    ps.setString(2, intento.resultado == EstadoReintentoPago.PROGRAMADO ? reintento.suscripcionId() : null);
+                    ps.setInt(3, cobrado ? reintento.intentos() + 1 : reintento.intentos());
+                    ps.setString(4, (intento.motivo != null ? intento.motivo : reintento.motivo()).name());
+                    ps.setTimestamp(5, Timestamp.valueOf(intento.proximoIntento != null
+                            ? intento.proximoIntento : reintento.proximoIntento()));
+                    ps.setString(6, recortar(intento.mensaje));
+                    ps.setString(7, intento.pago != null ? intento.pago.getId() : null);
+                    ps.setTimestamp(8, fechaAhora);
+                    ps.setString(9, reintento.id());
+                    ps.setString(10, nodo);
+                });
+        if (Arrays.stream(actualizados).flatMapToInt(Arrays::stream).anyMatch(n -> n == 0)) {
+            throw new OptimisticLockingFailureException("Un reintento del lote ya no está reservado por este nodo");
+        }
+
+        // 3. Suscripciones cobradas: nuevo periodo desde el fin del anterior (o desde hoy si ya pasó)
+        jdbcTemplate.batchUpdate(
+                "UPDATE suscripciones_usuarios SET estado = 'ACTIVA', usuario_activo = usuario_id, " +
+                "inicio_periodo_actual = ?, fin_periodo_actual = ?, version = version + 1, fecha_actualizacion = ? " +
+                "WHERE id = ? AND estado IN ('ACTIVA', 'PENDIENTE_PAGO')",
+                exitosos, Math.max(1, exitosos.size()), (ps, intento) -> {
+                    ps.setTimestamp(1, Timestamp.valueOf(intento.inicioPeriodo(ahora)));
+                    ps.setTimestamp(2, Timestamp.valueOf(intento.inicioPeriodo(ahora).plusMonths(1)));
+                    ps.setTimestamp(3, fechaAhora);
+                    ps.setString(4, intento.reintento.suscripcionId());
+                });
+
+        // 4. Suscripciones que agotaron los intentos
+        jdbcTemplate.batchUpdate(
+                "UPDATE suscripciones_usuarios SET estado = 'EXPIRADA', usuario_activo = NULL, " +
+                "version = version + 1, fecha_actualizacion = ? " +
+                "WHERE id = ? AND estado IN ('ACTIVA', 'PENDIENTE_PAGO')",
+                agotados, Math.max(1, agotados.size()), (ps, intento) -> {
+                    ps.setTimestamp(1, fechaAhora);
+                    ps.setString(2, intento.reintento.suscripcionId());
+                });
+
+        // 5. Logs de auditoría
+        List<Intento> conLog = intentos.stream()
+                .filter(i -> !i.liberar && i.resultado != EstadoReintentoPago.CANCELADO)
+                .toList();
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO logs_suscripciones (suscripcion_id, usuario_id, accion, estado_anterior, " +
+                "estado_nuevo, descripcion, realizado_por, fecha_creacion) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                conLog, Math.max(1, conLog.size()), (ps, intento) -> {
+                    Reintento reintento = intento.reintento;
+                    int numero = reintento.intentos() + 1;
+                    EstadoSuscripcion nuevoEstado = switch (intento.resultado) {
+                        case EXITOSO -> EstadoSuscripcion.ACTIVA;
+                        case AGOTADO -> EstadoSuscripcion.EXPIRADA;
+                        default -> reintento.estadoSuscripcion();
+                    };
+                    ps.setString(1, reintento.suscripcionId());
+                    ps.setString(2, reintento.usuarioId());
+                    ps.setString(3, (intento.resultado == EstadoReintentoPago.EXITOSO
+                            ? AccionLog.PAGO_EXITOSO : AccionLog.PAGO_FALLIDO).name());
+                    ps.setString(4, reintento.estadoSuscripcion().name());
+                    ps.setString(5, nuevoEstado.name());
+                    ps.setString(6, switch (intento.resultado) {
+                        case EXITOSO -> "Cobro recuperado en el reintento " + numero;
+                        case AGOTADO -> "Último reintento de cobro fallido (" + intento.motivo + "), suscripción expirada";
+                        default -> "Reintento " + numero + " de cobro fallido (" + intento.motivo + "): " + intento.mensaje;
+                    });
+                    ps.setString(7, "sistema");
+                    ps.setTimestamp(8, fechaAhora);
+                });
+
+        // 6. Avisar del cambio (los listeners se ejecutan después del commit)
+        for (Intento intento : exitosos) {
+            Reintento reintento = intento.reintento;
+            eventPublisher.publishEvent(new CambioSuscripcionEvento(reintento.usuarioId(), reintento.suscripcionId(),
+                    reintento.plan(), EstadoSuscripcion.ACTIVA, intento.inicioPeriodo(ahora).plusMonths(1)));
+        }
+        for (Intento intento : agotados) {
+            Reintento reintento = intento.reintento;
+            eventPublisher.publishEvent(new CambioSuscripcionEvento(reintento.usuarioId(), reintento.suscripcionId(),
+                    reintento.plan(), EstadoSuscripcion.EXPIRADA, reintento.finPeriodo()));
+        }
+    }
+
+    private void contar(EstadoReintentoPago resultado, MotivoFalloPago motivo) {
+        Counter.builder("cobranza.reintentos")
+                .description("Reintentos de cobro, por resultado y motivo del fallo")
+                .tag("resultado", resultado.name())
+                .tag("motivo", motivo != null ? motivo.name() : "ninguno")
+                .register(registry)
+                .increment();
+    }
+
+    private static String recortar(String mensaje) {
+        return mensaje != null && mensaje.length() > 500 ? mensaje.substring(0, 500) : mensaje;
+    }
+
+    @PreDestroy
+    public void cerrar() throws InterruptedException {
+        despachador.interrupt();
+        ejecutorCobros.shutdown();
+        if (!ejecutorCobros.awaitTermination(30, TimeUnit.SECONDS)) {
+            // El lote en curso no se guardó; se cobra de nuevo (con el mismo ID de pago) al vencer la reserva
+            log.warn("Reintentos de cobro sin terminar al detener la aplicación");
+        }
+    }
+
+    /**
+     * Pago que acaba de fallar y del que se programa la cobranza.
+     *
+     * @param pagoId pago fallido (null si no se llegó a cobrar, ej: sin método de pago)
+     * @param mensaje mensaje de la pasarela; de él se deduce el motivo del fallo si no se indica
+     * @param motivo motivo del fallo, o null para deducirlo del mensaje
+     */
+    public record FalloPago(String pagoId, String suscripcionId, String usuarioId,
+                            BigDecimal monto, String moneda, String mensaje, MotivoFalloPago motivo) {
+
+        /**
+         * Fallo cuyo motivo se deduce del mensaje de la pasarela.
+         */
+        public FalloPago(String pagoId, String suscripcionId, String usuarioId,
+                         BigDecimal monto, String moneda, String mensaje) {
+            this(pagoId, suscripcionId, usuarioId, monto, moneda, mensaje, null);
+        }
+
+        public static FalloPago de(Pago pago, String mensaje) {
+            return new FalloPago(pago.getId(), pago.getSuscripcion().getId(), pago.getUsuarioId(),
+                    pago.getMonto(), pago.getMoneda(), mensaje);
+        }
+    }
+
+    /**
+     * Reintento en la cola en memoria; vence a la hora de su próximo intento.
+     */
+    private record ReintentoEnCola(String id, long venceEpochMs) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unidad) {
+            return unidad.convert(venceEpochMs - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed otro) {
+            return Long.compare(venceEpochMs, ((ReintentoEnCola) otro).venceEpochMs);
+        }
+    }
+
+    /**
+     * Reintento reservado, con el estado actual de su suscripción y el método de pago predeterminado.
+     */
+    private record Reintento(String id, String suscripcionId, String usuarioId, BigDecimal monto, String moneda,
+                             MotivoFalloPago motivo, int intentos, LocalDateTime proximoIntento,
+                             EstadoSuscripcion estadoSuscripcion, LocalDateTime finPeriodo, boolean cancelarAlFinal,
+                             String plan, String tipoMetodo, String tokenMetodo, boolean otraActiva) {
+    }
+
+    /**
+     * Resultado de un intento de cobro.
+     */
+    private static final class Intento {
+        final Reintento reintento;
+        EstadoReintentoPago resultado = EstadoReintentoPago.PROGRAMADO;
+        MotivoFalloPago motivo;
+        String mensaje;
+        Pago pago;
+        LocalDateTime proximoIntento;
+        // No se llamó a la pasarela (circuito abierto): se libera sin contar el intento
+        boolean liberar;
+
+        Intento(Reintento reintento) {
+            this.reintento = reintento;
+        }
+
+        void fallar(MotivoFalloPago motivo, String mensaje) {
+            this.motivo = motivo;
+            this.mensaje = mensaje;
+        }
+
+        LocalDateTime inicioPeriodo(LocalDateTime ahora) {
+            LocalDateTime fin = reintento.finPeriodo();
+            return fin != null && fin.isAfter(ahora) ? fin : ahora;
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.modelo.entidad.Factura;
+import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+import com.zabora.subscription.modelo.enumeracion.TipoEnvioDian;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de facturación: los pagos completados se facturan en segundo plano, fuera del
+ * camino del pago.
+ *
+ * Quien completa un pago (pago en línea, webhook, reconciliación, renovaciones, cobranza)
+ * llama a encolar() dentro de su misma transacción, así que un pago cobrado siempre queda
+ * en cola_facturas aunque el nodo se detenga justo después. Un pool de trabajadores vacía
+ * la cola por lotes: cada lote asigna sus consecutivos, calcula montos y CUFE, e inserta
+ * las facturas con JDBC batch en la misma transacción que las borra de la cola.
+ *
+ * Varias instancias pueden trabajar la cola a la vez: antes de facturar un lote lo reservan
+ * (reserva_nodo / reserva_hasta) con un UPDATE que solo toma los trabajos sin reserva vigente.
+ */
+@Service
+@Slf4j
+public class ColaFacturacion {
+
+    private static final String SQL_RESERVADOS =
+            "SELECT c.pago_id, c.prefijo, c.intentos, c.fecha_creacion, p.usuario_id, p.monto, " +
+            "p.estado AS estado_pago, " +
+            "EXISTS (SELECT 1 FROM facturas f WHERE f.pago_id = c.pago_id) AS facturado " +
+            "FROM cola_facturas c JOIN pagos p ON p.id = c.pago_id " +
+            "WHERE c.pago_id IN (:ids) AND c.reserva_nodo = :nodo AND c.estado = 'PENDIENTE'";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final AsignadorConsecutivos asignadorConsecutivos;
+    private final FacturacionServicio facturacionServicio;
+    private final GeneradorCufe generadorCufe;
+    private final RenderizadorFacturas renderizadorFacturas;
+    private final EnviadorDian enviadorDian;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService trabajadores;
+    private final int hilos;
+    private final MeterRegistry registry;
+    private final Timer espera;
+
+    // Estado de la cola en la última medición (gauges)
+    private final AtomicLong pendientes = new AtomicLong();
+    private final AtomicLong fallidos = new AtomicLong();
+    private final AtomicLong retrasoSegundos = new AtomicLong();
+
+    // Identifica a esta instancia en las reservas de trabajos
+    private final String nodo = UUID.randomUUID().toString();
+
+    // Prefijo con el que se numeran las facturas de la cola
+    @Value("${app.facturacion.prefijo:FZ}")
+    private String prefijoPorDefecto;
+
+    // Facturas que se generan y guardan por transacción
+    @Value("${app.facturacion.cola.tamano-lote:100}")
+    private int tamanoLote;
+
+    // Máximo de rondas (hilos x tamano-lote trabajos cada una) por ejecución
+    @Value("${app.facturacion.cola.max-rondas-por-ejecucion:20}")
+    private int maxRondas;
+
+    // Duración de la reserva; si el nodo muere, otro toma el trabajo al vencer
+    @Value("${app.facturacion.cola.reserva-ms:120000}")
+    private long reservaMs;
+
+    // Intentos antes de marcar un trabajo como FALLIDO
+    @Value("${app.facturacion.cola.max-intentos:6}")
+    private int maxIntentos;
+
+    // Espera antes del primer reintento; se duplica en cada intento
+    @Value("${app.facturacion.cola.espera-inicial-ms:30000}")
+    private long esperaInicialMs;
+
+    public ColaFacturacion(JdbcTemplate jdbcTemplate,
+                           AsignadorConsecutivos asignadorConsecutivos,
+                           FacturacionServicio facturacionServicio,
+                           GeneradorCufe generadorCufe,
+                           RenderizadorFacturas renderizadorFacturas,
+                           EnviadorDian enviadorDian,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry registry,
+                           @Value("${app.facturacion.cola.hilos:4}") int hilos) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.asignadorConsecutivos = asignadorConsecutivos;
+        this.facturacionServicio = facturacionServicio;
+        this.generadorCufe = generadorCufe;
+        this.renderizadorFacturas = renderizadorFacturas;
+        this.enviadorDian = enviadorDian;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.hilos = Math.max(1, hilos);
+        this.registry = registry;
+
+        AtomicInteger contador = new AtomicInteger();
+        this.trabajadores = Executors.newFixedThreadPool(this.hilos, r -> {
+            Thread hilo = new Thread(r, "facturacion-cola-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+
+        Gauge.builder("facturacion.cola.profundidad", pendientes, AtomicLong::get)
+                .description("Pagos completados esperando su factura")
+                .register(registry);
+        Gauge.builder("facturacion.cola.fallidos", fallidos, AtomicLong::get)
+                .description("Trabajos de facturación que agotaron sus intentos")
+                .register(registry);
+        Gauge.builder("facturacion.cola.retraso", retrasoSegundos, AtomicLong::get)
+                .description("Antigüedad del pago pendiente de facturar más antiguo")
+                .baseUnit("seconds")
+                .register(registry);
+        this.espera = Timer.builder("facturacion.cola.espera")
+                .description("Tiempo desde que el pago entra a la cola hasta que se guarda su factura")
+                .register(registry);
+    }
+
+    /**
+     * Encola la facturación de pagos que se acaban de completar. Se llama dentro de la
+     * transacción que completa el pago; si el pago ya está en la cola, no se duplica.
+     */
+    public void encolar(List<String> pagoIds) {
+        if (pagoIds.isEmpty()) {
+            return;
+        }
+        Timestamp ahora = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO cola_facturas (pago_id, prefijo, estado, intentos, proximo_intento, " +
+                "fecha_creacion, fecha_actualizacion) " +
+                "SELECT ?, ?, 'PENDIENTE', 0, ?, ?, ? FROM DUAL " +
+                "WHERE NOT EXISTS (SELECT 1 FROM cola_facturas WHERE pago_id = ?)",
+                pagoIds, pagoIds.size(), (ps, pagoId) -> {
+                    ps.setString(1, pagoId);
+                    ps.setString(2, prefijoPorDefecto);
+                    ps.setTimestamp(3, ahora);
+                    ps.setTimestamp(4, ahora);
+                    ps.setTimestamp(5, ahora);
+                    ps.setString(6, pagoId);
+                });
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Cada pocos segundos vaciamos la cola de facturación:
+     * 1. Tomamos los trabajos que ya tocan, en orden de llegada (hilos x tamano-lote a la vez)
+     * 2. Los repartimos en lotes, uno por trabajador
+     * 3. Cada trabajador reserva su lote y genera todas sus facturas en una transacción
+     * 4. Repetimos mientras la cola tenga trabajos, hasta max-rondas-por-ejecucion
+     */
+    @Scheduled(fixedDelayString = "${app.facturacion.cola.intervalo-ms:2000}",
+               initialDelayString = "${app.facturacion.cola.retraso-inicial-ms:15000}")
+    public void procesarCola() {
+        int porRonda = Math.max(1, tamanoLote) * hilos;
+        int facturadas = 0;
+        try {
+            for (int ronda = 0; ronda < maxRondas; ronda++) {
+                Timestamp ahora = new Timestamp(System.currentTimeMillis());
+                List<String> ids = jdbcTemplate.queryForList(
+                        "SELECT pago_id FROM cola_facturas " +
+                        "WHERE estado = 'PENDIENTE' AND proximo_intento <= ? " +
+                        "AND (reserva_hasta IS NULL OR reserva_hasta < ?) " +
+                        "ORDER BY proximo_intento LIMIT ?",
+                        String.class, ahora, ahora, porRonda);
+                if (ids.isEmpty()) {
+                    break;
+                }
+
+                List<CompletableFuture<Integer>> lotes = new ArrayList<>();
+                for (int inicio = 0; inicio < ids.size(); inicio += tamanoLote) {
+                    List<String> lote = ids.subList(inicio, Math.min(inicio + tamanoLote, ids.size()));
+                    lotes.add(CompletableFuture.supplyAsync(() -> procesarLote(lote), trabajadores));
+                }
+                for (CompletableFuture<Integer> lote : lotes) {
+                    try {
+                        facturadas += lote.join();
+                    } catch (CompletionException e) {
+                        // Las reservas vencen solas y el lote se vuelve a tomar
+                        log.error("Error facturando un lote de la cola: {}", e.getCause().getMessage(), e.getCause());
+                    }
+                }
+                if (ids.size() < porRonda) {
+                    break;
+                }
+            }
+        } finally {
+            medir();
+        }
+
+        if (facturadas > 0) {
+            log.info("Facturas generadas desde la cola: {}", facturadas);
+        }
+    }
+
+    /**
+     * Reserva y factura un lote. Se ejecuta en un hilo trabajador.
+     *
+     * @return cuántas facturas se guardaron
+     */
+    private int procesarLote(List<String> ids) {
+        LocalDateTime ahora = LocalDateTime.now();
+        int reservados = namedJdbcTemplate.update(
+                "UPDATE cola_facturas SET reserva_nodo = :nodo, reserva_hasta = :hasta " +
+                "WHERE pago_id IN (:ids) AND estado = 'PENDIENTE' " +
+                "AND (reserva_hasta IS NULL OR reserva_hasta < :ahora)",
+                new MapSqlParameterSource()
+                        .addValue("nodo", nodo)
+                        .addValue("hasta", Timestamp.valueOf(ahora.plus(Duration.ofMillis(reservaMs))))
+                        .addValue("ahora", Timestamp.valueOf(ahora))
+                        .addValue("ids", ids));
+        if (reservados == 0) {
+            return 0;
+        }
+
+        List<Trabajo> trabajos = namedJdbcTemplate.query(SQL_RESERVADOS,
+                new MapSqlParameterSource().addValue("ids", ids).addValue("nodo", nodo),
+                (rs, n) -> new Trabajo(
+                        rs.getString("pago_id"),
+                        rs.getString("prefijo"),
+                        rs.getInt("intentos"),
+                        rs.getTimestamp("fecha_creacion").toLocalDateTime(),
+                        rs.getString("usuario_id"),
+                        rs.getBigDecimal("monto"),
+                        EstadoPago.valueOf(rs.getString("estado_pago")),
+                        rs.getBoolean("facturado")));
+
+        // Los ya facturados (ej: generarFactura manual) salen de la cola; los que ya no
+        // están COMPLETADOS no se pueden facturar y quedan para revisión
+        List<Trabajo> facturables = new ArrayList<>();
+        List<String> yaFacturados = new ArrayList<>();
+        List<Fallo> fallos = new ArrayList<>();
+        for (Trabajo trabajo : trabajos) {
+            if (trabajo.facturado()) {
+                yaFacturados.add(trabajo.pagoId());
+            } else if (trabajo.estadoPago() != EstadoPago.COMPLETADO) {
+                fallos.add(new Fallo(trabajo, "El pago está " + trabajo.estadoPago() + ", no se puede facturar", true));
+            } else {
+                facturables.add(trabajo);
+            }
+        }
+        if (!yaFacturados.isEmpty()) {
+            borrar(yaFacturados);
+        }
+
+        int guardadas = 0;
+        try {
+            guardadas = guardarEnTransaccion(facturables);
+        } catch (RuntimeException e) {
+            // Un solo trabajo puede hacer fallar el lote: se repite cada uno por separado
+            log.warn("Falló un lote de {} facturas, se reintenta uno por uno: {}", facturables.size(), e.getMessage());
+            for (Trabajo trabajo : facturables) {
+                try {
+                    guardadas += guardarEnTransaccion(List.of(trabajo));
+                } catch (DataIntegrityViolationException ex) {
+                    // uk_facturas_pago: otro (ej: generarFactura manual) lo facturó mientras tanto
+                    if (facturado(trabajo.pagoId())) {
+                        borrar(List.of(trabajo.pagoId()));
+                    } else {
+                        fallos.add(new Fallo(trabajo, ex.getMessage(), false));
+                    }
+                } catch (RuntimeException ex) {
+                    fallos.add(new Fallo(trabajo, ex.getMessage(), false));
+                }
+            }
+        }
+        registrarFallos(fallos);
+        return guardadas;
+    }
+
+    private int guardarEnTransaccion(List<Trabajo> trabajos) {
+        if (trabajos.isEmpty()) {
+            return 0;
+        }
+        transactionTemplate.executeWithoutResult(estado -> guardar(trabajos));
+
+        LocalDateTime ahora = LocalDateTime.now();
+        for (Trabajo trabajo : trabajos) {
+            espera.record(Duration.between(trabajo.fechaCreacion(), ahora));
+        }
+        contar("generada", trabajos.size());
+        return trabajos.size();
+    }
+
+    /**
+     * Genera y guarda las facturas dentro de la transacción actual, con JDBC batch.
+     * Si se revierte, los consecutivos vuelven al AsignadorConsecutivos.
+     */
+    private void guardar(List<Trabajo> trabajos) {
+        Timestamp fechaAhora = new Timestamp(System.currentTimeMillis());
+
+        // 1. Consecutivos, montos y CUFE (los del lote de una vez)
+        Map<String, Factura> facturas = new LinkedHashMap<>();
+        for (Trabajo trabajo : trabajos) {
+            Factura factura = new Factura();
+            factura.setId(UUID.randomUUID().toString());
+            factura.setUsuarioId(trabajo.usuarioId());
+            facturacionServicio.completarFactura(factura, trabajo.monto(),
+                    asignadorConsecutivos.asignar(trabajo.prefijo()));
+            facturas.put(trabajo.pagoId(), factura);
+        }
+        List<Factura> emitidas = new ArrayList<>(facturas.values());
+        List<String> cufes = generadorCufe.calcular(emitidas);
+        for (int i = 0; i < emitidas.size(); i++) {
+            emitidas.get(i).setCufe(cufes.get(i));
+        }
+
+        // 2. Facturas
+        List<Map.Entry<String, Factura>> filas = new ArrayList<>(facturas.entrySet());
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO facturas (id, pago_id, usuario_id, prefijo, consecutivo, fecha_emision, " +
+                "fecha_vencimiento, subtotal, iva, total, estado, cufe, pdf_url, xml_url, " +
+                "fecha_creacion, fecha_actualizacion) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                filas, filas.size(), (ps, fila) -> {
+                    Factura factura = fila.getValue();
+                    ps.setString(1, factura.getId());
+                    ps.setString(2, fila.getKey());
+                    ps.setString(3, factura.getUsuarioId());
+                    ps.setString(4, factura.getPrefijo());
+                    ps.setLong(5, factura.getConsecutivo());
+                    ps.setDate(6, Date.valueOf(factura.getFechaEmision()));
+                    ps.setDate(7, Date.valueOf(factura.getFechaVencimiento()));
+                    ps.setBigDecimal(8, factura.getSubtotal());
+                    ps.setBigDecimal(9, factura.getIva());
+                    ps.setBigDecimal(10, factura.getTotal());
+                    ps.setString(11, factura.getEstado().name());
+                    ps.setString(12, factura.getCufe());
+                    ps.setString(13, factura.getPdfUrl());
+                    ps.setString(14, factura.getXmlUrl());
+                    ps.setTimestamp(15, Timestamp.valueOf(factura.getFechaCreacion()));
+                    ps.setTimestamp(16, fechaAhora);
+                });
+
+        // 3. Sacarlos de la cola; si otro nodo tomó alguno (reserva vencida), se deshace el lote
+        if (!borrar(new ArrayList<>(facturas.keySet()))) {
+            throw new OptimisticLockingFailureException("Un trabajo del lote ya no está reservado por este nodo");
+        }
+
+        // 4. Envío a la DIAN en la misma transacción; XML y PDF después del commit
+        List<String> facturaIds = emitidas.stream().map(Factura::getId).toList();
+        enviadorDian.encolar(facturaIds, TipoEnvioDian.FACTURA, null);
+        renderizadorFacturas.programar(facturaIds);
+    }
+
+    private boolean facturado(String pagoId) {
+        Integer facturas = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM facturas WHERE pago_id = ?", Integer.class, pagoId);
+        return facturas != null && facturas > 0;
+    }
+
+    /**
+     * Borra de la cola los trabajos reservados por este nodo.
+     *
+     * @return false si alguno ya no estaba reservado por este nodo
+     */
+    private boolean borrar(List<String> pagoIds) {
+        int[][] borrados = jdbcTemplate.batchUpdate(
+                "DELETE FROM cola_facturas WHERE pago_id = ? AND reserva_nodo = ?",
+                pagoIds, pagoIds.size(), (ps, pagoId) -> {
+                    ps.setString(1, pagoId);
+                    ps.setString(2, nodo);
+                });
+        return Arrays.stream(borrados).flatMapToInt(Arrays::stream).noneMatch(n -> n == 0);
+    }
+
+    /**
+     * Reprograma los trabajos que fallaron (espera que se duplica en cada intento) y marca
+     * FALLIDOS los que agotaron sus intentos o no se pueden facturar.
+     */
+    private void registrarFallos(List<Fallo> fallos) {
+        if (fallos.isEmpty()) {
+            return;
+        }
+        LocalDateTime ahora = LocalDateTime.now();
+        Timestamp fechaAhora = Timestamp.valueOf(ahora);
+        jdbcTemplate.batchUpdate(
+                "UPDATE cola_facturas SET estado = ?, intentos = ?, proximo_intento = ?, ultimo_error = ?, " +
+                "reserva_nodo = NULL, reserva_hasta = NULL, fecha_actualizacion = ? " +
+                "WHERE pago_id = ? AND reserva_nodo = ?",
+                fallos, fallos.size(), (ps, fallo) -> {
+                    int intentos = fallo.trabajo().intentos() + 1;
+                    boolean agotado = fallo.definitivo() || intentos >= maxIntentos;
+                    long esperaMs = esperaInicialMs << Math.min(intentos - 1, 16);
+                    ps.setString(1, agotado ? "FALLIDO" : "PENDIENTE");
+                    ps.setInt(2, intentos);
+                    ps.setTimestamp(3, Timestamp.valueOf(ahora.plus(Duration.ofMillis(esperaMs))));
+                    ps.setString(4, recortar(fallo.error()));
+                    ps.setTimestamp(5, fechaAhora);
+                    ps.setString(6, fallo.trabajo().pagoId());
+                    ps.setString(7, nodo);
+                });
+        fallos.forEach(fallo -> log.warn("No se pudo facturar el pago {} (intento {}): {}",
+                fallo.trabajo().pagoId(), fallo.trabajo().intentos() + 1, fallo.error()));
+        contar("fallida", fallos.size());
+    }
+
+    /**
+     * Actualiza los gauges de profundidad, fallidos y retraso con una sola consulta agrupada.
+     */
+    private void medir() {
+        try {
+            long ahora = System.currentTimeMillis();
+            pendientes.set(0);
+            fallidos.set(0);
+            retrasoSegundos.set(0);
+            jdbcTemplate.query(
+                    "SELECT estado, COUNT(*) AS cantidad, MIN(fecha_creacion) AS mas_antiguo " +
+                    "FROM cola_facturas GROUP BY estado",
+                    rs -> {
+                        if ("PENDIENTE".equals(rs.getString("estado"))) {
+                            pendientes.set(rs.getLong("cantidad"));
+                            retrasoSegundos.set(Math.max(0, TimeUnit.MILLISECONDS.toSeconds(
+                                    ahora - rs.getTimestamp("mas_antiguo").getTime())));
+                        } else {
+                            fallidos.set(rs.getLong("cantidad"));
+                        }
+                    });
+        } catch (RuntimeException e) {
+            log.warn("No se pudo medir la cola de facturación: {}", e.getMessage());
+        }
+    }
+
+    private void contar(String resultado, int cantidad) {
+        Counter.builder("facturacion.cola.procesados")
+                .description("Trabajos de la cola de facturación procesados, por resultado")
+                .tag("resultado", resultado)
+                .register(registry)
+                .increment(cantidad);
+    }
+
+    private static String recortar(String mensaje) {
+        return mensaje != null && mensaje.length() > 500 ? mensaje.substring(0, 500) : mensaje;
+    }
+
+    /**
+     * Deja terminar los lotes en curso; los que no alcancen se retoman cuando venza su reserva.
+     */
+    @PreDestroy
+    public void cerrar() throws InterruptedException {
+        trabajadores.shutdown();
+        if (!trabajadores.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Quedaron lotes de facturación sin terminar al detener la aplicación");
+        }
+    }
+
+    private record Trabajo(String pagoId, String prefijo, int intentos, LocalDateTime fechaCreacion,
+                           String usuarioId, BigDecimal monto, EstadoPago estadoPago, boolean facturado) {
+    }
+
+    private record Fallo(Trabajo trabajo, String error, boolean definitivo) {
+    }
+}
@@ -0,0 +1,186 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.excepcion.PasarelaNoDisponibleException;
+import com.zabora.subscription.modelo.enumeracion.TipoMetodoPago;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hilos dedicados a las llamadas a la pasarela de pagos.
+ *
+ * Las llamadas a la pasarela pueden tardar segundos y se hacen fuera de cualquier
+ * transacción, así que no ocupan conexiones del pool de base de datos.
+ *
+ * Cada método de pago tiene su propio pool y su propio circuit breaker, para que una
+ * pasarela PSE lenta no deje sin hilos a los pagos con tarjeta. Si el pool y su cola
+ * están llenos, o el circuito está abierto, el pago se rechaza de inmediato con
+ * PasarelaNoDisponibleException en lugar de acumular peticiones.
+ */
+@Component
+@Slf4j
+public class EjecutorPasarela {
+
+    private final Map<TipoMetodoPago, ThreadPoolExecutor> ejecutores = new EnumMap<>(TipoMetodoPago.class);
+    private final Map<TipoMetodoPago, CircuitBreaker> circuitos = new EnumMap<>(TipoMetodoPago.class);
+    private final Map<TipoMetodoPago, Counter> rechazosSaturado = new EnumMap<>(TipoMetodoPago.class);
+    private final Map<TipoMetodoPago, Counter> rechazosCircuitoAbierto = new EnumMap<>(TipoMetodoPago.class);
+    private final long segundosReintento;
+
+    public EjecutorPasarela(@Value("${app.pagos.pasarela.tarjeta-credito.hilos:24}") int hilosTarjeta,
+                            @Value("${app.pagos.pasarela.tarjeta-credito.capacidad-cola:150}") int colaTarjeta,
+                            @Value("${app.pagos.pasarela.pse.hilos:8}") int hilosPse,
+                            @Value("${app.pagos.pasarela.pse.capacidad-cola:50}") int colaPse,
+                            @Value("${app.pagos.circuito.espera-abierto-ms:30000}") long esperaAbiertoMs,
+                            CircuitBreakerRegistry circuitBreakerRegistry,
+                            MeterRegistry registry) {
+        this.segundosReintento = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(esperaAbiertoMs));
+        for (TipoMetodoPago metodo : TipoMetodoPago.values()) {
+            boolean pse = metodo == TipoMetodoPago.PSE;
+            ThreadPoolExecutor ejecutor = crearPool(metodo, pse ? hilosPse : hilosTarjeta, pse ? colaPse : colaTarjeta);
+            new ExecutorServiceMetrics(ejecutor, "pasarela", Tags.of("metodo", metodo.name())).bindTo(registry);
+
+            ejecutores.put(metodo, ejecutor);
+            circuitos.put(metodo, circuitBreakerRegistry.circuitBreaker("pasarela-" + metodo.name()));
+            rechazosSaturado.put(metodo, contadorRechazos(registry, metodo, "saturado"));
+            rechazosCircuitoAbierto.put(metodo, contadorRechazos(registry, metodo, "circuito_abierto"));
+        }
+    }
+
+    /**
+     * Falla de inmediato si un pago con este método sería rechazado, para no registrar
+     * pagos que de todas formas no se pueden cobrar.
+     *
+     * @throws PasarelaNoDisponibleException si el circuito está abierto o el pool está lleno
+     */
+    public void verificarDisponible(TipoMetodoPago metodo) {
+        CircuitBreaker.State estado = circuitos.get(metodo).getState();
+        if (estado == CircuitBreaker.State.OPEN || estado == CircuitBreaker.State.FORCED_OPEN) {
+            rechazosCircuitoAbierto.get(metodo).increment();
+            throw circuitoAbierto(metodo);
+        }
+        if (ejecutores.get(metodo).getQueue().remainingCapacity() == 0) {
+            rechazosSaturado.get(metodo).increment();
+            throw saturado(metodo);
+        }
+    }
+
+    /**
+     * Ejecuta la llamada a la pasarela en el pool del método de pago, registrando su
+     * resultado y su duración en el circuit breaker.
+     *
+     * @throws PasarelaNoDisponibleException si el circuito está abierto o el pool y su cola están llenos
+     */
+    public <T> CompletableFuture<T> ejecutar(TipoMetodoPago metodo, Supplier<T> tarea) {
+        CircuitBreaker circuito = circuitos.get(metodo);
+        if (!circuito.tryAcquirePermission()) {
+            rechazosCircuitoAbierto.get(metodo).increment();
+            throw circuitoAbierto(metodo);
+        }
+
+        ThreadPoolExecutor ejecutor = ejecutores.get(metodo);
+        try {
+            return CompletableFuture.supplyAsync(() -> medir(circuito, tarea), ejecutor);
+        } catch (RejectedExecutionException e) {
+            // La llamada no se hizo: no cuenta ni como éxito ni como falla
+            circuito.releasePermission();
+            rechazosSaturado.get(metodo).increment();
+            log.warn("Pool de la pasarela {} lleno: {} en curso, {} en cola",
+                    metodo, ejecutor.getActiveCount(), ejecutor.getQueue().size());
+            throw saturado(metodo);
+        }
+    }
+
+    /**
+     * Llama a la pasarela en el hilo actual, pasando por el circuit breaker del método de pago.
+     * Para procesos en segundo plano que ya tienen sus propios hilos (ej: renovaciones),
+     * así no ocupan el pool de los pagos en línea pero dejan de llamar si el circuito se abre.
+     *
+     * @throws PasarelaNoDisponibleException si el circuito está abierto
+     */
+    public <T> T llamar(TipoMetodoPago metodo, Supplier<T> tarea) {
+        CircuitBreaker circuito = circuitos.get(metodo);
+        if (!circuito.tryAcquirePermission()) {
+            rechazosCircuitoAbierto.get(metodo).increment();
+            throw circuitoAbierto(metodo);
+        }
+        return medir(circuito, tarea);
+    }
+
+    /**
+     * Deja terminar los pagos en curso para que no queden a medio cerrar.
+     */
+    @PreDestroy
+    public void cerrar() throws InterruptedException {
+        ejecutores.values().forEach(ThreadPoolExecutor::shutdown);
+        for (Map.Entry<TipoMetodoPago, ThreadPoolExecutor> entrada : ejecutores.entrySet()) {
+            if (!entrada.getValue().awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Quedaron {} pagos {} sin cerrar al detener la aplicación",
+                        entrada.getValue().getActiveCount(), entrada.getKey());
+            }
+        }
+    }
+
+    private static <T> T medir(CircuitBreaker circuito, Supplier<T> tarea) {
+        long inicio = System.nanoTime();
+        try {
+            T resultado = tarea.get();
+            circuito.onSuccess(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+            return resultado;
+        } catch (RuntimeException e) {
+            circuito.onError(System.nanoTime() - inicio, TimeUnit.NANOSECONDS, e);
+            throw e;
+        }
+    }
+
+    private PasarelaNoDisponibleException circuitoAbierto(TipoMetodoPago metodo) {
+        return new PasarelaNoDisponibleException(
+                "La pasarela de pagos " + metodo + " está fallando, intenta de nuevo en unos segundos",
+                segundosReintento);
+    }
+
+    private PasarelaNoDisponibleException saturado(TipoMetodoPago metodo) {
+        return new PasarelaNoDisponibleException(
+                "El servicio de pagos " + metodo + " está saturado, intenta de nuevo en unos segundos", 1);
+    }
+
+    private static ThreadPoolExecutor crearPool(TipoMetodoPago metodo, int hilos, int capacidadCola) {
+        String prefijo = "pasarela-" + metodo.name().toLowerCase().replace('_', '-') + "-";
+        AtomicInteger contador = new AtomicInteger();
+        ThreadPoolExecutor ejecutor = new ThreadPoolExecutor(hilos, hilos, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacidadCola),
+                r -> {
+                    Thread hilo = new Thread(r, prefijo + contador.incrementAndGet());
+                    hilo.setDaemon(true);
+                    return hilo;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        ejecutor.allowCoreThreadTimeOut(true);
+        return ejecutor;
+    }
+
+    private static Counter contadorRechazos(MeterRegistry registry, TipoMetodoPago metodo, String motivo) {
+        return Counter.builder("pagos.pasarela.rechazados")
+                .description("Pagos rechazados sin llamar a la pasarela")
+                .tag("metodo", metodo.name())
+                .tag("motivo", motivo)
+                .register(registry);
+    }
+}
@@ -0,0 +1,521 @@
+package com.zabora.subscription.servicio;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.zabora.subscription.dian.ClienteDian;
+import com.zabora.subscription.dian.DocumentoDian;
+import com.zabora.subscription.dian.RespuestaDian;
+import com.zabora.subscription.documento.AlmacenDocumentos;
+import com.zabora.subscription.excepcion.DianNoDisponibleException;
+import com.zabora.subscription.modelo.enumeracion.TipoEnvioDian;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Envío a la DIAN de las facturas emitidas y de sus anulaciones, por lotes y en segundo plano.
+ *
+ * Quien emite una factura (cola de facturación, generarFactura) o la anula llama a encolar()
+ * dentro de su misma transacción, así que todo documento queda en envios_dian aunque el
+ * nodo se detenga justo después. Un pool de hilos (la concurrencia máxima hacia la DIAN)
+ * envía los pendientes en lotes de tamano-lote con el ClienteDian.
+ *
+ * Si la DIAN no responde, el lote se reintenta enseguida unas pocas veces y, si sigue sin
+ * responder, cada envío se reprograma con una espera que se duplica en cada intento. Las
+ * respuestas (aceptado o rechazado) se guardan en facturas.respuesta_dian como JSON, una por
+ * tipo de documento; los aceptados salen de la tabla y los rechazados quedan para revisión.
+ *
+ * Orden: una factura se envía cuando ya tiene su XML (RenderizadorFacturas), y su anulación
+ * solo después de que la DIAN aceptó la factura. Si la factura quedó RECHAZADA o FALLIDA, su
+ * anulación pasa a BLOQUEADO (gauge dian.envio.bloqueados) en lugar de quedar PENDIENTE sin
+ * enviarse nunca; vuelve a PENDIENTE cuando la factura se reenvía o sale de la tabla.
+ */
+@Service
+@Slf4j
+public class EnviadorDian {
+
+    private static final String SQL_RESERVADOS =
+            "SELECT e.id, e.factura_id, e.tipo, e.motivo, e.intentos, f.prefijo, f.consecutivo, f.cufe, " +
+            "f.fecha_creacion AS emision, f.total, f.xml_url, f.respuesta_dian " +
+            "FROM envios_dian e JOIN facturas f ON f.id = e.factura_id " +
+            "WHERE e.id IN (:ids) AND e.reserva_nodo = :nodo AND e.estado = 'PENDIENTE'";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final ClienteDian clienteDian;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final RetryTemplate reintentos;
+    private final ExecutorService enviadores;
+    private final int hilos;
+    private final MeterRegistry registry;
+    private final Timer tiempoLote;
+
+    // Estado de los envíos en la última medición (gauges)
+    private final AtomicLong pendientes = new AtomicLong();
+    private final AtomicLong rechazados = new AtomicLong();
+    private final AtomicLong fallidos = new AtomicLong();
+    private final AtomicLong bloqueados = new AtomicLong();
+
+    // Identifica a esta instancia en las reservas de envíos
+    private final String nodo = UUID.randomUUID().toString();
+
+    // Sin la DIAN configurada (ej: desarrollo) los envíos se acumulan en la tabla
+    @Value("${app.facturacion.dian.envio.habilitado:false}")
+    private boolean habilitado;
+
+    // Documentos por llamada al ClienteDian
+    @Value("${app.facturacion.dian.envio.tamano-lote:50}")
+    private int tamanoLote;
+
+    // Máximo de rondas (hilos x tamano-lote envíos cada una) por ejecución
+    @Value("${app.facturacion.dian.envio.max-rondas-por-ejecucion:20}")
+    private int maxRondas;
+
+    // Duración de la reserva; debe cubrir los reintentos inmediatos de un lote
+    @Value("${app.facturacion.dian.envio.reserva-ms:180000}")
+    private long reservaMs;
+
+    // Intentos (cada uno con sus reintentos inmediatos) antes de marcar un envío como FALLIDO
+    @Value("${app.facturacion.dian.envio.max-intentos:8}")
+    private int maxIntentos;
+
+    // Espera antes del primer reintento programado; se duplica en cada intento
+    @Value("${app.facturacion.dian.envio.espera-inicial-ms:60000}")
+    private long esperaInicialMs;
+
+    public EnviadorDian(JdbcTemplate jdbcTemplate,
+                        ClienteDian clienteDian,
+                        ObjectMapper objectMapper,
+                        PlatformTransactionManager transactionManager,
+                        MeterRegistry registry,
+                        @Value("${app.facturacion.dian.envio.hilos:4}") int hilos,
+                        @Value("${app.facturacion.dian.envio.reintentos-inmediatos:3}") int reintentosInmediatos,
+                        @Value("${app.facturacion.dian.envio.espera-reintento-ms:500}") long esperaReintentoMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.clienteDian = clienteDian;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.hilos = Math.max(1, hilos);
+        this.registry = registry;
+
+        // Reintentos inmediatos de un lote sin respuesta, con espera exponencial aleatoria
+        this.reintentos = RetryTemplate.builder()
+                .maxAttempts(Math.max(1, reintentosInmediatos))
+                .exponentialBackoff(esperaReintentoMs, 2.0, esperaReintentoMs * 8, true)
+                .retryOn(DianNoDisponibleException.class)
+                .build();
+
+        AtomicInteger contador = new AtomicInteger();
+        this.enviadores = Executors.newFixedThreadPool(this.hilos, r -> {
+            Thread hilo = new Thread(r, "dian-envio-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+
+        Gauge.builder("dian.envio.pendientes", pendientes, AtomicLong::get)
+                .description("Documentos esperando su envío a la DIAN")
+                .register(registry);
+        Gauge.builder("dian.envio.rechazados", rechazados, AtomicLong::get)
+                .description("Documentos rechazados por la DIAN, pendientes de revisión")
+                .register(registry);
+        Gauge.builder("dian.envio.fallidos", fallidos, AtomicLong::get)
+                .description("Documentos que agotaron sus intentos sin respuesta de la DIAN")
+                .register(registry);
+        Gauge.builder("dian.envio.bloqueados", bloqueados, AtomicLong::get)
+                .description("Anulaciones que no se pueden enviar porque su factura fue rechazada o falló")
+                .register(registry);
+        this.tiempoLote = Timer.builder("dian.envio.lote")
+                .description("Tiempo de enviar un lote a la DIAN, con sus reintentos inmediatos")
+                .tag("cliente", clienteDian.nombre())
+                .register(registry);
+    }
+
+    /**
+     * Encola el envío de documentos a la DIAN. Se llama dentro de la transacción que emite o
+     * anula las facturas; si el documento ya está en la tabla, no se duplica.
+     *
+     * @param motivo motivo de la anulación (NULL para facturas)
+     */
+    public void encolar(List<String> facturaIds, TipoEnvioDian tipo, String motivo) {
+        if (facturaIds.isEmpty()) {
+            return;
+        }
+        Timestamp ahora = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO envios_dian (id, factura_id, tipo, motivo, estado, intentos, proximo_intento, " +
+                "fecha_creacion, fecha_actualizacion) " +
+                "SELECT ?, ?, ?, ?, 'PENDIENTE', 0, ?, ?, ? FROM DUAL " +
+                "WHERE NOT EXISTS (SELECT 1 FROM envios_dian WHERE factura_id = ? AND tipo = ?)",
+                facturaIds, facturaIds.size(), (ps, facturaId) -> {
+                    ps.setString(1, UUID.randomUUID().toString());
+                    ps.setString(2, facturaId);
+                    ps.setString(3, tipo.name());
+                    ps.setString(4, recortar(motivo));
+                    ps.setTimestamp(5, ahora);
+                    ps.setTimestamp(6, ahora);
+                    ps.setTimestamp(7, ahora);
+                    ps.setString(8, facturaId);
+                    ps.setString(9, tipo.name());
+                });
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Cada pocos segundos enviamos a la DIAN lo que está pendiente:
+     * 1. Tomamos los envíos que ya tocan (facturas con XML, anulaciones de facturas aceptadas)
+     * 2. Los repartimos en lotes, uno por hilo: nunca hay más de "hilos" lotes esperando a la DIAN
+     * 3. Cada hilo reserva su lote, lo envía y guarda las respuestas
+     * 4. Repetimos mientras haya pendientes, hasta max-rondas-por-ejecucion
+     */
+    @Scheduled(fixedDelayString = "${app.facturacion.dian.envio.intervalo-ms:5000}",
+               initialDelayString = "${app.facturacion.dian.envio.retraso-inicial-ms:20000}")
+    public void enviarPendientes() {
+        if (!habilitado) {
+            return;
+        }
+        int porRonda = Math.max(1, tamanoLote) * hilos;
+        int enviados = 0;
+        try {
+            actualizarBloqueados();
+            for (int ronda = 0; ronda < maxRondas; ronda++) {
+                Timestamp ahora = new Timestamp(System.currentTimeMillis());
+                List<String> ids = jdbcTemplate.queryForList(
+                        "SELECT e.id FROM envios_dian e JOIN facturas f ON f.id = e.factura_id " +
+                        "WHERE e.estado = 'PENDIENTE' AND e.proximo_intento <= ? " +
+                        "AND (e.reserva_hasta IS NULL OR e.reserva_hasta < ?) " +
+                        "AND (e.tipo = 'ANULACION' OR f.xml_url IS NOT NULL) " +
+                        "AND (e.tipo = 'FACTURA' OR NOT EXISTS " +
+                        "(SELECT 1 FROM envios_dian p WHERE p.factura_id = e.factura_id AND p.tipo = 'FACTURA')) " +
+                        "ORDER BY e.proximo_intento LIMIT ?",
+                        String.class, ahora, ahora, porRonda);
+                if (ids.isEmpty()) {
+                    break;
+                }
+
+                List<CompletableFuture<Integer>> lotes = new ArrayList<>();
+                for (int inicio = 0; inicio < ids.size(); inicio += tamanoLote) {
+                    List<String> lote = ids.subList(inicio, Math.min(inicio + tamanoLote, ids.size()));
+                    lotes.add(CompletableFuture.supplyAsync(() -> procesarLote(lote), enviadores));
+                }
+                for (CompletableFuture<Integer> lote : lotes) {
+                    try {
+                        enviados += lote.join();
+                    } catch (CompletionException e) {
+                        // Las reservas vencen solas y el lote se vuelve a tomar
+                        log.error("Error enviando un lote a la DIAN: {}", e.getCause().getMessage(), e.getCause());
+                    }
+                }
+                if (ids.size() < porRonda) {
+                    break;
+                }
+            }
+        } finally {
+            medir();
+        }
+
+        if (enviados > 0) {
+            log.info("Documentos con respuesta de la DIAN: {}", enviados);
+        }
+    }
+
+    /**
+     * Marca BLOQUEADO las anulaciones cuya factura quedó RECHAZADA o FALLIDA (nunca se van a
+     * poder enviar) y devuelve a PENDIENTE las bloqueadas cuya factura se reenvía o ya se aceptó.
+     */
+    private void actualizarBloqueados() {
+        Timestamp ahora = new Timestamp(System.currentTimeMillis());
+        List<String> bloquear = jdbcTemplate.queryForList(
+                "SELECT a.id FROM envios_dian a JOIN envios_dian f " +
+                "ON f.factura_id = a.factura_id AND f.tipo = 'FACTURA' " +
+                "WHERE a.tipo = 'ANULACION' AND a.estado = 'PENDIENTE' AND f.estado IN ('RECHAZADO', 'FALLIDO')",
+                String.class);
+        if (!bloquear.isEmpty()) {
+            namedJdbcTemplate.update(
+                    "UPDATE envios_dian SET estado = 'BLOQUEADO', ultimo_error = :error, fecha_actualizacion = :ahora " +
+                    "WHERE id IN (:ids) AND estado = 'PENDIENTE'",
+                    new MapSqlParameterSource()
+                            .addValue("error", "La factura fue rechazada o no se pudo enviar a la DIAN")
+                            .addValue("ahora", ahora)
+                            .addValue("ids", bloquear));
+            log.warn("Anulaciones bloqueadas por su factura rechazada o fallida: {}", bloquear.size());
+        }
+
+        List<String> desbloquear = jdbcTemplate.queryForList(
+                "SELECT a.id FROM envios_dian a WHERE a.tipo = 'ANULACION' AND a.estado = 'BLOQUEADO' " +
+                "AND NOT EXISTS (SELECT 1 FROM envios_dian f WHERE f.factura_id = a.factura_id " +
+                "AND f.tipo = 'FACTURA' AND f.estado IN ('RECHAZADO', 'FALLIDO'))",
+                String.class);
+        if (!desbloquear.isEmpty()) {
+            namedJdbcTemplate.update(
+                    "UPDATE envios_dian SET estado = 'PENDIENTE', ultimo_error = NULL, proximo_intento = :ahora, " +
+                    "fecha_actualizacion = :ahora WHERE id IN (:ids) AND estado = 'BLOQUEADO'",
+                    new MapSqlParameterSource()
+                            .addValue("ahora", ahora)
+                            .addValue("ids", desbloquear));
+        }
+    }
+
+    /**
+     * Reserva, envía y guarda las respuestas de un lote. Se ejecuta en un hilo del pool.
+     *
+     * @return cuántos documentos tuvieron respuesta
+     */
+    private int procesarLote(List<String> ids) {
+        LocalDateTime ahora = LocalDateTime.now();
+        int reservados = namedJdbcTemplate.update(
+                "UPDATE envios_dian SET reserva_nodo = :nodo, reserva_hasta = :hasta " +
+                "WHERE id IN (:ids) AND estado = 'PENDIENTE' " +
+                "AND (reserva_hasta IS NULL OR reserva_hasta < :ahora)",
+                new MapSqlParameterSource()
+                        .addValue("nodo", nodo)
+                        .addValue("hasta", Timestamp.valueOf(ahora.plus(Duration.ofMillis(reservaMs))))
+                        .addValue("ahora", Timestamp.valueOf(ahora))
+                        .addValue("ids", ids));
+        if (reservados == 0) {
+            return 0;
+        }
+
+        List<Envio> envios = namedJdbcTemplate.query(SQL_RESERVADOS,
+                new MapSqlParameterSource().addValue("ids", ids).addValue("nodo", nodo),
+                (rs, n) -> {
+                    String xml = rs.getString("xml_url");
+                    TipoEnvioDian tipo = TipoEnvioDian.valueOf(rs.getString("tipo"));
+                    return new Envio(
+                            rs.getString("id"),
+                            rs.getInt("intentos"),
+                            rs.getString("respuesta_dian"),
+                            new DocumentoDian(
+                                    rs.getString("factura_id"),
+                                    tipo,
+                                    rs.getString("prefijo") + "-" + rs.getLong("consecutivo"),
+                                    rs.getString("cufe"),
+                                    rs.getTimestamp("emision").toLocalDateTime(),
+                                    rs.getBigDecimal("total"),
+                                    // Las facturas anteriores al almacén guardaban una URL
+                                    tipo == TipoEnvioDian.FACTURA && AlmacenDocumentos.esClave(xml) ? xml : null,
+                                    rs.getString("motivo")));
+                });
+        if (envios.isEmpty()) {
+            return 0;
+        }
+
+        List<RespuestaDian> respuestas;
+        try {
+            respuestas = tiempoLote.recordCallable(() -> reintentos.execute(contexto ->
+                    clienteDian.enviar(envios.stream().map(Envio::documento).toList())));
+        } catch (DianNoDisponibleException e) {
+            reprogramar(envios, e.getMessage());
+            return 0;
+        } catch (Exception e) {
+            reprogramar(envios, e.getMessage());
+            throw new IllegalStateException("Error inesperado enviando a la DIAN", e);
+        }
+
+        // Cada respuesta con su envío; los que la DIAN no devolvió se reintentan después
+        Map<String, RespuestaDian> porDocumento = respuestas.stream()
+                .collect(Collectors.toMap(r -> r.facturaId() + ":" + r.tipo(), Function.identity(), (a, b) -> b));
+        List<Respondido> respondidos = new ArrayList<>();
+        List<Envio> sinRespuesta = new ArrayList<>();
+        for (Envio envio : envios) {
+            RespuestaDian respuesta = porDocumento.get(envio.documento().facturaId() + ":" + envio.documento().tipo());
+            if (respuesta != null) {
+                respondidos.add(new Respondido(envio, respuesta));
+            } else {
+                sinRespuesta.add(envio);
+            }
+        }
+        if (!sinRespuesta.isEmpty()) {
+            // Incluye los que el cliente dejó fuera del lote (ej: sin el XML en el almacén)
+            reprogramar(sinRespuesta, "Sin respuesta de la DIAN para el documento (o no se pudo enviar su XML)");
+        }
+        if (!respondidos.isEmpty()) {
+            transactionTemplate.executeWithoutResult(estado -> guardar(respondidos));
+        }
+        return respondidos.size();
+    }
+
+    /**
+     * Guarda las respuestas en las facturas y saca de la tabla los aceptados, con JDBC batch.
+     */
+    private void guardar(List<Respondido> respondidos) {
+        Timestamp fechaAhora = new Timestamp(System.currentTimeMillis());
+
+        // 1. Respuestas en facturas.respuesta_dian: {"FACTURA": {...}, "ANULACION": {...}}
+        List<String[]> respuestas = new ArrayList<>();
+        for (Respondido respondido : respondidos) {
+            respuestas.add(new String[]{
+                    respondido.envio().documento().facturaId(),
+                    combinar(respondido.envio().respuestaAnterior(), respondido.respuesta())});
+        }
+        jdbcTemplate.batchUpdate(
+                "UPDATE facturas SET respuesta_dian = ?, fecha_actualizacion = ? WHERE id = ?",
+                respuestas, respuestas.size(), (ps, fila) -> {
+                    ps.setString(1, fila[1]);
+                    ps.setTimestamp(2, fechaAhora);
+                    ps.setString(3, fila[0]);
+                });
+
+        // 2. Aceptados fuera de la tabla; rechazados quedan para revisión con el mensaje
+        List<String> aceptados = new ArrayList<>();
+        List<Respondido> rechazadosLote = new ArrayList<>();
+        for (Respondido respondido : respondidos) {
+            if (respondido.respuesta().aceptado()) {
+                aceptados.add(respondido.envio().id());
+            } else {
+                rechazadosLote.add(respondido);
+            }
+        }
+        if (!aceptados.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "DELETE FROM envios_dian WHERE id = ? AND reserva_nodo = ?",
+                    aceptados, aceptados.size(), (ps, id) -> {
+                        ps.setString(1, id);
+                        ps.setString(2, nodo);
+                    });
+        }
+        if (!rechazadosLote.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "UPDATE envios_dian SET estado = 'RECHAZADO', ultimo_error = ?, " +
+                    "reserva_nodo = NULL, reserva_hasta = NULL, fecha_actualizacion = ? " +
+                    "WHERE id = ? AND reserva_nodo = ?",
+                    rechazadosLote, rechazadosLote.size(), (ps, respondido) -> {
+                        RespuestaDian respuesta = respondido.respuesta();
+                        ps.setString(1, recortar(respuesta.codigo() + " - " + respuesta.mensaje()));
+                        ps.setTimestamp(2, fechaAhora);
+                        ps.setString(3, respondido.envio().id());
+                        ps.setString(4, nodo);
+                    });
+            rechazadosLote.forEach(respondido -> log.warn("La DIAN rechazó {} de la factura {}: {} - {}",
+                    respondido.envio().documento().tipo(), respondido.envio().documento().numeroFactura(),
+                    respondido.respuesta().codigo(), respondido.respuesta().mensaje()));
+        }
+        contar("aceptado", aceptados.size());
+        contar("rechazado", rechazadosLote.size());
+    }
+
+    private String combinar(String anterior, RespuestaDian respuesta) {
+        ObjectNode respuestas;
+        try {
+            respuestas = anterior != null && anterior.trim().startsWith("{")
+                    ? (ObjectNode) objectMapper.readTree(anterior)
+                    : objectMapper.createObjectNode();
+        } catch (JsonProcessingException | ClassCastException e) {
+            // Respuesta anterior en otro formato (ej: la simulada de anularFactura): se reemplaza
+            respuestas = objectMapper.createObjectNode();
+        }
+        respuestas.set(respuesta.tipo().name(), objectMapper.valueToTree(respuesta));
+        return respuestas.toString();
+    }
+
+    /**
+     * Reprograma los envíos sin respuesta (espera que se duplica en cada intento) y marca
+     * FALLIDOS los que agotaron sus intentos.
+     */
+    private void reprogramar(List<Envio> envios, String error) {
+        LocalDateTime ahora = LocalDateTime.now();
+        Timestamp fechaAhora = Timestamp.valueOf(ahora);
+        jdbcTemplate.batchUpdate(
+                "UPDATE envios_dian SET estado = ?, intentos = ?, proximo_intento = ?, ultimo_error = ?, " +
+                "reserva_nodo = NULL, reserva_hasta = NULL, fecha_actualizacion = ? " +
+                "WHERE id = ? AND reserva_nodo = ?",
+                envios, envios.size(), (ps, envio) -> {
+                    int intentos = envio.intentos() + 1;
+                    long esperaMs = esperaInicialMs << Math.min(intentos - 1, 16);
+                    ps.setString(1, intentos >= maxIntentos ? "FALLIDO" : "PENDIENTE");
+                    ps.setInt(2, intentos);
+                    ps.setTimestamp(3, Timestamp.valueOf(ahora.plus(Duration.ofMillis(esperaMs))));
+                    ps.setString(4, recortar(error));
+                    ps.setTimestamp(5, fechaAhora);
+                    ps.setString(6, envio.id());
+                    ps.setString(7, nodo);
+                });
+        log.warn("{} documentos sin respuesta de la DIAN se reintentarán: {}", envios.size(), error);
+        contar("sin_respuesta", envios.size());
+    }
+
+    /**
+     * Actualiza los gauges de pendientes, rechazados, fallidos y bloqueados con una sola consulta agrupada.
+     */
+    private void medir() {
+        try {
+            pendientes.set(0);
+            rechazados.set(0);
+            fallidos.set(0);
+            bloqueados.set(0);
+            jdbcTemplate.query(
+                    "SELECT estado, COUNT(*) AS cantidad FROM envios_dian GROUP BY estado",
+                    rs -> {
+                        long cantidad = rs.getLong("cantidad");
+                        switch (rs.getString("estado")) {
+                            case "PENDIENTE" -> pendientes.set(cantidad);
+                            case "RECHAZADO" -> rechazados.set(cantidad);
+                            case "BLOQUEADO" -> bloqueados.set(cantidad);
+                            default -> fallidos.set(cantidad);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            log.warn("No se pudieron medir los envíos a la DIAN: {}", e.getMessage());
+        }
+    }
+
+    private void contar(String resultado, int cantidad) {
+        if (cantidad == 0) {
+            return;
+        }
+        Counter.builder("dian.envio.documentos")
+                .description("Documentos enviados a la DIAN, por resultado")
+                .tag("resultado", resultado)
+                .register(registry)
+                .increment(cantidad);
+    }
+
+    private static String recortar(String mensaje) {
+        return mensaje != null && mensaje.length() > 500 ? mensaje.substring(0, 500) : mensaje;
+    }
+
+    /**
+     * Deja terminar los lotes en curso; los que no alcancen se retoman cuando venza su reserva.
+     */
+    @PreDestroy
+    public void cerrar() throws InterruptedException {
+        enviadores.shutdown();
+        if (!enviadores.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Quedaron lotes sin enviar a la DIAN al detener la aplicación");
+        }
+    }
+
+    private record Envio(String id, int intentos, String respuestaAnterior, DocumentoDian documento) {
+    }
+
+    private record Respondido(Envio envio, RespuestaDian respuesta) {
+    }
+}
@@ -0,0 +1,214 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.evento.CambioSuscripcionEvento;
+import com.zabora.subscription.modelo.entidad.EjecucionRenovacion;
+import com.zabora.subscription.modelo.entidad.PlanSuscripcion;
+import com.zabora.subscription.modelo.enumeracion.AccionLog;
+import com.zabora.subscription.modelo.enumeracion.EstadoEjecucionRenovacion;
+import com.zabora.subscription.modelo.enumeracion.EstadoSuscripcion;
+import com.zabora.subscription.repositorio.EjecucionRenovacionRepository;
+import com.zabora.subscription.repositorio.PlanSuscripcionRepository;
+import com.zabora.subscription.repositorio.ReintentoPagoRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Tarea programada que marca como EXPIRADA las suscripciones activas
+ * cuyo periodo actual ya terminó.
+ *
+ * Así la verificación de suscripciones (que se llama en casi cada acción del usuario)
+ * solo compara fechas y nunca escribe en la base de datos.
+ *
+ * Las que están en cobranza (su renovación falló y hay un reintento programado) pasan a
+ * PENDIENTE_PAGO; CobranzaServicio las reactiva si un reintento cobra o las expira si
+ * falla el último.
+ *
+ * Mientras una ejecución de MotorRenovaciones no termina, no se expiran las suscripciones
+ * que esa ejecución todavía puede cobrar (ver MotorRenovaciones): si la pasarela estuvo
+ * caída, se cobran al retomarla en lugar de expirar. Tampoco las que vencen en los minutos
+ * siguientes al último corte, mientras se crea la ejecución siguiente que las cobra.
+ */
+@Service
+@Slf4j
+public class ExpiracionSuscripcionesServicio {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final PlanSuscripcionRepository planRepository;
+    private final ReintentoPagoRepository reintentoRepository;
+    private final EjecucionRenovacionRepository ejecucionRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+
+    // Cantidad de suscripciones que se expiran por transacción
+    @Value("${app.expiracion.tamano-lote:500}")
+    private int tamanoLote;
+
+    // Máximo de lotes por ejecución, para no acaparar la base de datos
+    @Value("${app.expiracion.max-lotes-por-ejecucion:100}")
+    private int maxLotesPorEjecucion;
+
+    public ExpiracionSuscripcionesServicio(JdbcTemplate jdbcTemplate,
+                                           PlanSuscripcionRepository planRepository,
+                                           ReintentoPagoRepository reintentoRepository,
+                                           EjecucionRenovacionRepository ejecucionRepository,
+                                           ApplicationEventPublisher eventPublisher,
+                                           PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.planRepository = planRepository;
+        this.reintentoRepository = reintentoRepository;
+        this.ejecucionRepository = ejecucionRepository;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Cada cierto tiempo revisa qué suscripciones ya se vencieron y las marca como EXPIRADA.
+     * 1. Bloquea un lote de suscripciones vencidas (las más antiguas primero)
+     * 2. Las actualiza con un UPDATE por estado (EXPIRADA, o PENDIENTE_PAGO si están en cobranza)
+     * 3. Inserta los logs de auditoría en un único batch
+     * 4. Avisa del cambio para que se invaliden caches e índices
+     * Repite hasta que no queden vencidas o se alcance el máximo de lotes.
+     */
+    @Scheduled(fixedDelayString = "${app.expiracion.intervalo-ms:60000}",
+               initialDelayString = "${app.expiracion.retraso-inicial-ms:30000}")
+    public void expirarSuscripcionesVencidas() {
+        LocalDateTime corte = LocalDateTime.now();
+        Map<Long, String> nombresPlanes = planRepository.findAll().stream()
+            .collect(Collectors.toMap(PlanSuscripcion::getId, PlanSuscripcion::getNombre));
+        LocalDateTime[] ventana = ventanaRenovacionEnCurso(corte);
+
+        int total = 0;
+        for (int lote = 0; lote < maxLotesPorEjecucion; lote++) {
+            Integer expiradas = transactionTemplate.execute(
+                estado -> expirarLote(corte, ventana, nombresPlanes));
+            if (expiradas == null || expiradas == 0) {
+                break;
+            }
+            total += expiradas;
+            if (expiradas < tamanoLote) {
+                break;
+            }
+        }
+
+        if (total > 0) {
+            log.info("⏰ Suscripciones expiradas automáticamente: {}", total);
+        }
+    }
+
+    /**
+     * Periodos que las renovaciones todavía pueden cobrar: {desde (exclusivo), hasta (inclusivo)}.
+     * Son los de las ejecuciones sin terminar y los que vencen hasta MARGEN_VENCIMIENTO después
+     * del último corte (los cobrará la ejecución siguiente). Sin ejecuciones, una ventana vacía.
+     */
+    private LocalDateTime[] ventanaRenovacionEnCurso(LocalDateTime corte) {
+        Optional<EjecucionRenovacion> ultima = ejecucionRepository.findFirstByOrderByFechaCorteDesc();
+        if (ultima.isEmpty()) {
+            return new LocalDateTime[]{corte, corte};
+        }
+        LocalDateTime ultimoCorte = ultima.get().getFechaCorte();
+        List<EjecucionRenovacion> enCurso =
+            ejecucionRepository.findByEstadoOrderByFechaCorteAsc(EstadoEjecucionRenovacion.EN_CURSO);
+        LocalDateTime desde = enCurso.isEmpty() ? ultimoCorte : enCurso.get(0).getFechaDesde();
+        return new LocalDateTime[]{desde, ultimoCorte.plus(MotorRenovaciones.MARGEN_VENCIMIENTO)};
+    }
+
+    /**
+     * Expira un lote dentro de la transacción actual y retorna cuántas suscripciones cambió.
+     */
+    private int expirarLote(LocalDateTime corte, LocalDateTime[] ventana, Map<Long, String> nombresPlanes) {
+        Timestamp fechaCorte = Timestamp.valueOf(corte);
+
+        // 1. Bloquear el lote para que otra instancia no lo procese al mismo tiempo.
+        // Se saltan las que una renovación en curso todavía cobra (mismo filtro que MotorRenovaciones)
+        List<Map<String, Object>> vencidas = jdbcTemplate.queryForList(
+            "SELECT s.id, s.usuario_id, s.plan_id, s.fin_periodo_actual FROM suscripciones_usuarios s " +
+            "WHERE s.estado = 'ACTIVA' AND s.fin_periodo_actual < ? " +
+            "AND NOT (s.cancelar_al_final_periodo = FALSE " +
+            "AND s.fin_periodo_actual > ? AND s.fin_periodo_actual <= ? " +
+            "AND EXISTS (SELECT 1 FROM planes_suscripcion p WHERE p.id = s.plan_id AND p.precio > 0)) " +
+            "ORDER BY s.fin_periodo_actual LIMIT ? FOR UPDATE",
+            fechaCorte, Timestamp.valueOf(ventana[0]), Timestamp.valueOf(ventana[1]), tamanoLote);
+
+        if (vencidas.isEmpty()) {
+            return 0;
+        }
+
+        List<String> ids = vencidas.stream()
+            .map(fila -> (String) fila.get("id"))
+            .collect(Collectors.toList());
+
+        // 2. Un UPDATE por estado nuevo: las que tienen reintentos de cobro esperan el resultado
+        Set<String> enCobranza = new HashSet<>(reintentoRepository.findSuscripcionesEnCobranza(ids));
+        Map<Boolean, List<String>> porEstado = ids.stream()
+            .collect(Collectors.partitioningBy(enCobranza::contains));
+        for (Map.Entry<Boolean, List<String>> grupo : porEstado.entrySet()) {
+            if (grupo.getValue().isEmpty()) {
+                continue;
+            }
+            namedJdbcTemplate.update(
+                "UPDATE suscripciones_usuarios SET estado = :estado, usuario_activo = NULL, " +
+                "version = version + 1, fecha_actualizacion = :ahora " +
+                "WHERE id IN (:ids)",
+                new MapSqlParameterSource()
+                    .addValue("estado", nuevoEstado(grupo.getKey()).name())
+                    .addValue("ahora", Timestamp.valueOf(LocalDateTime.now()))
+                    .addValue("ids", grupo.getValue()));
+        }
+
+        // 3. Logs de auditoría en un solo batch
+        Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO logs_suscripciones (suscripcion_id, usuario_id, accion, estado_anterior, " +
+            "estado_nuevo, descripcion, realizado_por, fecha_creacion) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+            vencidas, vencidas.size(), (ps, fila) -> {
+                ps.setString(1, (String) fila.get("id"));
+                ps.setString(2, (String) fila.get("usuario_id"));
+                ps.setString(3, AccionLog.CAMBIO_ESTADO.name());
+                ps.setString(4, EstadoSuscripcion.ACTIVA.name());
+                boolean pendiente = enCobranza.contains((String) fila.get("id"));
+                ps.setString(5, nuevoEstado(pendiente).name());
+                ps.setString(6, pendiente
+                    ? "Periodo terminado con el cobro de la renovación pendiente"
+                    : "Suscripción expirada automáticamente");
+                ps.setString(7, "sistema");
+                ps.setTimestamp(8, ahora);
+            });
+
+        // 4. Avisar del cambio (los listeners se ejecutan después del commit)
+        for (Map<String, Object> fila : vencidas) {
+            Long planId = ((Number) fila.get("plan_id")).longValue();
+            eventPublisher.publishEvent(new CambioSuscripcionEvento(
+                (String) fila.get("usuario_id"),
+                (String) fila.get("id"),
+                nombresPlanes.get(planId),
+                nuevoEstado(enCobranza.contains((String) fila.get("id"))),
+                ((Timestamp) fila.get("fin_periodo_actual")).toLocalDateTime()));
+        }
+
+        return vencidas.size();
+    }
+
+    private static EstadoSuscripcion nuevoEstado(boolean enCobranza) {
+        return enCobranza ? EstadoSuscripcion.PENDIENTE_PAGO : EstadoSuscripcion.EXPIRADA;
+    }
+}
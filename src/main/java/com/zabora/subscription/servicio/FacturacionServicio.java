@@ -5,19 +5,20 @@ import com.zabora.subscription.modelo.entidad.Factura;
 import com.zabora.subscription.modelo.entidad.Pago;
 import com.zabora.subscription.modelo.enumeracion.EstadoFactura;
 import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+import com.zabora.subscription.modelo.enumeracion.TipoEnvioDian;
 import com.zabora.subscription.repositorio.FacturaRepository;
 import com.zabora.subscription.repositorio.PagoRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
@@ -26,7 +27,14 @@ public class FacturacionServicio {
     
     private final FacturaRepository facturaRepository;
     private final PagoRepository pagoRepository;
-    private final JdbcTemplate jdbcTemplate;
+    private final AsignadorConsecutivos asignadorConsecutivos;
+    private final GeneradorCufe generadorCufe;
+    private final RenderizadorFacturas renderizadorFacturas;
+    private final EnviadorDian enviadorDian;
+    
+    // Prefijo (rango de numeración) de las facturas cuando no se indica otro
+    @Value("${app.facturacion.prefijo:FZ}")
+    private String prefijoPorDefecto;
     
     /**
      * EXPLICACIÓN:
@@ -40,7 +48,16 @@ public class FacturacionServicio {
      */
     @Transactional
     public Factura generarFactura(String pagoId) {
-        log.info("📄 Generando factura para pago: {}", pagoId);
+        return generarFactura(pagoId, prefijoPorDefecto);
+    }
+    
+    /**
+     * Igual que generarFactura(pagoId), numerando con el rango del prefijo indicado
+     * (ej: el de otra resolución DIAN). Cada prefijo tiene su propio consecutivo.
+     */
+    @Transactional
+    public Factura generarFactura(String pagoId, String prefijo) {
+        log.info("📄 Generando factura {} para pago: {}", prefijo, pagoId);
         
         // 1. Verificar que el pago existe y está completado
         Pago pago = pagoRepository.findById(pagoId)
@@ -55,40 +72,31 @@ public class FacturacionServicio {
             throw new IllegalStateException("Ya existe una factura para este pago");
         });
         
-        // 3. Obtener consecutivo de factura usando el procedimiento almacenado
-        Long consecutivo = obtenerSiguienteConsecutivo();
+        // 3. Consecutivo del rango del prefijo (sale de la memoria del nodo, sin bloquear otras facturas)
+        AsignadorConsecutivos.Consecutivo consecutivo = asignadorConsecutivos.asignar(prefijo);
         
-        // 4. Calcular montos (IVA 19% incluido en el total)
-        BigDecimal total = pago.getMonto();
-        BigDecimal iva = total.multiply(new BigDecimal("0.19"))
-            .divide(new BigDecimal("1.19"), 2, RoundingMode.HALF_UP);
-        BigDecimal subtotal = total.subtract(iva);
-        
-        // 5. Crear factura
+        // 4. Montos y CUFE (SHA-384 según la DIAN)
         Factura factura = new Factura();
         factura.setPago(pago);
         factura.setUsuarioId(pago.getUsuarioId());
-        factura.setPrefijo("FZ");
-        factura.setConsecutivo(consecutivo);
-        factura.setFechaEmision(LocalDate.now());
-        factura.setFechaVencimiento(LocalDate.now().plusDays(30));
-        factura.setSubtotal(subtotal);
-        factura.setIva(iva);
-        factura.setTotal(total);
-        factura.setEstado(EstadoFactura.EMITIDA);
-        
-        // 6. Generar CUFE (Código Único de Factura Electrónica) - simulado
-        factura.setCufe(generarCUFE(factura));
+        completarFactura(factura, pago.getMonto(), consecutivo);
+        factura.setCufe(generadorCufe.calcular(factura));
+        
+        // 5. Guardar factura (flush ya: si la cola de facturación la emitió al mismo tiempo,
+        // uk_facturas_pago lo detecta aquí y no al confirmar)
+        try {
+            facturaRepository.saveAndFlush(factura);
+        } catch (DataIntegrityViolationException e) {
+            throw new IllegalStateException("Ya existe una factura para este pago");
+        }
         
-        // 7. URLs de documentos (en producción, estos serían PDFs/XMLs reales)
-        //Esta opcion aun esta en consideracion segun tiempo de desarrollo
-        factura.setPdfUrl("https://zabora.com/facturas/" + consecutivo + ".pdf");
-        factura.setXmlUrl("https://zabora.com/facturas/" + consecutivo + ".xml");
+        // 6. XML y PDF en segundo plano, después del commit
+        renderizadorFacturas.programar(List.of(factura.getId()));
         
-        // 8. Guardar factura
-        facturaRepository.save(factura);
+        // 7. Envío a la DIAN (cuando el XML esté listo)
+        enviadorDian.encolar(List.of(factura.getId()), TipoEnvioDian.FACTURA, null);
         
-        log.info("Factura generada: FZ-{}", consecutivo);
+        log.info("Factura generada: {}", consecutivo.numeroFactura());
         
         return factura;
     }
@@ -135,24 +143,17 @@ public class FacturacionServicio {
             throw new IllegalStateException("La factura ya está anulada");
         }
         
-        // Verificar que no hayan pasado más de 24 horas
-        if (factura.getFechaEmision().isBefore(LocalDate.now().minusDays(1))) {
+        // Verificar que no hayan pasado más de 24 horas desde la emisión (en la zona de facturación)
+        if (factura.getFechaCreacion().isBefore(generadorCufe.ahora().minusHours(24))) {
             throw new IllegalStateException("Solo se pueden anular facturas de menos de 24 horas");
         }
         
         factura.setEstado(EstadoFactura.ANULADA);
-        
-        // En producción, aquí se notificaría a la DIAN
-        Map<String, Object> respuestaDian = Map.of(
-            "estado", "anulada",
-            "motivo", motivo,
-            "fecha_anulacion", LocalDate.now().toString()
-        );
-        
-        factura.setRespuestaDian(respuestaDian.toString());
-        
         facturaRepository.save(factura);
         
+        // La anulación se envía a la DIAN en segundo plano; su respuesta queda en respuestaDian
+        enviadorDian.encolar(List.of(facturaId), TipoEnvioDian.ANULACION, motivo);
+        
         log.info("✅ Factura anulada: {}", facturaId);
         
         return factura;
@@ -161,32 +162,28 @@ public class FacturacionServicio {
     // ========== MÉTODOS AUXILIARES ==========
     
     /**
-     * Obtener siguiente consecutivo de factura usando la tabla secuencia_facturas
+     * Llena numeración, montos (IVA 19% incluido en el total), y fechas de una factura
+     * nueva. Lo usan generarFactura y la cola de facturación, que guarda por JDBC y calcula
+     * los CUFE del lote de una vez con GeneradorCufe.
      */
-    private Long obtenerSiguienteConsecutivo() {
-        jdbcTemplate.update("UPDATE secuencia_facturas SET consecutivo = consecutivo + 1 WHERE id = 1");
+    void completarFactura(Factura factura, BigDecimal total, AsignadorConsecutivos.Consecutivo consecutivo) {
+        BigDecimal iva = total.multiply(new BigDecimal("0.19"))
+            .divide(new BigDecimal("1.19"), 2, RoundingMode.HALF_UP);
+        BigDecimal subtotal = total.subtract(iva);
         
-        Long consecutivo = jdbcTemplate.queryForObject(
-            "SELECT consecutivo FROM secuencia_facturas WHERE id = 1",
-            Long.class
-        );
+        // Momento de emisión: fecha y hora del CUFE
+        LocalDateTime emision = generadorCufe.ahora();
         
-        return consecutivo;
-    }
-    
-    /**
-     * Generar CUFE (Código Único de Factura Electrónica)
-     * En producción, esto seguiría el estándar de la DIAN
-     */
-    private String generarCUFE(Factura factura) {
-        String base = String.format("%s-%d-%s-%s",
-            factura.getPrefijo(),
-            factura.getConsecutivo(),
-            factura.getUsuarioId(),
-            factura.getFechaEmision()
-        );
-        
-        // En producción, esto sería un hash SHA-384 según normas DIAN
-        return "CUFE-" + java.util.UUID.nameUUIDFromBytes(base.getBytes()).toString();
+        factura.setPrefijo(consecutivo.prefijo());
+        factura.setConsecutivo(consecutivo.numero());
+        factura.setFechaCreacion(emision);
+        factura.setFechaEmision(emision.toLocalDate());
+        factura.setFechaVencimiento(emision.toLocalDate().plusDays(30));
+        factura.setSubtotal(subtotal);
+        factura.setIva(iva);
+        factura.setTotal(total);
+        factura.setEstado(EstadoFactura.EMITIDA);
+        
+        // pdf_url y xml_url quedan en NULL hasta que RenderizadorFacturas genera los documentos
     }
 }
@@ -0,0 +1,305 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.modelo.entidad.Factura;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calcula el CUFE (Código Único de Factura Electrónica) según el anexo técnico de la DIAN:
+ *
+ *   CUFE = SHA-384(NumFac + FecFac + HorFac + ValFac + "01" + ValIva + "04" + ValInc
+ *                  + "03" + ValIca + ValTot + NitOFE + NumAdq + ClTec + TipoAmbiente)
+ *
+ * en hexadecimal en minúsculas (96 caracteres). Los valores van con dos decimales y punto,
+ * la fecha como yyyy-MM-dd y la hora como HH:mm:ss-05:00.
+ *
+ * La entrada se escribe byte a byte en un buffer del hilo, sin armar Strings intermedios,
+ * y cada hilo reutiliza su propio MessageDigest: lo único que se crea por factura es el
+ * String del resultado. Para miles de facturas, calcular(List) reparte el trabajo en un
+ * pool con un hilo por procesador.
+ */
+@Component
+@Slf4j
+public class GeneradorCufe {
+
+    // Adquirente sin documento registrado: consumidor final (DIAN)
+    private static final String CONSUMIDOR_FINAL = "222222222222";
+
+    // Por debajo de este tamaño el lote se calcula en el hilo que llama (repartirlo cuesta más)
+    private static final int MINIMO_PARALELO = 512;
+
+    private static final byte[] HEXADECIMAL = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] nitEmisor;
+    private final byte[] claveTecnica;
+    private final byte[] ambiente;
+    private final ZoneId zona;
+    private final int hilos;
+    private final ExecutorService ejecutor;
+
+    private final ThreadLocal<Estado> estados = ThreadLocal.withInitial(Estado::new);
+
+    public GeneradorCufe(@Value("${app.facturacion.dian.nit-emisor:900000000}") String nitEmisor,
+                         @Value("${app.facturacion.dian.clave-tecnica:}") String claveTecnica,
+                         @Value("${app.facturacion.dian.ambiente:2}") String ambiente,
+                         @Value("${spring.jackson.time-zone:America/Bogota}") String zonaHoraria,
+                         @Value("${app.facturacion.cufe.hilos:0}") int hilos) {
+        this.nitEmisor = nitEmisor.getBytes(StandardCharsets.UTF_8);
+        this.claveTecnica = claveTecnica.getBytes(StandardCharsets.UTF_8);
+        this.ambiente = ambiente.getBytes(StandardCharsets.UTF_8);
+        this.zona = ZoneId.of(zonaHoraria);
+        this.hilos = hilos > 0 ? hilos : Runtime.getRuntime().availableProcessors();
+
+        AtomicInteger contador = new AtomicInteger();
+        this.ejecutor = Executors.newFixedThreadPool(this.hilos, r -> {
+            Thread hilo = new Thread(r, "cufe-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+
+        if (claveTecnica.isEmpty()) {
+            log.warn("app.facturacion.dian.clave-tecnica no está configurada: los CUFE no serán válidos ante la DIAN");
+        }
+    }
+
+    /**
+     * Momento de emisión de una factura: hora de la zona configurada, sin fracción de segundo,
+     * igual a como entra en el CUFE. Todo lo que compara contra facturas.fecha_creacion (el
+     * barrido de documentos, el plazo de anulación) usa esta misma hora.
+     */
+    public LocalDateTime ahora() {
+        return LocalDateTime.now(zona).truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    /**
+     * Calcula el CUFE de una factura con numeración, montos y fecha de creación (momento
+     * de emisión) ya asignados.
+     */
+    public String calcular(Factura factura) {
+        return calcular(factura, CONSUMIDOR_FINAL);
+    }
+
+    /**
+     * Igual que calcular(factura), con el documento del adquirente (NumAdq) indicado.
+     */
+    String calcular(Factura factura, String numeroAdquirente) {
+        LocalDateTime emision = factura.getFechaCreacion();
+        Estado estado = estados.get();
+        estado.reiniciar();
+
+        // NumFac: prefijo y consecutivo sin separador, como en el XML
+        estado.texto(factura.getPrefijo());
+        estado.numero(factura.getConsecutivo());
+        // FecFac y HorFac
+        estado.digitos(emision.getYear(), 4);
+        estado.escribir('-');
+        estado.digitos(emision.getMonthValue(), 2);
+        estado.escribir('-');
+        estado.digitos(emision.getDayOfMonth(), 2);
+        estado.digitos(emision.getHour(), 2);
+        estado.escribir(':');
+        estado.digitos(emision.getMinute(), 2);
+        estado.escribir(':');
+        estado.digitos(emision.getSecond(), 2);
+        estado.desfase(zona.getRules().getOffset(emision));
+        // ValFac, impuestos (IVA, INC, ICA) y ValTot
+        estado.valor(factura.getSubtotal());
+        estado.texto("01");
+        estado.valor(factura.getIva());
+        estado.texto("04");
+        estado.valor(BigDecimal.ZERO);
+        estado.texto("03");
+        estado.valor(BigDecimal.ZERO);
+        estado.valor(factura.getTotal());
+        // NitOFE, NumAdq, ClTec y TipoAmbiente
+        estado.bytes(nitEmisor);
+        estado.texto(numeroAdquirente);
+        estado.bytes(claveTecnica);
+        estado.bytes(ambiente);
+
+        return estado.resumir();
+    }
+
+    /**
+     * Calcula los CUFE de un lote, en el mismo orden. Los lotes grandes se reparten en
+     * partes iguales entre los hilos del pool.
+     */
+    public List<String> calcular(List<Factura> facturas) {
+        List<Factura> lista = facturas instanceof RandomAccess ? facturas : new ArrayList<>(facturas);
+        String[] cufes = new String[lista.size()];
+        if (lista.size() < MINIMO_PARALELO || hilos == 1) {
+            for (int i = 0; i < cufes.length; i++) {
+                cufes[i] = calcular(lista.get(i));
+            }
+            return Arrays.asList(cufes);
+        }
+
+        int porParte = (lista.size() + hilos - 1) / hilos;
+        List<CompletableFuture<Void>> partes = new ArrayList<>(hilos);
+        for (int inicio = 0; inicio < lista.size(); inicio += porParte) {
+            int desde = inicio;
+            int hasta = Math.min(inicio + porParte, lista.size());
+            partes.add(CompletableFuture.runAsync(() -> {
+                for (int i = desde; i < hasta; i++) {
+                    cufes[i] = calcular(lista.get(i));
+                }
+            }, ejecutor));
+        }
+        CompletableFuture.allOf(partes.toArray(CompletableFuture[]::new)).join();
+        return Arrays.asList(cufes);
+    }
+
+    @PreDestroy
+    public void cerrar() throws InterruptedException {
+        ejecutor.shutdown();
+        ejecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Buffer de entrada, MessageDigest y buffers de salida de un hilo; se reutilizan en cada CUFE.
+     */
+    private static final class Estado {
+
+        private final MessageDigest sha384;
+        private final byte[] resumen;
+        private final byte[] hexadecimal;
+        private byte[] entrada = new byte[256];
+        private int largo;
+
+        Estado() {
+            try {
+                sha384 = MessageDigest.getInstance("SHA-384");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-384 no disponible", e);
+            }
+            resumen = new byte[sha384.getDigestLength()];
+            hexadecimal = new byte[resumen.length * 2];
+        }
+
+        void reiniciar() {
+            largo = 0;
+        }
+
+        void escribir(int b) {
+            if (largo == entrada.length) {
+                entrada = Arrays.copyOf(entrada, largo * 2);
+            }
+            entrada[largo++] = (byte) b;
+        }
+
+        void bytes(byte[] valor) {
+            if (largo + valor.length > entrada.length) {
+                entrada = Arrays.copyOf(entrada, Math.max(largo * 2, largo + valor.length));
+            }
+            System.arraycopy(valor, 0, entrada, largo, valor.length);
+            largo += valor.length;
+        }
+
+        // UTF-8 sin pasar por getBytes (los campos de la factura son casi siempre ASCII)
+        void texto(String valor) {
+            for (int i = 0; i < valor.length(); i++) {
+                char c = valor.charAt(i);
+                if (c < 0x80) {
+                    escribir(c);
+                } else if (c < 0x800) {
+                    escribir(0xC0 | (c >> 6));
+                    escribir(0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < valor.length()) {
+                    int punto = Character.toCodePoint(c, valor.charAt(++i));
+                    escribir(0xF0 | (punto >> 18));
+                    escribir(0x80 | ((punto >> 12) & 0x3F));
+                    escribir(0x80 | ((punto >> 6) & 0x3F));
+                    escribir(0x80 | (punto & 0x3F));
+                } else {
+                    escribir(0xE0 | (c >> 12));
+                    escribir(0x80 | ((c >> 6) & 0x3F));
+                    escribir(0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        void numero(long valor) {
+            if (valor < 0) {
+                escribir('-');
+                valor = -valor;
+            }
+            int cifras = 1;
+            for (long resto = valor / 10; resto > 0; resto /= 10) {
+                cifras++;
+            }
+            for (int i = 0; i < cifras; i++) {
+                escribir('0');
+            }
+            for (int posicion = largo - 1; posicion >= largo - cifras; posicion--) {
+                entrada[posicion] = (byte) ('0' + valor % 10);
+                valor /= 10;
+            }
+        }
+
+        // Entero con ceros a la izquierda hasta "ancho" cifras
+        void digitos(int valor, int ancho) {
+            for (int i = 0; i < ancho; i++) {
+                escribir('0');
+            }
+            for (int posicion = largo - 1; posicion >= largo - ancho; posicion--) {
+                entrada[posicion] = (byte) ('0' + valor % 10);
+                valor /= 10;
+            }
+        }
+
+        // Dos decimales con punto (ej: 24990.00)
+        void valor(BigDecimal monto) {
+            long centavos = monto.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+            if (centavos < 0) {
+                escribir('-');
+                centavos = -centavos;
+            }
+            numero(centavos / 100);
+            escribir('.');
+            digitos((int) (centavos % 100), 2);
+        }
+
+        // -05:00 (la DIAN no acepta "Z" para UTC)
+        void desfase(ZoneOffset desfase) {
+            int segundos = desfase.getTotalSeconds();
+            escribir(segundos < 0 ? '-' : '+');
+            segundos = Math.abs(segundos);
+            digitos(segundos / 3600, 2);
+            escribir(':');
+            digitos((segundos / 60) % 60, 2);
+        }
+
+        String resumir() {
+            sha384.update(entrada, 0, largo);
+            try {
+                sha384.digest(resumen, 0, resumen.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException("No se pudo calcular el CUFE", e);
+            }
+            for (int i = 0; i < resumen.length; i++) {
+                hexadecimal[2 * i] = HEXADECIMAL[(resumen[i] >> 4) & 0x0F];
+                hexadecimal[2 * i + 1] = HEXADECIMAL[resumen[i] & 0x0F];
+            }
+            return new String(hexadecimal, StandardCharsets.US_ASCII);
+        }
+    }
+}
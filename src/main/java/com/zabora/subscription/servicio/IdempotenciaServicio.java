@@ -0,0 +1,312 @@
+package com.zabora.subscription.servicio;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.zabora.subscription.excepcion.IdempotenciaException;
+import com.zabora.subscription.modelo.entidad.ClaveIdempotencia;
+import com.zabora.subscription.modelo.enumeracion.EstadoClaveIdempotencia;
+import com.zabora.subscription.repositorio.ClaveIdempotenciaRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Ejecuta operaciones una sola vez por Idempotency-Key.
+ *
+ * Las respuestas se guardan en dos niveles: una cache en memoria acotada y la tabla
+ * claves_idempotencia, ambas con el mismo TTL. Un reintento con la misma clave recibe
+ * la respuesta guardada sin repetir la operación.
+ *
+ * Las solicitudes simultáneas con la misma clave en esta instancia se unen en una sola
+ * ejecución y las demás esperan su resultado. Entre instancias, la fila EN_PROCESO hace
+ * de candado: la segunda instancia responde conflicto en lugar de ejecutar otra vez.
+ *
+ * Una respuesta guardada puede no ser definitiva (un pago que quedó "en proceso"): quien
+ * llama puede pasar cómo actualizarla al repetirla, y si cambia se guarda la nueva.
+ */
+@Service
+@Slf4j
+public class IdempotenciaServicio {
+
+    private final ClaveIdempotenciaRepository claveRepository;
+    private final ObjectMapper objectMapper;
+    private final Duration ttl;
+    private final long esperaMaximaMs;
+
+    // Respuestas ya guardadas, por ID de clave
+    private final Cache<String, Registro> completadas;
+
+    // Ejecuciones en curso en esta instancia, por ID de clave
+    private final ConcurrentHashMap<String, EnCurso> enCurso = new ConcurrentHashMap<>();
+
+    public IdempotenciaServicio(ClaveIdempotenciaRepository claveRepository,
+                                ObjectMapper objectMapper,
+                                @Value("${app.idempotencia.ttl-horas:24}") long ttlHoras,
+                                @Value("${app.idempotencia.max-en-memoria:10000}") long maxEnMemoria,
+                                @Value("${app.idempotencia.espera-maxima-ms:60000}") long esperaMaximaMs) {
+        this.claveRepository = claveRepository;
+        this.objectMapper = objectMapper;
+        this.ttl = Duration.ofHours(ttlHoras);
+        this.esperaMaximaMs = esperaMaximaMs;
+        this.completadas = Caffeine.newBuilder()
+                .maximumSize(maxEnMemoria)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * Ejecuta la operación, o devuelve la respuesta guardada si la clave ya se usó.
+     *
+     * @param ambito Ámbito de la clave (ej: "pago:" + usuarioId); la misma clave en otro ámbito es independiente
+     * @param clave Valor del header Idempotency-Key; si es null o vacío la operación se ejecuta sin más
+     * @param solicitud Cuerpo de la solicitud, para detectar la misma clave usada con otros datos
+     * @param tipoRespuesta Tipo de la respuesta, para leerla desde la base de datos
+     * @param operacion Operación a ejecutar
+     * @throws IdempotenciaException si la clave se usó con otra solicitud, o si otra instancia la está ejecutando
+     */
+    public <T> T ejecutar(String ambito, String clave, Object solicitud,
+                          Class<T> tipoRespuesta, Supplier<T> operacion) {
+        return ejecutar(ambito, clave, solicitud, tipoRespuesta, operacion, UnaryOperator.identity());
+    }
+
+    /**
+     * Igual que ejecutar(), pero al repetir una respuesta guardada la pasa antes por alRepetir.
+     *
+     * @param alRepetir Devuelve la respuesta vigente a partir de la guardada (la misma instancia si no
+     *                  cambió); por ejemplo, un pago que quedó PENDIENTE armado con su estado actual
+     */
+    public <T> T ejecutar(String ambito, String clave, Object solicitud,
+                          Class<T> tipoRespuesta, Supplier<T> operacion, UnaryOperator<T> alRepetir) {
+        if (clave == null || clave.isBlank()) {
+            return operacion.get();
+        }
+
+        // El ID es un hash de ámbito y clave, así su largo no depende de lo que envíe el cliente
+        String id = sha256(ambito + ":" + clave);
+        String huella = sha256(aJson(solicitud));
+
+        // 1. Respuesta en memoria
+        Registro guardado = completadas.getIfPresent(id);
+        if (guardado != null) {
+            return repetir(id, guardado, huella, tipoRespuesta, alRepetir);
+        }
+
+        // 2. Si otra solicitud de esta instancia ya la está ejecutando, se espera su resultado
+        EnCurso propia = new EnCurso(huella);
+        EnCurso existente = enCurso.putIfAbsent(id, propia);
+        if (existente != null) {
+            return esperar(existente, huella, tipoRespuesta);
+        }
+
+        try {
+            T respuesta = ejecutarComoDuena(id, huella, tipoRespuesta, operacion, alRepetir);
+            propia.resultado.complete(respuesta);
+            return respuesta;
+        } catch (RuntimeException e) {
+            propia.resultado.completeExceptionally(e);
+            throw e;
+        } finally {
+            enCurso.remove(id, propia);
+        }
+    }
+
+    /**
+     * Elimina de la base de datos las claves vencidas.
+     */
+    @Scheduled(fixedDelayString = "${app.idempotencia.intervalo-limpieza-ms:3600000}",
+               initialDelayString = "${app.idempotencia.intervalo-limpieza-ms:3600000}")
+    public void eliminarVencidas() {
+        int eliminadas = claveRepository.eliminarVencidas(LocalDateTime.now());
+        if (eliminadas > 0) {
+            log.info("Claves de idempotencia vencidas eliminadas: {}", eliminadas);
+        }
+    }
+
+    private <T> T ejecutarComoDuena(String id, String huella, Class<T> tipoRespuesta,
+                                    Supplier<T> operacion, UnaryOperator<T> alRepetir) {
+        // Otra solicitud pudo terminar justo antes de que esta se registrara como en curso
+        Registro guardado = completadas.getIfPresent(id);
+        if (guardado != null) {
+            return repetir(id, guardado, huella, tipoRespuesta, alRepetir);
+        }
+
+        // 3. Respuesta en la base de datos, o reservar la clave
+        Optional<Registro> enBaseDeDatos = reservar(id, huella);
+        if (enBaseDeDatos.isPresent()) {
+            completadas.put(id, enBaseDeDatos.get());
+            return repetir(id, enBaseDeDatos.get(), huella, tipoRespuesta, alRepetir);
+        }
+
+        // 4. Ejecutar y guardar la respuesta
+        T respuesta;
+        try {
+            respuesta = operacion.get();
+        } catch (RuntimeException e) {
+            // La operación no terminó: se libera la clave para que el cliente pueda reintentar
+            liberar(id);
+            throw e;
+        }
+
+        guardar(id, huella, respuesta);
+        return respuesta;
+    }
+
+    /**
+     * Respuesta guardada, actualizada con alRepetir; si cambió, se guarda en su lugar.
+     */
+    private <T> T repetir(String id, Registro registro, String huella, Class<T> tipoRespuesta,
+                          UnaryOperator<T> alRepetir) {
+        T guardada = respuestaGuardada(registro, huella, tipoRespuesta);
+        T vigente = alRepetir.apply(guardada);
+        if (vigente != guardada) {
+            guardar(id, huella, vigente);
+        }
+        return vigente;
+    }
+
+    private void guardar(String id, String huella, Object respuesta) {
+        completadas.put(id, new Registro(huella, respuesta, null));
+        try {
+            claveRepository.completar(id, aJson(respuesta));
+        } catch (RuntimeException e) {
+            log.error("No se pudo guardar la respuesta de la clave de idempotencia {}: {}", id, e.getMessage());
+        }
+    }
+
+    /**
+     * Reserva la clave en la base de datos.
+     *
+     * @return La respuesta guardada si la clave ya se completó; vacío si esta solicitud quedó como dueña
+     */
+    private Optional<Registro> reservar(String id, String huella) {
+        LocalDateTime ahora = LocalDateTime.now();
+        Optional<ClaveIdempotencia> existente = claveRepository.findById(id);
+
+        if (existente.isEmpty()) {
+            ClaveIdempotencia nueva = new ClaveIdempotencia();
+            nueva.setId(id);
+            nueva.setHuellaSolicitud(huella);
+            nueva.setFechaCreacion(ahora);
+            nueva.setFechaExpiracion(ahora.plus(ttl));
+            try {
+                claveRepository.saveAndFlush(nueva);
+                return Optional.empty();
+            } catch (DataIntegrityViolationException e) {
+                // Otra instancia la insertó al mismo tiempo
+                existente = claveRepository.findById(id);
+                if (existente.isEmpty()) {
+                    throw new IdempotenciaException("Ya hay una solicitud en curso con esta Idempotency-Key");
+                }
+            }
+        }
+
+        ClaveIdempotencia clave = existente.get();
+        boolean vigente = clave.getFechaExpiracion().isAfter(ahora);
+        if (vigente && clave.getEstado() == EstadoClaveIdempotencia.COMPLETADA) {
+            return Optional.of(new Registro(clave.getHuellaSolicitud(), null, clave.getRespuesta()));
+        }
+
+        // Vencida, o EN_PROCESO hace demasiado (la instancia que la tenía se detuvo): se retoma
+        int retomadas = claveRepository.retomar(id, huella, ahora, ahora.plus(ttl),
+                ahora.minus(Duration.ofMillis(esperaMaximaMs)));
+        if (retomadas == 0) {
+            if (!clave.getHuellaSolicitud().equals(huella)) {
+                throw new IdempotenciaException("La Idempotency-Key ya se usó con una solicitud diferente");
+            }
+            throw new IdempotenciaException("Ya hay una solicitud en curso con esta Idempotency-Key");
+        }
+        return Optional.empty();
+    }
+
+    private void liberar(String id) {
+        try {
+            claveRepository.deleteById(id);
+        } catch (RuntimeException e) {
+            log.error("No se pudo liberar la clave de idempotencia {}: {}", id, e.getMessage());
+        }
+    }
+
+    private <T> T esperar(EnCurso enCursoActual, String huella, Class<T> tipoRespuesta) {
+        if (!enCursoActual.huella.equals(huella)) {
+            throw new IdempotenciaException("La Idempotency-Key ya se usó con una solicitud diferente");
+        }
+        try {
+            return tipoRespuesta.cast(enCursoActual.resultado.get(esperaMaximaMs, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            throw new IdempotenciaException("Ya hay una solicitud en curso con esta Idempotency-Key");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotenciaException("Espera de la solicitud en curso interrumpida");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private <T> T respuestaGuardada(Registro registro, String huella, Class<T> tipoRespuesta) {
+        if (!registro.huella().equals(huella)) {
+            throw new IdempotenciaException("La Idempotency-Key ya se usó con una solicitud diferente");
+        }
+        if (registro.respuesta() != null) {
+            return tipoRespuesta.cast(registro.respuesta());
+        }
+        try {
+            return objectMapper.readValue(registro.respuestaJson(), tipoRespuesta);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Respuesta guardada ilegible para la clave de idempotencia", e);
+        }
+    }
+
+    private String aJson(Object valor) {
+        try {
+            return objectMapper.writeValueAsString(valor);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se pudo serializar a JSON", e);
+        }
+    }
+
+    private static String sha256(String valor) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(valor.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Respuesta guardada: el objeto (si se generó en esta instancia) o su JSON (si viene de la base de datos).
+     */
+    private record Registro(String huella, Object respuesta, String respuestaJson) {
+    }
+
+    private static final class EnCurso {
+        private final String huella;
+        private final CompletableFuture<Object> resultado = new CompletableFuture<>();
+
+        private EnCurso(String huella) {
+            this.huella = huella;
+        }
+    }
+}
@@ -0,0 +1,753 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.evento.CambioSuscripcionEvento;
+import com.zabora.subscription.excepcion.CobroNoRealizadoException;
+import com.zabora.subscription.excepcion.PasarelaNoDisponibleException;
+import com.zabora.subscription.modelo.dto.RespuestaPagoDTO;
+import com.zabora.subscription.modelo.dto.SolicitudPagoDTO;
+import com.zabora.subscription.modelo.entidad.EjecucionRenovacion;
+import com.zabora.subscription.modelo.entidad.Pago;
+import com.zabora.subscription.modelo.entidad.PuntoControlRenovacion;
+import com.zabora.subscription.modelo.enumeracion.AccionLog;
+import com.zabora.subscription.modelo.enumeracion.EstadoEjecucionRenovacion;
+import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+import com.zabora.subscription.modelo.enumeracion.EstadoSuscripcion;
+import com.zabora.subscription.modelo.enumeracion.MotivoFalloPago;
+import com.zabora.subscription.modelo.enumeracion.TipoMetodoPago;
+import com.zabora.subscription.pasarela.PasarelaPago;
+import com.zabora.subscription.repositorio.EjecucionRenovacionRepository;
+import com.zabora.subscription.repositorio.PuntoControlRenovacionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cobro de las renovaciones mensuales de las suscripciones pagas.
+ *
+ * Una ejecución cobra las suscripciones ACTIVAS cuyo periodo termina antes de la fecha
+ * de corte (ahora + app.renovaciones.anticipacion-horas) con su método de pago
+ * predeterminado. Las suscripciones se reparten por rango de ID en particiones que se
+ * procesan en paralelo; cada partición avanza por páginas y guarda su punto de control
+ * en la misma transacción que los cobros de la página, así que una ejecución interrumpida
+ * (reinicio, pasarela caída) se retoma después de la última página guardada, sin esperar al
+ * cron del día siguiente: cada app.renovaciones.intervalo-reanudacion-ms se buscan ejecuciones
+ * sin terminar.
+ *
+ * La ventana de una ejecución es fija: los periodos que terminan después del corte de la
+ * ejecución anterior y hasta su propio corte. Las ventanas de ejecuciones consecutivas quedan
+ * pegadas, sin importar a qué hora corra cada una (cron, manual o retomada), y una partición
+ * retomada horas después sigue cobrando las suscripciones que vencieron mientras estuvo
+ * detenida. ExpiracionSuscripcionesServicio no las expira mientras la ejecución no termine.
+ * Una ejecución sin terminar no impide crear la del día: cada cron crea la suya a partir del
+ * último corte y después retoma las pendientes, la más antigua primero.
+ *
+ * Varias instancias pueden participar en la misma ejecución: cada partición se reserva
+ * por nodo (reserva_nodo / reserva_hasta) y la reserva se renueva con cada página.
+ */
+@Service
+@Slf4j
+public class MotorRenovaciones {
+
+    // Tiempo que la expiración espera después del último corte a que se cree la ejecución siguiente.
+    // La primera ejecución (sin anterior) deja a la expiración las que vencen en estos minutos
+    static final Duration MARGEN_VENCIMIENTO = Duration.ofMinutes(5);
+
+    private static final String SQL_PAGINA =
+            "SELECT s.id, s.usuario_id, s.fin_periodo_actual, p.nombre AS plan, p.precio, p.moneda, " +
+            "m.tipo AS tipo_metodo, m.id_metodo_pago_stripe " +
+            "FROM suscripciones_usuarios s " +
+            "JOIN planes_suscripcion p ON p.id = s.plan_id " +
+            // Un solo JOIN en lugar de buscar el método predeterminado de cada usuario
+            "LEFT JOIN metodos_pago m ON m.usuario_id = s.usuario_id " +
+            "AND m.predeterminado = TRUE AND m.activo = TRUE " +
+            "WHERE s.estado = 'ACTIVA' AND s.cancelar_al_final_periodo = FALSE AND p.precio > 0 " +
+            "AND s.fin_periodo_actual <= ? AND s.fin_periodo_actual > ? " +
+            "AND s.id > ? AND s.id >= ? AND s.id < ? " +
+            "ORDER BY s.id LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final EjecucionRenovacionRepository ejecucionRepository;
+    private final PuntoControlRenovacionRepository puntoControlRepository;
+    private final PasarelaPago pasarela;
+    private final EjecutorPasarela ejecutorPasarela;
+    private final CobranzaServicio cobranzaServicio;
+    private final ColaFacturacion colaFacturacion;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry registry;
+
+    // Hilo que coordina las ejecuciones pedidas por el endpoint de administración,
+    // hilos que recorren particiones y hilos que llaman a la pasarela
+    private final ExecutorService ejecutorCoordinador;
+    private final ExecutorService ejecutorParticiones;
+    private final ExecutorService ejecutorCobros;
+
+    // Identifica a esta instancia en las reservas de particiones
+    private final String nodo = UUID.randomUUID().toString();
+    private final AtomicBoolean enCurso = new AtomicBoolean();
+
+    // Se cobran las suscripciones que vencen en las próximas horas
+    @Value("${app.renovaciones.anticipacion-horas:24}")
+    private long anticipacionHoras;
+
+    // Particiones en que se divide una ejecución nueva
+    @Value("${app.renovaciones.particiones:8}")
+    private int particiones;
+
+    // Suscripciones que se leen, cobran y guardan por transacción
+    @Value("${app.renovaciones.tamano-pagina:500}")
+    private int tamanoPagina;
+
+    // Duración de la reserva de una partición; si el nodo muere, otro la toma al vencer
+    @Value("${app.renovaciones.reserva-ms:300000}")
+    private long reservaMs;
+
+    public MotorRenovaciones(JdbcTemplate jdbcTemplate,
+                             EjecucionRenovacionRepository ejecucionRepository,
+                             PuntoControlRenovacionRepository puntoControlRepository,
+                             PasarelaPago pasarela,
+                             EjecutorPasarela ejecutorPasarela,
+                             CobranzaServicio cobranzaServicio,
+                             ColaFacturacion colaFacturacion,
+                             ApplicationEventPublisher eventPublisher,
+                             PlatformTransactionManager transactionManager,
+                             MeterRegistry registry,
+                             @Value("${app.renovaciones.particiones:8}") int hilosParticiones,
+                             @Value("${app.renovaciones.hilos-cobro:64}") int hilosCobro) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.ejecucionRepository = ejecucionRepository;
+        this.puntoControlRepository = puntoControlRepository;
+        this.pasarela = pasarela;
+        this.ejecutorPasarela = ejecutorPasarela;
+        this.cobranzaServicio = cobranzaServicio;
+        this.colaFacturacion = colaFacturacion;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.registry = registry;
+        this.ejecutorCoordinador = Executors.newSingleThreadExecutor(fabricaHilos("renovaciones-coordinador-"));
+        this.ejecutorParticiones = Executors.newFixedThreadPool(hilosParticiones, fabricaHilos("renovaciones-particion-"));
+        this.ejecutorCobros = Executors.newFixedThreadPool(hilosCobro, fabricaHilos("renovaciones-cobro-"));
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Una vez al día cobramos el siguiente mes de las suscripciones que están por vencer.
+     * 1. Creamos la ejecución del corte actual, desde el corte de la anterior, dividida en
+     *    particiones; después procesamos las ejecuciones sin terminar, la más antigua primero
+     * 2. Cada partición se procesa en un hilo: lee una página de suscripciones con su método
+     *    de pago predeterminado y las cobra en paralelo
+     * 3. Guarda la página con JDBC batch en una sola transacción: periodos renovados, pagos,
+     *    logs y el punto de control de la partición
+     * 4. Cuando todas las particiones terminan, la ejecución queda COMPLETADA
+     * Si la pasarela deja de responder, la partición se detiene y se retoma en unos minutos
+     * (retomarInterrumpidas). Un cobro que falla por error de la pasarela pasa a la cobranza.
+     *
+     * @return resumen de lo que procesó esta instancia, con una entrada por ejecución
+     */
+    public Map<String, Object> ejecutarRenovaciones() {
+        return ejecutar(true);
+    }
+
+    /**
+     * Crea la ejecución del corte actual (si corresponde) y la procesa en segundo plano, junto
+     * con las que no terminaron. Retorna enseguida; el avance se ve en la ejecución.
+     *
+     * @return ejecución del corte actual y si el proceso se inició en esta instancia
+     */
+    public Map<String, Object> iniciarRenovaciones() {
+        Map<String, Object> resumen = new LinkedHashMap<>();
+        if (enCurso.get()) {
+            resumen.put("iniciada", false);
+            resumen.put("mensaje", "Ya hay una ejecución de renovaciones en curso en esta instancia");
+            return resumen;
+        }
+        EjecucionRenovacion ejecucion = crearEjecucionSiCorresponde();
+        ejecutorCoordinador.execute(() -> {
+            try {
+                ejecutar(false);
+            } catch (RuntimeException e) {
+                log.error("Ejecución de renovaciones detenida por error: {}", e.getMessage(), e);
+            }
+        });
+        resumen.put("iniciada", true);
+        if (ejecucion != null) {
+            resumen.put("ejecucion", ejecucion.getId());
+            resumen.put("fechaDesde", ejecucion.getFechaDesde());
+            resumen.put("fechaCorte", ejecucion.getFechaCorte());
+            resumen.put("estado", ejecucion.getEstado());
+        }
+        return resumen;
+    }
+
+    @Scheduled(cron = "${app.renovaciones.cron:0 0 3 * * *}")
+    public void renovacionesProgramadas() {
+        ejecutarRenovaciones();
+    }
+
+    /**
+     * Retoma las particiones detenidas (pasarela caída, nodo reiniciado) de las ejecuciones
+     * que no terminaron, sin esperar al cron del día siguiente. No crea ejecuciones nuevas.
+     */
+    @Scheduled(fixedDelayString = "${app.renovaciones.intervalo-reanudacion-ms:900000}",
+               initialDelayString = "${app.renovaciones.intervalo-reanudacion-ms:900000}")
+    public void retomarInterrumpidas() {
+        if (ejecucionRepository.existsByEstado(EstadoEjecucionRenovacion.EN_CURSO)) {
+            ejecutar(false);
+        }
+    }
+
+    private Map<String, Object> ejecutar(boolean crearNueva) {
+        Map<String, Object> resumen = new LinkedHashMap<>();
+        if (!enCurso.compareAndSet(false, true)) {
+            resumen.put("mensaje", "Ya hay una ejecución de renovaciones en curso en esta instancia");
+            return resumen;
+        }
+        try {
+            if (crearNueva) {
+                crearEjecucionSiCorresponde();
+            }
+            List<Map<String, Object>> ejecuciones = new ArrayList<>();
+            for (EjecucionRenovacion ejecucion : ejecucionRepository
+                    .findByEstadoOrderByFechaCorteAsc(EstadoEjecucionRenovacion.EN_CURSO)) {
+                ejecuciones.add(procesarEjecucion(ejecucion));
+            }
+            resumen.put("ejecuciones", ejecuciones);
+            return resumen;
+        } finally {
+            enCurso.set(false);
+        }
+    }
+
+    /**
+     * Procesa las particiones sin terminar de una ejecución y la marca COMPLETADA si ya no le quedan.
+     */
+    private Map<String, Object> procesarEjecucion(EjecucionRenovacion ejecucion) {
+        Map<String, Object> resumen = new LinkedHashMap<>();
+        resumen.put("ejecucion", ejecucion.getId());
+        resumen.put("fechaDesde", ejecucion.getFechaDesde());
+        resumen.put("fechaCorte", ejecucion.getFechaCorte());
+
+        long inicio = System.nanoTime();
+        List<PuntoControlRenovacion> puntos = puntoControlRepository
+                .findByEjecucionIdOrderByParticionAsc(ejecucion.getId());
+        List<CompletableFuture<ResultadoPagina>> trabajos = puntos.stream()
+                .filter(punto -> !punto.getTerminada())
+                .map(punto -> CompletableFuture.supplyAsync(
+                        () -> procesarParticion(ejecucion, punto), ejecutorParticiones))
+                .toList();
+
+        ResultadoPagina total = new ResultadoPagina();
+        for (CompletableFuture<ResultadoPagina> trabajo : trabajos) {
+            try {
+                total.sumar(trabajo.join());
+            } catch (CompletionException e) {
+                log.error("Partición de renovaciones detenida por error: {}", e.getCause().getMessage(), e.getCause());
+            }
+        }
+        ejecucionRepository.completarSiTermino(ejecucion.getId(), LocalDateTime.now());
+
+        resumen.put("procesadas", total.procesadas);
+        resumen.put("renovadas", total.renovadas);
+        resumen.put("pendientes", total.pendientes);
+        resumen.put("fallidas", total.fallidas);
+        resumen.put("enRevision", total.enRevision);
+        resumen.put("duracionMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio));
+        log.info("🔁 Renovaciones {}: {} procesadas, {} renovadas, {} pendientes, {} fallidas",
+                ejecucion.getId(), total.procesadas, total.renovadas, total.pendientes, total.fallidas);
+
+        resumen.put("estado", ejecucionRepository.findById(ejecucion.getId())
+                .map(EjecucionRenovacion::getEstado)
+                .orElse(ejecucion.getEstado()));
+        return resumen;
+    }
+
+    /**
+     * Crea la ejecución para la fecha de corte actual, que empieza en el corte de la última
+     * ejecución (terminada o no). Si el corte actual no es posterior al último, no hay nada nuevo.
+     * El ID es la fecha de corte truncada a la hora: si dos nodos la crean a la vez,
+     * el segundo choca con la clave primaria y usa la del primero.
+     *
+     * @return la ejecución con el corte más reciente (la creada, o la última si no hacía falta otra)
+     */
+    private EjecucionRenovacion crearEjecucionSiCorresponde() {
+        LocalDateTime ahora = LocalDateTime.now();
+        LocalDateTime corte = ahora.plusHours(anticipacionHoras).truncatedTo(ChronoUnit.HOURS);
+        Optional<EjecucionRenovacion> ultima = ejecucionRepository.findFirstByOrderByFechaCorteDesc();
+        if (ultima.isPresent() && !corte.isAfter(ultima.get().getFechaCorte())) {
+            return ultima.get();
+        }
+        // Sin ejecución anterior no hay corte del que seguir: se empieza unos minutos después de ahora
+        LocalDateTime desde = ultima.map(EjecucionRenovacion::getFechaCorte)
+                .orElse(ahora.plus(MARGEN_VENCIMIENTO));
+
+        String id = corte.toString();
+        try {
+            return transactionTemplate.execute(estado -> crearEjecucion(id, desde, corte));
+        } catch (DataIntegrityViolationException e) {
+            log.info("La ejecución de renovaciones {} ya la creó otro nodo", id);
+            return ejecucionRepository.findById(id).orElse(null);
+        }
+    }
+
+    private EjecucionRenovacion crearEjecucion(String id, LocalDateTime desde, LocalDateTime corte) {
+        EjecucionRenovacion ejecucion = new EjecucionRenovacion();
+        ejecucion.setId(id);
+        ejecucion.setFechaDesde(desde);
+        ejecucion.setFechaCorte(corte);
+        ejecucion.setParticiones(particiones);
+        ejecucionRepository.saveAndFlush(ejecucion);
+
+        // Rangos por los dos primeros caracteres hexadecimales del ID (los IDs son UUID)
+        List<PuntoControlRenovacion> puntos = new ArrayList<>();
+        for (int particion = 0; particion < particiones; particion++) {
+            PuntoControlRenovacion punto = new PuntoControlRenovacion();
+            punto.setId(id + "#" + particion);
+            punto.setEjecucionId(id);
+            punto.setParticion(particion);
+            punto.setDesdeId(particion == 0 ? "" : String.format("%02x", particion * 256 / particiones));
+            punto.setHastaId(particion == particiones - 1 ? "~" : String.format("%02x", (particion + 1) * 256 / particiones));
+            puntos.add(punto);
+        }
+        puntoControlRepository.saveAll(puntos);
+
+        log.info("Nueva ejecución de renovaciones {} (desde {}) con {} particiones", id, desde, particiones);
+        return ejecucion;
+    }
+
+    /**
+     * Recorre una partición desde su punto de control hasta terminarla, o hasta que otro
+     * nodo la tenga reservada o la pasarela deje de estar disponible.
+     */
+    private ResultadoPagina procesarParticion(EjecucionRenovacion ejecucion, PuntoControlRenovacion punto) {
+        ResultadoPagina total = new ResultadoPagina();
+        String ultimoId = punto.getUltimoId();
+        // Límite inferior fijo (el corte de la ejecución anterior), no desde ahora: al retomar no se
+        // pierden las suscripciones que vencieron mientras la partición estuvo detenida
+        Timestamp desdeVencimiento = Timestamp.valueOf(ejecucion.getFechaDesde());
+
+        while (true) {
+            LocalDateTime ahora = LocalDateTime.now();
+            if (puntoControlRepository.reservar(punto.getId(), nodo, ahora.plus(Duration.ofMillis(reservaMs)), ahora) == 0) {
+                log.info("Partición {} reservada por otro nodo o ya terminada", punto.getId());
+                return total;
+            }
+
+            List<Vencimiento> filas = jdbcTemplate.query(SQL_PAGINA, (rs, n) -> new Vencimiento(
+                            rs.getString("id"),
+                            rs.getString("usuario_id"),
+                            rs.getTimestamp("fin_periodo_actual").toLocalDateTime(),
+                            rs.getString("plan"),
+                            rs.getBigDecimal("precio"),
+                            rs.getString("moneda") != null ? rs.getString("moneda") : "COP",
+                            rs.getString("tipo_metodo"),
+                            rs.getString("id_metodo_pago_stripe")),
+                    Timestamp.valueOf(ejecucion.getFechaCorte()),
+                    desdeVencimiento,
+                    ultimoId, punto.getDesdeId(), punto.getHastaId(), tamanoPagina);
+            boolean ultimaPagina = filas.size() < tamanoPagina;
+            if (!filas.isEmpty()) {
+                ultimoId = filas.get(filas.size() - 1).suscripcionId();
+            }
+
+            ResultadoPagina pagina;
+            try {
+                pagina = cobrarPagina(unaFilaPorSuscripcion(filas));
+            } catch (PasarelaNoDisponibleException e) {
+                // La página no se guarda: se vuelve a cobrar (con el mismo ID de pago) al retomar
+                log.warn("Partición {} detenida: {}", punto.getId(), e.getMessage());
+                puntoControlRepository.liberar(punto.getId(), nodo);
+                return total;
+            }
+
+            String hastaId = ultimoId;
+            transactionTemplate.executeWithoutResult(estado ->
+                    guardarPagina(punto.getId(), hastaId, ultimaPagina, pagina));
+            total.sumar(pagina);
+
+            if (ultimaPagina) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * Si un usuario tiene más de un método predeterminado activo, el JOIN repite la suscripción.
+     */
+    private static List<Vencimiento> unaFilaPorSuscripcion(List<Vencimiento> filas) {
+        Map<String, Vencimiento> unicas = new LinkedHashMap<>();
+        for (Vencimiento fila : filas) {
+            unicas.putIfAbsent(fila.suscripcionId(), fila);
+        }
+        return new ArrayList<>(unicas.values());
+    }
+
+    /**
+     * Cobra las suscripciones de una página en paralelo. Las que ya tienen pago para
+     * este periodo (de una ejecución anterior) no se vuelven a cobrar.
+     */
+    private ResultadoPagina cobrarPagina(List<Vencimiento> filas) {
+        ResultadoPagina pagina = new ResultadoPagina();
+        if (filas.isEmpty()) {
+            return pagina;
+        }
+
+        Map<String, Vencimiento> porPagoId = new LinkedHashMap<>();
+        for (Vencimiento fila : filas) {
+            porPagoId.put(fila.idPago(), fila);
+        }
+        Set<String> yaCobradas = new HashSet<>(namedJdbcTemplate.queryForList(
+                "SELECT id FROM pagos WHERE id IN (:ids)",
+                new MapSqlParameterSource("ids", porPagoId.keySet()), String.class));
+
+        AtomicBoolean pasarelaCaida = new AtomicBoolean();
+        List<CompletableFuture<Cobro>> cobros = new ArrayList<>();
+        for (Map.Entry<String, Vencimiento> entrada : porPagoId.entrySet()) {
+            if (yaCobradas.contains(entrada.getKey())) {
+                contar("omitida");
+                continue;
+            }
+            cobros.add(CompletableFuture.supplyAsync(
+                    () -> cobrar(entrada.getKey(), entrada.getValue(), pasarelaCaida), ejecutorCobros));
+        }
+
+        PasarelaNoDisponibleException noDisponible = null;
+        for (CompletableFuture<Cobro> futuro : cobros) {
+            try {
+                pagina.agregar(futuro.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof PasarelaNoDisponibleException pnd) {
+                    noDisponible = pnd;
+                } else {
+                    throw e;
+                }
+            }
+        }
+        if (noDisponible != null) {
+            throw noDisponible;
+        }
+        return pagina;
+    }
+
+    /**
+     * Cobra una suscripción en la pasarela. Se ejecuta en un hilo de cobro.
+     */
+    private Cobro cobrar(String pagoId, Vencimiento fila, AtomicBoolean pasarelaCaida) {
+        Cobro cobro = new Cobro(fila);
+        if (fila.tokenMetodo() == null) {
+            cobro.resultado = "sin_metodo";
+            cobro.mensaje = "Renovación no cobrada: el usuario no tiene método de pago predeterminado";
+            contar(cobro.resultado);
+            return cobro;
+        }
+        if (pasarelaCaida.get()) {
+            // Otro cobro de la página ya encontró el circuito abierto: no seguir llamando
+            throw new PasarelaNoDisponibleException("Pasarela no disponible", 0);
+        }
+
+        TipoMetodoPago metodo = TipoMetodoPago.valueOf(fila.tipoMetodo());
+        Pago pago = new Pago();
+        pago.setId(pagoId);
+        pago.setUsuarioId(fila.usuarioId());
+        pago.setMonto(fila.precio());
+        pago.setMoneda(fila.moneda());
+        pago.setMetodoPago(metodo);
+
+        SolicitudPagoDTO solicitud = new SolicitudPagoDTO();
+        solicitud.setIdSuscripcion(fila.suscripcionId());
+        solicitud.setMonto(fila.precio());
+        solicitud.setTipoPago(metodo.name());
+        solicitud.setTokenTarjetaPrueba(fila.tokenMetodo());
+
+        try {
+            RespuestaPagoDTO respuesta = ejecutorPasarela.llamar(metodo, () -> pasarela.cobrar(pago, solicitud));
+            cobro.pago = pago;
+            cobro.mensaje = respuesta.getMensaje();
+            if (Boolean.TRUE.equals(respuesta.getRequiereConfirmacion())) {
+                // Lo cierra la reconciliación de pagos pendientes o el webhook de la pasarela
+                pago.setEstado(EstadoPago.PENDIENTE);
+                cobro.resultado = "pendiente";
+            } else if (Boolean.TRUE.equals(respuesta.getExito()) && "COMPLETADO".equals(respuesta.getEstado())) {
+                pago.setEstado(EstadoPago.COMPLETADO);
+                pago.setFechaPago(LocalDateTime.now());
+                pago.setUrlComprobante(respuesta.getUrlComprobante());
+                cobro.resultado = "renovada";
+            } else {
+                pago.setEstado(EstadoPago.FALLIDO);
+                cobro.resultado = "rechazada";
+            }
+        } catch (PasarelaNoDisponibleException e) {
+            pasarelaCaida.set(true);
+            throw e;
+        } catch (CobroNoRealizadoException e) {
+            // La pasarela no creó el cobro: la cobranza lo reintenta
+            cobro.mensaje = e.getMessage();
+            cobro.resultado = "error";
+        } catch (RuntimeException e) {
+            // Error de comunicación: la pasarela pudo haber cobrado. El pago queda PENDIENTE para
+            // que lo cierre la reconciliación, y la cobranza reintenta si no se confirma
+            log.warn("Error cobrando la renovación de la suscripción {}: {}", fila.suscripcionId(), e.getMessage());
+            pago.setEstado(EstadoPago.PENDIENTE);
+            cobro.pago = pago;
+            cobro.mensaje = e.getMessage();
+            cobro.resultado = "error";
+        }
+        contar(cobro.resultado);
+        return cobro;
+    }
+
+    /**
+     * Guarda una página dentro de la transacción actual: renueva los periodos, registra
+     * los pagos y los logs en batch, y avanza el punto de control de la partición.
+     */
+    private void guardarPagina(String puntoId, String ultimoId, boolean terminada, ResultadoPagina pagina) {
+        LocalDateTime ahora = LocalDateTime.now();
+        Timestamp fechaAhora = Timestamp.valueOf(ahora);
+
+        // 1. Renovar el periodo, solo si la suscripción no cambió desde que se leyó
+        List<Cobro> renovadas = pagina.cobros.stream().filter(c -> c.resultado.equals("renovada")).toList();
+        int[][] actualizadas = jdbcTemplate.batchUpdate(
+                "UPDATE suscripciones_usuarios SET inicio_periodo_actual = ?, fin_periodo_actual = ?, " +
+                "version = version + 1, fecha_actualizacion = ? " +
+                "WHERE id = ? AND estado = 'ACTIVA' AND fin_periodo_actual = ?",
+                renovadas, Math.max(1, renovadas.size()), (ps, cobro) -> {
+                    Vencimiento fila = cobro.fila;
+                    ps.setTimestamp(1, Timestamp.valueOf(fila.finPeriodo()));
+                    ps.setTimestamp(2, Timestamp.valueOf(fila.siguienteFin()));
+                    ps.setTimestamp(3, fechaAhora);
+                    ps.setString(4, fila.suscripcionId());
+                    ps.setTimestamp(5, Timestamp.valueOf(fila.finPeriodo()));
+                });
+        // Las que se cancelaron o cambiaron mientras se cobraban: el pago queda EN_REVISION para
+        // reembolsarlo, no se factura y no se anuncia ningún cambio de derechos
+        int[] filasActualizadas = Arrays.stream(actualizadas).flatMapToInt(Arrays::stream).toArray();
+        List<Cobro> renovadasDeVerdad = new ArrayList<>(renovadas.size());
+        for (int i = 0; i < renovadas.size(); i++) {
+            Cobro cobro = renovadas.get(i);
+            if (filasActualizadas[i] == 0) {
+                log.warn("Suscripción {} cobrada (pago {}) pero cambió antes de renovarse; pago en revisión",
+                        cobro.fila.suscripcionId(), cobro.pago.getId());
+                cobro.pago.setEstado(EstadoPago.EN_REVISION);
+                cobro.resultado = "revision";
+                pagina.pasarARevision();
+                contar(cobro.resultado);
+            } else {
+                renovadasDeVerdad.add(cobro);
+            }
+        }
+
+        // 2. Pagos de los cobros que llegaron a la pasarela
+        List<Cobro> conPago = pagina.cobros.stream().filter(c -> c.pago != null).toList();
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO pagos (id, suscripcion_id, usuario_id, monto, moneda, metodo_pago, estado, " +
+                "id_intento_pago_stripe, fecha_pago, url_comprobante, fecha_creacion) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                conPago, Math.max(1, conPago.size()), (ps, cobro) -> {
+                    Pago pago = cobro.pago;
+                    ps.setString(1, pago.getId());
+                    ps.setString(2, cobro.fila.suscripcionId());
+                    ps.setString(3, pago.getUsuarioId());
+                    ps.setBigDecimal(4, pago.getMonto());
+                    ps.setString(5, pago.getMoneda());
+                    ps.setString(6, pago.getMetodoPago().name());
+                    ps.setString(7, pago.getEstado().name());
+                    ps.setString(8, pago.getIdIntentoPagoStripe());
+                    ps.setTimestamp(9, pago.getFechaPago() != null ? Timestamp.valueOf(pago.getFechaPago()) : null);
+                    ps.setString(10, pago.getUrlComprobante());
+                    ps.setTimestamp(11, fechaAhora);
+                });
+        // Los cobrados se facturan en segundo plano
+        colaFacturacion.encolar(conPago.stream()
+                .filter(cobro -> cobro.pago.getEstado() == EstadoPago.COMPLETADO)
+                .map(cobro -> cobro.pago.getId())
+                .toList());
+
+        // 3. Logs de auditoría
+        List<Cobro> conLog = pagina.cobros;
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO logs_suscripciones (suscripcion_id, usuario_id, accion, estado_anterior, " +
+                "estado_nuevo, descripcion, realizado_por, fecha_creacion) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                conLog, Math.max(1, conLog.size()), (ps, cobro) -> {
+                    boolean renovada = cobro.resultado.equals("renovada");
+                    ps.setString(1, cobro.fila.suscripcionId());
+                    ps.setString(2, cobro.fila.usuarioId());
+                    ps.setString(3, (renovada ? AccionLog.RENOVACION
+                            : cobro.resultado.equals("pendiente") || cobro.resultado.equals("error")
+                            || cobro.resultado.equals("revision")
+                            ? AccionLog.CAMBIO_ESTADO : AccionLog.PAGO_FALLIDO).name());
+                    ps.setString(4, EstadoSuscripcion.ACTIVA.name());
+                    ps.setString(5, EstadoSuscripcion.ACTIVA.name());
+                    ps.setString(6, renovada
+                            ? "Suscripción renovada hasta " + cobro.fila.siguienteFin()
+                            : cobro.resultado.equals("revision")
+                            ? "Renovación cobrada pero la suscripción cambió antes de renovarse; pago en revisión"
+                            : "Renovación: " + cobro.mensaje);
+                    ps.setString(7, "sistema");
+                    ps.setTimestamp(8, fechaAhora);
+                });
+
+        // 4. Cobranza de las que no se pudieron cobrar (se reintenta según el motivo del fallo).
+        // Un error de la pasarela no dice nada de la tarjeta: se reintenta como ERROR_PASARELA
+        cobranzaServicio.programar(pagina.cobros.stream()
+                .filter(c -> c.resultado.equals("rechazada") || c.resultado.equals("sin_metodo")
+                        || c.resultado.equals("error"))
+                .map(c -> new CobranzaServicio.FalloPago(c.pago != null ? c.pago.getId() : null,
+                        c.fila.suscripcionId(), c.fila.usuarioId(), c.fila.precio(), c.fila.moneda(), c.mensaje,
+                        c.resultado.equals("error") ? MotivoFalloPago.ERROR_PASARELA : null))
+                .toList());
+
+        // 5. Punto de control; si otro nodo tomó la partición, se deshace la página completa
+        int avanzado = jdbcTemplate.update(
+                "UPDATE puntos_control_renovacion SET ultimo_id = ?, procesadas = procesadas + ?, " +
+                "renovadas = renovadas + ?, pendientes = pendientes + ?, fallidas = fallidas + ?, " +
+                "terminada = ?, fecha_actualizacion = ?, " +
+                "reserva_nodo = CASE WHEN ? THEN NULL ELSE reserva_nodo END, " +
+                "reserva_hasta = CASE WHEN ? THEN NULL ELSE reserva_hasta END " +
+                "WHERE id = ? AND reserva_nodo = ?",
+                // Las que quedaron en revisión cuentan como fallidas en el punto de control
+                ultimoId, pagina.procesadas, pagina.renovadas, pagina.pendientes, pagina.fallidas + pagina.enRevision,
+                terminada, fechaAhora, terminada, terminada, puntoId, nodo);
+        if (avanzado == 0) {
+            throw new OptimisticLockingFailureException("La partición " + puntoId + " ya no está reservada por este nodo");
+        }
+
+        // 6. Avisar del cambio (los listeners se ejecutan después del commit)
+        for (Cobro cobro : renovadasDeVerdad) {
+            eventPublisher.publishEvent(new CambioSuscripcionEvento(
+                    cobro.fila.usuarioId(),
+                    cobro.fila.suscripcionId(),
+                    cobro.fila.plan(),
+                    EstadoSuscripcion.ACTIVA,
+                    cobro.fila.siguienteFin()));
+        }
+    }
+
+    private void contar(String resultado) {
+        Counter.builder("renovaciones.resultados")
+                .description("Suscripciones procesadas por el cobro de renovaciones, por resultado")
+                .tag("resultado", resultado)
+                .register(registry)
+                .increment();
+    }
+
+    @PreDestroy
+    public void cerrar() throws InterruptedException {
+        ejecutorCoordinador.shutdownNow();
+        ejecutorParticiones.shutdownNow();
+        ejecutorCobros.shutdown();
+        if (!ejecutorCobros.awaitTermination(30, TimeUnit.SECONDS)) {
+            // La página en curso no se guardó; se retoma desde el último punto de control
+            log.warn("Cobros de renovación sin terminar al detener la aplicación");
+        }
+    }
+
+    private static ThreadFactory fabricaHilos(String prefijo) {
+        AtomicInteger contador = new AtomicInteger();
+        return r -> {
+            Thread hilo = new Thread(r, prefijo + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        };
+    }
+
+    /**
+     * Suscripción por renovar, con su plan y su método de pago predeterminado (si tiene).
+     */
+    private record Vencimiento(String suscripcionId, String usuarioId, LocalDateTime finPeriodo,
+                               String plan, BigDecimal precio, String moneda,
+                               String tipoMetodo, String tokenMetodo) {
+
+        LocalDateTime siguienteFin() {
+            return finPeriodo.plusMonths(1);
+        }
+
+        /**
+         * ID del pago de la renovación de este periodo. Es el mismo cada vez que se intenta
+         * cobrar el periodo, así que la pasarela (clave de idempotencia) no cobra dos veces
+         * si la página se repite después de una interrupción.
+         */
+        String idPago() {
+            String clave = "renovacion:" + suscripcionId + ":" + finPeriodo;
+            return UUID.nameUUIDFromBytes(clave.getBytes(StandardCharsets.UTF_8)).toString();
+        }
+    }
+
+    /**
+     * Resultado del cobro de una suscripción.
+     */
+    private static final class Cobro {
+        final Vencimiento fila;
+        Pago pago;
+        String resultado;
+        String mensaje;
+
+        Cobro(Vencimiento fila) {
+            this.fila = fila;
+        }
+    }
+
+    /**
+     * Totales de una página o de una partición.
+     */
+    private static final class ResultadoPagina {
+        final List<Cobro> cobros = new ArrayList<>();
+        int procesadas;
+        int renovadas;
+        int pendientes;
+        int fallidas;
+        int enRevision;
+
+        void agregar(Cobro cobro) {
+            cobros.add(cobro);
+            procesadas++;
+            switch (cobro.resultado) {
+                case "renovada" -> renovadas++;
+                case "pendiente" -> pendientes++;
+                default -> fallidas++;
+            }
+        }
+
+        // Una renovada cuya suscripción cambió antes de renovarse
+        void pasarARevision() {
+            renovadas--;
+            enRevision++;
+        }
+
+        void sumar(ResultadoPagina otro) {
+            procesadas += otro.procesadas;
+            renovadas += otro.renovadas;
+            pendientes += otro.pendientes;
+            fallidas += otro.fallidas;
+            enRevision += otro.enRevision;
+        }
+    }
+}
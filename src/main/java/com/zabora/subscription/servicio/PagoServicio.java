@@ -1,10 +1,11 @@
 package com.zabora.subscription.servicio;
 
-import com.stripe.exception.StripeException;
-import com.stripe.model.PaymentIntent;
-import com.stripe.param.PaymentIntentCreateParams;
+import com.zabora.subscription.excepcion.CobroNoRealizadoException;
 import com.zabora.subscription.excepcion.PagoException;
+import com.zabora.subscription.excepcion.PasarelaNoDisponibleException;
 import com.zabora.subscription.excepcion.RecursoNoEncontradoException;
+import com.zabora.subscription.modelo.dto.HistorialPagoDTO;
+import com.zabora.subscription.modelo.dto.MetodoPagoDTO;
 import com.zabora.subscription.modelo.dto.RespuestaPagoDTO;
 import com.zabora.subscription.modelo.dto.SolicitudPagoDTO;
 import com.zabora.subscription.modelo.entidad.LogSuscripcion;
@@ -15,21 +16,32 @@ import com.zabora.subscription.modelo.enumeracion.AccionLog;
 import com.zabora.subscription.modelo.enumeracion.EstadoPago;
 import com.zabora.subscription.modelo.enumeracion.TipoCuentaBanco;
 import com.zabora.subscription.modelo.enumeracion.TipoMetodoPago;
+import com.zabora.subscription.pasarela.PasarelaPago;
 import com.zabora.subscription.repositorio.LogSuscripcionRepository;
 import com.zabora.subscription.repositorio.MetodoPagoRepository;
 import com.zabora.subscription.repositorio.PagoRepository;
 import com.zabora.subscription.repositorio.UsuarioSuscripcionRepository;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.support.RetryTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class PagoServicio {
 
@@ -38,24 +50,104 @@ public class PagoServicio {
     private final UsuarioSuscripcionRepository suscripcionRepository;
     private final LogSuscripcionRepository logRepository;
     private final SuscripcionServicio suscripcionServicio;
+    private final CobranzaServicio cobranzaServicio;
+    private final ColaFacturacion colaFacturacion;
+    private final EjecutorPasarela ejecutorPasarela;
+    private final PasarelaPago pasarela;
+    private final TransactionTemplate transactionTemplate;
+    private final RetryTemplate reintentosConcurrencia;
+    private final MeterRegistry registry;
+
+    // Tiempo máximo que la petición espera a la pasarela; después se responde con el pago en proceso
+    @Value("${app.pagos.pasarela.timeout-ms:30000}")
+    private long timeoutPasarelaMs;
+
+    public PagoServicio(PagoRepository pagoRepository,
+                        MetodoPagoRepository metodoPagoRepository,
+                        UsuarioSuscripcionRepository suscripcionRepository,
+                        LogSuscripcionRepository logRepository,
+                        SuscripcionServicio suscripcionServicio,
+                        CobranzaServicio cobranzaServicio,
+                        ColaFacturacion colaFacturacion,
+                        EjecutorPasarela ejecutorPasarela,
+                        PasarelaPago pasarela,
+                        PlatformTransactionManager transactionManager,
+                        RetryTemplate reintentosConcurrencia,
+                        MeterRegistry registry) {
+        this.pagoRepository = pagoRepository;
+        this.metodoPagoRepository = metodoPagoRepository;
+        this.suscripcionRepository = suscripcionRepository;
+        this.logRepository = logRepository;
+        this.suscripcionServicio = suscripcionServicio;
+        this.cobranzaServicio = cobranzaServicio;
+        this.colaFacturacion = colaFacturacion;
+        this.ejecutorPasarela = ejecutorPasarela;
+        this.pasarela = pasarela;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.reintentosConcurrencia = reintentosConcurrencia;
+        this.registry = registry;
+    }
 
     /**
      * EXPLICACIÓN:
      * Es como pagar tu suscripción de Spotify con tu tarjeta.
-     * 1. Verificas que la suscripción existe
-     * 2. Procesas el pago (simulado o real con Stripe)
+     * 1. Verificas que la suscripción existe y guardas el pago como PENDIENTE
+     * 2. Procesas el pago con la pasarela configurada (simulador o Stripe)
      * 3. Si el pago es exitoso, activas la suscripción
      * 4. Guardas el recibo (comprobante)
+     *
+     * Los pasos 1 y 3-4 son dos transacciones cortas. El paso 2 corre en los hilos
+     * de la pasarela sin ninguna transacción abierta, para que una pasarela lenta
+     * no deje al pool de conexiones sin conexiones libres.
+     * Si la pasarela tarda más que app.pagos.pasarela.timeout-ms se responde con el
+     * pago PENDIENTE; el pago se cierra igual cuando la pasarela responda. También queda
+     * PENDIENTE si la llamada falla sin que se sepa si hubo cobro (lo cierra la reconciliación).
+     * Si la pasarela de este método de pago está fallando o saturada, se responde
+     * PasarelaNoDisponibleException de inmediato, sin esperar a la pasarela.
      */
-    @Transactional
     public RespuestaPagoDTO procesarPago(SolicitudPagoDTO solicitud) {
         log.info("Procesando pago para suscripción: {}", solicitud.getIdSuscripcion());
+        TipoMetodoPago metodo = TipoMetodoPago.valueOf(solicitud.getTipoPago().toUpperCase());
+
+        // Si ya se sabe que no se puede cobrar, se rechaza antes de tocar la base de datos
+        ejecutorPasarela.verificarDisponible(metodo);
+
+        // 1. Transacción corta: registrar el pago como PENDIENTE
+        Pago pago = transactionTemplate.execute(estado -> registrarPagoPendiente(solicitud));
 
-        // 1. Verificar que la suscripción existe
+        // 2. Llamada a la pasarela fuera de transacción, y 3. cierre del pago en otra transacción
+        CompletableFuture<RespuestaPagoDTO> resultado;
+        try {
+            resultado = ejecutorPasarela
+                    .ejecutar(metodo, () -> llamarPasarela(pago, solicitud))
+                    .handle((respuesta, error) -> finalizarPago(pago, respuesta, error));
+        } catch (PasarelaNoDisponibleException e) {
+            // La pasarela no se llegó a llamar: no hubo cobro
+            marcarEstado(pago.getId(), EstadoPago.CANCELADO);
+            throw e;
+        }
+
+        try {
+            return resultado.get(timeoutPasarelaMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("La pasarela no respondió en {} ms para el pago {}", timeoutPasarelaMs, pago.getId());
+            return respuestaPagoEnProceso(pago);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PagoException("Procesamiento del pago interrumpido");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw new PagoException("Error al procesar el pago: " + e.getCause().getMessage());
+        }
+    }
+
+    private Pago registrarPagoPendiente(SolicitudPagoDTO solicitud) {
+        // Verificar que la suscripción existe
         UsuarioSuscripcion suscripcion = suscripcionRepository.findById(solicitud.getIdSuscripcion())
                 .orElseThrow(() -> new RecursoNoEncontradoException("Suscripción no encontrada"));
 
-        // 2. Crear registro de pago
         Pago pago = new Pago();
         pago.setId(UUID.randomUUID().toString());
         pago.setSuscripcion(suscripcion);
@@ -65,180 +157,202 @@ public class PagoServicio {
         pago.setMetodoPago(TipoMetodoPago.valueOf(solicitud.getTipoPago().toUpperCase()));
         pago.setEstado(EstadoPago.PENDIENTE);
 
+        pagoRepository.save(pago);
+        return pago;
+    }
+
+    private RespuestaPagoDTO llamarPasarela(Pago pago, SolicitudPagoDTO solicitud) {
+        long inicio = System.nanoTime();
+        String resultado = "error";
         try {
-            RespuestaPagoDTO respuesta;
-
-            // 3. Procesar según el modo (prueba o producción)
-            if (solicitud.getTokenTarjetaPrueba() != null) {
-                // Modo de prueba con diferentes escenarios
-                respuesta = procesarPagoPrueba(pago, solicitud);
-            } else {
-                // Modo simulado para desarrollo (sin Stripe real)
-                respuesta = procesarPagoSimulado(pago, solicitud);
+            RespuestaPagoDTO respuesta = pasarela.cobrar(pago, solicitud);
+            resultado = respuesta.getEstado();
+            return respuesta;
+        } finally {
+            Timer.builder("pagos.pasarela.latencia")
+                    .description("Duración de los cobros en la pasarela de pagos")
+                    .tag("pasarela", pasarela.nombre())
+                    .tag("resultado", resultado)
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Cierra el pago con la respuesta de la pasarela. Se ejecuta en el hilo de la pasarela.
+     *
+     * Solo un rechazo de la pasarela deja el pago FALLIDO. Si la llamada falló (red, tiempo
+     * agotado) o no se pudo cerrar el pago, la pasarela pudo haber cobrado: el pago queda
+     * PENDIENTE y ReconciliadorPagosPendientes lo cierra con lo que diga la pasarela.
+     */
+    private RespuestaPagoDTO finalizarPago(Pago pago, RespuestaPagoDTO respuesta, Throwable error) {
+        if (error != null) {
+            Throwable causa = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            if (causa instanceof CobroNoRealizadoException || causa instanceof PasarelaNoDisponibleException) {
+                // Se sabe que no hubo cargo
+                log.warn("Pago {} no cobrado: {}", pago.getId(), causa.getMessage());
+                marcarEstado(pago.getId(), EstadoPago.CANCELADO);
+                throw (RuntimeException) causa;
             }
+            log.error("Error procesando pago {}, queda pendiente de reconciliar: {}",
+                    pago.getId(), causa.getMessage(), causa);
+            guardarIntento(pago);
+            return respuestaPagoEnProceso(pago);
+        }
 
-            // 4. Si el pago fue exitoso, activar suscripción
-            if (respuesta.getExito() && "COMPLETADO".equals(respuesta.getEstado())) {
-                pago.setEstado(EstadoPago.COMPLETADO);
-                pago.setFechaPago(LocalDateTime.now());
+        // Antes de cerrar, para que el webhook y la reconciliación encuentren el pago aunque el cierre falle
+        guardarIntento(pago);
+        try {
+            // Si la suscripción cambió mientras se cerraba el pago (@Version), se repite la transacción completa
+            return reintentosConcurrencia.execute(contexto -> {
+                contexto.setAttribute(RetryContext.NAME, "cerrar_pago");
+                return transactionTemplate.execute(estado -> cerrarPago(pago, respuesta));
+            });
+        } catch (RuntimeException e) {
+            log.error("Error cerrando pago {}, queda pendiente de reconciliar: {}", pago.getId(), e.getMessage(), e);
+            return respuestaPagoEnProceso(pago);
+        }
+    }
 
-                // Activar suscripción premium
-                suscripcionServicio.activarSuscripcionPremium(
-                        suscripcion.getId(),
-                        "stripe_sub_" + System.currentTimeMillis()
-                );
+    /**
+     * Guarda el ID del intento de pago que asignó la pasarela, en su propia transacción.
+     */
+    private void guardarIntento(Pago pago) {
+        if (pago.getIdIntentoPagoStripe() == null) {
+            return;
+        }
+        try {
+            pagoRepository.guardarIntento(pago.getId(), pago.getIdIntentoPagoStripe());
+        } catch (RuntimeException e) {
+            // La reconciliación lo busca en la pasarela por el ID del pago
+            log.error("No se pudo guardar el intento {} del pago {}: {}",
+                    pago.getIdIntentoPagoStripe(), pago.getId(), e.getMessage());
+        }
+    }
 
-                // Registrar log de pago exitoso
-                registrarLogPago(suscripcion.getId(), suscripcion.getUsuarioId(),
-                        AccionLog.PAGO_EXITOSO, "Pago completado exitosamente");
+    private RespuestaPagoDTO cerrarPago(Pago pago, RespuestaPagoDTO respuesta) {
+        Pago registrado = pagoRepository.findById(pago.getId())
+                .orElseThrow(() -> new RecursoNoEncontradoException("Pago no encontrado: " + pago.getId()));
+        UsuarioSuscripcion suscripcion = registrado.getSuscripcion();
 
-            } else {
-                pago.setEstado(EstadoPago.FALLIDO);
+        if (registrado.getEstado() != EstadoPago.PENDIENTE) {
+            // La pasarela tardó y el pago ya lo cerró un webhook o la reconciliación
+            log.info("Pago {} ya estaba cerrado como {}", registrado.getId(), registrado.getEstado());
+            respuesta.setIdPago(registrado.getId());
+            return respuesta;
+        }
+        registrado.setIdIntentoPagoStripe(pago.getIdIntentoPagoStripe());
 
-                // Registrar log de pago fallido
-                registrarLogPago(suscripcion.getId(), suscripcion.getUsuarioId(),
-                        AccionLog.PAGO_FALLIDO, "Pago rechazado: " + respuesta.getMensaje());
-            }
+        if (Boolean.TRUE.equals(respuesta.getRequiereConfirmacion())) {
+            // PSE o 3D Secure: el pago sigue PENDIENTE hasta que la pasarela lo confirme
+            registrarLogPago(suscripcion.getId(), suscripcion.getUsuarioId(),
+                    AccionLog.CAMBIO_ESTADO, "Pago pendiente de confirmación: " + respuesta.getMensaje());
 
-            // 5. Guardar registro de pago
-            pagoRepository.save(pago);
+        } else if (respuesta.getExito() && "COMPLETADO".equals(respuesta.getEstado())) {
+            // Si el pago fue exitoso, activar suscripción
+            registrado.setEstado(EstadoPago.COMPLETADO);
+            registrado.setFechaPago(LocalDateTime.now());
 
-            // 6. Actualizar respuesta con ID de pago
-            respuesta.setIdPago(pago.getId());
+            // Activar suscripción premium
+            suscripcionServicio.activarSuscripcionPremium(
+                    suscripcion.getId(),
+                    "stripe_sub_" + System.currentTimeMillis()
+            );
 
-            log.info("Pago procesado: {} - Estado: {}", pago.getId(), pago.getEstado());
+            // Registrar log de pago exitoso
+            registrarLogPago(suscripcion.getId(), suscripcion.getUsuarioId(),
+                    AccionLog.PAGO_EXITOSO, "Pago completado exitosamente");
 
-            return respuesta;
+            // La factura se genera en segundo plano, fuera de la respuesta del pago
+            colaFacturacion.encolar(List.of(registrado.getId()));
+
+        } else {
+            registrado.setEstado(EstadoPago.FALLIDO);
 
-        } catch (Exception e) {
-            log.error("Error procesando pago: {}", e.getMessage(), e);
+            // Registrar log de pago fallido
+            registrarLogPago(suscripcion.getId(), suscripcion.getUsuarioId(),
+                    AccionLog.PAGO_FALLIDO, "Pago rechazado: " + respuesta.getMensaje());
 
-            pago.setEstado(EstadoPago.FALLIDO);
-            pagoRepository.save(pago);
+            // Reintentar el cobro con el método de pago predeterminado
+            cobranzaServicio.programar(List.of(CobranzaServicio.FalloPago.de(registrado, respuesta.getMensaje())));
+        }
+
+        // Guardar registro de pago
+        pagoRepository.save(registrado);
+
+        // Actualizar respuesta con ID de pago
+        respuesta.setIdPago(registrado.getId());
+
+        log.info("Pago procesado: {} - Estado: {}", registrado.getId(), registrado.getEstado());
 
-            throw new PagoException("Error al procesar el pago: " + e.getMessage());
+        return respuesta;
+    }
+
+    private void marcarEstado(String pagoId, EstadoPago estadoPago) {
+        try {
+            transactionTemplate.executeWithoutResult(estado ->
+                    pagoRepository.findById(pagoId).ifPresent(pago -> {
+                        pago.setEstado(estadoPago);
+                        pagoRepository.save(pago);
+                    }));
+        } catch (RuntimeException e) {
+            log.error("No se pudo marcar como {} el pago {}: {}", estadoPago, pagoId, e.getMessage());
         }
     }
 
     /**
-     * Procesar pago en modo PRUEBA
-     * Simula diferentes escenarios según el token
+     * Respuesta vigente de un pago que se repite con la misma Idempotency-Key.
+     * Si la guardada era "en proceso" (PENDIENTE) y el pago ya se cerró, se arma con su
+     * estado actual; si no, se devuelve la misma.
      */
-    private RespuestaPagoDTO procesarPagoPrueba(Pago pago, SolicitudPagoDTO solicitud) {
-        log.info("Procesando pago de prueba con token: {}", solicitud.getTokenTarjetaPrueba());
-
-        String token = solicitud.getTokenTarjetaPrueba();
-        boolean exito;
-        String estado;
-        String mensaje;
-
-        // Simular diferentes escenarios
-        if (token.contains("fail") || token.contains("decline")) {
-            exito = false;
-            estado = "FALLIDO";
-            mensaje = "Pago rechazado - Tarjeta declinada";
-
-        } else if (token.contains("insufficient")) {
-            exito = false;
-            estado = "FALLIDO";
-            mensaje = "Pago rechazado - Fondos insuficientes";
-
-        } else if (token.contains("expired")) {
-            exito = false;
-            estado = "FALLIDO";
-            mensaje = "Pago rechazado - Tarjeta expirada";
-
-        } else if (token.contains("3ds") || token.contains("authentication")) {
-            exito = false;
-            estado = "REQUIERE_AUTENTICACION";
-            mensaje = "Requiere autenticación 3D Secure";
-
-        } else {
-            // Token válido - pago exitoso
-            exito = true;
-            estado = "COMPLETADO";
-            mensaje = "Pago procesado exitosamente";
+    public RespuestaPagoDTO respuestaVigente(RespuestaPagoDTO guardada) {
+        if (!EstadoPago.PENDIENTE.name().equals(guardada.getEstado()) || guardada.getIdPago() == null) {
+            return guardada;
         }
+        return pagoRepository.findById(guardada.getIdPago())
+                .filter(pago -> pago.getEstado() != EstadoPago.PENDIENTE)
+                .map(this::respuestaPagoCerrado)
+                .orElse(guardada);
+    }
 
-        String intentId = "pi_test_" + System.currentTimeMillis();
-        pago.setIdIntentoPagoStripe(intentId);
-
+    private RespuestaPagoDTO respuestaPagoCerrado(Pago pago) {
         return RespuestaPagoDTO.builder()
-                .exito(exito)
-                .mensaje(mensaje)
+                .exito(pago.getEstado() == EstadoPago.COMPLETADO)
+                .mensaje(switch (pago.getEstado()) {
+                    case COMPLETADO -> "Pago completado exitosamente";
+                    case FALLIDO -> "Pago rechazado";
+                    case REEMBOLSADO -> "Pago reembolsado";
+                    default -> "El pago no se realizó";
+                })
                 .idPago(pago.getId())
-                .estado(estado)
-                .monto(solicitud.getMonto())
-                .moneda("COP")
-                .fechaPago(exito ? LocalDateTime.now() : null)
-                .urlComprobante(exito ? "https://receipt.stripe.com/test/" + intentId : null)
-                .requiereConfirmacion(estado.equals("REQUIERE_AUTENTICACION"))
+                .estado(pago.getEstado().name())
+                .monto(pago.getMonto())
+                .moneda(pago.getMoneda())
+                .fechaPago(pago.getFechaPago())
+                .requiereConfirmacion(false)
                 .build();
     }
 
-    /**
-     * Procesar pago SIMULADO para desarrollo
-     * No conecta con Stripe real
-     */
-    private RespuestaPagoDTO procesarPagoSimulado(Pago pago, SolicitudPagoDTO solicitud) {
-        log.info("Procesando pago simulado para desarrollo");
-
-        String intentId = "pi_sim_" + System.currentTimeMillis();
-        pago.setIdIntentoPagoStripe(intentId);
-
-        boolean requiereConfirmacion = solicitud.getTipoPago().equals("PSE");
-        String estado = requiereConfirmacion ? "PENDIENTE" : "COMPLETADO";
-        String mensaje = requiereConfirmacion
-                ? "Pago PSE creado, requiere confirmación en el banco"
-                : "Pago con tarjeta procesado exitosamente";
-
-        Map<String, Object> detalles = new HashMap<>();
-        detalles.put("id_intent", intentId);
-        detalles.put("tipo_pago", solicitud.getTipoPago());
-        detalles.put("simulado", true);
-
+    private RespuestaPagoDTO respuestaPagoEnProceso(Pago pago) {
         return RespuestaPagoDTO.builder()
-                .exito(true)
-                .mensaje(mensaje)
+                .exito(false)
+                .mensaje("El pago se está procesando; consulta su estado más tarde")
                 .idPago(pago.getId())
-                .estado(estado)
-                .monto(solicitud.getMonto())
-                .moneda("COP")
-                .fechaPago(LocalDateTime.now())
-                .urlComprobante("https://zabora.com/receipt/" + intentId)
-                .requiereConfirmacion(requiereConfirmacion)
-                .detalles(detalles)
+                .estado(EstadoPago.PENDIENTE.name())
+                .monto(pago.getMonto())
+                .moneda(pago.getMoneda())
+                .requiereConfirmacion(false)
                 .build();
     }
 
     /**
-     * Obtener métodos de pago del usuario
+     * Obtener métodos de pago del usuario, proyectados directamente en la consulta
      */
     @Transactional(readOnly = true)
-    public List<Map<String, Object>> obtenerMetodosPago(String usuarioId) {
-        List<MetodoPago> metodos = metodoPagoRepository.findByUsuarioIdAndActivoTrue(usuarioId);
-        List<Map<String, Object>> resultado = new ArrayList<>();
-
-        for (MetodoPago metodo : metodos) {
-            Map<String, Object> item = new HashMap<>();
-            item.put("id", metodo.getId());
-            item.put("tipo", metodo.getTipo().name());
-            item.put("predeterminado", metodo.getPredeterminado());
-
-            if (metodo.getTipo() == TipoMetodoPago.TARJETA_CREDITO) {
-                item.put("ultimos_cuatro", metodo.getUltimosCuatro());
-                item.put("marca", metodo.getMarca());
-                item.put("expira_mes", metodo.getExpiraMes());
-                item.put("expira_anio", metodo.getExpiraAnio());
-            } else {
-                item.put("banco", metodo.getBanco());
-                item.put("tipo_cuenta", metodo.getTipoCuenta());
-            }
-
-            resultado.add(item);
-        }
-
-        return resultado;
+    public List<MetodoPagoDTO> obtenerMetodosPago(String usuarioId) {
+        return metodoPagoRepository.buscarActivos(usuarioId);
     }
 
     /**
@@ -305,11 +419,11 @@ public class PagoServicio {
     }
 
     /**
-     * Obtener historial de pagos
+     * Obtener historial de pagos (una sola consulta, con el nombre del plan)
      */
     @Transactional(readOnly = true)
-    public List<Pago> obtenerHistorialPagos(String usuarioId) {
-        return pagoRepository.findByUsuarioIdOrderByFechaCreacionDesc(usuarioId);
+    public List<HistorialPagoDTO> obtenerHistorialPagos(String usuarioId) {
+        return pagoRepository.buscarHistorial(usuarioId);
     }
 
     // ========== MÉTODOS AUXILIARES ==========
@@ -0,0 +1,275 @@
+package com.zabora.subscription.servicio;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zabora.subscription.excepcion.RecursoNoEncontradoException;
+import com.zabora.subscription.modelo.entidad.PlanSuscripcion;
+import com.zabora.subscription.repositorio.PlanSuscripcionRepository;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Catálogo en memoria de los planes de suscripción.
+ *
+ * Los planes casi nunca cambian, así que se cargan una vez y se guardan en una
+ * instantánea inmutable: cada plan con su mapa de límites ya calculado y su JSON
+ * ya serializado. Cuando los planes cambian en la base de datos, la instantánea
+ * completa se reemplaza de forma atómica.
+ *
+ * Las entidades guardadas aquí están separadas de la sesión de JPA y se comparten
+ * entre hilos: no se deben modificar.
+ *
+ * Un nombre de plan desconocido vuelve a consultar la base de datos a lo sumo una vez cada
+ * app.planes.intervalo-minimo-recarga-ms, y solo se recarga si los planes cambiaron.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PlanCatalog {
+
+    private final PlanSuscripcionRepository planRepository;
+    private final ObjectMapper objectMapper;
+
+    private final AtomicReference<Instantanea> actual = new AtomicReference<>();
+
+    // Última vez que un nombre desconocido hizo revisar la base de datos
+    private final AtomicLong ultimaRevisionPorFalloMs = new AtomicLong();
+
+    // Mínimo entre revisiones por nombres desconocidos, para que nombres inventados no
+    // consulten la base de datos en cada petición
+    @Value("${app.planes.intervalo-minimo-recarga-ms:10000}")
+    private long intervaloMinimoRecargaMs;
+
+    /**
+     * Carga el catálogo cuando la aplicación terminó de iniciar
+     * (después de que DataInitializer crea los planes).
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargarAlIniciar() {
+        recargar();
+    }
+
+    /**
+     * Revisa periódicamente si los planes cambiaron en la base de datos
+     * (por ejemplo desde otra instancia) y recarga el catálogo si es así.
+     */
+    @Scheduled(fixedDelayString = "${app.planes.intervalo-refresco-ms:300000}",
+               initialDelayString = "${app.planes.intervalo-refresco-ms:300000}")
+    public void refrescarSiCambio() {
+        Instantanea instantanea = actual.get();
+        if (instantanea == null || !instantanea.firma.equals(calcularFirma(planRepository.findAll()))) {
+            recargar();
+        }
+    }
+
+    /**
+     * Vuelve a leer todos los planes y reemplaza la instantánea de forma atómica.
+     * Si los planes no cambiaron, se conserva la instantánea (y su versión).
+     */
+    public synchronized void recargar() {
+        List<PlanSuscripcion> planes = planRepository.findAll();
+        String contenido = serializar(planes);
+        Instantanea anterior = actual.get();
+        if (anterior != null && anterior.contenido.equals(contenido)) {
+            log.debug("Catálogo de planes sin cambios (versión {})", anterior.version);
+            return;
+        }
+
+        Map<String, EntradaPlan> porNombre = new HashMap<>();
+        Map<Long, EntradaPlan> porId = new HashMap<>();
+        List<PlanSuscripcion> activos = new ArrayList<>();
+
+        for (PlanSuscripcion plan : planes) {
+            Map<String, Object> limites = calcularLimites(plan);
+            EntradaPlan entrada = new EntradaPlan(plan, limites);
+            porNombre.put(plan.getNombre().toLowerCase(Locale.ROOT), entrada);
+            porId.put(plan.getId(), entrada);
+            if (Boolean.TRUE.equals(plan.getActivo())) {
+                activos.add(plan);
+            }
+        }
+
+        long version = anterior != null ? anterior.version + 1 : 1;
+        actual.set(new Instantanea(
+            Map.copyOf(porNombre),
+            Map.copyOf(porId),
+            List.copyOf(activos),
+            serializar(activos),
+            calcularFirma(planes),
+            contenido,
+            version));
+
+        log.info("Catálogo de planes cargado: {} planes (versión {})", planes.size(), version);
+    }
+
+    /**
+     * Busca un plan por nombre (sin distinguir mayúsculas).
+     */
+    public Optional<EntradaPlan> buscar(String nombre) {
+        if (nombre == null) {
+            return Optional.empty();
+        }
+        String clave = nombre.toLowerCase(Locale.ROOT);
+        EntradaPlan entrada = instantanea().porNombre.get(clave);
+        if (entrada == null && tocaRevisarPorFallo()) {
+            // Puede que el plan se haya creado después de la última carga
+            refrescarSiCambio();
+            entrada = actual.get().porNombre.get(clave);
+        }
+        return Optional.ofNullable(entrada);
+    }
+
+    /**
+     * Retorna el plan gratuito, que se usa cuando el usuario no tiene suscripción activa.
+     */
+    public EntradaPlan gratuito() {
+        return buscar("gratuito")
+            .orElseThrow(() -> new RecursoNoEncontradoException("Plan gratuito no encontrado"));
+    }
+
+    /**
+     * Límites precalculados del plan. El mapa es inmutable.
+     */
+    public Map<String, Object> limites(PlanSuscripcion plan) {
+        EntradaPlan entrada = instantanea().porId.get(plan.getId());
+        return entrada != null ? entrada.getLimites() : calcularLimites(plan);
+    }
+
+    /**
+     * Planes activos, en el orden en que están en la base de datos.
+     */
+    public List<PlanSuscripcion> planesActivos() {
+        return instantanea().activos;
+    }
+
+    /**
+     * JSON ya serializado de los planes activos.
+     */
+    public String planesActivosJson() {
+        return instantanea().activosJson;
+    }
+
+    /**
+     * Versión del catálogo. Aumenta cada vez que cambian los planes.
+     */
+    public long version() {
+        return instantanea().version;
+    }
+
+    /**
+     * Huella del contenido de todos los planes. A diferencia de version(), que cuenta
+     * las recargas de esta instancia, es la misma en todas las instancias con los mismos planes.
+     */
+    public String huella() {
+        return Integer.toHexString(instantanea().contenido.hashCode());
+    }
+
+    // ========== MÉTODOS AUXILIARES ==========
+
+    /**
+     * true para un solo hilo por intervalo; los demás siguen con la instantánea actual sin esperar.
+     */
+    private boolean tocaRevisarPorFallo() {
+        long ahora = System.currentTimeMillis();
+        long ultima = ultimaRevisionPorFalloMs.get();
+        return ahora - ultima >= intervaloMinimoRecargaMs
+            && ultimaRevisionPorFalloMs.compareAndSet(ultima, ahora);
+    }
+
+    private Instantanea instantanea() {
+        Instantanea instantanea = actual.get();
+        if (instantanea == null) {
+            recargar();
+            instantanea = actual.get();
+        }
+        return instantanea;
+    }
+
+    private Map<String, Object> calcularLimites(PlanSuscripcion plan) {
+        // LinkedHashMap porque algunos límites son null (ilimitado), lo que Map.of no permite
+        Map<String, Object> limites = new LinkedHashMap<>();
+        limites.put("condiciones_medicas", plan.getLimiteCondicionesMedicas());
+        limites.put("alergias", plan.getLimiteAlergias());
+        limites.put("preferencias_alimentarias", plan.getLimitePreferenciasAlimentarias());
+        limites.put("ingredientes_por_busqueda", plan.getIngredientesPorBusqueda());
+        limites.put("recetas_favoritas", plan.getLimiteRecetasFavoritas());
+        return Collections.unmodifiableMap(limites);
+    }
+
+    private String serializar(Object valor) {
+        try {
+            return objectMapper.writeValueAsString(valor);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se pudo serializar el catálogo de planes", e);
+        }
+    }
+
+    /**
+     * Firma que cambia si se agrega, elimina o actualiza algún plan.
+     */
+    private String calcularFirma(List<PlanSuscripcion> planes) {
+        LocalDateTime ultimaActualizacion = planes.stream()
+            .map(PlanSuscripcion::getFechaActualizacion)
+            .filter(Objects::nonNull)
+            .max(Comparator.naturalOrder())
+            .orElse(null);
+        return planes.size() + "|" + ultimaActualizacion;
+    }
+
+    /**
+     * Datos precalculados de un plan.
+     */
+    @Getter
+    public static final class EntradaPlan {
+        // Plan tal como estaba en la base de datos al cargar el catálogo
+        private final PlanSuscripcion plan;
+        // Límites del plan (inmutable)
+        private final Map<String, Object> limites;
+
+        private EntradaPlan(PlanSuscripcion plan, Map<String, Object> limites) {
+            this.plan = plan;
+            this.limites = limites;
+        }
+
+        public String getNombre() {
+            return plan.getNombre();
+        }
+    }
+
+    /**
+     * Estado completo del catálogo en un momento dado. Nunca se modifica: se reemplaza.
+     */
+    private static final class Instantanea {
+        private final Map<String, EntradaPlan> porNombre;
+        private final Map<Long, EntradaPlan> porId;
+        private final List<PlanSuscripcion> activos;
+        private final String activosJson;
+        private final String firma;
+        // Todos los planes serializados, para saber si una recarga trajo cambios
+        private final String contenido;
+        private final long version;
+
+        private Instantanea(Map<String, EntradaPlan> porNombre, Map<Long, EntradaPlan> porId,
+                            List<PlanSuscripcion> activos, String activosJson,
+                            String firma, String contenido, long version) {
+            this.porNombre = porNombre;
+            this.porId = porId;
+            this.activos = activos;
+            this.activosJson = activosJson;
+            this.firma = firma;
+            this.contenido = contenido;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.modelo.enumeracion.MotivoFalloPago;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Cuándo y cuántas veces se reintenta un cobro fallido, según el motivo del fallo.
+ *
+ * Cada motivo tiene su propio programa de espera exponencial, configurable con
+ * app.cobranza.&lt;motivo&gt;.espera-inicial-minutos, .factor y .max-intentos
+ * (ej: app.cobranza.fondos-insuficientes.factor=2). La espera del reintento N es
+ * espera-inicial * factor^(N-1), con un ±10% aleatorio para que los cobros que
+ * fallaron juntos (ej: en la misma ejecución de renovaciones) no se reintenten juntos.
+ */
+@Component
+public class PoliticaReintentos {
+
+    private final Map<MotivoFalloPago, Programa> programas = new EnumMap<>(MotivoFalloPago.class);
+    private final Duration esperaMaxima;
+
+    public PoliticaReintentos(Environment environment,
+                              @Value("${app.cobranza.espera-maxima-horas:168}") long esperaMaximaHoras) {
+        this.esperaMaxima = Duration.ofHours(esperaMaximaHoras);
+        for (MotivoFalloPago motivo : MotivoFalloPago.values()) {
+            Programa porDefecto = programaPorDefecto(motivo);
+            String prefijo = "app.cobranza." + motivo.name().toLowerCase(Locale.ROOT).replace('_', '-') + ".";
+            programas.put(motivo, new Programa(
+                    environment.getProperty(prefijo + "espera-inicial-minutos", Long.class, porDefecto.esperaInicialMinutos()),
+                    environment.getProperty(prefijo + "factor", Double.class, porDefecto.factor()),
+                    // Al menos un reintento: sin él, la suscripción quedaría sin resolver
+                    Math.max(1, environment.getProperty(prefijo + "max-intentos", Integer.class, porDefecto.maxIntentos()))));
+        }
+    }
+
+    /**
+     * Deduce el motivo del fallo a partir del mensaje de la pasarela (simulador o Stripe).
+     */
+    public MotivoFalloPago clasificar(String mensaje) {
+        if (mensaje == null) {
+            return MotivoFalloPago.RECHAZO_GENERICO;
+        }
+        String texto = mensaje.toLowerCase(Locale.ROOT);
+        if (texto.contains("fondos insuficientes") || texto.contains("insufficient")) {
+            return MotivoFalloPago.FONDOS_INSUFICIENTES;
+        }
+        if (texto.contains("expirada") || texto.contains("expired")) {
+            return MotivoFalloPago.TARJETA_EXPIRADA;
+        }
+        if (texto.contains("autenticación") || texto.contains("3d secure") || texto.contains("authentication")) {
+            return MotivoFalloPago.AUTENTICACION_REQUERIDA;
+        }
+        if (texto.contains("método de pago predeterminado")) {
+            return MotivoFalloPago.SIN_METODO_PAGO;
+        }
+        if (texto.contains("comunicación") || texto.contains("no respondió") || texto.contains("timeout")
+                || texto.contains("no disponible") || texto.contains("saturado")) {
+            return MotivoFalloPago.ERROR_PASARELA;
+        }
+        return MotivoFalloPago.RECHAZO_GENERICO;
+    }
+
+    /**
+     * Fecha del siguiente intento, o vacío si ya se hicieron todos los reintentos del motivo.
+     *
+     * @param intentosHechos reintentos ya hechos (0 justo después del cobro original)
+     */
+    public Optional<LocalDateTime> siguienteIntento(MotivoFalloPago motivo, int intentosHechos, LocalDateTime desde) {
+        Programa programa = programas.get(motivo);
+        if (intentosHechos >= programa.maxIntentos()) {
+            return Optional.empty();
+        }
+        double minutos = programa.esperaInicialMinutos() * Math.pow(programa.factor(), intentosHechos);
+        minutos *= ThreadLocalRandom.current().nextDouble(0.9, 1.1);
+        long segundos = Math.min((long) (minutos * 60), esperaMaxima.toSeconds());
+        return Optional.of(desde.plusSeconds(segundos));
+    }
+
+    private static Programa programaPorDefecto(MotivoFalloPago motivo) {
+        return switch (motivo) {
+            // Los fondos suelen llegar con el siguiente pago de nómina: 1, 2, 4 y 7 días
+            case FONDOS_INSUFICIENTES -> new Programa(24 * 60, 2, 4);
+            // Solo sirve si el usuario cambia su tarjeta: se le da tiempo
+            case TARJETA_EXPIRADA -> new Programa(72 * 60, 1, 2);
+            case AUTENTICACION_REQUERIDA -> new Programa(24 * 60, 1, 2);
+            // Falla de la pasarela, no del usuario: reintentos rápidos
+            case ERROR_PASARELA -> new Programa(15, 2, 6);
+            case SIN_METODO_PAGO -> new Programa(48 * 60, 1, 3);
+            case RECHAZO_GENERICO -> new Programa(12 * 60, 2, 3);
+        };
+    }
+
+    private record Programa(long esperaInicialMinutos, double factor, int maxIntentos) {
+    }
+}
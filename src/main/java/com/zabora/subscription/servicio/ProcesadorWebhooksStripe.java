@@ -0,0 +1,386 @@
+package com.zabora.subscription.servicio;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zabora.subscription.modelo.entidad.EventoWebhook;
+import com.zabora.subscription.modelo.entidad.LogSuscripcion;
+import com.zabora.subscription.modelo.entidad.Pago;
+import com.zabora.subscription.modelo.enumeracion.AccionLog;
+import com.zabora.subscription.modelo.enumeracion.EstadoEventoWebhook;
+import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+import com.zabora.subscription.repositorio.EventoWebhookRepository;
+import com.zabora.subscription.repositorio.LogSuscripcionRepository;
+import com.zabora.subscription.repositorio.PagoRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Aplica en segundo plano los eventos de webhook de Stripe guardados por WebhookStripeServicio.
+ *
+ * Toma los eventos pendientes por lotes, en el orden en que Stripe los creó, y los agrupa
+ * por suscripción. Cada grupo se aplica en orden en un hilo del pool; grupos distintos
+ * van en paralelo. Un lote termina antes de tomar el siguiente, así los eventos de una
+ * misma suscripción nunca se aplican fuera de orden.
+ *
+ * Los eventos son idempotentes respecto al estado del pago: un pago COMPLETADO no
+ * vuelve a FALLIDO por un evento viejo, y la suscripción solo se activa una vez.
+ *
+ * Con varias instancias, cada lote se reserva (reserva_nodo / reserva_hasta) antes de
+ * aplicarlo, y no se toman eventos de un intento de pago que otro nodo está aplicando.
+ * El resultado de cada evento se guarda solo si el nodo sigue teniendo la reserva; si
+ * venció y otro nodo lo tomó, se deshace la transacción completa (pago, cobranza, logs).
+ */
+@Service
+@Slf4j
+public class ProcesadorWebhooksStripe {
+
+    private static final String PAGO_EXITOSO = "payment_intent.succeeded";
+    private static final String PAGO_FALLIDO = "payment_intent.payment_failed";
+    private static final String PAGO_CANCELADO = "payment_intent.canceled";
+    private static final String CARGO_REEMBOLSADO = "charge.refunded";
+
+    private final EventoWebhookRepository eventoRepository;
+    private final PagoRepository pagoRepository;
+    private final LogSuscripcionRepository logRepository;
+    private final SuscripcionServicio suscripcionServicio;
+    private final CobranzaServicio cobranzaServicio;
+    private final ColaFacturacion colaFacturacion;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService trabajadores;
+    private final MeterRegistry registry;
+
+    // Identifica a esta instancia en las reservas de eventos
+    private final String nodo = UUID.randomUUID().toString();
+
+    // Duración de la reserva de un lote; debe cubrir de sobra el tiempo de aplicarlo
+    @Value("${app.webhooks.reserva-ms:60000}")
+    private long reservaMs;
+
+    // Eventos que se toman por consulta
+    @Value("${app.webhooks.tamano-lote:200}")
+    private int tamanoLote;
+
+    // Máximo de lotes por ejecución, para no acaparar la base de datos
+    @Value("${app.webhooks.max-lotes-por-ejecucion:50}")
+    private int maxLotesPorEjecucion;
+
+    // Intentos antes de marcar un evento como FALLIDO
+    @Value("${app.webhooks.max-intentos:5}")
+    private int maxIntentos;
+
+    public ProcesadorWebhooksStripe(EventoWebhookRepository eventoRepository,
+                                    PagoRepository pagoRepository,
+                                    LogSuscripcionRepository logRepository,
+                                    SuscripcionServicio suscripcionServicio,
+                                    CobranzaServicio cobranzaServicio,
+                                    ColaFacturacion colaFacturacion,
+                                    ObjectMapper objectMapper,
+                                    PlatformTransactionManager transactionManager,
+                                    MeterRegistry registry,
+                                    @Value("${app.webhooks.hilos:4}") int hilos) {
+        this.eventoRepository = eventoRepository;
+        this.pagoRepository = pagoRepository;
+        this.logRepository = logRepository;
+        this.suscripcionServicio = suscripcionServicio;
+        this.cobranzaServicio = cobranzaServicio;
+        this.colaFacturacion = colaFacturacion;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.registry = registry;
+        AtomicInteger contador = new AtomicInteger();
+        this.trabajadores = Executors.newFixedThreadPool(hilos, r -> {
+            Thread hilo = new Thread(r, "webhooks-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Revisa cada segundo si llegaron avisos de Stripe y los aplica.
+     * 1. Toma un lote de eventos pendientes (los más antiguos primero) y lo reserva para este nodo
+     * 2. Busca con una sola consulta los pagos a los que se refieren
+     * 3. Aplica los eventos de cada suscripción en orden, varias suscripciones a la vez
+     * 4. Libera los que no alcanzó a aplicar
+     * Repite mientras haya lotes completos; si un evento falla, se reintenta en la siguiente ejecución.
+     */
+    @Scheduled(fixedDelayString = "${app.webhooks.intervalo-ms:1000}")
+    public void procesarPendientes() {
+        for (int lote = 0; lote < maxLotesPorEjecucion; lote++) {
+            LocalDateTime ahora = LocalDateTime.now();
+            List<String> ids = eventoRepository.buscarIdsLibres(ahora, tamanoLote);
+            if (ids.isEmpty()) {
+                return;
+            }
+            // Solo quedan los que nadie reservó entre la consulta y aquí
+            if (eventoRepository.reservar(ids, nodo, ahora.plus(Duration.ofMillis(reservaMs)), ahora,
+                    EstadoEventoWebhook.PENDIENTE) == 0) {
+                return;
+            }
+            List<EventoWebhook> eventos = eventoRepository
+                    .findByIdInAndReservaNodoAndEstadoOrderByCreadoStripeAscFechaRecepcionAsc(
+                            ids, nodo, EstadoEventoWebhook.PENDIENTE);
+
+            boolean completo;
+            try {
+                completo = procesarLote(eventos);
+            } finally {
+                eventoRepository.liberar(nodo, EstadoEventoWebhook.PENDIENTE);
+            }
+            // Si algo falló, los pendientes volverían a salir primero: se espera a la siguiente ejecución
+            if (!completo || ids.size() < tamanoLote) {
+                return;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        trabajadores.shutdown();
+    }
+
+    /**
+     * @return true si todos los eventos del lote quedaron aplicados o descartados
+     */
+    private boolean procesarLote(List<EventoWebhook> eventos) {
+        // Una sola consulta para todos los pagos del lote (con su suscripción)
+        Set<String> idsIntento = eventos.stream()
+                .map(EventoWebhook::getIdIntentoPago)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<String, Pago> pagos = new HashMap<>();
+        if (!idsIntento.isEmpty()) {
+            for (Pago pago : pagoRepository.findByIdIntentoPagoStripeIn(idsIntento)) {
+                pagos.putIfAbsent(pago.getIdIntentoPagoStripe(), pago);
+            }
+        }
+
+        // Pagos cuyo intento todavía no estaba guardado (el evento llegó antes, o el cobro
+        // falló sin devolverlo): se buscan por la metadata pago_id del PaymentIntent
+        Map<String, String> pagoPorIntento = new HashMap<>();
+        for (EventoWebhook evento : eventos) {
+            if (evento.getIdIntentoPago() != null && !pagos.containsKey(evento.getIdIntentoPago())) {
+                String pagoId = pagoIdMetadata(evento);
+                if (pagoId != null) {
+                    pagoPorIntento.put(evento.getIdIntentoPago(), pagoId);
+                }
+            }
+        }
+        if (!pagoPorIntento.isEmpty()) {
+            Map<String, Pago> porId = new HashMap<>();
+            for (Pago pago : pagoRepository.findByIdInConSuscripcion(new HashSet<>(pagoPorIntento.values()))) {
+                porId.put(pago.getId(), pago);
+            }
+            pagoPorIntento.forEach((idIntento, pagoId) -> {
+                Pago pago = porId.get(pagoId);
+                // Un pago que ya tiene otro intento no es el de este evento
+                if (pago != null && (pago.getIdIntentoPagoStripe() == null
+                        || pago.getIdIntentoPagoStripe().equals(idIntento))) {
+                    pagos.put(idIntento, pago);
+                }
+            });
+        }
+
+        // Agrupar por suscripción, conservando el orden dentro de cada grupo
+        Map<String, List<EventoWebhook>> grupos = new LinkedHashMap<>();
+        for (EventoWebhook evento : eventos) {
+            Pago pago = evento.getIdIntentoPago() != null ? pagos.get(evento.getIdIntentoPago()) : null;
+            String clave = pago != null ? pago.getSuscripcion().getId() : "evento:" + evento.getId();
+            grupos.computeIfAbsent(clave, k -> new ArrayList<>()).add(evento);
+        }
+
+        List<CompletableFuture<Boolean>> tareas = grupos.values().stream()
+                .map(grupo -> CompletableFuture.supplyAsync(() -> procesarGrupo(grupo, pagos), trabajadores))
+                .toList();
+        CompletableFuture.allOf(tareas.toArray(new CompletableFuture[0])).join();
+        return tareas.stream().allMatch(CompletableFuture::join);
+    }
+
+    /**
+     * Aplica en orden los eventos de una suscripción. Si uno falla, los siguientes
+     * esperan a la próxima ejecución para no aplicarse antes que él.
+     */
+    private boolean procesarGrupo(List<EventoWebhook> grupo, Map<String, Pago> pagos) {
+        for (EventoWebhook evento : grupo) {
+            Pago pago = evento.getIdIntentoPago() != null ? pagos.get(evento.getIdIntentoPago()) : null;
+            try {
+                transactionTemplate.executeWithoutResult(estado ->
+                        aplicar(evento, pago != null ? pago.getId() : null));
+            } catch (RuntimeException e) {
+                if (!registrarFallo(evento, e)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void aplicar(EventoWebhook evento, String pagoId) {
+        Pago pago = pagoId != null ? pagoRepository.findById(pagoId).orElse(null) : null;
+
+        EstadoEventoWebhook resultado;
+        if (pago == null) {
+            // Pago que no se creó en este sistema
+            resultado = EstadoEventoWebhook.IGNORADO;
+        } else {
+            if (pago.getIdIntentoPagoStripe() == null) {
+                // Encontrado por la metadata: se guarda el intento para los eventos siguientes
+                pago.setIdIntentoPagoStripe(evento.getIdIntentoPago());
+                pagoRepository.save(pago);
+            }
+            resultado = switch (evento.getTipo()) {
+                case PAGO_EXITOSO -> aplicarPagoExitoso(pago);
+                case PAGO_FALLIDO -> aplicarPagoFallido(pago, evento);
+                case PAGO_CANCELADO -> aplicarPagoCancelado(pago);
+                case CARGO_REEMBOLSADO -> aplicarReembolso(pago);
+                default -> EstadoEventoWebhook.IGNORADO;
+            };
+        }
+
+        // Si la reserva venció y otro nodo tomó el evento, se deshace todo lo aplicado aquí
+        if (eventoRepository.marcarAplicado(evento.getId(), nodo, resultado, LocalDateTime.now()) == 0) {
+            throw new OptimisticLockingFailureException(
+                    "El evento " + evento.getId() + " ya no está reservado por este nodo");
+        }
+        contarResultado(resultado);
+    }
+
+    private EstadoEventoWebhook aplicarPagoExitoso(Pago pago) {
+        if (pago.getEstado() == EstadoPago.COMPLETADO || pago.getEstado() == EstadoPago.REEMBOLSADO
+                || pago.getEstado() == EstadoPago.EN_REVISION) {
+            // Ya lo había completado el flujo síncrono o un evento anterior; uno en revisión no renueva nada
+            return EstadoEventoWebhook.PROCESADO;
+        }
+        pago.setEstado(EstadoPago.COMPLETADO);
+        pago.setFechaPago(LocalDateTime.now());
+        pagoRepository.save(pago);
+
+        suscripcionServicio.activarSuscripcionPremium(
+                pago.getSuscripcion().getId(), pago.getIdIntentoPagoStripe());
+
+        registrarLogPago(pago, AccionLog.PAGO_EXITOSO, "Pago confirmado por webhook de Stripe");
+        colaFacturacion.encolar(List.of(pago.getId()));
+        return EstadoEventoWebhook.PROCESADO;
+    }
+
+    private EstadoEventoWebhook aplicarPagoFallido(Pago pago, EventoWebhook evento) {
+        if (pago.getEstado() != EstadoPago.PENDIENTE) {
+            return EstadoEventoWebhook.PROCESADO;
+        }
+        pago.setEstado(EstadoPago.FALLIDO);
+        pagoRepository.save(pago);
+
+        String motivo = motivoFallo(evento);
+        registrarLogPago(pago, AccionLog.PAGO_FALLIDO, "Pago rechazado (webhook de Stripe): " + motivo);
+        cobranzaServicio.programar(List.of(CobranzaServicio.FalloPago.de(pago, motivo)));
+        return EstadoEventoWebhook.PROCESADO;
+    }
+
+    private EstadoEventoWebhook aplicarPagoCancelado(Pago pago) {
+        if (pago.getEstado() != EstadoPago.PENDIENTE) {
+            return EstadoEventoWebhook.PROCESADO;
+        }
+        pago.setEstado(EstadoPago.CANCELADO);
+        pagoRepository.save(pago);
+        return EstadoEventoWebhook.PROCESADO;
+    }
+
+    private EstadoEventoWebhook aplicarReembolso(Pago pago) {
+        // El reembolso de un pago en revisión lo cierra
+        if (pago.getEstado() != EstadoPago.COMPLETADO && pago.getEstado() != EstadoPago.EN_REVISION) {
+            return EstadoEventoWebhook.PROCESADO;
+        }
+        pago.setEstado(EstadoPago.REEMBOLSADO);
+        pagoRepository.save(pago);
+
+        registrarLogPago(pago, AccionLog.REEMBOLSO, "Reembolso informado por webhook de Stripe");
+        return EstadoEventoWebhook.PROCESADO;
+    }
+
+    /**
+     * @return true si el evento se marcó como FALLIDO (y ya no bloquea a los siguientes)
+     */
+    private boolean registrarFallo(EventoWebhook evento, RuntimeException error) {
+        int intentos = evento.getIntentos() + 1;
+        boolean agotado = intentos >= maxIntentos;
+        log.warn("Error aplicando webhook {} (intento {}/{}): {}",
+                evento.getId(), intentos, maxIntentos, error.getMessage());
+
+        try {
+            int registrados = eventoRepository.registrarFallo(evento.getId(), nodo, intentos, error.getMessage(),
+                    agotado ? EstadoEventoWebhook.FALLIDO : EstadoEventoWebhook.PENDIENTE,
+                    agotado ? LocalDateTime.now() : null);
+            if (registrados == 0) {
+                // Otro nodo tomó el evento: él decide; este grupo no sigue
+                return false;
+            }
+        } catch (RuntimeException e) {
+            log.error("No se pudo registrar el fallo del webhook {}: {}", evento.getId(), e.getMessage());
+            return false;
+        }
+        if (agotado) {
+            contarResultado(EstadoEventoWebhook.FALLIDO);
+        }
+        return agotado;
+    }
+
+    /**
+     * ID del pago que PasarelaStripe envía en la metadata del PaymentIntent (pago_id).
+     */
+    private String pagoIdMetadata(EventoWebhook evento) {
+        try {
+            return objectMapper.readTree(evento.getPayload())
+                    .path("data").path("object").path("metadata").path("pago_id")
+                    .asText(null);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private String motivoFallo(EventoWebhook evento) {
+        try {
+            return objectMapper.readTree(evento.getPayload())
+                    .path("data").path("object").path("last_payment_error").path("message")
+                    .asText("sin detalle");
+        } catch (JsonProcessingException e) {
+            return "sin detalle";
+        }
+    }
+
+    private void contarResultado(EstadoEventoWebhook resultado) {
+        Counter.builder("suscripciones.webhooks.aplicados")
+                .description("Eventos de webhook de Stripe aplicados, por resultado")
+                .tag("resultado", resultado.name())
+                .register(registry)
+                .increment();
+    }
+
+    private void registrarLogPago(Pago pago, AccionLog accion, String descripcion) {
+        LogSuscripcion log = new LogSuscripcion();
+        log.setSuscripcionId(pago.getSuscripcion().getId());
+        log.setUsuarioId(pago.getUsuarioId());
+        log.setAccion(accion);
+        log.setDescripcion(descripcion);
+        log.setRealizadoPor("stripe");
+
+        logRepository.save(log);
+    }
+}
@@ -0,0 +1,291 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.excepcion.PasarelaNoDisponibleException;
+import com.zabora.subscription.modelo.entidad.LogSuscripcion;
+import com.zabora.subscription.modelo.entidad.Pago;
+import com.zabora.subscription.modelo.enumeracion.AccionLog;
+import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+import com.zabora.subscription.pasarela.PasarelaPago;
+import com.zabora.subscription.repositorio.LogSuscripcionRepository;
+import com.zabora.subscription.repositorio.PagoRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Tarea programada que consulta en la pasarela los pagos que quedaron PENDIENTES
+ * (PSE, 3D Secure, o la pasarela no respondió a tiempo) y los cierra.
+ *
+ * Si el cobro falló sin devolver el ID del intento, el intento se busca en la pasarela por
+ * el ID del pago. Si la pasarela no tiene ninguno después de app.pagos.reconciliacion.espera-sin-intento-ms,
+ * no hubo cargo y el pago se cancela.
+ *
+ * Varias instancias pueden ejecutarla a la vez: antes de consultar un pago lo reserva
+ * (reconciliacion_lease / reconciliacion_hasta) con un UPDATE que solo toma pagos sin
+ * reserva vigente. Un pago que sigue pendiente conserva su reserva hasta que vence,
+ * así que se vuelve a consultar cada app.pagos.reconciliacion.reserva-ms como mucho.
+ */
+@Service
+@Slf4j
+public class ReconciliadorPagosPendientes {
+
+    private final PagoRepository pagoRepository;
+    private final LogSuscripcionRepository logRepository;
+    private final SuscripcionServicio suscripcionServicio;
+    private final CobranzaServicio cobranzaServicio;
+    private final ColaFacturacion colaFacturacion;
+    private final PasarelaPago pasarela;
+    private final EjecutorPasarela ejecutorPasarela;
+    private final TransactionTemplate transactionTemplate;
+    private final RetryTemplate reintentosConcurrencia;
+    private final MeterRegistry registry;
+
+    // Pagos que se leen y reservan por consulta
+    @Value("${app.pagos.reconciliacion.tamano-lote:200}")
+    private int tamanoLote;
+
+    // Consultas a la pasarela en paralelo, para no ocupar todo el pool de los pagos en línea
+    @Value("${app.pagos.reconciliacion.paralelismo:8}")
+    private int paralelismo;
+
+    // Pagos que se cierran por transacción
+    @Value("${app.pagos.reconciliacion.tamano-transaccion:50}")
+    private int tamanoTransaccion;
+
+    // Duración de la reserva; también es el intervalo mínimo entre consultas del mismo pago
+    @Value("${app.pagos.reconciliacion.reserva-ms:120000}")
+    private long reservaMs;
+
+    // Los pagos más nuevos todavía los está cerrando el flujo de procesarPago
+    @Value("${app.pagos.reconciliacion.antiguedad-minima-ms:60000}")
+    private long antiguedadMinimaMs;
+
+    // Un pago sin intento en la pasarela se cancela después de este tiempo; antes se sigue
+    // buscando, porque la búsqueda de la pasarela tarda en ver los intentos recién creados
+    @Value("${app.pagos.reconciliacion.espera-sin-intento-ms:3600000}")
+    private long esperaSinIntentoMs;
+
+    // Máximo de lotes por ejecución, para no acaparar la base de datos
+    @Value("${app.pagos.reconciliacion.max-lotes-por-ejecucion:50}")
+    private int maxLotesPorEjecucion;
+
+    public ReconciliadorPagosPendientes(PagoRepository pagoRepository,
+                                        LogSuscripcionRepository logRepository,
+                                        SuscripcionServicio suscripcionServicio,
+                                        CobranzaServicio cobranzaServicio,
+                                        ColaFacturacion colaFacturacion,
+                                        PasarelaPago pasarela,
+                                        EjecutorPasarela ejecutorPasarela,
+                                        PlatformTransactionManager transactionManager,
+                                        RetryTemplate reintentosConcurrencia,
+                                        MeterRegistry registry) {
+        this.pagoRepository = pagoRepository;
+        this.logRepository = logRepository;
+        this.suscripcionServicio = suscripcionServicio;
+        this.cobranzaServicio = cobranzaServicio;
+        this.colaFacturacion = colaFacturacion;
+        this.pasarela = pasarela;
+        this.ejecutorPasarela = ejecutorPasarela;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.reintentosConcurrencia = reintentosConcurrencia;
+        this.registry = registry;
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Un pago por PSE queda pendiente hasta que el usuario lo aprueba en su banco.
+     * Cada cierto tiempo le preguntamos a la pasarela cómo van esos pagos:
+     * 1. Tomamos un lote de pagos pendientes (por ID, continuando donde quedó el lote anterior)
+     * 2. Los reservamos para que otra instancia no los consulte al mismo tiempo
+     * 3. Consultamos varios a la vez en la pasarela
+     * 4. Cerramos los que ya terminaron (y activamos la suscripción si se pagó), en transacciones cortas
+     */
+    @Scheduled(fixedDelayString = "${app.pagos.reconciliacion.intervalo-ms:60000}",
+               initialDelayString = "${app.pagos.reconciliacion.retraso-inicial-ms:60000}")
+    public void reconciliarPendientes() {
+        String ultimoId = "";
+        int cerrados = 0;
+
+        for (int lote = 0; lote < maxLotesPorEjecucion; lote++) {
+            LocalDateTime ahora = LocalDateTime.now();
+            List<String> ids = pagoRepository.buscarIdsParaReconciliar(
+                    ultimoId, ahora.minus(Duration.ofMillis(antiguedadMinimaMs)), ahora,
+                    PageRequest.of(0, tamanoLote));
+            if (ids.isEmpty()) {
+                break;
+            }
+            ultimoId = ids.get(ids.size() - 1);
+
+            try {
+                cerrados += reconciliarLote(ids, ahora);
+            } catch (PasarelaNoDisponibleException e) {
+                // Circuito abierto o pool lleno: las reservas vencen solas y se reintenta después
+                log.warn("Reconciliación de pagos detenida: {}", e.getMessage());
+                break;
+            }
+            if (ids.size() < tamanoLote) {
+                break;
+            }
+        }
+
+        if (cerrados > 0) {
+            log.info("Pagos pendientes cerrados por reconciliación: {}", cerrados);
+        }
+    }
+
+    /**
+     * @return cuántos pagos del lote quedaron cerrados
+     */
+    private int reconciliarLote(List<String> ids, LocalDateTime ahora) {
+        // Reservar; si otra instancia tomó algunos, se quedan con ella
+        String lease = UUID.randomUUID().toString();
+        pagoRepository.reservarParaReconciliar(ids, lease, ahora.plus(Duration.ofMillis(reservaMs)), ahora);
+        List<Pago> reservados = pagoRepository.findReservados(ids, lease);
+        if (reservados.isEmpty()) {
+            return 0;
+        }
+
+        // Consultar en la pasarela, de a "paralelismo" pagos a la vez
+        Map<String, Consulta> estados = new HashMap<>();
+        for (int inicio = 0; inicio < reservados.size(); inicio += paralelismo) {
+            List<Pago> grupo = reservados.subList(inicio, Math.min(inicio + paralelismo, reservados.size()));
+            Map<String, CompletableFuture<Consulta>> consultas = new LinkedHashMap<>();
+            for (Pago pago : grupo) {
+                consultas.put(pago.getId(), ejecutorPasarela.ejecutar(pago.getMetodoPago(),
+                        () -> consultar(pago, ahora)));
+            }
+            consultas.forEach((pagoId, consulta) -> {
+                try {
+                    estados.put(pagoId, consulta.join());
+                } catch (CompletionException e) {
+                    // Se vuelve a consultar cuando venza la reserva
+                    log.warn("No se pudo consultar el pago {} en la pasarela: {}", pagoId, e.getCause().getMessage());
+                }
+            });
+        }
+
+        // Intentos encontrados de pagos que siguen pendientes: se guardan para que los resuelva el webhook
+        for (Pago pago : reservados) {
+            Consulta consulta = estados.get(pago.getId());
+            if (pago.getIdIntentoPagoStripe() == null && consulta != null && consulta.idIntento() != null
+                    && consulta.estado() == EstadoPago.PENDIENTE) {
+                pagoRepository.guardarIntento(pago.getId(), consulta.idIntento());
+            }
+        }
+
+        // Cerrar los que terminaron, en transacciones de "tamanoTransaccion" pagos
+        List<String> terminados = estados.entrySet().stream()
+                .filter(e -> e.getValue().estado() != EstadoPago.PENDIENTE)
+                .map(Map.Entry::getKey)
+                .toList();
+        int cerrados = 0;
+        for (int inicio = 0; inicio < terminados.size(); inicio += tamanoTransaccion) {
+            List<String> parte = terminados.subList(inicio, Math.min(inicio + tamanoTransaccion, terminados.size()));
+            // Si una suscripción cambió mientras tanto (@Version), se repite la transacción de la parte
+            Integer cerradosParte = reintentosConcurrencia.execute(contexto -> {
+                contexto.setAttribute(RetryContext.NAME, "reconciliar_pagos");
+                return transactionTemplate.execute(estado -> cerrar(parte, lease, estados));
+            });
+            cerrados += cerradosParte != null ? cerradosParte : 0;
+        }
+
+        contar(EstadoPago.PENDIENTE, estados.size() - terminados.size());
+        return cerrados;
+    }
+
+    /**
+     * Estado del pago en la pasarela. Si no se guardó el ID del intento (el cobro falló sin
+     * devolverlo), primero se busca el intento por el ID del pago.
+     */
+    private Consulta consultar(Pago pago, LocalDateTime ahora) {
+        String idIntento = pago.getIdIntentoPagoStripe();
+        if (idIntento == null) {
+            idIntento = pasarela.buscarIntento(pago.getId()).orElse(null);
+            if (idIntento == null) {
+                boolean vencido = pago.getFechaCreacion().isBefore(ahora.minus(Duration.ofMillis(esperaSinIntentoMs)));
+                return new Consulta(null, vencido ? EstadoPago.CANCELADO : EstadoPago.PENDIENTE);
+            }
+        }
+        return new Consulta(idIntento, pasarela.consultarEstado(idIntento));
+    }
+
+    /**
+     * Cierra los pagos dentro de la transacción actual. Solo toca los que siguen
+     * PENDIENTES y reservados por esta ejecución (un webhook pudo cerrarlos antes).
+     */
+    private int cerrar(List<String> ids, String lease, Map<String, Consulta> estados) {
+        List<Pago> pagos = pagoRepository.findReservados(ids, lease);
+        List<String> completados = new ArrayList<>();
+        for (Pago pago : pagos) {
+            Consulta consulta = estados.get(pago.getId());
+            EstadoPago nuevoEstado = consulta.estado();
+            if (pago.getIdIntentoPagoStripe() == null) {
+                pago.setIdIntentoPagoStripe(consulta.idIntento());
+            }
+            pago.setEstado(nuevoEstado);
+            pago.setReconciliacionLease(null);
+            pago.setReconciliacionHasta(null);
+
+            if (nuevoEstado == EstadoPago.COMPLETADO) {
+                pago.setFechaPago(LocalDateTime.now());
+                suscripcionServicio.activarSuscripcionPremium(
+                        pago.getSuscripcion().getId(), pago.getIdIntentoPagoStripe());
+                registrarLogPago(pago, AccionLog.PAGO_EXITOSO, "Pago confirmado por la pasarela (reconciliación)");
+                completados.add(pago.getId());
+            } else if (nuevoEstado == EstadoPago.FALLIDO) {
+                registrarLogPago(pago, AccionLog.PAGO_FALLIDO, "Pago rechazado por la pasarela (reconciliación)");
+                cobranzaServicio.programar(List.of(CobranzaServicio.FalloPago.de(pago, "Pago rechazado por la pasarela")));
+            } else if (consulta.idIntento() == null) {
+                registrarLogPago(pago, AccionLog.CAMBIO_ESTADO, "La pasarela no registró ningún cobro para el pago (reconciliación)");
+            } else {
+                registrarLogPago(pago, AccionLog.CAMBIO_ESTADO, "Pago " + nuevoEstado + " en la pasarela (reconciliación)");
+            }
+            pagoRepository.save(pago);
+            contar(nuevoEstado, 1);
+        }
+        colaFacturacion.encolar(completados);
+        return pagos.size();
+    }
+
+    private void contar(EstadoPago estado, int cantidad) {
+        if (cantidad <= 0) {
+            return;
+        }
+        Counter.builder("pagos.reconciliacion.consultados")
+                .description("Pagos pendientes consultados en la pasarela, por estado encontrado")
+                .tag("estado", estado.name())
+                .register(registry)
+                .increment(cantidad);
+    }
+
+    private void registrarLogPago(Pago pago, AccionLog accion, String descripcion) {
+        LogSuscripcion log = new LogSuscripcion();
+        log.setSuscripcionId(pago.getSuscripcion().getId());
+        log.setUsuarioId(pago.getUsuarioId());
+        log.setAccion(accion);
+        log.setDescripcion(descripcion);
+        log.setRealizadoPor("sistema");
+
+        logRepository.save(log);
+    }
+
+    /**
+     * Resultado de consultar un pago: el intento en la pasarela (null si no existe) y su estado.
+     */
+    private record Consulta(String idIntento, EstadoPago estado) {
+    }
+}
@@ -0,0 +1,271 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.documento.AlmacenDocumentos;
+import com.zabora.subscription.documento.DatosFactura;
+import com.zabora.subscription.documento.EscritorFacturaPdf;
+import com.zabora.subscription.documento.EscritorFacturaUbl;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Genera el XML UBL y el PDF de las facturas emitidas y los guarda en el AlmacenDocumentos.
+ *
+ * Cuando se emite una factura (cola de facturación o generarFactura), se programa su
+ * renderizado para después del commit, en un pool acotado de hilos: nunca en el hilo de
+ * la petición ni dentro de la transacción. Si el pool y su cola están llenos, la factura
+ * no se pierde: un barrido periódico renderiza las que siguen sin documentos.
+ *
+ * Las claves del almacén (SHA-256 del contenido) se guardan en facturas.xml_url y
+ * facturas.pdf_url; mientras pdf_url sea NULL, la factura no tiene documentos todavía.
+ * Renderizar dos veces la misma factura produce los mismos archivos, así que si dos nodos
+ * coinciden no pasa nada: el UPDATE solo escribe las claves una vez.
+ */
+@Service
+@Slf4j
+public class RenderizadorFacturas {
+
+    private static final String SQL_FACTURAS =
+            "SELECT f.id, f.prefijo, f.consecutivo, f.fecha_creacion, f.fecha_vencimiento, f.subtotal, " +
+            "f.iva, f.total, f.cufe, f.usuario_id, p.moneda, pl.nombre AS plan " +
+            "FROM facturas f " +
+            "JOIN pagos p ON p.id = f.pago_id " +
+            "JOIN suscripciones_usuarios s ON s.id = p.suscripcion_id " +
+            "JOIN planes_suscripcion pl ON pl.id = s.plan_id " +
+            "WHERE f.id IN (:ids) AND f.pdf_url IS NULL";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final AlmacenDocumentos almacen;
+    private final EscritorFacturaUbl escritorUbl;
+    private final EscritorFacturaPdf escritorPdf;
+    private final GeneradorCufe generadorCufe;
+    private final ThreadPoolExecutor ejecutor;
+    private final MeterRegistry registry;
+    private final Timer tiempoXml;
+    private final Timer tiempoPdf;
+
+    // Facturas enviadas al pool que no han terminado, para que el barrido no las repita
+    private final Set<String> enCurso = ConcurrentHashMap.newKeySet();
+
+    // Facturas que se renderizan por tarea del pool
+    @Value("${app.facturacion.documentos.tamano-lote:20}")
+    private int tamanoLote;
+
+    // Facturas sin documentos que revisa el barrido por ejecución
+    @Value("${app.facturacion.documentos.max-por-barrido:2000}")
+    private int maxPorBarrido;
+
+    // El barrido solo mira facturas de este periodo (usa el índice por fecha de creación)
+    @Value("${app.facturacion.documentos.ventana-barrido-horas:72}")
+    private long ventanaBarridoHoras;
+
+    // Las más nuevas todavía las está renderizando el nodo que las emitió
+    @Value("${app.facturacion.documentos.antiguedad-minima-ms:60000}")
+    private long antiguedadMinimaMs;
+
+    public RenderizadorFacturas(JdbcTemplate jdbcTemplate,
+                                AlmacenDocumentos almacen,
+                                EscritorFacturaUbl escritorUbl,
+                                EscritorFacturaPdf escritorPdf,
+                                GeneradorCufe generadorCufe,
+                                MeterRegistry registry,
+                                @Value("${app.facturacion.documentos.hilos:2}") int hilos,
+                                @Value("${app.facturacion.documentos.capacidad-cola:500}") int capacidadCola) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.almacen = almacen;
+        this.escritorUbl = escritorUbl;
+        this.escritorPdf = escritorPdf;
+        this.generadorCufe = generadorCufe;
+        this.registry = registry;
+
+        AtomicInteger contador = new AtomicInteger();
+        this.ejecutor = new ThreadPoolExecutor(hilos, hilos, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacidadCola),
+                r -> {
+                    Thread hilo = new Thread(r, "facturacion-documentos-" + contador.incrementAndGet());
+                    hilo.setDaemon(true);
+                    return hilo;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.ejecutor.allowCoreThreadTimeOut(true);
+        new ExecutorServiceMetrics(ejecutor, "facturacion-documentos", Tags.empty()).bindTo(registry);
+
+        this.tiempoXml = tiempo(registry, "xml");
+        this.tiempoPdf = tiempo(registry, "pdf");
+    }
+
+    /**
+     * Programa el renderizado de facturas recién emitidas. Dentro de una transacción se
+     * envían al pool después del commit (si se revierte, no hay nada que renderizar).
+     */
+    public void programar(List<String> facturaIds) {
+        if (facturaIds.isEmpty()) {
+            return;
+        }
+        List<String> ids = List.copyOf(facturaIds);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enviar(ids);
+                }
+            });
+        } else {
+            enviar(ids);
+        }
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Si el pool estaba lleno o el nodo se detuvo antes de renderizar, la factura queda
+     * sin documentos. Cada cierto tiempo buscamos las facturas recientes sin PDF y las
+     * mandamos otra vez al pool. También las ANULADAS: la DIAN necesita el XML de la
+     * factura antes de aceptar su anulación.
+     */
+    @Scheduled(fixedDelayString = "${app.facturacion.documentos.intervalo-barrido-ms:60000}",
+               initialDelayString = "${app.facturacion.documentos.intervalo-barrido-ms:60000}")
+    public void renderizarPendientes() {
+        // fecha_creacion está en la hora de emisión (zona de facturación), no en la del servidor
+        LocalDateTime ahora = generadorCufe.ahora();
+        List<String> ids = jdbcTemplate.queryForList(
+                "SELECT id FROM facturas WHERE fecha_creacion >= ? AND fecha_creacion < ? " +
+                "AND pdf_url IS NULL ORDER BY fecha_creacion LIMIT ?",
+                String.class,
+                Timestamp.valueOf(ahora.minusHours(ventanaBarridoHoras)),
+                Timestamp.valueOf(ahora.minus(Duration.ofMillis(antiguedadMinimaMs))),
+                maxPorBarrido);
+        List<String> pendientes = ids.stream().filter(id -> !enCurso.contains(id)).toList();
+        if (!pendientes.isEmpty()) {
+            log.info("Facturas sin documentos enviadas a renderizar: {}", pendientes.size());
+            enviar(pendientes);
+        }
+    }
+
+    private void enviar(List<String> ids) {
+        for (int inicio = 0; inicio < ids.size(); inicio += tamanoLote) {
+            List<String> lote = ids.subList(inicio, Math.min(inicio + tamanoLote, ids.size()));
+            enCurso.addAll(lote);
+            try {
+                ejecutor.execute(() -> {
+                    try {
+                        renderizarLote(lote);
+                    } catch (RuntimeException e) {
+                        log.error("Error renderizando documentos de facturas: {}", e.getMessage(), e);
+                    } finally {
+                        lote.forEach(enCurso::remove);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // El barrido las toma después
+                lote.forEach(enCurso::remove);
+                contar("rechazada", ids.size() - inicio);
+                log.warn("Pool de documentos lleno: {} facturas quedan para el barrido", ids.size() - inicio);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Renderiza un lote en el hilo actual (hilo del pool) y guarda las claves con JDBC batch.
+     */
+    private void renderizarLote(List<String> ids) {
+        List<DatosFactura> facturas = namedJdbcTemplate.query(SQL_FACTURAS,
+                new MapSqlParameterSource("ids", ids),
+                (rs, n) -> new DatosFactura(
+                        rs.getString("id"),
+                        rs.getString("prefijo"),
+                        rs.getLong("consecutivo"),
+                        rs.getTimestamp("fecha_creacion").toLocalDateTime(),
+                        rs.getDate("fecha_vencimiento").toLocalDate(),
+                        rs.getBigDecimal("subtotal"),
+                        rs.getBigDecimal("iva"),
+                        rs.getBigDecimal("total"),
+                        rs.getString("moneda"),
+                        rs.getString("cufe"),
+                        rs.getString("usuario_id"),
+                        rs.getString("plan")));
+
+        List<Documentos> renderizados = new ArrayList<>();
+        for (DatosFactura factura : facturas) {
+            try {
+                String xml = tiempoXml.record(() -> almacen.guardar(salida -> escritorUbl.escribir(factura, salida)));
+                String pdf = tiempoPdf.record(() -> almacen.guardar(salida -> escritorPdf.escribir(factura, salida)));
+                renderizados.add(new Documentos(factura.id(), xml, pdf));
+            } catch (RuntimeException e) {
+                // Queda sin documentos; el barrido la vuelve a intentar
+                contar("fallida", 1);
+                log.error("No se pudieron generar los documentos de la factura {}: {}",
+                        factura.numeroFactura(), e.getMessage(), e);
+            }
+        }
+        if (renderizados.isEmpty()) {
+            return;
+        }
+
+        Timestamp fechaAhora = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.batchUpdate(
+                "UPDATE facturas SET xml_url = ?, pdf_url = ?, fecha_actualizacion = ? " +
+                "WHERE id = ? AND pdf_url IS NULL",
+                renderizados, renderizados.size(), (ps, documentos) -> {
+                    ps.setString(1, documentos.xml());
+                    ps.setString(2, documentos.pdf());
+                    ps.setTimestamp(3, fechaAhora);
+                    ps.setString(4, documentos.facturaId());
+                });
+        contar("renderizada", renderizados.size());
+    }
+
+    private void contar(String resultado, int cantidad) {
+        Counter.builder("facturacion.documentos.facturas")
+                .description("Facturas enviadas a renderizar XML y PDF, por resultado")
+                .tag("resultado", resultado)
+                .register(registry)
+                .increment(cantidad);
+    }
+
+    private static Timer tiempo(MeterRegistry registry, String tipo) {
+        return Timer.builder("facturacion.documentos.renderizado")
+                .description("Tiempo de generar y guardar un documento de factura")
+                .tag("tipo", tipo)
+                .register(registry);
+    }
+
+    /**
+     * Deja terminar los lotes en curso; los que falten los toma el barrido al reiniciar.
+     */
+    @PreDestroy
+    public void cerrar() throws InterruptedException {
+        ejecutor.shutdown();
+        if (!ejecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Quedaron documentos de facturas sin renderizar al detener la aplicación");
+        }
+    }
+
+    private record Documentos(String facturaId, String xml, String pdf) {
+    }
+}
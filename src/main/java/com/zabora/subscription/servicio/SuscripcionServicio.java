@@ -1,8 +1,14 @@
 package com.zabora.subscription.servicio;
 
+import com.zabora.subscription.config.CacheConfig;
+import com.zabora.subscription.config.ConcurrenciaConfig;
+import com.zabora.subscription.evento.CambioSuscripcionEvento;
 import com.zabora.subscription.excepcion.RecursoNoEncontradoException;
 import com.zabora.subscription.excepcion.SuscripcionException;
+import com.zabora.subscription.indice.FiltroUsuariosSuscritos;
+import com.zabora.subscription.indice.IndiceDerechos;
 import com.zabora.subscription.modelo.dto.RespuestaSuscripcionDTO;
+import com.zabora.subscription.modelo.dto.ResumenSuscripcionDTO;
 import com.zabora.subscription.modelo.dto.RespuestaVerificacionDTO;
 import com.zabora.subscription.modelo.dto.SolicitudSuscripcionDTO;
 import com.zabora.subscription.modelo.entidad.LogSuscripcion;
@@ -11,14 +17,24 @@ import com.zabora.subscription.modelo.entidad.UsuarioSuscripcion;
 import com.zabora.subscription.modelo.enumeracion.AccionLog;
 import com.zabora.subscription.modelo.enumeracion.EstadoSuscripcion;
 import com.zabora.subscription.repositorio.LogSuscripcionRepository;
-import com.zabora.subscription.repositorio.PlanSuscripcionRepository;
+import com.zabora.subscription.repositorio.ReintentoPagoRepository;
 import com.zabora.subscription.repositorio.UsuarioSuscripcionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.retry.annotation.Backoff;
+import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
 
 @Service
@@ -27,8 +43,17 @@ import java.util.*;
 public class SuscripcionServicio {
     
     private final UsuarioSuscripcionRepository suscripcionRepository;
-    private final PlanSuscripcionRepository planRepository;
+    private final PlanCatalog planCatalog;
     private final LogSuscripcionRepository logRepository;
+    private final ReintentoPagoRepository reintentoRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final CacheManager cacheManager;
+    private final FiltroUsuariosSuscritos filtroUsuarios;
+    private final IndiceDerechos indiceDerechos;
+    
+    // Máximo de usuarios aceptados en una verificación por lote
+    @Value("${app.verificacion.lote.max-usuarios:500}")
+    private int maxUsuariosPorLote;
     
     /**
      * EXPLICACIÓN :
@@ -37,13 +62,25 @@ public class SuscripcionServicio {
      * 2. Verificas que no tengas ya una membresía activa
      * 3. Si es gratuita, la tendras de inmediato
      * 4. Si es premium, te crea la suscripción pero tienes que pagar primero
+     * 
+     * Si dos peticiones del mismo usuario llegan a la vez, la columna única usuario_activo
+     * hace fallar a la segunda; al reintentarla ya ve la suscripción activa y responde el error normal.
      */
+    @Retryable(label = "suscribirse",
+               retryFor = {OptimisticLockingFailureException.class, DataIntegrityViolationException.class},
+               maxAttemptsExpression = "${app.concurrencia.max-intentos:3}",
+               backoff = @Backoff(delayExpression = "${app.concurrencia.espera-inicial-ms:20}",
+                                  multiplierExpression = "${app.concurrencia.multiplicador:2.0}",
+                                  maxDelayExpression = "${app.concurrencia.espera-maxima-ms:200}",
+                                  random = true),
+               listeners = ConcurrenciaConfig.ESCUCHA_CONFLICTOS)
     @Transactional
     public RespuestaSuscripcionDTO suscribirse(String usuarioId, SolicitudSuscripcionDTO solicitud) {
         log.info("Usuario {} suscribiéndose al plan {}", usuarioId, solicitud.getNombrePlan());
         
         // 1. Buscar el plan en la base de datos
-        PlanSuscripcion plan = planRepository.findByNombre(solicitud.getNombrePlan())
+        PlanSuscripcion plan = planCatalog.buscar(solicitud.getNombrePlan())
+            .map(PlanCatalog.EntradaPlan::getPlan)
             .orElseThrow(() -> new RecursoNoEncontradoException(
                 "Plan no encontrado: " + solicitud.getNombrePlan()));
         
@@ -76,6 +113,8 @@ public class SuscripcionServicio {
                 null, EstadoSuscripcion.ACTIVA.name(), 
                 "Suscripción gratuita creada", usuarioId);
             
+            publicarCambio(nuevaSuscripcion);
+            
             log.info(" Suscripción gratuita creada: {}", nuevaSuscripcion.getId());
             
             return RespuestaSuscripcionDTO.builder()
@@ -98,6 +137,8 @@ public class SuscripcionServicio {
             null, EstadoSuscripcion.PENDIENTE_PAGO.name(),
             "Suscripción premium creada, pendiente de pago", usuarioId);
         
+        publicarCambio(nuevaSuscripcion);
+        
         log.info("💳 Suscripción premium creada, pendiente de pago: {}", nuevaSuscripcion.getId());
         
         // Simular PaymentIntent (en producción esto vendría de Stripe real)
@@ -126,7 +167,18 @@ public class SuscripcionServicio {
      * 1. Verificas que la suscripción existe
      * 2. La cancelas
      * 3. Si cancelaste en las primeras 24 horas, puedes pedir reembolso
+     * 
+     * Si la suscripción cambió entre la lectura y el commit (ej: se activó un pago), se
+     * repite la cancelación sobre el estado nuevo en lugar de pisarlo.
      */
+    @Retryable(label = "cancelar_suscripcion",
+               retryFor = OptimisticLockingFailureException.class,
+               maxAttemptsExpression = "${app.concurrencia.max-intentos:3}",
+               backoff = @Backoff(delayExpression = "${app.concurrencia.espera-inicial-ms:20}",
+                                  multiplierExpression = "${app.concurrencia.multiplicador:2.0}",
+                                  maxDelayExpression = "${app.concurrencia.espera-maxima-ms:200}",
+                                  random = true),
+               listeners = ConcurrenciaConfig.ESCUCHA_CONFLICTOS)
     @Transactional
     public RespuestaSuscripcionDTO cancelarSuscripcion(String usuarioId, String idSuscripcion) {
         log.info("Usuario {} cancelando suscripción {}", usuarioId, idSuscripcion);
@@ -172,6 +224,8 @@ public class SuscripcionServicio {
                 null, null, "Reembolso automático por cancelación en 24 horas", "sistema");
         }
         
+        publicarCambio(suscripcion);
+        
         log.info("Suscripción cancelada exitosamente: {}", idSuscripcion);
         
         return RespuestaSuscripcionDTO.builder()
@@ -190,80 +244,154 @@ public class SuscripcionServicio {
      * Es como cuando otros servicios (Recipe Service) preguntan:
      * "¿Este usuario tiene premium activo?"
      * Este método responde rápido para que puedan tomar decisiones.
+     * Es solo de lectura: nunca modifica la suscripción.
+     * 
+     * La respuesta se guarda en la cache "verificacion" (por usuarioId) y se invalida
+     * cada vez que se publica un CambioSuscripcionEvento para ese usuario.
+     * 
+     * Si el índice de derechos está habilitado y construido, la respuesta sale de él
+     * (sin base de datos ni cache).
+     * 
+     * No es @Transactional: una respuesta desde el índice, la cache o el filtro no toma
+     * ninguna conexión del pool; solo la consulta de respaldo abre su propia transacción.
      */
-    @Transactional(readOnly = true)
+    @Cacheable(cacheNames = CacheConfig.CACHE_VERIFICACION, key = "#usuarioId",
+               condition = "!@indiceDerechos.estaListo()")
     public RespuestaVerificacionDTO verificarSuscripcion(String usuarioId) {
         log.debug("🔍 Verificando suscripción para usuario: {}", usuarioId);
         
-        // Buscar suscripción activa
-        Optional<UsuarioSuscripcion> suscripcionOpt = 
-            suscripcionRepository.findByUsuarioIdAndEstado(usuarioId, EstadoSuscripcion.ACTIVA);
+        if (indiceDerechos.estaListo()) {
+            return respuestaDesdeIndice(usuarioId, LocalDateTime.now());
+        }
+        
+        // Usuarios que nunca se suscribieron: se responde sin consultar la base de datos
+        if (!filtroUsuarios.puedeTenerSuscripcion(usuarioId)) {
+            return respuestaPlanGratuito("SIN_SUSCRIPCION");
+        }
+        
+        // Buscar suscripción activa (solo las columnas que se responden, con el nombre del plan)
+        Optional<ResumenSuscripcionDTO> suscripcionOpt = 
+            suscripcionRepository.buscarResumen(usuarioId, EstadoSuscripcion.ACTIVA);
         
         if (suscripcionOpt.isEmpty()) {
             // No tiene suscripción activa - devolver límites gratuitos
-            PlanSuscripcion planGratuito = planRepository.findByNombre("gratuito")
-                .orElseThrow(() -> new RecursoNoEncontradoException("Plan gratuito no encontrado"));
-            
-            return RespuestaVerificacionDTO.builder()
-                .valida(false)
-                .plan("gratuito")
-                .estado("SIN_SUSCRIPCION")
-                .limites(obtenerLimitesPlan(planGratuito))
-                .build();
+            return respuestaPlanGratuito("SIN_SUSCRIPCION");
         }
         
-        UsuarioSuscripcion suscripcion = suscripcionOpt.get();
+        ResumenSuscripcionDTO suscripcion = suscripcionOpt.get();
         
-        // Verificar si está expirada (solo para premium)
-        if (suscripcion.getFinPeriodoActual() != null && 
-            suscripcion.getFinPeriodoActual().isBefore(LocalDateTime.now())) {
-            
-            // Marcar como expirada
-            suscripcion.setEstado(EstadoSuscripcion.EXPIRADA);
-            suscripcionRepository.save(suscripcion);
-            
-            registrarLog(suscripcion.getId(), usuarioId, AccionLog.CAMBIO_ESTADO,
-                EstadoSuscripcion.ACTIVA.name(), EstadoSuscripcion.EXPIRADA.name(),
-                "Suscripción expirada automáticamente", "sistema");
-            
-            PlanSuscripcion planGratuito = planRepository.findByNombre("gratuito")
-                .orElseThrow(() -> new RecursoNoEncontradoException("Plan gratuito no encontrado"));
-            
-            return RespuestaVerificacionDTO.builder()
-                .valida(false)
-                .plan("gratuito")
-                .estado("EXPIRADA")
-                .limites(obtenerLimitesPlan(planGratuito))
-                .build();
+        // Verificar si está expirada (solo para premium).
+        // Solo se compara la fecha: el cambio a EXPIRADA lo hace ExpiracionSuscripcionesServicio.
+        if (estaVencida(suscripcion, LocalDateTime.now())) {
+            return respuestaPlanGratuito("EXPIRADA");
         }
         
         // Suscripción activa y válida
-        boolean esPremium = "premium".equalsIgnoreCase(suscripcion.getPlan().getNombre());
+        return respuestaSuscripcionActiva(suscripcion);
+    }
+    
+    /**
+     * EXPLICACIÓN:
+     * Igual que verificarSuscripcion, pero para muchos usuarios a la vez
+     * (por ejemplo, cuando otro servicio pinta un feed con cientos de usuarios).
+     * 
+     * 1. Primero mira cuáles usuarios ya están en la cache de verificación
+     *    o definitivamente no tienen suscripción (según el filtro de usuarios suscritos)
+     * 2. Los que faltan se resuelven con una sola consulta IN (que trae también el nombre del plan)
+     * 3. Los que no tienen suscripción activa reciben los límites del plan gratuito
+     * 
+     * Sin importar el tamaño del lote, se hace como máximo una consulta.
+     * Esta ruta es solo de lectura: las suscripciones vencidas se reportan como
+     * EXPIRADA, pero no se modifican. Como verificarSuscripcion, no abre transacción:
+     * solo la consulta del paso 2 toma una conexión.
+     */
+    public Map<String, RespuestaVerificacionDTO> verificarSuscripciones(List<String> usuarioIds) {
+        Set<String> usuarios = new LinkedHashSet<>(usuarioIds);
         
-        return RespuestaVerificacionDTO.builder()
-            .valida(esPremium)
-            .plan(suscripcion.getPlan().getNombre())
-            .estado(suscripcion.getEstado().name())
-            .fechaExpiracion(suscripcion.getFinPeriodoActual())
-            .limites(obtenerLimitesPlan(suscripcion.getPlan()))
-            .build();
+        if (usuarios.size() > maxUsuariosPorLote) {
+            throw new SuscripcionException(
+                "El lote supera el máximo de " + maxUsuariosPorLote + " usuarios");
+        }
+        
+        log.debug("🔍 Verificando suscripción para lote de {} usuarios", usuarios.size());
+        
+        Map<String, RespuestaVerificacionDTO> resultado = new LinkedHashMap<>();
+        
+        // Con el índice de derechos construido no hace falta ni cache ni consulta
+        if (indiceDerechos.estaListo()) {
+            LocalDateTime ahora = LocalDateTime.now();
+            for (String usuarioId : usuarios) {
+                resultado.put(usuarioId, respuestaDesdeIndice(usuarioId, ahora));
+            }
+            return resultado;
+        }
+        
+        Cache cache = cacheManager.getCache(CacheConfig.CACHE_VERIFICACION);
+        
+        // 1. Respuestas que ya están en cache, y usuarios que nunca se suscribieron
+        List<String> pendientes = new ArrayList<>();
+        for (String usuarioId : usuarios) {
+            RespuestaVerificacionDTO enCache = cache != null
+                ? cache.get(usuarioId, RespuestaVerificacionDTO.class)
+                : null;
+            if (enCache != null) {
+                resultado.put(usuarioId, enCache);
+            } else if (!filtroUsuarios.puedeTenerSuscripcion(usuarioId)) {
+                resultado.put(usuarioId, respuestaPlanGratuito("SIN_SUSCRIPCION"));
+            } else {
+                pendientes.add(usuarioId);
+            }
+        }
+        
+        if (pendientes.isEmpty()) {
+            return resultado;
+        }
+        
+        // 2. Una sola consulta para todas las suscripciones activas del lote
+        Map<String, ResumenSuscripcionDTO> activas = new HashMap<>();
+        for (ResumenSuscripcionDTO suscripcion : 
+                suscripcionRepository.buscarResumenes(pendientes, EstadoSuscripcion.ACTIVA)) {
+            activas.putIfAbsent(suscripcion.getUsuarioId(), suscripcion);
+        }
+        
+        // 3. El plan gratuito sale del catálogo en memoria, sin consultas
+        LocalDateTime ahora = LocalDateTime.now();
+        
+        for (String usuarioId : pendientes) {
+            ResumenSuscripcionDTO suscripcion = activas.get(usuarioId);
+            RespuestaVerificacionDTO respuesta;
+            
+            if (suscripcion != null && !estaVencida(suscripcion, ahora)) {
+                respuesta = respuestaSuscripcionActiva(suscripcion);
+            } else {
+                respuesta = respuestaPlanGratuito(
+                    suscripcion == null ? "SIN_SUSCRIPCION" : "EXPIRADA");
+            }
+            
+            resultado.put(usuarioId, respuesta);
+            if (cache != null) {
+                cache.put(usuarioId, respuesta);
+            }
+        }
+        
+        return resultado;
     }
     
     /**
      * EXPLICACIÓN:
      * Muestra toda la información de la suscripción del usuario,
      * como si miraras tu perfil de Netflix.
+     * Las suscripciones se leen proyectadas (sin entidades) y el plan sale del catálogo en memoria.
      */
     @Transactional(readOnly = true)
     public Map<String, Object> obtenerEstadoSuscripcion(String usuarioId) {
         Map<String, Object> respuesta = new HashMap<>();
         
-        List<UsuarioSuscripcion> suscripciones = suscripcionRepository.findByUsuarioId(usuarioId);
+        List<ResumenSuscripcionDTO> suscripciones = suscripcionRepository.buscarHistorial(usuarioId);
         
         if (suscripciones.isEmpty()) {
             // Usuario sin suscripciones
-            PlanSuscripcion planGratuito = planRepository.findByNombre("gratuito")
-                .orElseThrow(() -> new RecursoNoEncontradoException("Plan gratuito no encontrado"));
+            PlanSuscripcion planGratuito = planCatalog.gratuito().getPlan();
             
             respuesta.put("usuario_id", usuarioId);
             respuesta.put("tiene_suscripcion", false);
@@ -275,27 +403,27 @@ public class SuscripcionServicio {
         }
         
         // Obtener suscripción activa (si existe)
-        Optional<UsuarioSuscripcion> suscripcionActiva = suscripciones.stream()
+        Optional<ResumenSuscripcionDTO> suscripcionActiva = suscripciones.stream()
             .filter(s -> s.getEstado() == EstadoSuscripcion.ACTIVA)
             .findFirst();
         
         if (suscripcionActiva.isPresent()) {
-            UsuarioSuscripcion suscripcion = suscripcionActiva.get();
+            ResumenSuscripcionDTO suscripcion = suscripcionActiva.get();
+            Optional<PlanCatalog.EntradaPlan> plan = planCatalog.buscar(suscripcion.getPlan());
             
             respuesta.put("usuario_id", usuarioId);
             respuesta.put("tiene_suscripcion", true);
             respuesta.put("suscripcion_id", suscripcion.getId());
-            respuesta.put("plan_actual", suscripcion.getPlan());
+            plan.ifPresent(entrada -> respuesta.put("plan_actual", entrada.getPlan()));
             respuesta.put("estado", suscripcion.getEstado().name());
             respuesta.put("inicio_periodo", suscripcion.getInicioPeriodoActual());
             respuesta.put("fin_periodo", suscripcion.getFinPeriodoActual());
-            respuesta.put("limites", obtenerLimitesPlan(suscripcion.getPlan()));
-            respuesta.put("es_premium", "premium".equalsIgnoreCase(suscripcion.getPlan().getNombre()));
+            respuesta.put("limites", plan.map(PlanCatalog.EntradaPlan::getLimites).orElse(Map.of()));
+            respuesta.put("es_premium", "premium".equalsIgnoreCase(suscripcion.getPlan()));
             
         } else {
             // Tiene suscripciones pero ninguna activa
-            PlanSuscripcion planGratuito = planRepository.findByNombre("gratuito")
-                .orElseThrow(() -> new RecursoNoEncontradoException("Plan gratuito no encontrado"));
+            PlanSuscripcion planGratuito = planCatalog.gratuito().getPlan();
             
             respuesta.put("usuario_id", usuarioId);
             respuesta.put("tiene_suscripcion", false);
@@ -309,16 +437,25 @@ public class SuscripcionServicio {
     }
     
     /**
-     *Obtener todos los planes disponibles
+     *Obtener todos los planes disponibles (desde el catálogo en memoria)
      */
-    @Transactional(readOnly = true)
     public List<PlanSuscripcion> obtenerPlanes() {
-        return planRepository.findByActivoTrue();
+        return planCatalog.planesActivos();
+    }
+    
+    /**
+     * Planes disponibles ya serializados en JSON, para no repetir la serialización en cada petición
+     */
+    public String obtenerPlanesJson() {
+        return planCatalog.planesActivosJson();
     }
     
     /**
      * Activar suscripción premium después del pago
      * Este método es llamado por PagoServicio cuando el pago se completa
+     * 
+     * Se ejecuta dentro de la transacción de quien cierra el pago; si choca con otra escritura
+     * (OptimisticLockingFailureException) es esa transacción la que se reintenta completa.
      */
     @Transactional
     public void activarSuscripcionPremium(String suscripcionId, String stripeSubscriptionId) {
@@ -329,6 +466,11 @@ public class SuscripcionServicio {
         
         EstadoSuscripcion estadoAnterior = suscripcion.getEstado();
         
+        // Un usuario tiene a lo sumo una suscripción activa: la anterior queda reemplazada
+        suscripcionRepository.findByUsuarioIdAndEstado(suscripcion.getUsuarioId(), EstadoSuscripcion.ACTIVA)
+            .filter(otra -> !otra.getId().equals(suscripcionId))
+            .ifPresent(this::reemplazarActiva);
+        
         suscripcion.setEstado(EstadoSuscripcion.ACTIVA);
         suscripcion.setInicioPeriodoActual(LocalDateTime.now());
         suscripcion.setFinPeriodoActual(LocalDateTime.now().plusMonths(1)); // 30 días
@@ -336,23 +478,101 @@ public class SuscripcionServicio {
         
         suscripcionRepository.save(suscripcion);
         
+        // Si estaba en cobranza por un pago fallido, ya no hay que reintentar
+        reintentoRepository.cancelarProgramados(suscripcionId, LocalDateTime.now());
+        
         registrarLog(suscripcionId, suscripcion.getUsuarioId(), AccionLog.ACTIVACION,
             estadoAnterior.name(), EstadoSuscripcion.ACTIVA.name(),
             "Suscripción premium activada tras pago exitoso", "sistema");
         
+        publicarCambio(suscripcion);
+        
         log.info("Suscripción premium activada exitosamente: {}", suscripcionId);
     }
     
     // ========== MÉTODOS AUXILIARES ==========
     
+    private void reemplazarActiva(UsuarioSuscripcion anterior) {
+        anterior.setEstado(EstadoSuscripcion.CANCELADA);
+        anterior.setFechaCancelacion(LocalDateTime.now());
+        // flush: libera usuario_activo antes del UPDATE de la suscripción que se activa
+        suscripcionRepository.saveAndFlush(anterior);
+        
+        registrarLog(anterior.getId(), anterior.getUsuarioId(), AccionLog.CANCELACION,
+            EstadoSuscripcion.ACTIVA.name(), EstadoSuscripcion.CANCELADA.name(),
+            "Reemplazada por otra suscripción activada", "sistema");
+        publicarCambio(anterior);
+    }
+    
+    private RespuestaVerificacionDTO respuestaPlanGratuito(String estado) {
+        return RespuestaVerificacionDTO.builder()
+            .valida(false)
+            .plan("gratuito")
+            .estado(estado)
+            .limites(planCatalog.gratuito().getLimites())
+            .build();
+    }
+    
+    private RespuestaVerificacionDTO respuestaSuscripcionActiva(ResumenSuscripcionDTO suscripcion) {
+        boolean esPremium = "premium".equalsIgnoreCase(suscripcion.getPlan());
+        
+        return RespuestaVerificacionDTO.builder()
+            .valida(esPremium)
+            .plan(suscripcion.getPlan())
+            .estado(suscripcion.getEstado().name())
+            .fechaExpiracion(suscripcion.getFinPeriodoActual())
+            .limites(limitesPorNombre(suscripcion.getPlan()))
+            .build();
+    }
+    
+    private RespuestaVerificacionDTO respuestaDesdeIndice(String usuarioId, LocalDateTime ahora) {
+        long entrada = indiceDerechos.buscar(usuarioId);
+        if (entrada == IndiceDerechos.AUSENTE) {
+            return respuestaPlanGratuito("SIN_SUSCRIPCION");
+        }
+        
+        // El índice guarda la fecha local como si fuera UTC, igual se compara aquí
+        long fin = IndiceDerechos.finPeriodoSegundos(entrada);
+        if (fin != 0 && fin < ahora.toEpochSecond(ZoneOffset.UTC)) {
+            return respuestaPlanGratuito("EXPIRADA");
+        }
+        
+        String plan = indiceDerechos.plan(entrada);
+        return RespuestaVerificacionDTO.builder()
+            .valida("premium".equalsIgnoreCase(plan))
+            .plan(plan)
+            .estado(IndiceDerechos.estado(entrada).name())
+            .fechaExpiracion(fin != 0 ? LocalDateTime.ofEpochSecond(fin, 0, ZoneOffset.UTC) : null)
+            .limites(limitesPorNombre(plan))
+            .build();
+    }
+    
+    private boolean estaVencida(ResumenSuscripcionDTO suscripcion, LocalDateTime ahora) {
+        return suscripcion.getFinPeriodoActual() != null
+            && suscripcion.getFinPeriodoActual().isBefore(ahora);
+    }
+    
     private Map<String, Object> obtenerLimitesPlan(PlanSuscripcion plan) {
-        Map<String, Object> limites = new HashMap<>();
-        limites.put("condiciones_medicas", plan.getLimiteCondicionesMedicas());
-        limites.put("alergias", plan.getLimiteAlergias());
-        limites.put("preferencias_alimentarias", plan.getLimitePreferenciasAlimentarias());
-        limites.put("ingredientes_por_busqueda", plan.getIngredientesPorBusqueda());
-        limites.put("recetas_favoritas", plan.getLimiteRecetasFavoritas());
-        return limites;
+        return planCatalog.limites(plan);
+    }
+    
+    private Map<String, Object> limitesPorNombre(String plan) {
+        return planCatalog.buscar(plan)
+            .map(PlanCatalog.EntradaPlan::getLimites)
+            .orElse(Map.of());
+    }
+    
+    /**
+     * Notifica que cambió el derecho del usuario (plan, estado o vigencia).
+     * Los listeners actualizan sus copias derivadas después del commit.
+     */
+    private void publicarCambio(UsuarioSuscripcion suscripcion) {
+        eventPublisher.publishEvent(new CambioSuscripcionEvento(
+            suscripcion.getUsuarioId(),
+            suscripcion.getId(),
+            suscripcion.getPlan().getNombre(),
+            suscripcion.getEstado(),
+            suscripcion.getFinPeriodoActual()));
     }
     
     private boolean esElegibleParaReembolso(LocalDateTime fechaCreacion) {
@@ -0,0 +1,124 @@
+package com.zabora.subscription.servicio;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.net.Webhook;
+import com.zabora.subscription.excepcion.WebhookException;
+import com.zabora.subscription.modelo.entidad.EventoWebhook;
+import com.zabora.subscription.repositorio.EventoWebhookRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+/**
+ * Recepción de los webhooks de Stripe.
+ *
+ * Solo verifica la firma y guarda el evento tal como llegó, para responder a Stripe
+ * de inmediato. ProcesadorWebhooksStripe lo aplica después en segundo plano.
+ */
+@Service
+@Slf4j
+public class WebhookStripeServicio {
+
+    private final EventoWebhookRepository eventoRepository;
+    private final ObjectMapper objectMapper;
+    private final Counter recibidos;
+    private final Counter duplicados;
+
+    @Value("${stripe.webhook.secret}")
+    private String secretoWebhook;
+
+    // Antigüedad máxima de la firma, contra ataques de repetición
+    @Value("${app.webhooks.tolerancia-firma-segundos:300}")
+    private long toleranciaFirmaSegundos;
+
+    public WebhookStripeServicio(EventoWebhookRepository eventoRepository,
+                                 ObjectMapper objectMapper,
+                                 MeterRegistry registry) {
+        this.eventoRepository = eventoRepository;
+        this.objectMapper = objectMapper;
+        this.recibidos = Counter.builder("suscripciones.webhooks.recibidos")
+                .description("Eventos de webhook de Stripe guardados")
+                .register(registry);
+        this.duplicados = Counter.builder("suscripciones.webhooks.duplicados")
+                .description("Eventos de webhook de Stripe descartados por estar repetidos")
+                .register(registry);
+    }
+
+    /**
+     * EXPLICACIÓN:
+     * Stripe nos avisa que algo pasó con un pago (se cobró, falló, se reembolsó...).
+     * 1. Verificamos que el aviso de verdad viene de Stripe (firma)
+     * 2. Si ya lo habíamos recibido, no hacemos nada (Stripe reintenta los avisos)
+     * 3. Lo guardamos para procesarlo después y respondemos enseguida
+     *
+     * @param payload Cuerpo del webhook, sin modificar
+     * @param firma Header Stripe-Signature
+     * @return true si el evento es nuevo; false si ya se había recibido
+     */
+    public boolean recibir(String payload, String firma) {
+        if (firma == null || firma.isBlank()) {
+            throw new WebhookException("Falta el header Stripe-Signature");
+        }
+        try {
+            Webhook.Signature.verifyHeader(payload, firma, secretoWebhook, toleranciaFirmaSegundos);
+        } catch (SignatureVerificationException e) {
+            throw new WebhookException("Firma de webhook inválida");
+        }
+
+        JsonNode evento;
+        try {
+            evento = objectMapper.readTree(payload);
+        } catch (JsonProcessingException e) {
+            throw new WebhookException("El cuerpo del webhook no es JSON válido");
+        }
+
+        String id = evento.path("id").asText("");
+        if (id.isEmpty()) {
+            throw new WebhookException("El evento no tiene ID");
+        }
+        if (eventoRepository.existsById(id)) {
+            duplicados.increment();
+            return false;
+        }
+
+        EventoWebhook registro = new EventoWebhook();
+        registro.setId(id);
+        registro.setTipo(evento.path("type").asText(""));
+        registro.setIdIntentoPago(extraerIdIntentoPago(evento.path("data").path("object")));
+        registro.setCreadoStripe(evento.path("created").asLong(0));
+        registro.setPayload(payload);
+
+        try {
+            eventoRepository.save(registro);
+        } catch (DataIntegrityViolationException e) {
+            // Llegó dos veces al mismo tiempo
+            duplicados.increment();
+            return false;
+        }
+
+        recibidos.increment();
+        log.debug("Webhook de Stripe guardado: {} ({})", id, registro.getTipo());
+        return true;
+    }
+
+    /**
+     * ID del PaymentIntent al que se refiere el objeto del evento.
+     * Los eventos de PaymentIntent lo traen como id; los de Charge, en payment_intent.
+     */
+    static String extraerIdIntentoPago(JsonNode objeto) {
+        String tipoObjeto = objeto.path("object").asText("");
+        if ("payment_intent".equals(tipoObjeto)) {
+            return objeto.path("id").asText(null);
+        }
+        if ("charge".equals(tipoObjeto)) {
+            return objeto.path("payment_intent").asText(null);
+        }
+        return null;
+    }
+}
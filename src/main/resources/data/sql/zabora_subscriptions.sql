@@ -49,6 +49,18 @@ CREATE TABLE IF NOT EXISTS suscripciones_usuarios (
     fecha_creacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     fecha_actualizacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
 
+    -- Bloqueo optimista (@Version): todo UPDATE hace version = version + 1
+    version BIGINT NOT NULL DEFAULT 0,
+
+    -- usuario_id mientras estado = 'ACTIVA', NULL en otro caso: a lo sumo una suscripción activa por usuario
+    usuario_activo VARCHAR(36) NULL,
+
+    -- Usado por la tarea de expiración (estado = 'ACTIVA' AND fin_periodo_actual < ahora)
+    INDEX idx_suscripciones_estado_fin (estado, fin_periodo_actual),
+    -- Consultas por usuario (historial, estado y la ETag de /verificar y /estado)
+    INDEX idx_suscripciones_usuario (usuario_id),
+    UNIQUE KEY uk_suscripciones_usuario_activo (usuario_activo),
+
     FOREIGN KEY (plan_id)
         REFERENCES planes_suscripcion(id)
         ON DELETE RESTRICT ON UPDATE CASCADE
@@ -80,7 +92,9 @@ CREATE TABLE IF NOT EXISTS metodos_pago (
     predeterminado BOOLEAN DEFAULT FALSE,
     activo BOOLEAN DEFAULT TRUE,
     fecha_creacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-    fecha_actualizacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+    fecha_actualizacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+
+    INDEX idx_metodos_pago_usuario (usuario_id, predeterminado)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
 
@@ -97,10 +111,11 @@ CREATE TABLE IF NOT EXISTS pagos (
 
     metodo_pago ENUM('TARJETA_CREDITO', 'PSE') NOT NULL,
 
-    estado ENUM('PENDIENTE', 'COMPLETADO', 'FALLIDO', 'REEMBOLSADO', 'CANCELADO')
+    estado ENUM('PENDIENTE', 'COMPLETADO', 'FALLIDO', 'REEMBOLSADO', 'CANCELADO', 'EN_REVISION')
         DEFAULT 'PENDIENTE',
 
-    id_intento_pago_stripe VARCHAR(255) NOT NULL UNIQUE,
+    -- NULL mientras el pago espera la respuesta de la pasarela; UNIQUE admite varios NULL
+    id_intento_pago_stripe VARCHAR(255) NULL UNIQUE,
 
     fecha_pago DATETIME NULL,
     url_comprobante VARCHAR(500) NULL,
@@ -113,22 +128,67 @@ CREATE TABLE IF NOT EXISTS pagos (
 
     fecha_creacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
 
+    reconciliacion_lease VARCHAR(36) NULL,
+    reconciliacion_hasta DATETIME NULL,
+
+    INDEX idx_pagos_estado (estado, id),
+
     FOREIGN KEY (suscripcion_id)
         REFERENCES suscripciones_usuarios(id)
         ON DELETE RESTRICT ON UPDATE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
 
--- TABLA AUXILIAR: SECUENCIA DE FACTURAS
--- Controla el consecutivo de facturación sin violar claves foráneas.
+-- TABLA: RANGOS DE NUMERACIÓN DE FACTURAS
+-- Un consecutivo por prefijo (ej: uno por resolución DIAN). Los nodos reservan bloques de
+-- tamano_bloque números avanzando "siguiente" en una transacción corta (AsignadorConsecutivos).
+-- modo SIN_HUECOS: los números reservados que no terminan en factura se vuelven a emitir.
+
+CREATE TABLE IF NOT EXISTS rangos_numeracion (
+    prefijo VARCHAR(10) PRIMARY KEY,
+    resolucion VARCHAR(50) NULL,
+    numero_desde BIGINT NOT NULL,
+    numero_hasta BIGINT NOT NULL,
+    siguiente BIGINT NOT NULL,
+    modo ENUM('RAPIDO', 'SIN_HUECOS') NOT NULL DEFAULT 'RAPIDO',
+    tamano_bloque INT NOT NULL DEFAULT 100,
+    activo BOOLEAN NOT NULL DEFAULT TRUE,
+    fecha_actualizacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+INSERT IGNORE INTO rangos_numeracion (prefijo, numero_desde, numero_hasta, siguiente, modo, tamano_bloque)
+VALUES ('FZ', 1001, 999999999, 1001, 'RAPIDO', 100);
+
+
+-- TABLA: BLOQUES DE CONSECUTIVOS (rangos SIN_HUECOS)
+-- Bloque reservado por un nodo; al vencer la reserva, sus números sin factura se liberan.
+
+CREATE TABLE IF NOT EXISTS bloques_consecutivos (
+    id VARCHAR(36) PRIMARY KEY,
+    prefijo VARCHAR(10) NOT NULL,
+    numero_desde BIGINT NOT NULL,
+    numero_hasta BIGINT NOT NULL,
+    reserva_nodo VARCHAR(36) NOT NULL,
+    reserva_hasta DATETIME NOT NULL,
+
+    INDEX idx_bloques_consecutivos_reserva (reserva_hasta)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+
+-- TABLA: CONSECUTIVOS LIBERADOS (rangos SIN_HUECOS)
+-- Números reservados que no terminaron en factura; se emiten antes que los nuevos y la fila
+-- se borra en la misma transacción que guarda la factura que lo usa.
 
-CREATE TABLE IF NOT EXISTS secuencia_facturas (
-    id INT PRIMARY KEY DEFAULT 1,
-    consecutivo BIGINT NOT NULL DEFAULT 1000
-);
+CREATE TABLE IF NOT EXISTS consecutivos_liberados (
+    numero VARCHAR(50) PRIMARY KEY,
+    prefijo VARCHAR(10) NOT NULL,
+    consecutivo BIGINT NOT NULL,
+    reserva_nodo VARCHAR(36) NULL,
+    reserva_hasta DATETIME NULL,
+    fecha_liberacion DATETIME NOT NULL,
 
-INSERT IGNORE INTO secuencia_facturas (id, consecutivo)
-VALUES (1, 1000);
+    INDEX idx_consecutivos_liberados_prefijo (prefijo, consecutivo)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
 
 -- TABLA: FACTURAS DIAN
@@ -155,6 +215,7 @@ CREATE TABLE IF NOT EXISTS facturas (
     cufe VARCHAR(200) NULL,
     respuesta_dian JSON NULL,
 
+    -- Claves SHA-256 de los documentos en el almacen; NULL hasta que se generan
     pdf_url VARCHAR(500) NULL,
     xml_url VARCHAR(500) NULL,
 
@@ -162,6 +223,12 @@ CREATE TABLE IF NOT EXISTS facturas (
     fecha_actualizacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
 
     UNIQUE (numero_factura),
+    -- Una factura por pago, aunque generarFactura y la cola de facturación coincidan
+    UNIQUE KEY uk_facturas_pago (pago_id),
+    -- Usado al liberar los números de un bloque vencido
+    INDEX idx_facturas_prefijo_consecutivo (prefijo, consecutivo),
+    -- Barrido de facturas sin documentos (RenderizadorFacturas)
+    INDEX idx_facturas_fecha_creacion (fecha_creacion),
 
     FOREIGN KEY (pago_id)
         REFERENCES pagos(id)
@@ -169,6 +236,58 @@ CREATE TABLE IF NOT EXISTS facturas (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
 
+-- TABLA: COLA DE FACTURAS
+-- Pagos completados esperando su factura. Se insertan en la transacción que completa el pago
+-- y se borran en la que guarda la factura; los trabajadores la leen por proximo_intento.
+
+CREATE TABLE IF NOT EXISTS cola_facturas (
+    pago_id VARCHAR(36) PRIMARY KEY,
+    prefijo VARCHAR(10) NOT NULL,
+    estado ENUM('PENDIENTE', 'FALLIDO') NOT NULL DEFAULT 'PENDIENTE',
+    intentos INT NOT NULL DEFAULT 0,
+    proximo_intento DATETIME NOT NULL,
+    ultimo_error VARCHAR(500) NULL,
+    reserva_nodo VARCHAR(36) NULL,
+    reserva_hasta DATETIME NULL,
+    fecha_creacion DATETIME NOT NULL,
+    fecha_actualizacion DATETIME NULL,
+
+    INDEX idx_cola_facturas_estado (estado, proximo_intento),
+
+    FOREIGN KEY (pago_id)
+        REFERENCES pagos(id)
+        ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+
+-- TABLA: ENVÍOS A LA DIAN
+-- Facturas emitidas y anulaciones pendientes de enviar a la DIAN. Se insertan en la
+-- transacción que emite o anula la factura y se borran cuando la DIAN acepta el documento;
+-- los rechazados y los que agotan sus intentos quedan para revisión.
+
+CREATE TABLE IF NOT EXISTS envios_dian (
+    id VARCHAR(36) PRIMARY KEY,
+    factura_id VARCHAR(36) NOT NULL,
+    tipo ENUM('FACTURA', 'ANULACION') NOT NULL,
+    motivo VARCHAR(500) NULL,
+    estado ENUM('PENDIENTE', 'RECHAZADO', 'FALLIDO', 'BLOQUEADO') NOT NULL DEFAULT 'PENDIENTE',
+    intentos INT NOT NULL DEFAULT 0,
+    proximo_intento DATETIME NOT NULL,
+    ultimo_error VARCHAR(500) NULL,
+    reserva_nodo VARCHAR(36) NULL,
+    reserva_hasta DATETIME NULL,
+    fecha_creacion DATETIME NOT NULL,
+    fecha_actualizacion DATETIME NULL,
+
+    UNIQUE KEY uk_envios_dian_factura_tipo (factura_id, tipo),
+    INDEX idx_envios_dian_estado (estado, proximo_intento),
+
+    FOREIGN KEY (factura_id)
+        REFERENCES facturas(id)
+        ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+
 -- TABLA: LOGS DE SUSCRIPCIONES
 -- Registra cambios, acciones y auditoría en suscripciones.
 
@@ -206,6 +325,136 @@ CREATE TABLE IF NOT EXISTS logs_suscripciones (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
 
+-- TABLA: CLAVES DE IDEMPOTENCIA
+-- Guarda la respuesta de cada Idempotency-Key usada en pagos, para devolverla en los reintentos.
+
+CREATE TABLE IF NOT EXISTS claves_idempotencia (
+    id CHAR(64) PRIMARY KEY,
+    huella_solicitud CHAR(64) NOT NULL,
+    estado ENUM('EN_PROCESO', 'COMPLETADA') NOT NULL DEFAULT 'EN_PROCESO',
+    respuesta TEXT NULL,
+    fecha_creacion TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    fecha_expiracion TIMESTAMP NOT NULL,
+
+    INDEX idx_claves_idempotencia_expiracion (fecha_expiracion)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+
+-- TABLA: EVENTOS DE WEBHOOK
+-- Eventos de Stripe tal como llegaron; un proceso en segundo plano los aplica a pagos y suscripciones.
+
+CREATE TABLE IF NOT EXISTS eventos_webhook (
+    id VARCHAR(255) PRIMARY KEY,
+    tipo VARCHAR(100) NOT NULL,
+    id_intento_pago VARCHAR(255) NULL,
+    creado_stripe BIGINT NOT NULL,
+    payload TEXT NOT NULL,
+    estado ENUM('PENDIENTE', 'PROCESADO', 'IGNORADO', 'FALLIDO') NOT NULL DEFAULT 'PENDIENTE',
+    intentos INT NOT NULL DEFAULT 0,
+    error TEXT NULL,
+    reserva_nodo VARCHAR(36) NULL,
+    reserva_hasta DATETIME NULL,
+    fecha_recepcion TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    fecha_procesado TIMESTAMP NULL,
+
+    INDEX idx_eventos_webhook_estado (estado, creado_stripe),
+    INDEX idx_eventos_webhook_intento (id_intento_pago, estado)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+
+-- TABLA: REINTENTOS DE PAGO (COBRANZA)
+-- Cobranza de suscripciones con un pago fallido; se lee como una cola ordenada por proximo_intento.
+
+CREATE TABLE IF NOT EXISTS reintentos_pago (
+    id VARCHAR(36) PRIMARY KEY,
+    suscripcion_id VARCHAR(36) NOT NULL,
+    usuario_id VARCHAR(36) NOT NULL,
+    pago_id VARCHAR(36) NULL,
+    monto DECIMAL(10,2) NOT NULL,
+    moneda VARCHAR(3) NOT NULL DEFAULT 'COP',
+    motivo ENUM('FONDOS_INSUFICIENTES', 'TARJETA_EXPIRADA', 'AUTENTICACION_REQUERIDA',
+                'ERROR_PASARELA', 'SIN_METODO_PAGO', 'RECHAZO_GENERICO') NOT NULL,
+    intentos INT NOT NULL DEFAULT 0,
+    proximo_intento DATETIME NOT NULL,
+    estado ENUM('PROGRAMADO', 'EXITOSO', 'AGOTADO', 'CANCELADO') NOT NULL DEFAULT 'PROGRAMADO',
+    -- suscripcion_id mientras estado = 'PROGRAMADO', NULL en otro caso: a lo sumo una cobranza programada por suscripción
+    suscripcion_programada VARCHAR(36) NULL,
+    ultimo_error VARCHAR(500) NULL,
+    reserva_nodo VARCHAR(36) NULL,
+    reserva_hasta DATETIME NULL,
+    fecha_creacion DATETIME NOT NULL,
+    fecha_actualizacion DATETIME NULL,
+
+    INDEX idx_reintentos_pago_estado (estado, proximo_intento),
+    INDEX idx_reintentos_pago_suscripcion (suscripcion_id, estado),
+    UNIQUE KEY uk_reintentos_pago_programada (suscripcion_programada),
+
+    FOREIGN KEY (suscripcion_id)
+        REFERENCES suscripciones_usuarios(id)
+        ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+
+-- TABLA: EJECUCIONES DE RENOVACIÓN
+-- Cada cobro de renovaciones mensuales; el ID es la fecha de corte truncada a la hora.
+
+CREATE TABLE IF NOT EXISTS ejecuciones_renovacion (
+    id VARCHAR(36) PRIMARY KEY,
+    fecha_corte DATETIME NOT NULL,
+    fecha_desde DATETIME NOT NULL,
+    particiones INT NOT NULL,
+    estado ENUM('EN_CURSO', 'COMPLETADA') NOT NULL DEFAULT 'EN_CURSO',
+    fecha_inicio DATETIME NOT NULL,
+    fecha_fin DATETIME NULL,
+
+    INDEX idx_ejecuciones_renovacion_estado (estado, fecha_corte),
+    INDEX idx_ejecuciones_renovacion_corte (fecha_corte)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+
+-- TABLA: PUNTOS DE CONTROL DE RENOVACIÓN
+-- Avance de cada partición de una ejecución; se actualiza junto con los cobros de cada página.
+
+CREATE TABLE IF NOT EXISTS puntos_control_renovacion (
+    id VARCHAR(48) PRIMARY KEY,
+    ejecucion_id VARCHAR(36) NOT NULL,
+    particion INT NOT NULL,
+    desde_id VARCHAR(36) NOT NULL,
+    hasta_id VARCHAR(36) NOT NULL,
+    ultimo_id VARCHAR(36) NOT NULL DEFAULT '',
+    procesadas INT NOT NULL DEFAULT 0,
+    renovadas INT NOT NULL DEFAULT 0,
+    pendientes INT NOT NULL DEFAULT 0,
+    fallidas INT NOT NULL DEFAULT 0,
+    terminada BOOLEAN NOT NULL DEFAULT FALSE,
+    reserva_nodo VARCHAR(36) NULL,
+    reserva_hasta DATETIME NULL,
+    fecha_actualizacion DATETIME NULL,
+
+    INDEX idx_puntos_control_ejecucion (ejecucion_id, particion),
+
+    FOREIGN KEY (ejecucion_id)
+        REFERENCES ejecuciones_renovacion(id)
+        ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+
+-- TABLA: CAMBIOS DE DERECHOS
+-- Registro compartido de cambios de derechos; cada nodo lo lee por ID para el feed y sus copias en memoria.
+
+CREATE TABLE IF NOT EXISTS cambios_derechos (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    usuario_id VARCHAR(36) NOT NULL,
+    suscripcion_id VARCHAR(36) NOT NULL,
+    plan VARCHAR(50) NOT NULL,
+    estado ENUM('ACTIVA', 'CANCELADA', 'EXPIRADA', 'PENDIENTE_PAGO', 'SIN_SUSCRIPCION') NOT NULL,
+    fin_periodo_actual DATETIME NULL,
+    fecha_cambio DATETIME NOT NULL,
+
+    INDEX idx_cambios_derechos_fecha (fecha_cambio)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+
 -- TABLA: REPORTES DE INGRESOS
 -- Guarda reportes generados para administración.
 
@@ -322,7 +571,9 @@ BEGIN
     SET estado = 'CANCELADA',
         fecha_cancelacion = NOW(),
         fecha_actualizacion = NOW(),
-        cancelar_al_final_periodo = TRUE
+        cancelar_al_final_periodo = TRUE,
+        usuario_activo = NULL,
+        version = version + 1
     WHERE id = p_suscripcion_id
       AND usuario_id = p_usuario_id;
 
@@ -346,7 +597,7 @@ DELIMITER ;
 
 
 -- PROCEDIMIENTO: GENERAR FACTURA
--- Usa secuencia_facturas para el consecutivo.
+-- Toma un solo consecutivo del rango 'FZ' (la aplicación los toma por bloques).
 
 DELIMITER $$
 CREATE PROCEDURE sp_generar_factura(
@@ -358,13 +609,18 @@ BEGIN
     DECLARE v_usuario_id VARCHAR(36);
     DECLARE v_iva DECIMAL(10,2);
 
-    UPDATE secuencia_facturas
-        SET consecutivo = consecutivo + 1
-    WHERE id = 1;
+    SELECT siguiente INTO v_consecutivo
+    FROM rangos_numeracion
+    WHERE prefijo = 'FZ' AND siguiente <= numero_hasta
+    FOR UPDATE;
+
+    IF v_consecutivo IS NULL THEN
+        SIGNAL SQLSTATE '45000' SET MESSAGE_TEXT = 'Rango de numeración FZ agotado o inexistente';
+    END IF;
 
-    SELECT consecutivo INTO v_consecutivo
-    FROM secuencia_facturas
-    WHERE id = 1;
+    UPDATE rangos_numeracion
+        SET siguiente = siguiente + 1
+    WHERE prefijo = 'FZ';
 
     SELECT monto, usuario_id, monto * 0.19
     INTO v_pago_monto, v_usuario_id, v_iva
@@ -0,0 +1,112 @@
+package com.zabora.subscription.benchmark;
+
+import com.zabora.subscription.modelo.entidad.Factura;
+import com.zabora.subscription.servicio.GeneradorCufe;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide el costo por factura del CUFE (SHA-384 DIAN) con GeneradorCufe, comparado con
+ * armar la entrada con String.format y crear un MessageDigest por factura.
+ *
+ * calcularLote reparte 10.000 facturas entre los procesadores; el tiempo reportado es
+ * el del lote completo (dividirlo entre 10.000 para el costo por factura).
+ * Ejecutar con: mvn -Pbenchmark test-compile exec:exec -Dbenchmark.filtro=CufeBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public class CufeBenchmark {
+
+    private static final int TAMANO_LOTE = 10_000;
+    private static final DateTimeFormatter HORA = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private GeneradorCufe generador;
+    private List<Factura> lote;
+    private int siguiente;
+
+    @Setup
+    public void preparar() {
+        generador = new GeneradorCufe("900123456", "fc8eac422eba16e22ffd8c6f94b3f40a6e38162c", "2",
+                "America/Bogota", 0);
+        lote = new ArrayList<>(TAMANO_LOTE);
+        LocalDateTime emision = generador.ahora();
+        for (int i = 0; i < TAMANO_LOTE; i++) {
+            Factura nueva = new Factura();
+            nueva.setPrefijo("FZ");
+            nueva.setConsecutivo(1001L + i);
+            nueva.setFechaCreacion(emision.plusSeconds(i));
+            nueva.setSubtotal(new BigDecimal("20999.16"));
+            nueva.setIva(new BigDecimal("3989.84"));
+            nueva.setTotal(new BigDecimal("24989.00"));
+            lote.add(nueva);
+        }
+
+        // Los dos caminos deben dar el mismo CUFE
+        if (!generador.calcular(lote.get(0)).equals(cufeConStrings(lote.get(0)))) {
+            throw new IllegalStateException("GeneradorCufe no coincide con el cálculo de referencia");
+        }
+    }
+
+    @TearDown
+    public void cerrar() throws InterruptedException {
+        generador.cerrar();
+    }
+
+    @Benchmark
+    public String calcularUno() {
+        siguiente = (siguiente + 1) % TAMANO_LOTE;
+        return generador.calcular(lote.get(siguiente));
+    }
+
+    @Benchmark
+    public String calcularConStrings() {
+        siguiente = (siguiente + 1) % TAMANO_LOTE;
+        return cufeConStrings(lote.get(siguiente));
+    }
+
+    // Entrada armada con String.format y un MessageDigest nuevo por factura
+    private static String cufeConStrings(Factura f) {
+        String entrada = String.format("%s%d%s%s-05:00%s01%s04%s03%s%s%s%s%s%s",
+                f.getPrefijo(), f.getConsecutivo(),
+                f.getFechaCreacion().toLocalDate(), f.getFechaCreacion().format(HORA),
+                f.getSubtotal().toPlainString(), f.getIva().toPlainString(), "0.00", "0.00",
+                f.getTotal().toPlainString(), "900123456", "222222222222",
+                "fc8eac422eba16e22ffd8c6f94b3f40a6e38162c", "2");
+        try {
+            MessageDigest sha384 = MessageDigest.getInstance("SHA-384");
+            return HexFormat.of().formatHex(sha384.digest(entrada.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<String> calcularLote() {
+        return generador.calcular(lote);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String[] calcularLoteEnUnHilo() {
+        String[] cufes = new String[TAMANO_LOTE];
+        for (int i = 0; i < TAMANO_LOTE; i++) {
+            cufes[i] = generador.calcular(lote.get(i));
+        }
+        return cufes;
+    }
+}
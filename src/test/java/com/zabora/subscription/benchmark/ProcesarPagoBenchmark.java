@@ -0,0 +1,158 @@
+package com.zabora.subscription.benchmark;
+
+import com.zabora.subscription.modelo.dto.SolicitudPagoDTO;
+import com.zabora.subscription.modelo.entidad.Pago;
+import com.zabora.subscription.modelo.entidad.UsuarioSuscripcion;
+import com.zabora.subscription.pasarela.SimuladorPasarela;
+import com.zabora.subscription.repositorio.LogSuscripcionRepository;
+import com.zabora.subscription.repositorio.MetodoPagoRepository;
+import com.zabora.subscription.repositorio.PagoRepository;
+import com.zabora.subscription.repositorio.UsuarioSuscripcionRepository;
+import com.zabora.subscription.servicio.EjecutorPasarela;
+import com.zabora.subscription.servicio.PagoServicio;
+import com.zabora.subscription.servicio.SuscripcionServicio;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Mide cuántos pagos por segundo se procesan con una pasarela lenta y un pool
+ * de 10 conexiones (el máximo configurado para Hikari).
+ *
+ * Cada transacción ocupa un permiso de un semáforo de 10, igual que una conexión del pool.
+ * - escalonado: PagoServicio.procesarPago real con SimuladorPasarela (dos transacciones cortas
+ *   y la pasarela fuera), con latencia fija o lognormal (la mediana indicada y p99 de 5 veces).
+ * - pasarelaDentroDeTransaccion: la misma latencia, pero con la conexión tomada mientras
+ *   se espera a la pasarela, como hacía procesarPago cuando era un solo @Transactional.
+ *
+ * Ejecutar con: mvn -Pbenchmark test-compile exec:exec -Dbenchmark.filtro=ProcesarPagoBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Threads(64)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProcesarPagoBenchmark {
+
+    private static final int CONEXIONES = 10;
+
+    @Param({"50", "200"})
+    private long latenciaPasarelaMs;
+
+    @Param({"fija", "lognormal"})
+    private String distribucion;
+
+    private PagoServicio pagoServicio;
+    private TransactionTemplate transactionTemplate;
+    private EjecutorPasarela ejecutorPasarela;
+    private SimuladorPasarela simulador;
+
+    @Setup
+    public void preparar() {
+        UsuarioSuscripcion suscripcion = new UsuarioSuscripcion();
+        suscripcion.setId("sub-benchmark");
+        suscripcion.setUsuarioId("usuario-benchmark");
+
+        // stubOnly: los mocks no guardan las invocaciones, así no crecen durante la medición
+        UsuarioSuscripcionRepository suscripcionRepository =
+                mock(UsuarioSuscripcionRepository.class, withSettings().stubOnly());
+        when(suscripcionRepository.findById(any())).thenReturn(Optional.of(suscripcion));
+
+        PagoRepository pagoRepository = mock(PagoRepository.class, withSettings().stubOnly());
+        when(pagoRepository.findById(any())).thenAnswer(invocacion -> {
+            Pago pago = new Pago();
+            pago.setId(invocacion.getArgument(0));
+            pago.setSuscripcion(suscripcion);
+            return Optional.of(pago);
+        });
+
+        PlatformTransactionManager poolConexiones = new PoolConexionesSimulado(CONEXIONES);
+        transactionTemplate = new TransactionTemplate(poolConexiones);
+        ejecutorPasarela = new EjecutorPasarela(64, 1000, 64, 1000, 30000,
+                CircuitBreakerRegistry.ofDefaults(), new SimpleMeterRegistry());
+        simulador = new SimuladorPasarela(distribucion,
+                latenciaPasarelaMs, latenciaPasarelaMs * 5, 0, 0, 0, 0, 0, 60000, 0);
+
+        pagoServicio = new PagoServicio(
+                pagoRepository,
+                mock(MetodoPagoRepository.class, withSettings().stubOnly()),
+                suscripcionRepository,
+                mock(LogSuscripcionRepository.class, withSettings().stubOnly()),
+                mock(SuscripcionServicio.class, withSettings().stubOnly()),
+                ejecutorPasarela,
+                simulador,
+                poolConexiones,
+                new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(pagoServicio, "timeoutPasarelaMs", 30000L);
+    }
+
+    @TearDown
+    public void cerrar() throws InterruptedException {
+        ejecutorPasarela.cerrar();
+    }
+
+    @Benchmark
+    public Object escalonado() {
+        return pagoServicio.procesarPago(solicitud());
+    }
+
+    @Benchmark
+    public Object pasarelaDentroDeTransaccion() {
+        return transactionTemplate.execute(estado -> simulador.cobrar(new Pago(), solicitud()));
+    }
+
+    private static SolicitudPagoDTO solicitud() {
+        SolicitudPagoDTO solicitud = new SolicitudPagoDTO();
+        solicitud.setIdSuscripcion("sub-benchmark");
+        solicitud.setMonto(new BigDecimal("19900"));
+        solicitud.setTipoPago("TARJETA_CREDITO");
+        solicitud.setTokenTarjetaPrueba("tok_visa");
+        return solicitud;
+    }
+
+    /**
+     * Transacciones que ocupan una de N conexiones mientras están abiertas.
+     */
+    private static final class PoolConexionesSimulado implements PlatformTransactionManager {
+
+        private final Semaphore conexiones;
+
+        private PoolConexionesSimulado(int conexiones) {
+            this.conexiones = new Semaphore(conexiones, true);
+        }
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definicion) {
+            conexiones.acquireUninterruptibly();
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus estado) {
+            conexiones.release();
+        }
+
+        @Override
+        public void rollback(TransactionStatus estado) {
+            conexiones.release();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.zabora.subscription.benchmark;
+
+import com.zabora.subscription.cliente.VerificadorTokenDerechos;
+import com.zabora.subscription.modelo.dto.RespuestaVerificacionDTO;
+import com.zabora.subscription.seguridad.JwtService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide el costo de emitir y verificar tokens de derecho (ES256),
+ * comparado con la consulta HTTP + base de datos que reemplazan.
+ *
+ * El tamaño del token se imprime al preparar el benchmark.
+ * Ejecutar con: mvn -Pbenchmark test-compile exec:exec -Dbenchmark.filtro=TokenDerechosBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenDerechosBenchmark {
+
+    private JwtService jwtService;
+    private VerificadorTokenDerechos verificador;
+    private RespuestaVerificacionDTO verificacion;
+    private String token;
+
+    @Setup
+    public void preparar() {
+        jwtService = new JwtService();
+        ReflectionTestUtils.setField(jwtService, "expiracionDerechos", 300000L);
+        ReflectionTestUtils.setField(jwtService, "clavePrivadaDerechos", "");
+        ReflectionTestUtils.setField(jwtService, "clavePublicaDerechos", "");
+        ReflectionTestUtils.setField(jwtService, "zonaHoraria", "America/Bogota");
+        jwtService.inicializarClavesDerechos();
+
+        verificador = VerificadorTokenDerechos.desdeBase64(jwtService.obtenerClavePublicaDerechos());
+
+        Map<String, Object> limites = new LinkedHashMap<>();
+        limites.put("condiciones_medicas", 3);
+        limites.put("alergias", 4);
+        limites.put("preferencias_alimentarias", 1);
+        limites.put("ingredientes_por_busqueda", 20);
+        limites.put("recetas_favoritas", null);
+
+        verificacion = RespuestaVerificacionDTO.builder()
+                .valida(true)
+                .plan("premium")
+                .estado("ACTIVA")
+                .fechaExpiracion(LocalDateTime.now().plusDays(20))
+                .limites(limites)
+                .build();
+
+        token = jwtService.generarTokenDerecho("user_premium_001", verificacion);
+        System.out.println("Tamaño del token de derecho: "
+                + token.getBytes(StandardCharsets.US_ASCII).length + " bytes");
+    }
+
+    @Benchmark
+    public String firmarToken() {
+        return jwtService.generarTokenDerecho("user_premium_001", verificacion);
+    }
+
+    @Benchmark
+    public boolean verificarToken() {
+        return verificador.verificar(token).esPremiumVigente();
+    }
+}
@@ -0,0 +1,52 @@
+package com.zabora.subscription.config;
+
+import com.zabora.subscription.modelo.dto.RespuestaVerificacionDTO;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CacheConfigTests {
+
+    private final CacheConfig.ExpiracionHastaFinDePeriodo expiracion =
+            new CacheConfig.ExpiracionHastaFinDePeriodo(Duration.ofSeconds(60));
+
+    @Test
+    void unaSuscripcionQueTerminaAntesDelTtlVenceAlFinDelPeriodo() {
+        long nanos = expiracion.expireAfterCreate("usuario-1",
+                activa(LocalDateTime.now().plusSeconds(10)), 0);
+
+        assertThat(nanos).isBetween(Duration.ofSeconds(8).toNanos(), Duration.ofSeconds(10).toNanos());
+    }
+
+    @Test
+    void unaSuscripcionYaTerminadaNoSeGuarda() {
+        assertThat(expiracion.expireAfterCreate("usuario-1", activa(LocalDateTime.now().minusSeconds(1)), 0))
+                .isZero();
+    }
+
+    @Test
+    void lasDemasRespuestasUsanElTtl() {
+        long ttl = Duration.ofSeconds(60).toNanos();
+
+        assertThat(expiracion.expireAfterCreate("usuario-1", activa(LocalDateTime.now().plusDays(30)), 0))
+                .isEqualTo(ttl);
+        assertThat(expiracion.expireAfterCreate("usuario-2", RespuestaVerificacionDTO.builder()
+                .valida(false).plan("gratuito").estado("SIN_SUSCRIPCION").build(), 0))
+                .isEqualTo(ttl);
+        // Reemplazar la entrada recalcula el vencimiento con la respuesta nueva
+        assertThat(expiracion.expireAfterUpdate("usuario-1", activa(LocalDateTime.now().minusSeconds(1)), 0, ttl))
+                .isZero();
+    }
+
+    private static RespuestaVerificacionDTO activa(LocalDateTime fin) {
+        return RespuestaVerificacionDTO.builder()
+                .valida(true)
+                .plan("premium")
+                .estado("ACTIVA")
+                .fechaExpiracion(fin)
+                .build();
+    }
+}
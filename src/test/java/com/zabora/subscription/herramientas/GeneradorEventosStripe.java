@@ -0,0 +1,174 @@
+package com.zabora.subscription.herramientas;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Genera eventos de webhook de Stripe firmados y los envía a /api/webhooks/stripe.
+ *
+ * Sirve para reproducir miles de eventos contra una instancia local: por cada intento de
+ * pago genera su secuencia (éxito y a veces reembolso, o rechazo), repite algunos eventos
+ * como hace Stripe al reintentar y los envía desordenados y en paralelo.
+ *
+ * Ejecutar con:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.zabora.subscription.herramientas.GeneradorEventosStripe
+ *     -Dexec.args="http://localhost:8080/api/webhooks/stripe whsec_... 5000 [archivo-intentos.txt]"
+ *
+ * El archivo opcional tiene un id_intento_pago_stripe por línea (ej: de SELECT id_intento_pago_stripe FROM pagos);
+ * sin él se usan IDs inventados y los eventos quedan IGNORADOS, lo que sirve para medir la ingesta.
+ */
+public class GeneradorEventosStripe {
+
+    private static final double PROBABILIDAD_DUPLICADO = 0.1;
+    private static final double PROBABILIDAD_RECHAZO = 0.2;
+    private static final double PROBABILIDAD_REEMBOLSO = 0.1;
+    private static final int ENVIOS_SIMULTANEOS = 32;
+
+    private final String secreto;
+    private final AtomicLong secuencia = new AtomicLong();
+
+    public GeneradorEventosStripe(String secreto) {
+        this.secreto = secreto;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Uso: GeneradorEventosStripe <url> <secreto-webhook> <cantidad> [archivo-intentos]");
+            System.exit(1);
+        }
+        URI url = URI.create(args[0]);
+        GeneradorEventosStripe generador = new GeneradorEventosStripe(args[1]);
+        int cantidad = Integer.parseInt(args[2]);
+        List<String> intentos = args.length > 3
+                ? Files.readAllLines(Path.of(args[3])).stream().map(String::trim).filter(s -> !s.isEmpty()).toList()
+                : List.of();
+
+        List<String> eventos = generador.generar(cantidad, intentos);
+        System.out.printf("Enviando %d eventos (%d con duplicados) a %s%n", cantidad, eventos.size(), url);
+        generador.enviar(url, eventos);
+    }
+
+    /**
+     * Genera aproximadamente {@code cantidad} eventos, con duplicados y en desorden.
+     *
+     * @param intentos IDs de intentos de pago existentes; si está vacío se inventan
+     * @return Cuerpos JSON de los eventos, listos para firmar y enviar
+     */
+    public List<String> generar(int cantidad, List<String> intentos) {
+        ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+        long creado = Instant.now().getEpochSecond() - cantidad;
+        List<String> eventos = new ArrayList<>(cantidad + cantidad / 5);
+
+        int indice = 0;
+        while (eventos.size() < cantidad) {
+            String intento = intentos.isEmpty()
+                    ? "pi_prueba_" + UUID.randomUUID().toString().replace("-", "")
+                    : intentos.get(indice++ % intentos.size());
+
+            if (aleatorio.nextDouble() < PROBABILIDAD_RECHAZO) {
+                eventos.add(eventoIntentoPago("payment_intent.payment_failed", intento, creado++));
+            } else {
+                eventos.add(eventoIntentoPago("payment_intent.succeeded", intento, creado++));
+                if (aleatorio.nextDouble() < PROBABILIDAD_REEMBOLSO) {
+                    eventos.add(eventoReembolso(intento, creado++));
+                }
+            }
+        }
+
+        // Stripe reintenta los avisos: algunos llegan más de una vez
+        int originales = eventos.size();
+        for (int i = 0; i < originales; i++) {
+            if (aleatorio.nextDouble() < PROBABILIDAD_DUPLICADO) {
+                eventos.add(eventos.get(i));
+            }
+        }
+        // y no garantiza el orden de entrega
+        Collections.shuffle(eventos);
+        return eventos;
+    }
+
+    /**
+     * Header Stripe-Signature para el cuerpo dado: t=marca,v1=HMAC-SHA256(secreto, "marca.cuerpo").
+     */
+    public String firmar(String payload, long marcaSegundos) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secreto.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] firma = mac.doFinal((marcaSegundos + "." + payload).getBytes(StandardCharsets.UTF_8));
+            return "t=" + marcaSegundos + ",v1=" + HexFormat.of().formatHex(firma);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void enviar(URI url, List<String> eventos) {
+        HttpClient cliente = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        Semaphore enVuelo = new Semaphore(ENVIOS_SIMULTANEOS);
+        Map<String, AtomicInteger> respuestas = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> envios = new ArrayList<>(eventos.size());
+        long inicio = System.nanoTime();
+
+        for (String evento : eventos) {
+            HttpRequest solicitud = HttpRequest.newBuilder(url)
+                    .header("Content-Type", "application/json")
+                    .header("Stripe-Signature", firmar(evento, Instant.now().getEpochSecond()))
+                    .POST(HttpRequest.BodyPublishers.ofString(evento))
+                    .build();
+            enVuelo.acquireUninterruptibly();
+            envios.add(cliente.sendAsync(solicitud, HttpResponse.BodyHandlers.ofString())
+                    .handle((respuesta, error) -> {
+                        String resultado = error != null ? "error"
+                                : respuesta.statusCode() + (respuesta.body().contains("\"duplicado\":true") ? " duplicado" : "");
+                        respuestas.computeIfAbsent(resultado, k -> new AtomicInteger()).incrementAndGet();
+                        enVuelo.release();
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(envios.toArray(new CompletableFuture[0])).join();
+
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.printf("%d eventos en %.1f s (%.0f/s): %s%n",
+                eventos.size(), segundos, eventos.size() / segundos, new TreeMap<>(respuestas));
+    }
+
+    private String eventoIntentoPago(String tipo, String intento, long creado) {
+        String error = tipo.endsWith("payment_failed")
+                ? ",\"last_payment_error\":{\"message\":\"Your card was declined.\"}"
+                : "";
+        return evento(tipo, creado,
+                "{\"id\":\"" + intento + "\",\"object\":\"payment_intent\",\"status\":\""
+                        + (error.isEmpty() ? "succeeded" : "requires_payment_method") + "\"" + error + "}");
+    }
+
+    private String eventoReembolso(String intento, long creado) {
+        return evento("charge.refunded", creado,
+                "{\"id\":\"ch_" + intento.substring(3) + "\",\"object\":\"charge\",\"payment_intent\":\""
+                        + intento + "\",\"refunded\":true}");
+    }
+
+    private String evento(String tipo, long creado, String objeto) {
+        return "{\"id\":\"evt_prueba_" + creado + "_" + secuencia.incrementAndGet() + "\","
+                + "\"object\":\"event\",\"type\":\"" + tipo + "\",\"created\":" + creado + ","
+                + "\"livemode\":false,\"data\":{\"object\":" + objeto + "}}";
+    }
+}
@@ -0,0 +1,177 @@
+package com.zabora.subscription.herramientas;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Servidor HTTP local que hace de DIAN para ClienteDianHttp, sin red externa.
+ *
+ * Recibe POST /dian/documentos/lote y responde cada documento después de una latencia
+ * lognormal (mediana latencia-ms, percentil 99 latencia-p99-ms, por lote). Rechaza al azar
+ * una fracción de los documentos, y responde HTTP 503 a una fracción de los lotes para
+ * probar los reintentos. Un documento que se repite (mismo CUFE y tipo) recibe la misma
+ * respuesta que la primera vez, como al reenviar un lote que ya había llegado.
+ *
+ * Ejecutar con:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.zabora.subscription.herramientas.ServidorDianSimulado
+ *     -Dexec.args="8095 200 1500 0.05 0.02"
+ * (puerto, latencia-ms, latencia-p99-ms, tasa-rechazo, tasa-error) y arrancar la aplicación con
+ * app.facturacion.dian.envio.habilitado=true y app.facturacion.dian.envio.url=http://localhost:8095/dian.
+ * Cada 10 segundos imprime los lotes y documentos atendidos.
+ */
+public class ServidorDianSimulado {
+
+    // Percentil 99 de la normal estándar
+    private static final double Z_P99 = 2.3263;
+    private static final int HILOS = 64;
+
+    private final long latenciaMs;
+    private final long latenciaP99Ms;
+    private final double tasaRechazo;
+    private final double tasaError;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Respuesta de cada documento ya recibido, por CUFE y tipo
+    private final Map<String, ObjectNode> recibidos = new ConcurrentHashMap<>();
+
+    private final AtomicLong lotes = new AtomicLong();
+    private final Map<String, AtomicInteger> resultados = new ConcurrentHashMap<>();
+
+    public ServidorDianSimulado(long latenciaMs, long latenciaP99Ms, double tasaRechazo, double tasaError) {
+        this.latenciaMs = latenciaMs;
+        this.latenciaP99Ms = Math.max(latenciaP99Ms, latenciaMs);
+        this.tasaRechazo = tasaRechazo;
+        this.tasaError = tasaError;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int puerto = args.length > 0 ? Integer.parseInt(args[0]) : 8095;
+        ServidorDianSimulado dian = new ServidorDianSimulado(
+                args.length > 1 ? Long.parseLong(args[1]) : 200,
+                args.length > 2 ? Long.parseLong(args[2]) : 1500,
+                args.length > 3 ? Double.parseDouble(args[3]) : 0.05,
+                args.length > 4 ? Double.parseDouble(args[4]) : 0.02);
+
+        HttpServer servidor = HttpServer.create(new InetSocketAddress(puerto), 256);
+        servidor.createContext("/dian/documentos/lote", dian::atender);
+        // Cada lote espera su latencia en un hilo, como una conexión abierta con la DIAN
+        servidor.setExecutor(Executors.newFixedThreadPool(HILOS));
+        servidor.start();
+        System.out.printf("DIAN simulada en http://localhost:%d/dian%n", puerto);
+
+        long inicio = System.nanoTime();
+        while (true) {
+            Thread.sleep(10_000);
+            double segundos = (System.nanoTime() - inicio) / 1e9;
+            int documentos = dian.resultados.values().stream().mapToInt(AtomicInteger::get).sum();
+            System.out.printf("%d lotes, %d documentos (%.0f/s): %s%n",
+                    dian.lotes.get(), documentos, documentos / segundos, new TreeMap<>(dian.resultados));
+        }
+    }
+
+    private void atender(HttpExchange intercambio) throws IOException {
+        try {
+            if (!"POST".equals(intercambio.getRequestMethod())) {
+                responder(intercambio, 405, "{}");
+                return;
+            }
+            JsonNode lote;
+            try (InputStream cuerpo = intercambio.getRequestBody()) {
+                lote = objectMapper.readTree(cuerpo);
+            }
+            lotes.incrementAndGet();
+            ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+
+            esperar(muestrearLatencia(aleatorio));
+            if (aleatorio.nextDouble() < tasaError) {
+                contar("http_503", lote.path("documentos").size());
+                responder(intercambio, 503, "{\"mensaje\":\"Servicio no disponible (simulado)\"}");
+                return;
+            }
+
+            ObjectNode respuesta = objectMapper.createObjectNode();
+            ArrayNode respuestas = respuesta.putArray("respuestas");
+            for (JsonNode documento : lote.path("documentos")) {
+                String clave = documento.path("cufe").asText() + ":" + documento.path("tipo").asText();
+                ObjectNode resultado = recibidos.computeIfAbsent(clave, k -> responderDocumento(documento, aleatorio));
+                // La misma respuesta, con el id del documento como lo envió el cliente
+                respuestas.add(resultado.deepCopy().put("id", documento.path("id").asText()));
+            }
+            responder(intercambio, 200, respuesta.toString());
+        } finally {
+            intercambio.close();
+        }
+    }
+
+    private ObjectNode responderDocumento(JsonNode documento, ThreadLocalRandom aleatorio) {
+        ObjectNode resultado = objectMapper.createObjectNode();
+        resultado.put("tipo", documento.path("tipo").asText());
+        resultado.put("idSeguimiento", UUID.randomUUID().toString());
+        boolean sinXml = "FACTURA".equals(documento.path("tipo").asText()) && !documento.hasNonNull("xml");
+        if (sinXml || aleatorio.nextDouble() < tasaRechazo) {
+            resultado.put("aceptado", false);
+            resultado.put("codigo", "99");
+            resultado.put("mensaje", sinXml
+                    ? "Documento sin XML (simulado)"
+                    : "Validación contiene errores en campos mandatorios (simulado)");
+            contar("rechazado", 1);
+        } else {
+            resultado.put("aceptado", true);
+            resultado.put("codigo", "00");
+            resultado.put("mensaje", "Procesado Correctamente (simulado)");
+            contar("aceptado", 1);
+        }
+        return resultado;
+    }
+
+    private long muestrearLatencia(ThreadLocalRandom aleatorio) {
+        if (latenciaMs <= 0) {
+            return 0;
+        }
+        double sigma = Math.log((double) latenciaP99Ms / latenciaMs) / Z_P99;
+        return Math.round(latenciaMs * Math.exp(sigma * aleatorio.nextGaussian()));
+    }
+
+    private void contar(String resultado, int cantidad) {
+        resultados.computeIfAbsent(resultado, k -> new AtomicInteger()).addAndGet(cantidad);
+    }
+
+    private static void esperar(long milisegundos) {
+        if (milisegundos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(milisegundos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void responder(HttpExchange intercambio, int estado, String cuerpo) throws IOException {
+        byte[] bytes = cuerpo.getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", "application/json");
+        intercambio.sendResponseHeaders(estado, bytes.length);
+        try (OutputStream salida = intercambio.getResponseBody()) {
+            salida.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.zabora.subscription.indice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FiltroBloomTests {
+
+    @Test
+    void nuncaDaFalsosNegativos() {
+        FiltroBloom filtro = new FiltroBloom(10_000, 0.01);
+        List<String> agregados = usuarios(10_000);
+        agregados.forEach(filtro::agregar);
+
+        assertThat(agregados).allMatch(filtro::puedeContener);
+    }
+
+    @Test
+    void losFalsosPositivosQuedanCercaDeLaProbabilidadPedida() {
+        FiltroBloom filtro = new FiltroBloom(20_000, 0.01);
+        usuarios(20_000).forEach(filtro::agregar);
+
+        List<String> ausentes = usuarios(100_000);
+        long falsosPositivos = ausentes.stream().filter(filtro::puedeContener).count();
+        double proporcion = (double) falsosPositivos / ausentes.size();
+
+        // 1% pedido; margen amplio para que la prueba no dependa del azar de los UUID
+        assertThat(proporcion).isLessThan(0.02);
+        assertThat(filtro.probabilidadFalsoPositivoEstimada()).isBetween(0.002, 0.02);
+    }
+
+    @Test
+    void dimensionaBitsYHashesSegunLaCapacidad() {
+        FiltroBloom filtro = new FiltroBloom(1_000_000, 0.01);
+
+        // ~9,6 bits y ~7 hashes por elemento para un 1%
+        assertThat(filtro.tamanoBytes()).isBetween(1_150_000L, 1_250_000L);
+        assertThat(filtro.getCantidadHashes()).isEqualTo(7);
+    }
+
+    @Test
+    void unFiltroVacioNoContieneNada() {
+        FiltroBloom filtro = new FiltroBloom(0, 0.01);
+
+        assertThat(filtro.puedeContener("usuario-1")).isFalse();
+        assertThat(filtro.probabilidadFalsoPositivoEstimada()).isZero();
+    }
+
+    @Test
+    void agregarDesdeVariosHilosNoPierdeElementos() {
+        FiltroBloom filtro = new FiltroBloom(80_000, 0.01);
+        List<String> agregados = usuarios(80_000);
+        ExecutorService hilos = Executors.newFixedThreadPool(8);
+        try {
+            CompletableFuture.allOf(IntStream.range(0, 8)
+                    .mapToObj(parte -> CompletableFuture.runAsync(() -> {
+                        for (int i = parte; i < agregados.size(); i += 8) {
+                            filtro.agregar(agregados.get(i));
+                        }
+                    }, hilos))
+                    .toArray(CompletableFuture[]::new)).join();
+        } finally {
+            hilos.shutdown();
+        }
+
+        assertThat(agregados).allMatch(filtro::puedeContener);
+    }
+
+    private static List<String> usuarios(int cantidad) {
+        List<String> usuarios = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            usuarios.add(UUID.randomUUID().toString());
+        }
+        return usuarios;
+    }
+}
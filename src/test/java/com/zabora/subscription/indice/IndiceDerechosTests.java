@@ -0,0 +1,151 @@
+package com.zabora.subscription.indice;
+
+import com.zabora.subscription.evento.CambioSuscripcionEvento;
+import com.zabora.subscription.evento.CambiosDerechosLeidosEvento;
+import com.zabora.subscription.modelo.dto.CambioDerechoDTO;
+import com.zabora.subscription.modelo.enumeracion.EstadoSuscripcion;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class IndiceDerechosTests {
+
+    private static final LocalDateTime FIN = LocalDateTime.of(2026, 11, 30, 23, 59, 59);
+
+    private JdbcTemplate jdbcTemplate;
+    private IndiceDerechos indice;
+
+    @BeforeEach
+    void crear() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        indice = new IndiceDerechos(jdbcTemplate, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(indice, "habilitado", true);
+        // Capacidad mínima pequeña para que las pruebas también pasen por ampliar()
+        ReflectionTestUtils.setField(indice, "capacidadMinima", 16);
+        ReflectionTestUtils.setField(indice, "tamanoPagina", 1000);
+    }
+
+    @Test
+    void noRespondeHastaQueSeConstruye() {
+        assertThat(indice.estaListo()).isFalse();
+        assertThat(indice.buscar("usuario-1")).isEqualTo(IndiceDerechos.AUSENTE);
+
+        indice.reconstruir();
+
+        assertThat(indice.estaListo()).isTrue();
+        assertThat(indice.buscar("usuario-1")).isEqualTo(IndiceDerechos.AUSENTE);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void cargaLasSuscripcionesActivasDeLaBaseDeDatos() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class))).thenReturn(2L);
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(), any())).thenReturn(List.of(
+                new Object[] {"s-1", "usuario-1", "premium", Timestamp.valueOf(FIN)},
+                new Object[] {"s-2", "usuario-2", "gratuito", null}));
+
+        indice.reconstruir();
+
+        long premium = indice.buscar("usuario-1");
+        assertThat(indice.plan(premium)).isEqualTo("premium");
+        assertThat(IndiceDerechos.estado(premium)).isEqualTo(EstadoSuscripcion.ACTIVA);
+        assertThat(IndiceDerechos.finPeriodoSegundos(premium)).isEqualTo(FIN.toEpochSecond(ZoneOffset.UTC));
+
+        long gratuito = indice.buscar("usuario-2");
+        assertThat(indice.plan(gratuito)).isEqualTo("gratuito");
+        assertThat(IndiceDerechos.finPeriodoSegundos(gratuito)).isZero();
+    }
+
+    @Test
+    void aplicaActivacionesYCancelaciones() {
+        indice.reconstruir();
+
+        indice.alCambiarSuscripcion(cambio("usuario-1", "premium", EstadoSuscripcion.ACTIVA, FIN));
+        assertThat(indice.plan(indice.buscar("usuario-1"))).isEqualTo("premium");
+
+        indice.alCambiarSuscripcion(cambio("usuario-1", "premium", EstadoSuscripcion.CANCELADA, FIN));
+        assertThat(indice.buscar("usuario-1")).isEqualTo(IndiceDerechos.AUSENTE);
+    }
+
+    @Test
+    void elCambioDeOtraSuscripcionNoQuitaLaActiva() {
+        indice.reconstruir();
+        indice.alCambiarSuscripcion(cambio("usuario-1", "premium", EstadoSuscripcion.ACTIVA, FIN));
+
+        // La suscripción anterior del usuario (otro fin de periodo) pasa a EXPIRADA
+        indice.alCambiarSuscripcion(cambio("usuario-1", "premium", EstadoSuscripcion.EXPIRADA, FIN.minusMonths(1)));
+
+        assertThat(indice.plan(indice.buscar("usuario-1"))).isEqualTo("premium");
+    }
+
+    @Test
+    void aplicaLosCambiosLeidosDeOtrasInstancias() {
+        indice.reconstruir();
+        CambioDerechoDTO cambio = CambioDerechoDTO.builder()
+                .secuencia(1)
+                .usuarioId("usuario-1")
+                .plan("premium")
+                .estado(EstadoSuscripcion.ACTIVA.name())
+                .finPeriodoActual(FIN)
+                .build();
+
+        indice.alLeerCambios(new CambiosDerechosLeidosEvento(0, List.of(cambio)));
+        // Repetido (el cambio propio vuelve por el registro compartido): misma entrada
+        indice.alLeerCambios(new CambiosDerechosLeidosEvento(0, List.of(cambio)));
+
+        long entrada = indice.buscar("usuario-1");
+        assertThat(indice.plan(entrada)).isEqualTo("premium");
+        assertThat(IndiceDerechos.finPeriodoSegundos(entrada)).isEqualTo(FIN.toEpochSecond(ZoneOffset.UTC));
+    }
+
+    @Test
+    void seAmpliaSinPerderUsuarios() {
+        indice.reconstruir();
+        List<String> usuarios = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            String usuarioId = UUID.randomUUID().toString();
+            usuarios.add(usuarioId);
+            indice.alCambiarSuscripcion(cambio(usuarioId, i % 2 == 0 ? "premium" : "gratuito",
+                    EstadoSuscripcion.ACTIVA, FIN.plusSeconds(i)));
+        }
+
+        for (int i = 0; i < usuarios.size(); i++) {
+            long entrada = indice.buscar(usuarios.get(i));
+            assertThat(indice.plan(entrada)).isEqualTo(i % 2 == 0 ? "premium" : "gratuito");
+            assertThat(IndiceDerechos.finPeriodoSegundos(entrada))
+                    .isEqualTo(FIN.plusSeconds(i).toEpochSecond(ZoneOffset.UTC));
+        }
+        assertThat(indice.buscar("usuario-sin-suscripcion")).isEqualTo(IndiceDerechos.AUSENTE);
+    }
+
+    @Test
+    void deshabilitadoNoSeConstruye() {
+        ReflectionTestUtils.setField(indice, "habilitado", false);
+
+        indice.reconstruir();
+
+        assertThat(indice.estaListo()).isFalse();
+    }
+
+    private static CambioSuscripcionEvento cambio(String usuarioId, String plan, EstadoSuscripcion estado,
+                                                  LocalDateTime fin) {
+        return new CambioSuscripcionEvento(usuarioId, UUID.randomUUID().toString(), plan, estado, fin);
+    }
+}
@@ -0,0 +1,171 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.modelo.enumeracion.ModoNumeracion;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * AsignadorConsecutivos contra la base de datos de desarrollo (H2), cada prueba con su propio prefijo.
+ *
+ * La reserva de los bloques dura 1,5 s y no hay gracia, para poder vencer un bloque SIN_HUECOS
+ * dentro de la prueba y recuperar sus números.
+ */
+@SpringBootTest(properties = {
+        "app.facturacion.numeracion.reserva-ms=1500",
+        "app.facturacion.numeracion.gracia-ms=0"
+})
+class AsignadorConsecutivosTests {
+
+    private static final long RESERVA_MS = 1500;
+
+    @Autowired
+    private AsignadorConsecutivos asignador;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void reservaUnBloqueYRepartePorMemoria() {
+        String prefijo = rango(ModoNumeracion.RAPIDO, 1, 1000, 10);
+
+        List<Long> numeros = asignar(prefijo, 3);
+
+        assertThat(numeros).containsExactly(1L, 2L, 3L);
+        // Un solo bloque reservado: el rango ya apunta al siguiente bloque
+        assertThat(siguiente(prefijo)).isEqualTo(11L);
+
+        asignar(prefijo, 10);
+        assertThat(siguiente(prefijo)).isEqualTo(21L);
+    }
+
+    @Test
+    void variosHilosNoRepitenNumeros() {
+        String prefijo = rango(ModoNumeracion.RAPIDO, 1, 100_000, 25);
+        Set<Long> asignados = ConcurrentHashMap.newKeySet();
+        ExecutorService hilos = Executors.newFixedThreadPool(8);
+        try {
+            CompletableFuture.allOf(IntStream.range(0, 8)
+                    .mapToObj(h -> CompletableFuture.runAsync(() -> {
+                        for (int i = 0; i < 250; i++) {
+                            assertThat(asignados.add(asignador.asignar(prefijo).numero())).isTrue();
+                        }
+                    }, hilos))
+                    .toArray(CompletableFuture[]::new)).join();
+        } finally {
+            hilos.shutdown();
+        }
+
+        assertThat(asignados).hasSize(2000);
+        assertThat(asignados).allMatch(numero -> numero >= 1 && numero <= 2000);
+    }
+
+    @Test
+    void unNumeroDeUnaTransaccionRevertidaSeVuelveAAsignar() {
+        String prefijo = rango(ModoNumeracion.RAPIDO, 1, 1000, 10);
+        TransactionTemplate transaccion = new TransactionTemplate(transactionManager);
+
+        Long revertido = transaccion.execute(estado -> {
+            long numero = asignador.asignar(prefijo).numero();
+            estado.setRollbackOnly();
+            return numero;
+        });
+        Long confirmado = transaccion.execute(estado -> asignador.asignar(prefijo).numero());
+
+        assertThat(confirmado).isEqualTo(revertido);
+        assertThat(transaccion.execute(estado -> asignador.asignar(prefijo).numero())).isEqualTo(revertido + 1);
+    }
+
+    @Test
+    void sinHuecosRegistraElBloqueYRecuperaLosNumerosSinFactura() throws InterruptedException {
+        String prefijo = rango(ModoNumeracion.SIN_HUECOS, 1, 1000, 5);
+
+        assertThat(asignar(prefijo, 2)).containsExactly(1L, 2L);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM bloques_consecutivos WHERE prefijo = ?", Integer.class, prefijo)).isEqualTo(1);
+
+        // El nodo deja de usar el bloque (ej: se detuvo) y su reserva vence
+        Thread.sleep(RESERVA_MS + 200);
+        asignador.recuperarNoUsados();
+
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM bloques_consecutivos WHERE prefijo = ?", Integer.class, prefijo)).isZero();
+        // Ninguno de los cinco terminó en factura: todos vuelven a emitirse
+        assertThat(jdbcTemplate.queryForList(
+                "SELECT consecutivo FROM consecutivos_liberados WHERE prefijo = ? ORDER BY consecutivo",
+                Long.class, prefijo)).containsExactly(1L, 2L, 3L, 4L, 5L);
+
+        // Los liberados salen primero, en orden, y luego el rango sigue sin saltos
+        List<AsignadorConsecutivos.Consecutivo> reasignados = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            reasignados.add(asignador.asignar(prefijo));
+        }
+        assertThat(reasignados).extracting(AsignadorConsecutivos.Consecutivo::numero)
+                .containsExactly(1L, 2L, 3L, 4L, 5L, 6L);
+        assertThat(reasignados).extracting(AsignadorConsecutivos.Consecutivo::reutilizado)
+                .containsExactly(true, true, true, true, true, false);
+        // Cada liberado se consume de la tabla al asignarse
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM consecutivos_liberados WHERE prefijo = ?", Integer.class, prefijo)).isZero();
+    }
+
+    @Test
+    void fallaCuandoElRangoSeAgotaOEstaInactivo() {
+        String agotado = rango(ModoNumeracion.RAPIDO, 1, 3, 10);
+        assertThat(asignar(agotado, 3)).containsExactly(1L, 2L, 3L);
+        assertThatThrownBy(() -> asignador.asignar(agotado))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Se agotó el rango");
+
+        String inactivo = rango(ModoNumeracion.RAPIDO, 1, 1000, 10);
+        jdbcTemplate.update("UPDATE rangos_numeracion SET activo = FALSE WHERE prefijo = ?", inactivo);
+        assertThatThrownBy(() -> asignador.asignar(inactivo))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("No hay un rango de numeración activo");
+
+        assertThatThrownBy(() -> asignador.asignar("NOEXISTE"))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private List<Long> asignar(String prefijo, int cantidad) {
+        List<Long> numeros = new ArrayList<>();
+        for (int i = 0; i < cantidad; i++) {
+            numeros.add(asignador.asignar(prefijo).numero());
+        }
+        return numeros;
+    }
+
+    private String rango(ModoNumeracion modo, long desde, long hasta, int tamanoBloque) {
+        String prefijo = "T" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        jdbcTemplate.update(
+                "INSERT INTO rangos_numeracion (prefijo, numero_desde, numero_hasta, siguiente, modo, " +
+                "tamano_bloque, activo, fecha_actualizacion) VALUES (?, ?, ?, ?, ?, ?, TRUE, ?)",
+                prefijo, desde, hasta, desde, modo.name(), tamanoBloque, new Timestamp(System.currentTimeMillis()));
+        return prefijo;
+    }
+
+    private long siguiente(String prefijo) {
+        return jdbcTemplate.queryForObject(
+                "SELECT siguiente FROM rangos_numeracion WHERE prefijo = ?", Long.class, prefijo);
+    }
+}
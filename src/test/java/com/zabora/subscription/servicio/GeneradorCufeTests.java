@@ -0,0 +1,85 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.modelo.entidad.Factura;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * CUFE contra el ejemplo publicado en el anexo técnico de facturación electrónica de la DIAN
+ * (factura 323200000129 del 2019-01-16 10:53:10-05:00).
+ */
+class GeneradorCufeTests {
+
+    // Ejemplo del anexo técnico: emisor, clave técnica y ambiente de producción
+    private static final String NIT_EMISOR = "700085371";
+    private static final String CLAVE_TECNICA = "693ff6f2a553c3646a063436fd4dd9ded0311471";
+    private static final String ADQUIRENTE = "800199436";
+    private static final String CUFE_DIAN =
+            "8bb918b19ba22a694f1da11c643b5e9de39adf60311cf179179e9b33381030bcd4c3c3f156c506ed5908f9276f5bd9b4";
+
+    private final GeneradorCufe generador = new GeneradorCufe(NIT_EMISOR, CLAVE_TECNICA, "1", "America/Bogota", 2);
+
+    @AfterEach
+    void cerrar() throws InterruptedException {
+        generador.cerrar();
+    }
+
+    @Test
+    void coincideConElEjemploDeLaDian() {
+        assertThat(generador.calcular(facturaEjemplo(), ADQUIRENTE)).isEqualTo(CUFE_DIAN);
+    }
+
+    @Test
+    void usaLaHoraDeEmisionConElDesfaseDeLaZona() {
+        // La misma factura un segundo después ya no es la del ejemplo
+        Factura factura = facturaEjemplo();
+        factura.setFechaCreacion(factura.getFechaCreacion().plusSeconds(1));
+        assertThat(generador.calcular(factura, ADQUIRENTE)).isNotEqualTo(CUFE_DIAN);
+
+        // Con otra zona cambia el desfase (-05:00) aunque la hora local sea la misma
+        GeneradorCufe otraZona = new GeneradorCufe(NIT_EMISOR, CLAVE_TECNICA, "1", "UTC", 1);
+        try {
+            assertThat(otraZona.calcular(facturaEjemplo(), ADQUIRENTE)).isNotEqualTo(CUFE_DIAN);
+        } finally {
+            otraZona.cerrar();
+        }
+    }
+
+    @Test
+    void elLoteParaleloDaLoMismoQueUnoPorUno() {
+        List<Factura> lote = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Factura factura = facturaEjemplo();
+            factura.setPrefijo("FZ");
+            factura.setConsecutivo(1000L + i);
+            lote.add(factura);
+        }
+
+        List<String> cufes = generador.calcular(lote);
+
+        assertThat(cufes).hasSize(lote.size()).doesNotHaveDuplicates();
+        for (int i = 0; i < lote.size(); i += 97) {
+            assertThat(cufes.get(i)).isEqualTo(generador.calcular(lote.get(i)));
+        }
+        assertThat(cufes.get(0)).hasSize(96).matches("[0-9a-f]+");
+    }
+
+    private static Factura facturaEjemplo() {
+        Factura factura = new Factura();
+        // NumFac 323200000129: sin prefijo alfabético
+        factura.setPrefijo("");
+        factura.setConsecutivo(323200000129L);
+        factura.setFechaCreacion(LocalDateTime.of(2019, 1, 16, 10, 53, 10));
+        factura.setSubtotal(new BigDecimal("1500000.00"));
+        factura.setIva(new BigDecimal("285000.00"));
+        factura.setTotal(new BigDecimal("1785000.00"));
+        return factura;
+    }
+}
@@ -0,0 +1,217 @@
+package com.zabora.subscription.servicio;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zabora.subscription.excepcion.IdempotenciaException;
+import com.zabora.subscription.modelo.entidad.ClaveIdempotencia;
+import com.zabora.subscription.modelo.enumeracion.EstadoClaveIdempotencia;
+import com.zabora.subscription.repositorio.ClaveIdempotenciaRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Repetición de solicitudes con la misma Idempotency-Key. La tabla claves_idempotencia es un
+ * mapa en memoria compartido, así dos IdempotenciaServicio se comportan como dos instancias.
+ */
+class IdempotenciaServicioTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, ClaveIdempotencia> tabla = new ConcurrentHashMap<>();
+    private ClaveIdempotenciaRepository repositorio;
+
+    @BeforeEach
+    void crearTabla() {
+        repositorio = mock(ClaveIdempotenciaRepository.class);
+        when(repositorio.findById(anyString())).thenAnswer(i -> Optional.ofNullable(tabla.get(i.<String>getArgument(0))));
+        when(repositorio.saveAndFlush(any(ClaveIdempotencia.class))).thenAnswer(i -> {
+            ClaveIdempotencia clave = i.getArgument(0);
+            if (tabla.putIfAbsent(clave.getId(), clave) != null) {
+                throw new DataIntegrityViolationException("clave duplicada");
+            }
+            return clave;
+        });
+        when(repositorio.completar(anyString(), anyString())).thenAnswer(i -> {
+            ClaveIdempotencia clave = tabla.get(i.<String>getArgument(0));
+            clave.setEstado(EstadoClaveIdempotencia.COMPLETADA);
+            clave.setRespuesta(i.getArgument(1));
+            return 1;
+        });
+        doAnswer(i -> tabla.remove(i.<String>getArgument(0))).when(repositorio).deleteById(anyString());
+    }
+
+    @Test
+    void laMismaClaveDevuelveLaRespuestaGuardadaSinRepetirLaOperacion() {
+        IdempotenciaServicio servicio = servicio();
+        AtomicInteger ejecuciones = new AtomicInteger();
+
+        Respuesta primera = servicio.ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> new Respuesta("pago-" + ejecuciones.incrementAndGet(), "COMPLETADO"));
+        Respuesta repetida = servicio.ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> new Respuesta("pago-" + ejecuciones.incrementAndGet(), "COMPLETADO"));
+
+        assertThat(ejecuciones).hasValue(1);
+        assertThat(repetida).isEqualTo(primera);
+        assertThat(tabla.values()).singleElement()
+                .extracting(ClaveIdempotencia::getEstado).isEqualTo(EstadoClaveIdempotencia.COMPLETADA);
+    }
+
+    @Test
+    void otraInstanciaRepiteLaRespuestaDesdeLaBaseDeDatos() {
+        Respuesta original = servicio().ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> new Respuesta("pago-1", "COMPLETADO"));
+
+        Respuesta repetida = servicio().ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> {
+                    throw new AssertionError("No debe ejecutarse otra vez");
+                });
+
+        assertThat(repetida).isEqualTo(original);
+    }
+
+    @Test
+    void laMismaClaveEnOtroAmbitoEsIndependiente() {
+        IdempotenciaServicio servicio = servicio();
+
+        Respuesta deU1 = servicio.ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> new Respuesta("pago-1", "COMPLETADO"));
+        Respuesta deU2 = servicio.ejecutar("pago:u2", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> new Respuesta("pago-2", "COMPLETADO"));
+
+        assertThat(deU1.id()).isEqualTo("pago-1");
+        assertThat(deU2.id()).isEqualTo("pago-2");
+    }
+
+    @Test
+    void laMismaClaveConOtraSolicitudEsConflicto() {
+        IdempotenciaServicio servicio = servicio();
+        servicio.ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> new Respuesta("pago-1", "COMPLETADO"));
+
+        assertThatThrownBy(() -> servicio.ejecutar("pago:u1", "clave-1", Map.of("monto", 999), Respuesta.class,
+                () -> new Respuesta("pago-2", "COMPLETADO")))
+                .isInstanceOf(IdempotenciaException.class)
+                .hasMessageContaining("solicitud diferente");
+        // Lo mismo desde otra instancia, que solo tiene la fila
+        assertThatThrownBy(() -> servicio().ejecutar("pago:u1", "clave-1", Map.of("monto", 999), Respuesta.class,
+                () -> new Respuesta("pago-2", "COMPLETADO")))
+                .isInstanceOf(IdempotenciaException.class);
+    }
+
+    @Test
+    void siLaOperacionFallaLaClaveSeLiberaParaReintentar() {
+        IdempotenciaServicio servicio = servicio();
+
+        assertThatThrownBy(() -> servicio.ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> {
+                    throw new IllegalStateException("pasarela caída");
+                }))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(tabla).isEmpty();
+
+        Respuesta reintento = servicio.ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> new Respuesta("pago-1", "COMPLETADO"));
+        assertThat(reintento.estado()).isEqualTo("COMPLETADO");
+    }
+
+    @Test
+    void unaRespuestaNoDefinitivaSeActualizaAlRepetirla() {
+        servicio().ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> new Respuesta("pago-1", "PENDIENTE"));
+
+        // El pago se confirmó después (ej: webhook); al repetir se arma con su estado actual
+        Respuesta repetida = servicio().ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> {
+                    throw new AssertionError("No debe ejecutarse otra vez");
+                },
+                guardada -> "PENDIENTE".equals(guardada.estado()) ? new Respuesta(guardada.id(), "COMPLETADO") : guardada);
+
+        assertThat(repetida).isEqualTo(new Respuesta("pago-1", "COMPLETADO"));
+        // La respuesta nueva queda guardada para las siguientes repeticiones
+        assertThat(tabla.values()).singleElement()
+                .extracting(ClaveIdempotencia::getRespuesta).asString().contains("COMPLETADO");
+        assertThat(servicio().ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                () -> new Respuesta("otro", "PENDIENTE")).estado()).isEqualTo("COMPLETADO");
+    }
+
+    @Test
+    void lasSolicitudesSimultaneasSeUnenEnUnaSolaEjecucion() throws Exception {
+        IdempotenciaServicio servicio = servicio();
+        AtomicInteger ejecuciones = new AtomicInteger();
+        CountDownLatch dentro = new CountDownLatch(1);
+        CountDownLatch continuar = new CountDownLatch(1);
+        ExecutorService hilos = Executors.newFixedThreadPool(4);
+        try {
+            Future<Respuesta> primera = hilos.submit(() -> servicio.ejecutar("pago:u1", "clave-1",
+                    Map.of("monto", 100), Respuesta.class, () -> {
+                        ejecuciones.incrementAndGet();
+                        dentro.countDown();
+                        esperar(continuar);
+                        return new Respuesta("pago-1", "COMPLETADO");
+                    }));
+            assertThat(dentro.await(5, TimeUnit.SECONDS)).isTrue();
+
+            List<Future<Respuesta>> repetidas = List.of(
+                    hilos.submit(() -> servicio.ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                            () -> new Respuesta("pago-" + (1 + ejecuciones.incrementAndGet()), "COMPLETADO"))),
+                    hilos.submit(() -> servicio.ejecutar("pago:u1", "clave-1", Map.of("monto", 100), Respuesta.class,
+                            () -> new Respuesta("pago-" + (1 + ejecuciones.incrementAndGet()), "COMPLETADO"))));
+            continuar.countDown();
+
+            assertThat(primera.get(5, TimeUnit.SECONDS).id()).isEqualTo("pago-1");
+            for (Future<Respuesta> repetida : repetidas) {
+                assertThat(repetida.get(5, TimeUnit.SECONDS).id()).isEqualTo("pago-1");
+            }
+            assertThat(ejecuciones).hasValue(1);
+        } finally {
+            hilos.shutdownNow();
+        }
+    }
+
+    @Test
+    void sinClaveLaOperacionSeEjecutaSiempre() {
+        IdempotenciaServicio servicio = servicio();
+        AtomicInteger ejecuciones = new AtomicInteger();
+
+        servicio.ejecutar("pago:u1", null, Map.of("monto", 100), Respuesta.class,
+                () -> new Respuesta("pago-" + ejecuciones.incrementAndGet(), "COMPLETADO"));
+        servicio.ejecutar("pago:u1", " ", Map.of("monto", 100), Respuesta.class,
+                () -> new Respuesta("pago-" + ejecuciones.incrementAndGet(), "COMPLETADO"));
+
+        assertThat(ejecuciones).hasValue(2);
+        assertThat(tabla).isEmpty();
+    }
+
+    private IdempotenciaServicio servicio() {
+        return new IdempotenciaServicio(repositorio, objectMapper, 24, 1000, 5000);
+    }
+
+    private static void esperar(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    record Respuesta(String id, String estado) {
+    }
+}
@@ -0,0 +1,188 @@
+package com.zabora.subscription.servicio;
+
+import com.zabora.subscription.herramientas.GeneradorEventosStripe;
+import com.zabora.subscription.modelo.entidad.EventoWebhook;
+import com.zabora.subscription.modelo.entidad.Pago;
+import com.zabora.subscription.modelo.entidad.UsuarioSuscripcion;
+import com.zabora.subscription.modelo.enumeracion.EstadoEventoWebhook;
+import com.zabora.subscription.modelo.enumeracion.EstadoPago;
+import com.zabora.subscription.modelo.enumeracion.EstadoSuscripcion;
+import com.zabora.subscription.modelo.enumeracion.TipoMetodoPago;
+import com.zabora.subscription.repositorio.EventoWebhookRepository;
+import com.zabora.subscription.repositorio.PagoRepository;
+import com.zabora.subscription.repositorio.PlanSuscripcionRepository;
+import com.zabora.subscription.repositorio.ReintentoPagoRepository;
+import com.zabora.subscription.repositorio.UsuarioSuscripcionRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Repite eventos de Stripe duplicados y desordenados por la ingesta (WebhookStripeServicio)
+ * y el procesador por lotes, y revisa el estado final de los pagos y las suscripciones.
+ *
+ * El procesador programado queda con un intervalo de una hora para que no tome eventos a
+ * medio recibir; la prueba lo ejecuta a mano cuando ya llegaron todos.
+ */
+@SpringBootTest(properties = {
+        "stripe.webhook.secret=whsec_prueba_replay",
+        "app.webhooks.intervalo-ms=3600000"
+})
+class ProcesadorWebhooksStripeTests {
+
+    private static final String SECRETO = "whsec_prueba_replay";
+
+    @Autowired
+    private WebhookStripeServicio webhookStripeServicio;
+
+    @Autowired
+    private ProcesadorWebhooksStripe procesador;
+
+    @Autowired
+    private EventoWebhookRepository eventoRepository;
+
+    @Autowired
+    private PagoRepository pagoRepository;
+
+    @Autowired
+    private UsuarioSuscripcionRepository suscripcionRepository;
+
+    @Autowired
+    private ReintentoPagoRepository reintentoRepository;
+
+    @Autowired
+    private PlanSuscripcionRepository planRepository;
+
+    private final GeneradorEventosStripe generador = new GeneradorEventosStripe(SECRETO);
+
+    @Test
+    void eventosDuplicadosYDesordenadosDejanElEstadoFinalCorrecto() {
+        long creado = Instant.now().getEpochSecond() - 600;
+
+        // A: rechazo y luego éxito (el usuario reintentó con otra tarjeta)
+        UsuarioSuscripcion suscripcionA = suscripcion();
+        Pago pagoA = pago(suscripcionA, "pi_replay_a_" + sufijo());
+        String rechazoA = evento("payment_intent.payment_failed", creado, pagoA.getIdIntentoPagoStripe(),
+                ",\"last_payment_error\":{\"message\":\"Your card was declined.\"}");
+        String exitoA = evento("payment_intent.succeeded", creado + 1, pagoA.getIdIntentoPagoStripe(), "");
+
+        // B: éxito (Stripe lo envía dos veces con IDs distintos) y luego reembolso
+        UsuarioSuscripcion suscripcionB = suscripcion();
+        Pago pagoB = pago(suscripcionB, "pi_replay_b_" + sufijo());
+        String exitoB = evento("payment_intent.succeeded", creado + 2, pagoB.getIdIntentoPagoStripe(), "");
+        String exitoBOtraVez = evento("payment_intent.succeeded", creado + 3, pagoB.getIdIntentoPagoStripe(), "");
+        String reembolsoB = reembolso(creado + 4, pagoB.getIdIntentoPagoStripe());
+
+        // C: un rechazo anterior al éxito que llega de último (se aplica en el orden de Stripe)
+        UsuarioSuscripcion suscripcionC = suscripcion();
+        Pago pagoC = pago(suscripcionC, "pi_replay_c_" + sufijo());
+        String exitoC = evento("payment_intent.succeeded", creado + 5, pagoC.getIdIntentoPagoStripe(), "");
+        String rechazoCViejo = evento("payment_intent.payment_failed", creado - 10, pagoC.getIdIntentoPagoStripe(),
+                ",\"last_payment_error\":{\"message\":\"Your card was declined.\"}");
+
+        // Entregados al revés de como se crearon, con reintentos de Stripe (mismo ID de evento)
+        List<String> entregas = List.of(reembolsoB, exitoA, exitoBOtraVez, exitoC, reembolsoB,
+                rechazoA, exitoB, exitoA, rechazoCViejo, exitoC);
+        List<Boolean> nuevos = new ArrayList<>();
+        for (String evento : entregas) {
+            nuevos.add(webhookStripeServicio.recibir(evento, generador.firmar(evento, Instant.now().getEpochSecond())));
+        }
+        assertThat(nuevos).containsExactly(true, true, true, true, false, true, true, false, true, false);
+
+        procesador.procesarPendientes();
+
+        Pago finalA = pagoRepository.findById(pagoA.getId()).orElseThrow();
+        Pago finalB = pagoRepository.findById(pagoB.getId()).orElseThrow();
+        Pago finalC = pagoRepository.findById(pagoC.getId()).orElseThrow();
+        assertThat(finalA.getEstado()).isEqualTo(EstadoPago.COMPLETADO);
+        assertThat(finalB.getEstado()).isEqualTo(EstadoPago.REEMBOLSADO);
+        assertThat(finalC.getEstado()).isEqualTo(EstadoPago.COMPLETADO);
+
+        for (UsuarioSuscripcion suscripcion : List.of(suscripcionA, suscripcionB, suscripcionC)) {
+            UsuarioSuscripcion actual = suscripcionRepository.findById(suscripcion.getId()).orElseThrow();
+            assertThat(actual.getEstado()).isEqualTo(EstadoSuscripcion.ACTIVA);
+            assertThat(actual.getFinPeriodoActual()).isNotNull();
+        }
+        // El rechazo de A abrió cobranza; el éxito posterior la canceló
+        assertThat(reintentoRepository.findSuscripcionesEnCobranza(
+                List.of(suscripcionA.getId(), suscripcionC.getId()))).isEmpty();
+
+        List<EventoWebhook> eventos = eventoRepository.findAllById(List.of(
+                id(rechazoA), id(exitoA), id(exitoB), id(exitoBOtraVez), id(reembolsoB), id(exitoC), id(rechazoCViejo)));
+        assertThat(eventos).hasSize(7)
+                .allSatisfy(evento -> assertThat(evento.getEstado()).isEqualTo(EstadoEventoWebhook.PROCESADO));
+    }
+
+    @Test
+    void unEventoYaAplicadoQueLlegaOtraVezNoCambiaNada() {
+        long creado = Instant.now().getEpochSecond() - 300;
+        UsuarioSuscripcion suscripcion = suscripcion();
+        Pago pago = pago(suscripcion, "pi_replay_d_" + sufijo());
+        String exito = evento("payment_intent.succeeded", creado, pago.getIdIntentoPagoStripe(), "");
+
+        assertThat(webhookStripeServicio.recibir(exito, generador.firmar(exito, Instant.now().getEpochSecond()))).isTrue();
+        procesador.procesarPendientes();
+        UsuarioSuscripcion activada = suscripcionRepository.findById(suscripcion.getId()).orElseThrow();
+
+        // Stripe vuelve a entregar el evento ya aplicado
+        assertThat(webhookStripeServicio.recibir(exito, generador.firmar(exito, Instant.now().getEpochSecond()))).isFalse();
+        procesador.procesarPendientes();
+
+        UsuarioSuscripcion actual = suscripcionRepository.findById(suscripcion.getId()).orElseThrow();
+        assertThat(actual.getEstado()).isEqualTo(EstadoSuscripcion.ACTIVA);
+        assertThat(actual.getFinPeriodoActual()).isEqualTo(activada.getFinPeriodoActual());
+        assertThat(pagoRepository.findById(pago.getId()).orElseThrow().getEstado()).isEqualTo(EstadoPago.COMPLETADO);
+    }
+
+    private UsuarioSuscripcion suscripcion() {
+        UsuarioSuscripcion suscripcion = new UsuarioSuscripcion();
+        suscripcion.setId(UUID.randomUUID().toString());
+        suscripcion.setUsuarioId(UUID.randomUUID().toString());
+        suscripcion.setPlan(planRepository.findByNombre("premium").orElseThrow());
+        suscripcion.setEstado(EstadoSuscripcion.PENDIENTE_PAGO);
+        return suscripcionRepository.save(suscripcion);
+    }
+
+    private Pago pago(UsuarioSuscripcion suscripcion, String idIntento) {
+        Pago pago = new Pago();
+        pago.setId(UUID.randomUUID().toString());
+        pago.setSuscripcion(suscripcion);
+        pago.setUsuarioId(suscripcion.getUsuarioId());
+        pago.setMonto(new BigDecimal("29900.00"));
+        pago.setMetodoPago(TipoMetodoPago.TARJETA_CREDITO);
+        pago.setEstado(EstadoPago.PENDIENTE);
+        pago.setIdIntentoPagoStripe(idIntento);
+        return pagoRepository.save(pago);
+    }
+
+    private static String evento(String tipo, long creado, String intento, String extra) {
+        return cuerpo(tipo, creado, "{\"id\":\"" + intento + "\",\"object\":\"payment_intent\"" + extra + "}");
+    }
+
+    private static String reembolso(long creado, String intento) {
+        return cuerpo("charge.refunded", creado, "{\"id\":\"ch_" + intento.substring(3)
+                + "\",\"object\":\"charge\",\"payment_intent\":\"" + intento + "\",\"refunded\":true}");
+    }
+
+    private static String cuerpo(String tipo, long creado, String objeto) {
+        return "{\"id\":\"evt_replay_" + sufijo() + "\",\"object\":\"event\",\"type\":\"" + tipo + "\","
+                + "\"created\":" + creado + ",\"livemode\":false,\"data\":{\"object\":" + objeto + "}}";
+    }
+
+    private static String id(String evento) {
+        int inicio = evento.indexOf("evt_replay_");
+        return evento.substring(inicio, evento.indexOf('"', inicio));
+    }
+
+    private static String sufijo() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+}